@@ -0,0 +1,257 @@
+/*
+ * Copyright 2013 James Moger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.moxie;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.moxie.utils.Base64;
+import org.moxie.utils.StringUtils;
+
+/**
+ * Client of the build cache of a Moxie Proxy.
+ * <p>
+ * The build cache stores the outputs of build actions by the hash of their
+ * inputs.  An entry is retrieved with a GET of <i>url/key</i> and stored with
+ * a PUT of <i>url/key</i>.  A missing entry is answered with 404.  The key is
+ * the 40 character hex SHA-1 of the action inputs.  The proxy only accepts
+ * a PUT from a configured address or with the HTTP BASIC credentials of a
+ * build cache user.  Entries are never replaced; a PUT of an existing key is
+ * answered with 409.
+ *
+ * @author James Moger
+ *
+ */
+public class BuildCacheClient {
+
+	private final String url;
+
+	private final String authorization;
+
+	private final AtomicLong hits;
+
+	private final AtomicLong misses;
+
+	private final AtomicLong stores;
+
+	private final AtomicLong bytesDownloaded;
+
+	private final AtomicLong bytesUploaded;
+
+	public int connectTimeout;
+
+	public int readTimeout;
+
+	public BuildCacheClient(String url) {
+		this(url, null, null);
+	}
+
+	/**
+	 * @param url
+	 * @param username
+	 *            the build cache user, may be null
+	 * @param password
+	 *            the password of the build cache user, may be null
+	 */
+	public BuildCacheClient(String url, String username, String password) {
+		this.url = url.endsWith("/") ? url.substring(0, url.length() - 1) : url;
+		if (StringUtils.isEmpty(username) || StringUtils.isEmpty(password)) {
+			this.authorization = null;
+		} else {
+			this.authorization = "Basic " + Base64.encodeBytes((username + ":" + password).getBytes());
+		}
+		this.hits = new AtomicLong();
+		this.misses = new AtomicLong();
+		this.stores = new AtomicLong();
+		this.bytesDownloaded = new AtomicLong();
+		this.bytesUploaded = new AtomicLong();
+		this.connectTimeout = 5000;
+		this.readTimeout = 30000;
+	}
+
+	public String getUrl() {
+		return url;
+	}
+
+	/**
+	 * Retrieves an entry.
+	 *
+	 * @param key
+	 * @param file
+	 *            the file to write the entry to
+	 * @return true if the entry was retrieved, false if it is not cached
+	 * @throws IOException
+	 */
+	public boolean get(String key, File file) throws IOException {
+		HttpURLConnection conn = open(key);
+		try {
+			int status = conn.getResponseCode();
+			if (status == HttpURLConnection.HTTP_NOT_FOUND) {
+				misses.incrementAndGet();
+				return false;
+			}
+			if (status != HttpURLConnection.HTTP_OK) {
+				throw new IOException("GET " + conn.getURL() + " returned " + status);
+			}
+			InputStream is = conn.getInputStream();
+			OutputStream os = new FileOutputStream(file);
+			try {
+				bytesDownloaded.addAndGet(copy(is, os));
+			} finally {
+				os.close();
+				is.close();
+			}
+			hits.incrementAndGet();
+			return true;
+		} finally {
+			conn.disconnect();
+		}
+	}
+
+	/**
+	 * Stores an entry.  An entry which is already stored, e.g. by a
+	 * concurrent build with the same inputs, is not replaced.
+	 *
+	 * @param key
+	 * @param file
+	 *            the content of the entry
+	 * @return true if the entry was stored, false if it already existed
+	 * @throws IOException
+	 */
+	public boolean put(String key, File file) throws IOException {
+		HttpURLConnection conn = open(key);
+		try {
+			conn.setRequestMethod("PUT");
+			conn.setDoOutput(true);
+			conn.setRequestProperty("Content-Type", "application/octet-stream");
+			conn.setFixedLengthStreamingMode(file.length());
+			try {
+				OutputStream os = conn.getOutputStream();
+				InputStream is = new FileInputStream(file);
+				try {
+					bytesUploaded.addAndGet(copy(is, os));
+				} finally {
+					is.close();
+					os.close();
+				}
+			} catch (IOException e) {
+				// the proxy may answer 409 before reading the whole entry
+				if (getResponseCode(conn) == HttpURLConnection.HTTP_CONFLICT || exists(key)) {
+					return false;
+				}
+				throw e;
+			}
+			int status = conn.getResponseCode();
+			if (status == HttpURLConnection.HTTP_CONFLICT) {
+				return false;
+			}
+			if (status / 100 != 2) {
+				throw new IOException("PUT " + conn.getURL() + " returned " + status);
+			}
+			stores.incrementAndGet();
+			return true;
+		} finally {
+			conn.disconnect();
+		}
+	}
+
+	private boolean exists(String key) {
+		try {
+			HttpURLConnection conn = open(key);
+			try {
+				conn.setRequestMethod("HEAD");
+				return conn.getResponseCode() == HttpURLConnection.HTTP_OK;
+			} finally {
+				conn.disconnect();
+			}
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	private static int getResponseCode(HttpURLConnection conn) {
+		try {
+			return conn.getResponseCode();
+		} catch (IOException e) {
+			return -1;
+		}
+	}
+
+	private HttpURLConnection open(String key) throws IOException {
+		HttpURLConnection conn = (HttpURLConnection) new URL(url + "/" + key).openConnection();
+		conn.setConnectTimeout(connectTimeout);
+		conn.setReadTimeout(readTimeout);
+		conn.setUseCaches(false);
+		conn.setRequestProperty("User-Agent", "Moxie");
+		if (authorization != null) {
+			conn.setRequestProperty("Authorization", authorization);
+		}
+		return conn;
+	}
+
+	private static long copy(InputStream is, OutputStream os) throws IOException {
+		byte [] buffer = new byte[32 * 1024];
+		long total = 0;
+		int len;
+		while ((len = is.read(buffer)) > -1) {
+			os.write(buffer, 0, len);
+			total += len;
+		}
+		return total;
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	public long getStores() {
+		return stores.get();
+	}
+
+	public long getBytesDownloaded() {
+		return bytesDownloaded.get();
+	}
+
+	public long getBytesUploaded() {
+		return bytesUploaded.get();
+	}
+
+	/**
+	 * Returns the ratio of retrieved entries to all lookups.
+	 *
+	 * @return the hit rate between 0 and 1
+	 */
+	public double getHitRate() {
+		long lookups = hits.get() + misses.get();
+		return lookups == 0 ? 0 : ((double) hits.get()) / lookups;
+	}
+
+	@Override
+	public String toString() {
+		return url;
+	}
+}
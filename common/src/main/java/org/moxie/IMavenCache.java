@@ -3,10 +3,13 @@ package org.moxie;
 import java.io.File;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
 import java.util.Set;
 import java.util.TreeSet;
@@ -19,6 +22,38 @@ public abstract class IMavenCache {
 	
 	protected Logger logger;
 	
+	/**
+	 * The maximum number of parsed POMs which are kept in memory.
+	 */
+	static final int MAX_CACHED_POMS = 2000;
+	
+	private final Map<File, CachedPom> poms;
+	
+	protected IMavenCache() {
+		this(null);
+	}
+	
+	/**
+	 * Creates a cache which shares the parsed POMs of another cache.
+	 * 
+	 * @param shared
+	 *            the cache to share parsed POMs with or null
+	 */
+	protected IMavenCache(IMavenCache shared) {
+		if (shared == null) {
+			this.poms = Collections.synchronizedMap(new LinkedHashMap<File, CachedPom>(16, 0.75f, true) {
+				private static final long serialVersionUID = 1L;
+				
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<File, CachedPom> eldest) {
+					return size() > MAX_CACHED_POMS;
+				}
+			});
+		} else {
+			this.poms = shared.poms;
+		}
+	}
+	
 	public abstract File getRootFolder();
 	
 	public abstract Collection<File> getFiles(String extension);
@@ -39,6 +74,81 @@ public abstract class IMavenCache {
 		this.logger = logger;
 	}
 	
+	/**
+	 * Returns a private copy of a previously parsed POM, if neither the POM
+	 * file nor any of its parent or imported POMs have been modified since it
+	 * was parsed.
+	 * 
+	 * @param pomFile
+	 * @return a POM or null
+	 */
+	Pom getCachedPom(File pomFile) {
+		CachedPom cached = poms.get(pomFile);
+		if (cached == null) {
+			return null;
+		}
+		if (!cached.isCurrent()) {
+			poms.remove(pomFile);
+			return null;
+		}
+		// callers mutate the POM and its dependencies
+		return DeepCopier.deserialize(cached.pom);
+	}
+	
+	/**
+	 * Returns the POM files which were read to parse a cached POM, i.e. the
+	 * POM itself and all of its parent and imported POMs.
+	 * 
+	 * @param pomFile
+	 * @return the POM files or an empty list if the POM is not cached
+	 */
+	List<File> getCachedPomSources(File pomFile) {
+		CachedPom cached = poms.get(pomFile);
+		if (cached == null) {
+			return Collections.emptyList();
+		}
+		return Arrays.asList(cached.files);
+	}
+	
+	/**
+	 * Caches a parsed POM.
+	 * 
+	 * @param pomFile
+	 * @param pom
+	 * @param sources
+	 *            the POM files which were read to parse the POM
+	 */
+	void cachePom(File pomFile, Pom pom, Collection<File> sources) {
+		poms.put(pomFile, new CachedPom(sources, DeepCopier.serialize(pom)));
+	}
+	
+	private static class CachedPom {
+		final File [] files;
+		final long [] lastModified;
+		final long [] length;
+		final byte [] pom;
+		
+		CachedPom(Collection<File> files, byte [] pom) {
+			this.files = files.toArray(new File[files.size()]);
+			this.lastModified = new long[this.files.length];
+			this.length = new long[this.files.length];
+			for (int i = 0; i < this.files.length; i++) {
+				lastModified[i] = this.files[i].lastModified();
+				length[i] = this.files[i].length();
+			}
+			this.pom = pom;
+		}
+		
+		boolean isCurrent() {
+			for (int i = 0; i < files.length; i++) {
+				if (lastModified[i] != files[i].lastModified() || length[i] != files[i].length()) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+	
 	protected Dependency resolveRevision(Dependency dependency) {
 		if ((dependency.isSnapshot() && StringUtils.isEmpty(dependency.revision))
 				|| dependency.version.equalsIgnoreCase(Constants.RELEASE)
@@ -50,28 +160,7 @@ public abstract class IMavenCache {
 			// read SNAPSHOT, LATEST, or RELEASE from metadata
 			if (metadataFile != null && metadataFile.exists()) {
 				Metadata metadata = MetadataReader.readMetadata(metadataFile);
-				String version;
-				String revision;
-				if (Constants.RELEASE.equalsIgnoreCase(dependency.version)) {
-					// RELEASE
-					version = metadata.release;
-					revision = version;
-				} else if (Constants.LATEST.equalsIgnoreCase(dependency.version)) {
-					// LATEST
-					version = metadata.latest;
-					revision = version;
-				} else if (dependency.isSnapshot()) {
-					// SNAPSHOT
-					version = dependency.version;
-					revision = metadata.getSnapshotRevision();
-				} else {
-					// VERSION RANGE
-					version = metadata.resolveRangedVersion(dependency.version);
-					revision = version;
-				}
-				
-				dependency.version = version;
-				dependency.revision = revision;
+				resolveRevision(dependency, metadata);
 			}
 		}
 
@@ -79,6 +168,43 @@ public abstract class IMavenCache {
 		return dependency;
 	}
 	
+	/**
+	 * Resolves the SNAPSHOT, LATEST, RELEASE, or VERSION RANGE of a
+	 * dependency from the specified metadata.
+	 * 
+	 * @param dependency
+	 * @param metadata
+	 * @return the dependency
+	 */
+	protected Dependency resolveRevision(Dependency dependency, Metadata metadata) {
+		String version;
+		String revision;
+		if (Constants.RELEASE.equalsIgnoreCase(dependency.version)) {
+			// RELEASE
+			version = metadata.release;
+			revision = version;
+		} else if (Constants.LATEST.equalsIgnoreCase(dependency.version)) {
+			// LATEST
+			version = metadata.latest;
+			revision = version;
+		} else if (dependency.isSnapshot()) {
+			// SNAPSHOT
+			version = dependency.version;
+			revision = metadata.getSnapshotRevision();
+		} else if (dependency.isRangedVersion()) {
+			// VERSION RANGE
+			version = metadata.resolveRangedVersion(dependency.version);
+			revision = version;
+		} else {
+			// standard release
+			return dependency;
+		}
+		
+		dependency.version = version;
+		dependency.revision = revision;
+		return dependency;
+	}
+	
 	public void purgeSnapshots(Dependency dep, PurgePolicy policy) {
 		if (!dep.isSnapshot()) {
 			return;
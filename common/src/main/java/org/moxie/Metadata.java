@@ -22,8 +22,10 @@ import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.TimeZone;
 
 import org.moxie.utils.StringUtils;
@@ -91,33 +93,51 @@ public class Metadata {
 	}
 
 	public void merge(Metadata oldMetadata) {
-		// merge versions
-		LinkedHashSet<ArtifactVersion> vset = new LinkedHashSet<ArtifactVersion>();
-		for (String version : versions) {
-			vset.add(new ArtifactVersion(version));
-		}
-		for (String version : oldMetadata.versions) {
-			vset.add(new ArtifactVersion(version));
-		}
-
-		// sort them by Maven rules
-		List<ArtifactVersion> vlist = new ArrayList<ArtifactVersion>(vset);
-		Collections.sort(vlist);
+		// sort both version sets by Maven rules, metadata versions are usually
+		// sorted already.  versions of both sets are parsed once.
+		Map<String, ArtifactVersion> parsed = new HashMap<String, ArtifactVersion>();
+		List<ArtifactVersion> newVersions = getVersions(versions, parsed);
+		List<ArtifactVersion> oldVersions = getVersions(oldMetadata.versions, parsed);
 
-		// convert back to simple strings and determine LATEST and RELEASE
+		// merge the sorted sets in one pass, convert back to simple strings
+		// and determine LATEST and RELEASE
 		ArtifactVersion latest = null;
 		ArtifactVersion release = null;
 		versions.clear();
-		for (ArtifactVersion version : vlist) {
-			versions.add(version.toString());
-			if (StringUtils.isEmpty(version.getQualifier())) {
-				if (release == null || release.compareTo(version) == -1) {
-					release = version;
+		int i = 0;
+		int j = 0;
+		while (i < newVersions.size() || j < oldVersions.size()) {
+			ArtifactVersion version;
+			if (j == oldVersions.size()) {
+				version = newVersions.get(i++);
+			} else if (i == newVersions.size()) {
+				version = oldVersions.get(j++);
+			} else {
+				// versions of equal strings are the same instance
+				ArtifactVersion newVersion = newVersions.get(i);
+				ArtifactVersion oldVersion = oldVersions.get(j);
+				int c = newVersion == oldVersion ? 0 : newVersion.compareTo(oldVersion);
+				if (c <= 0) {
+					// prefer the new version string of equal versions
+					version = newVersion;
+					i++;
+					if (c == 0) {
+						j++;
+					}
+				} else {
+					version = oldVersion;
+					j++;
 				}
 			}
-			if (latest == null || latest.compareTo(version) == -1) {
-				latest = version;
+			if (latest != null && latest.compareTo(version) == 0) {
+				// duplicate version
+				continue;
 			}
+			versions.add(version.toString());
+			if (StringUtils.isEmpty(version.getQualifier())) {
+				release = version;
+			}
+			latest = version;
 		}
 
 		if (release != null) {
@@ -244,9 +264,18 @@ public class Metadata {
 	}
 	
 	protected List<ArtifactVersion> getVersions() {
-		List<ArtifactVersion> list = new ArrayList<ArtifactVersion>();
+		return getVersions(versions, new HashMap<String, ArtifactVersion>());
+	}
+	
+	private static List<ArtifactVersion> getVersions(List<String> versions, Map<String, ArtifactVersion> parsed) {
+		List<ArtifactVersion> list = new ArrayList<ArtifactVersion>(versions.size());
 		for (String version : versions) {
-			list.add(new ArtifactVersion(version));
+			ArtifactVersion artifactVersion = parsed.get(version);
+			if (artifactVersion == null) {
+				artifactVersion = new ArtifactVersion(version);
+				parsed.put(version, artifactVersion);
+			}
+			list.add(artifactVersion);
 		}
 		Collections.sort(list);
 		return list;
@@ -294,12 +323,8 @@ public class Metadata {
 		if (versions.size() > 0) {
 			sb.append(StringUtils.insertSoftTab("<!-- versions-->\n"));
 			sb.append(StringUtils.insertSoftTab("<versions>\n"));
-			StringBuilder sbv = new StringBuilder();
 			for (String version : versions) {
-				sbv.append(StringUtils.insertHalfTab(StringUtils.toXML("version", version)));
-			}
-			if (sbv.length() > 0) {
-				sb.append(StringUtils.insertHalfTab(sbv.toString()));
+				sb.append("      <version>").append(version).append("</version>\n");
 			}
 			sb.append(StringUtils.insertSoftTab("</versions>\n"));
 		}
@@ -15,19 +15,25 @@
  */
 package org.moxie;
 
+import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
 import org.moxie.Constants.Key;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
 
 
+/**
+ * Reads maven-metadata.xml files with a streaming parser.  Artifacts with
+ * many releases or snapshots may have metadata files with thousands of
+ * versions.
+ */
 public class MetadataReader {
 
 	/**
@@ -42,90 +48,137 @@ public class MetadataReader {
 		if (!metadataFile.exists()) {
 			return null;
 		}
-				
-		Document doc = null;
+		
+		InputStream is = null;
 		try {
-			DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-			DocumentBuilder builder = factory.newDocumentBuilder();
-			doc = builder.parse(metadataFile);
-			doc.getDocumentElement().normalize();
+			is = new BufferedInputStream(new FileInputStream(metadataFile));
+			return parse(is);
 		} catch (Exception e) {
 			throw new RuntimeException(e);
+		} finally {
+			if (is != null) {
+				try {
+					is.close();
+				} catch (Exception e) {
+				}
+			}
 		}
-		
-		return parse(doc);
 	}
 	
 	public static Metadata readMetadata(String content) {
-		Document doc = null;
 		try {
-			DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-			DocumentBuilder builder = factory.newDocumentBuilder();
-			doc = builder.parse(new ByteArrayInputStream(content.getBytes("UTF-8")));
-			doc.getDocumentElement().normalize();
+			return readMetadata(content.getBytes("UTF-8"));
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	/**
+	 * Reads downloaded maven-metadata.xml content.
+	 * 
+	 * @param content
+	 * @return the metadata
+	 */
+	public static Metadata readMetadata(byte [] content) {
+		try {
+			return parse(new ByteArrayInputStream(content));
 		} catch (Exception e) {
 			throw new RuntimeException(e);
 		}
-		
-		return parse(doc);
 	}
 	
-	private static Metadata parse(Document doc) {
+	private static Metadata parse(InputStream is) throws XMLStreamException {
 		Metadata metadata = new Metadata();
 
-		Element docElement = doc.getDocumentElement();		
-		metadata.groupId = readStringTag(docElement, Key.groupId.name());
-		metadata.artifactId = readStringTag(docElement, Key.artifactId.name());		
-		metadata.version = readStringTag(docElement, Key.version.name());
-
-		NodeList projectNodes = docElement.getChildNodes();
-		for (int i = 0; i < projectNodes.getLength(); i++) {
-			Node pNode = projectNodes.item(i);
-			if (pNode.getNodeType() == Node.ELEMENT_NODE) {
-				Element element = (Element) pNode;				
-				if ("versioning".equalsIgnoreCase(element.getTagName())) {
-					metadata.latest = readStringTag(pNode, Key.latest.name());
-					metadata.release = readStringTag(pNode, Key.release.name());
-					
-					NodeList snapshots = element.getElementsByTagName("snapshot");
-					if (snapshots != null) {
-						for (int j = 0, jlen = snapshots.getLength(); j < jlen; j++) {
-							Node node = snapshots.item(j);						
-							String timestamp = readStringTag(node, "timestamp");
-							String buildNumber = readStringTag(node, "buildNumber");						
-							metadata.addSnapshot(timestamp, buildNumber);
-						}
+		XMLStreamReader reader = XMLInputFactory.newInstance().createXMLStreamReader(is);
+		try {
+			int depth = 0;
+			boolean versioning = false;
+			boolean snapshot = false;
+			String latest = null;
+			String release = null;
+			String lastUpdated = null;
+			String timestamp = null;
+			String buildNumber = null;
+			while (reader.hasNext()) {
+				int event = reader.next();
+				if (event == XMLStreamConstants.END_ELEMENT) {
+					depth--;
+					String tag = reader.getLocalName();
+					if (snapshot && "snapshot".equals(tag)) {
+						metadata.addSnapshot(timestamp, buildNumber);
+						snapshot = false;
+					} else if (versioning && depth == 1) {
+						metadata.latest = latest;
+						metadata.release = release;
+						metadata.setLastUpdated(lastUpdated);
+						versioning = false;
 					}
-					
-					String lastUpdated = readStringTag(pNode, Key.lastUpdated.name());
-					metadata.setLastUpdated(lastUpdated);
-					
-					NodeList versions = element.getElementsByTagName(Key.version.name());
-					if (versions != null) {
-						for (int j = 0, jlen = versions.getLength(); j < jlen; j++) {
-							Node node = versions.item(j);						
-							metadata.addVersion(node.getFirstChild().getTextContent());
-						}
+					continue;
+				} else if (event != XMLStreamConstants.START_ELEMENT) {
+					continue;
+				}
+				
+				depth++;
+				String tag = reader.getLocalName();
+				if (depth == 2 && "versioning".equalsIgnoreCase(tag)) {
+					versioning = true;
+					latest = null;
+					release = null;
+					lastUpdated = null;
+				} else if (versioning && "snapshot".equals(tag)) {
+					snapshot = true;
+					timestamp = null;
+					buildNumber = null;
+				} else if (Key.groupId.name().equals(tag)) {
+					metadata.groupId = first(metadata.groupId, readText(reader));
+					depth--;
+				} else if (Key.artifactId.name().equals(tag)) {
+					metadata.artifactId = first(metadata.artifactId, readText(reader));
+					depth--;
+				} else if (Key.version.name().equals(tag)) {
+					// the project version is the first version element
+					String version = readText(reader);
+					metadata.version = first(metadata.version, version);
+					if (versioning && version != null) {
+						metadata.addVersion(version);
 					}
+					depth--;
+				} else if (versioning && Key.latest.name().equals(tag)) {
+					latest = first(latest, readText(reader));
+					depth--;
+				} else if (versioning && Key.release.name().equals(tag)) {
+					release = first(release, readText(reader));
+					depth--;
+				} else if (versioning && Key.lastUpdated.name().equals(tag)) {
+					lastUpdated = first(lastUpdated, readText(reader));
+					depth--;
+				} else if (snapshot && "timestamp".equals(tag)) {
+					timestamp = first(timestamp, readText(reader));
+					depth--;
+				} else if (snapshot && "buildNumber".equals(tag)) {
+					buildNumber = first(buildNumber, readText(reader));
+					depth--;
 				}
 			}
+		} finally {
+			reader.close();
 		}
 		return metadata;
 	}
 	
-	private static String readStringTag(Node node, String tag) {
-		Element element = (Element) node;
-		NodeList tagList = element.getElementsByTagName(tag);
-		if (tagList == null || tagList.getLength() == 0) {
-			return null;
-		}
-		Element tagElement = (Element) tagList.item(0);
-		NodeList textList = tagElement.getChildNodes();
-		Node itemNode = textList.item(0);
-		if (itemNode == null) {
+	/**
+	 * Reads the text of the current element and moves to its end.
+	 */
+	private static String readText(XMLStreamReader reader) throws XMLStreamException {
+		String content = reader.getElementText().trim();
+		if (content.length() == 0) {
 			return null;
 		}
-		String content = itemNode.getNodeValue().trim();
 		return content;
 	}
+	
+	private static String first(String value, String element) {
+		return value == null ? element : value;
+	}
 }
@@ -33,6 +33,18 @@ import org.moxie.utils.StringUtils;
 
 public class MoxieCache extends IMavenCache {
 	
+	/**
+	 * Striped locks which serialize the retrieval of artifacts and the updates
+	 * of their Moxie data across all caches of the process.
+	 */
+	private static final Object [] LOCKS = new Object[64];
+	
+	static {
+		for (int i = 0; i < LOCKS.length; i++) {
+			LOCKS[i] = new Object();
+		}
+	}
+	
 	final File moxieRoot;
 	final File moxiedataRoot;
 	final File localReleasesRoot;
@@ -44,6 +56,19 @@ public class MoxieCache extends IMavenCache {
 	MavenCacheStrategy m2Strategy;
 
 	public MoxieCache(File moxieRoot) {
+		this(moxieRoot, null);
+	}
+	
+	/**
+	 * Creates a cache which shares the parsed POMs of another cache, e.g. the
+	 * cache of the root build of a multi-module build.
+	 * 
+	 * @param moxieRoot
+	 * @param shared
+	 *            the cache to share parsed POMs with or null
+	 */
+	public MoxieCache(File moxieRoot, IMavenCache shared) {
+		super(shared);
 		this.moxieRoot = moxieRoot;
 		this.moxiedataRoot = new File(moxieRoot, "data");
 		this.localRoot = new File(moxieRoot, Constants.LOCAL);
@@ -74,6 +99,18 @@ public class MoxieCache extends IMavenCache {
 		m2Strategy = value;
 	}
 	
+	/**
+	 * Returns the lock for retrieving an artifact and updating its Moxie data.
+	 * All versions of an artifact in a Moxie root share the same lock.
+	 * 
+	 * @param dep
+	 * @return the lock object
+	 */
+	public Object getLock(Dependency dep) {
+		String key = moxieRoot.getAbsolutePath() + ":" + dep.getManagementId();
+		return LOCKS[(key.hashCode() & 0x7fffffff) % LOCKS.length];
+	}
+	
 	/*
 	 * (non-Javadoc)
 	 * @see org.moxie.IMavenCache#getFiles(java.lang.String)
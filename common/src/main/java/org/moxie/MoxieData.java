@@ -18,19 +18,18 @@ package org.moxie;
 import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
-import java.text.DateFormat;
 import java.text.MessageFormat;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
-import java.util.Calendar;
 import java.util.Collection;
 import java.util.Date;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.TimeZone;
 import java.util.TreeMap;
 
 import org.moxie.Constants.Key;
@@ -49,6 +48,12 @@ public class MoxieData implements Serializable {
 	
 	private static final int currentSolutionVersion = 2;
 	
+	/**
+	 * Dates are stored to the second in UTC.  The formatter is immutable and
+	 * shared by concurrent readers and writers.
+	 */
+	private static final DateTimeFormatter dateFormat = DateTimeFormatter.ofPattern("yyyyMMddHHmmss").withZone(ZoneOffset.UTC);
+	
 	private final File file;
 
 	private final Map<Scope, Set<Dependency>> dependencies;
@@ -122,13 +127,8 @@ public class MoxieData implements Serializable {
 		String date = map.getString(key.name(), null);
 		if (!StringUtils.isEmpty(date)) {
 			try {
-				Date aDate = getDateFormat().parse(date);
-				// reset milliseconds to we compare to the second 
-				Calendar c = Calendar.getInstance();
-				c.setTime(aDate);
-				c.set(Calendar.MILLISECOND, 0);				
-				return c.getTime();
-			} catch (ParseException e) {
+				return new Date(Instant.from(dateFormat.parse(date)).toEpochMilli());
+			} catch (DateTimeException e) {
 			}
 		}
 		return defaultValue;
@@ -286,14 +286,12 @@ public class MoxieData implements Serializable {
 		if (value == null || value.getTime() == 0) {
 			return "";
 		}
-		DateFormat df = getDateFormat();
-		return MessageFormat.format("{0}: {1}\n", key, df.format(value));
+		return MessageFormat.format("{0}: {1}\n", key, dateFormat.format(value.toInstant()));
 	}
 
 	public String toMaxML() {
 		StringBuilder sb = new StringBuilder();
-		DateFormat df = getDateFormat();
-		sb.append(MessageFormat.format("# Moxie data generated {0}\n", df.format(new Date())));
+		sb.append(MessageFormat.format("# Moxie data generated {0}\n", dateFormat.format(Instant.now())));
 		
 		if (!StringUtils.isEmpty(artifactId)) {
 			sb.append("\n# artifact metadata\n");
@@ -325,10 +323,4 @@ public class MoxieData implements Serializable {
 		}
 		return sb.toString();
 	}
-
-	private DateFormat getDateFormat() {
-		SimpleDateFormat df = new SimpleDateFormat("yyyyMMddHHmmss");
-		df.setTimeZone(TimeZone.getTimeZone("UTC"));
-		return df;
-	}
 }
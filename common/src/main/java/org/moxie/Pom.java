@@ -32,6 +32,7 @@ import java.util.TreeSet;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import org.moxie.utils.DeepCopier;
 import org.moxie.utils.StringUtils;
 
 
@@ -558,6 +559,54 @@ public class Pom implements Comparable<Pom>, Serializable {
 		nonDestructiveCopy(pom.managedScopes, managedScopes);
 	}
 
+	/**
+	 * Returns an independent copy of this pom.  The dependencies are deep
+	 * copied, the licenses and persons are shared.
+	 *
+	 * @return a copy of this pom
+	 */
+	public Pom copy() {
+		Pom pom = new Pom();
+		pom.name = name;
+		pom.description = description;
+		pom.url = url;
+		pom.issuesUrl = issuesUrl;
+		pom.organization = organization;
+		pom.organizationUrl = organizationUrl;
+		pom.inceptionYear = inceptionYear;
+		pom.groupId = groupId;
+		pom.artifactId = artifactId;
+		pom.version = version;
+		pom.classifier = classifier;
+		pom.packaging = packaging;
+		pom.parentGroupId = parentGroupId;
+		pom.parentArtifactId = parentArtifactId;
+		pom.parentVersion = parentVersion;
+		pom.releaseVersion = releaseVersion;
+		pom.releaseDate = releaseDate;
+		pom.forumUrl = forumUrl;
+		pom.socialNetworkUrl = socialNetworkUrl;
+		pom.blogUrl = blogUrl;
+		pom.ciUrl = ciUrl;
+		pom.mavenUrl = mavenUrl;
+		pom.scm.connection = scm.connection;
+		pom.scm.developerConnection = scm.developerConnection;
+		pom.scm.url = scm.url;
+		pom.scm.tag = scm.tag;
+		pom.properties.putAll(properties);
+		for (Map.Entry<Scope, List<Dependency>> entry : dependencies.entrySet()) {
+			pom.dependencies.put(entry.getKey(), DeepCopier.copy(new ArrayList<Dependency>(entry.getValue())));
+		}
+		pom.managedVersions.putAll(managedVersions);
+		pom.managedScopes.putAll(managedScopes);
+		pom.exclusions.addAll(exclusions);
+		pom.antProperties.putAll(antProperties);
+		pom.licenses.addAll(licenses);
+		pom.developers.addAll(developers);
+		pom.contributors.addAll(contributors);
+		return pom;
+	}
+
 	/**
 	 * Copies values from sourceMap into destinationMap without overriding keys
 	 * already in destinationMap.
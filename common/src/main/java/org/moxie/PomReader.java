@@ -62,11 +62,27 @@ public class PomReader {
 	 * @throws Exception
 	 */
 	public static Pom readPom(IMavenCache cache, Dependency dependency) {
+		return readPom(cache, dependency, new LinkedHashSet<File>());
+	}
+	
+	/**
+	 * Reads a POM file from an artifact cache and records the POM files which
+	 * were read, including the file of a missing POM.
+	 * 
+	 * @param cache
+	 * @param dependency
+	 * @param sources
+	 * @return
+	 */
+	private static Pom readPom(IMavenCache cache, Dependency dependency, Set<File> sources) {
 		File pomFile = cache.getArtifact(dependency, Constants.POM);
+		sources.add(pomFile);
 		if (!pomFile.exists()) {
 			return null;
 		}
-		return readPom(cache, pomFile, Requirements.STRICT);
+		Pom pom = readPom(cache, pomFile, Requirements.STRICT);
+		sources.addAll(cache.getCachedPomSources(pomFile));
+		return pom;
 	}
 	
 	/**
@@ -93,6 +109,15 @@ public class PomReader {
 	 * @throws Exception
 	 */
 	public static Pom readPom(IMavenCache cache, File pomFile, Requirements requirements) {		
+		// only completely resolved POMs are cached
+		boolean cacheable = Requirements.STRICT.equals(requirements);
+		if (cacheable) {
+			Pom pom = cache.getCachedPom(pomFile);
+			if (pom != null) {
+				return pom;
+			}
+		}
+		
 		Document doc = null;
 		try {
 			DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
@@ -105,6 +130,10 @@ public class PomReader {
 				
 		Element docElement = doc.getDocumentElement();
 		
+		// the cached POM is only current while these files are unchanged
+		Set<File> sources = new LinkedHashSet<File>();
+		sources.add(pomFile);
+		
 		Pom pom = new Pom();
 		List<Dependency> managedList = new ArrayList<Dependency>();
 		List<Dependency> dependencyList = new ArrayList<Dependency>();
@@ -122,7 +151,7 @@ public class PomReader {
 										
 					// read parent pom
 					Dependency parent = pom.getParentDependency();
-					Pom parentPom = readPom(cache, parent);
+					Pom parentPom = readPom(cache, parent, sources);
 					
 					if (parentPom == null) {
 						// we do not have the parent POM in the cache
@@ -270,10 +299,12 @@ public class PomReader {
 		for (Dependency dep : managedList) {
 			if (Scope.imprt.equals(dep.definedScope)) {
 				// dependencyManagement import 
-				Pom importPom = readPom(cache, dep);
+				Pom importPom = readPom(cache, dep, sources);
 				if (importPom != null) {
 					pom.importManagedDependencies(importPom);
-				}					
+				} else {
+					cacheable = false;
+				}
 			} else {
 				// add dependency management definition
 				pom.addManagedDependency(dep, dep.definedScope,
@@ -287,6 +318,10 @@ public class PomReader {
 					 requirements.resolveProperties);
 			 dep.definedScope = addedScope;
 		}
+		
+		if (cacheable) {
+			cache.cachePom(pomFile, pom, sources);
+		}
 		return pom;
 	}
 	
@@ -15,6 +15,7 @@
  */
 package org.moxie;
 
+import java.io.Serializable;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
 import java.util.Collections;
@@ -28,7 +29,9 @@ import org.moxie.utils.StringUtils;
  * @author James Moger
  * 
  */
-public class Proxy {
+public class Proxy implements Serializable {
+
+	private static final long serialVersionUID = 1L;
 
 	public String id;
 	public boolean active;
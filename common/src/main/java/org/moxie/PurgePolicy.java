@@ -15,7 +15,11 @@
  */
 package org.moxie;
 
-public class PurgePolicy {
+import java.io.Serializable;
+
+public class PurgePolicy implements Serializable {
+
+	private static final long serialVersionUID = 1L;
 
 	public int retentionCount;
 	public int purgeAfterDays;
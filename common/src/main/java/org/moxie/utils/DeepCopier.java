@@ -30,14 +30,35 @@ public class DeepCopier {
 	 * Produce a deep copy of the given object. Serializes the entire object to
 	 * a byte array in memory. Recommended for relatively small objects.
 	 */
-	@SuppressWarnings("unchecked")
 	public static <T> T copy(T original) {
-		T o = null;
+		return deserialize(serialize(original));
+	}
+
+	/**
+	 * Serializes the given object to a byte array.
+	 */
+	public static byte [] serialize(Object original) {
 		try {
 			ByteArrayOutputStream byteOut = new ByteArrayOutputStream();
 			ObjectOutputStream oos = new ObjectOutputStream(byteOut);
 			oos.writeObject(original);
-			ByteArrayInputStream byteIn = new ByteArrayInputStream(byteOut.toByteArray());
+			oos.close();
+			return byteOut.toByteArray();
+		} catch (IOException iox) {
+			// doesn't seem likely to happen as these streams are in memory
+			throw new RuntimeException(iox);
+		}
+	}
+
+	/**
+	 * Produce a new object from a byte array created by
+	 * {@link #serialize(Object)}.
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> T deserialize(byte [] bytes) {
+		T o = null;
+		try {
+			ByteArrayInputStream byteIn = new ByteArrayInputStream(bytes);
 			ObjectInputStream ois = new ObjectInputStream(byteIn);
 			try {
 				o = (T) ois.readObject();
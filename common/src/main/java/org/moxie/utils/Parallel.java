@@ -24,22 +24,55 @@
 
 package org.moxie.utils;
 
-import java.util.LinkedList;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
+ * Executes operations over a collection of elements on a work-stealing
+ * ForkJoinPool.
+ * <p>
+ * Parallel is nesting-safe: an operation running on one of the pool's workers
+ * may itself call {@link #forEach(Iterable, Operation)} on the same pool and the
+ * waiting worker will help execute the nested operations rather than blocking
+ * a thread.  A call from a worker of another pool, e.g. an io operation
+ * started by a cpu operation, is executed inline on the calling worker's pool
+ * for the same reason.  The first failed operation cancels the remaining operations of
+ * its batch (fail-fast) and is rethrown to the caller.
+ * <p>
  * http://stackoverflow.com/questions/4010185/parallel-for-for-java
  * https://github.com/tantaman/commons/blob/master/src/main/java/com/tantaman/commons/concurrent/Parallel.java
  */
 public class Parallel {
 
 	private static final int NUM_CORES = Runtime.getRuntime().availableProcessors();
-	private static final ExecutorService executor = Executors.newFixedThreadPool(NUM_CORES, Executors.defaultThreadFactory());
+	private static final Parallel executor = new Parallel("moxie", NUM_CORES);
+
+	private final String name;
+	private final ForkJoinPool pool;
+	private final AtomicBoolean cancelled;
+
+	/**
+	 * Creates a parallel executor with the specified number of worker threads.
+	 *
+	 * @param name
+	 *            the thread name prefix for the workers
+	 * @param threads
+	 *            the parallelism of the pool, values < 1 use the number of cores
+	 */
+	public Parallel(String name, int threads) {
+		this.name = name;
+		this.pool = new ForkJoinPool(threads < 1 ? NUM_CORES : threads, new WorkerFactory(name), null, false);
+		this.cancelled = new AtomicBoolean();
+	}
 
 	/**
 	 * Executes operations in parallel and waits for all operations to complete
@@ -49,33 +82,191 @@ public class Parallel {
 	 * @param operation
 	 */
 	public static <T> void WaitFor(final Iterable<T> elements, final Operation<T> operation) {
-		List<Future<?>> futures = new LinkedList<Future<?>>();
-		for (final T element : elements) {
-			Future<?> future = executor.submit(new Callable<Void>() {
-				@Override
-				public Void call() {
-					operation.perform(element);
-					return null;
-				}
-			});
-			futures.add(future);
+		executor.forEach(elements, operation);
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public int getThreads() {
+		return pool.getParallelism();
+	}
+
+	/**
+	 * Cancels all pending operations of this executor.  Running operations are
+	 * allowed to complete and new batches are rejected until {@link #reset()}.
+	 */
+	public void cancel() {
+		cancelled.set(true);
+	}
+
+	public boolean isCancelled() {
+		return cancelled.get();
+	}
+
+	public void reset() {
+		cancelled.set(false);
+	}
+
+	/**
+	 * Cancels all pending operations and releases the worker threads.
+	 */
+	public void shutdown() {
+		cancelled.set(true);
+		pool.shutdown();
+	}
+
+	/**
+	 * Executes the operation for each element in parallel and waits for all
+	 * operations to complete before returning.  If an operation fails, the
+	 * remaining unstarted operations are skipped and the failure is rethrown.
+	 *
+	 * @param elements
+	 * @param operation
+	 */
+	public <T> void forEach(final Iterable<T> elements, final Operation<T> operation) {
+		if (cancelled.get()) {
+			throw new CancellationException(name + " executor has been cancelled");
+		}
+		List<T> list = new ArrayList<T>();
+		for (T element : elements) {
+			list.add(element);
+		}
+		if (list.isEmpty()) {
+			return;
 		}
 
-		for (Future<?> f : futures) {
+		Batch<T> batch = new Batch<T>(list, operation);
+		Thread current = Thread.currentThread();
+		if (current instanceof ForkJoinWorkerThread) {
+			// nested call from a worker of this or another pool, help execute
+			// the batch rather than block the worker waiting on another pool
+			new Slice<T>(batch, 0, list.size()).invoke();
+		} else {
+			ForkJoinTask<Void> task = pool.submit(new Slice<T>(batch, 0, list.size()));
 			try {
-				f.get();
+				task.get();
 			} catch (InterruptedException e) {
+				// stop scheduling operations and restore the interrupt
+				batch.abort.set(true);
+				task.cancel(true);
+				Thread.currentThread().interrupt();
+				throw new CancellationException(name + " operations interrupted");
 			} catch (ExecutionException e) {
-				Throwable t = e.getCause();
-				if (t instanceof RuntimeException) {
-					throw (RuntimeException) t;
-				}
-				throw new RuntimeException(t);
+				// failure is recorded on the batch
 			}
 		}
+		batch.rethrow();
 	}
 
 	public static interface Operation<T> {
 		public void perform(T pParameter);
 	}
+
+	/**
+	 * Shared state of one forEach invocation.
+	 */
+	private class Batch<T> {
+		final List<T> elements;
+		final Operation<T> operation;
+		final AtomicBoolean abort = new AtomicBoolean();
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+		Batch(List<T> elements, Operation<T> operation) {
+			this.elements = elements;
+			this.operation = operation;
+		}
+
+		boolean isAborted() {
+			return abort.get() || cancelled.get();
+		}
+
+		void perform(T element) {
+			if (isAborted()) {
+				return;
+			}
+			try {
+				operation.perform(element);
+			} catch (Throwable t) {
+				// fail-fast, skip all remaining operations of this batch
+				if (failure.compareAndSet(null, t)) {
+					abort.set(true);
+				}
+			}
+		}
+
+		void rethrow() {
+			Throwable t = failure.get();
+			if (t == null) {
+				if (cancelled.get()) {
+					throw new CancellationException(name + " executor has been cancelled");
+				}
+				return;
+			}
+			if (t instanceof RuntimeException) {
+				throw (RuntimeException) t;
+			} else if (t instanceof Error) {
+				throw (Error) t;
+			}
+			throw new RuntimeException(t);
+		}
+	}
+
+	/**
+	 * Recursively splits a range of the batch so that idle workers may steal
+	 * the unstarted halves.
+	 */
+	private static class Slice<T> extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		final Batch<T> batch;
+		final int from;
+		final int to;
+
+		Slice(Batch<T> batch, int from, int to) {
+			this.batch = batch;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (batch.isAborted()) {
+				return;
+			}
+			if (to - from == 1) {
+				batch.perform(batch.elements.get(from));
+			} else {
+				int mid = (from + to) >>> 1;
+				invokeAll(new Slice<T>(batch, from, mid), new Slice<T>(batch, mid, to));
+			}
+		}
+	}
+
+	/**
+	 * Creates named, daemon workers which inherit the context classloader of
+	 * the creating thread.
+	 */
+	private static class WorkerFactory implements ForkJoinPool.ForkJoinWorkerThreadFactory {
+
+		final String prefix;
+		final ClassLoader loader;
+		final AtomicInteger count = new AtomicInteger();
+
+		WorkerFactory(String prefix) {
+			this.prefix = prefix;
+			this.loader = Thread.currentThread().getContextClassLoader();
+		}
+
+		@Override
+		public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+			ForkJoinWorkerThread thread = new ForkJoinWorkerThread(pool) {};
+			thread.setName(prefix + "-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			thread.setContextClassLoader(loader);
+			return thread;
+		}
+	}
 }
\ No newline at end of file
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2013 James Moger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.moxie.tests;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.moxie.Metadata;
+import org.moxie.MetadataReader;
+import org.moxie.utils.FileUtils;
+
+/**
+ * Measures the merge of a downloaded maven-metadata.xml with 10,000 versions
+ * into the cached metadata.  The benchmark is not matched by the default test
+ * includes and must be run explicitly.
+ */
+public class MetadataBenchmark extends Assert {
+
+	private static final int VERSIONS = 10000;
+
+	private static final int RUNS = 20;
+
+	@Test
+	public void testMerge() throws IOException {
+		// the cached metadata is missing the last 100 versions
+		File file = File.createTempFile("maven-metadata-", ".xml");
+		FileUtils.writeContent(file, metadata(VERSIONS - 100));
+		byte [] downloaded = metadata(VERSIONS).getBytes("UTF-8");
+
+		Metadata merged = null;
+		String xml = null;
+		long elapsed = 0;
+		for (int i = 0; i <= RUNS; i++) {
+			long start = System.nanoTime();
+			Metadata oldMetadata = MetadataReader.readMetadata(file);
+			merged = MetadataReader.readMetadata(downloaded);
+			merged.merge(oldMetadata);
+			xml = merged.toXML();
+			if (i > 0) {
+				// the first run warms up the JIT
+				elapsed += System.nanoTime() - start;
+			}
+		}
+		System.out.println("merge of " + VERSIONS + " versions took " + (elapsed / RUNS / 1000L) + " microseconds");
+		file.delete();
+
+		assertEquals(version(VERSIONS - 1), merged.latest);
+		assertEquals(version(VERSIONS - 2), merged.release);
+		Metadata metadata = MetadataReader.readMetadata(xml.getBytes("UTF-8"));
+		assertEquals("org.moxie", metadata.groupId);
+		assertEquals(merged.latest, metadata.latest);
+		assertEquals(merged.release, metadata.release);
+		assertEquals(xml, metadata.toXML());
+	}
+
+	private static String metadata(int versions) {
+		StringBuilder sb = new StringBuilder();
+		sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+		sb.append("<metadata>\n");
+		sb.append("  <groupId>org.moxie</groupId>\n");
+		sb.append("  <artifactId>moxie-nightly</artifactId>\n");
+		sb.append("  <versioning>\n");
+		sb.append("    <latest>").append(version(versions - 1)).append("</latest>\n");
+		sb.append("    <release>").append(version(versions - 2)).append("</release>\n");
+		sb.append("    <versions>\n");
+		for (int i = 0; i < versions; i++) {
+			sb.append("      <version>").append(version(i)).append("</version>\n");
+		}
+		sb.append("    </versions>\n");
+		sb.append("    <lastUpdated>20130101120000</lastUpdated>\n");
+		sb.append("  </versioning>\n");
+		sb.append("</metadata>\n");
+		return sb.toString();
+	}
+
+	/**
+	 * Returns a release version or, for every tenth version, a beta.
+	 */
+	private static String version(int i) {
+		String version = "1." + (i / 100) + "." + (i % 100);
+		if (i % 10 == 9) {
+			return version + "-beta";
+		}
+		return version;
+	}
+}
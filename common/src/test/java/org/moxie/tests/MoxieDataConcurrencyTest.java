@@ -0,0 +1,143 @@
+/*
+ * Copyright 2013 James Moger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.moxie.tests;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.moxie.MoxieData;
+import org.moxie.maxml.Maxml;
+import org.moxie.maxml.MaxmlMap;
+import org.moxie.utils.FileUtils;
+
+/**
+ * Reads and writes Maxml dates and a shared metadata.moxie on concurrent
+ * threads.
+ */
+public class MoxieDataConcurrencyTest extends Assert {
+
+	private static final int THREADS = 8;
+
+	private static final int RUNS = 200;
+
+	@Test
+	public void testConcurrentParse() throws Exception {
+		final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+		run(new Runnable() {
+			public void run() {
+				try {
+					for (int i = 0; i < RUNS; i++) {
+						int day = 1 + i % 28;
+						String date = "2013-02-" + (day < 10 ? "0" : "") + day;
+						MaxmlMap map = Maxml.parse("date: " + date + "\ntime: " + date + "T12:30:00Z");
+						assertEquals(date, String.format("%tF", map.get("date")));
+						Date time = map.getDate("time", null);
+						// the canonical Z suffix is a local time
+						Calendar cal = Calendar.getInstance();
+						cal.clear();
+						cal.set(2013, Calendar.FEBRUARY, day, 12, 30, 0);
+						assertEquals(cal.getTimeInMillis(), time.getTime());
+						assertEquals(Maxml.parse(map.toMaxml()).getDate("time", null), time);
+					}
+				} catch (Throwable t) {
+					errors.add(t);
+				}
+			}
+		});
+		assertTrue(errors.toString(), errors.isEmpty());
+	}
+
+	@Test
+	public void testConcurrentReadWrite() throws Exception {
+		final File file = File.createTempFile("metadata-", ".moxie");
+		file.delete();
+
+		// every thread writes its own dates, rounded to the second
+		final Set<Date> written = Collections.synchronizedSet(new HashSet<Date>());
+		final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+		final long now = (System.currentTimeMillis() / 1000L) * 1000L;
+		for (int i = 0; i < THREADS * RUNS; i++) {
+			written.add(new Date(now + i * 1000L));
+		}
+		written.add(new Date(0));
+
+		final int [] next = { 0 };
+		run(new Runnable() {
+			public void run() {
+				try {
+					for (int i = 0; i < RUNS; i++) {
+						Date date;
+						synchronized (next) {
+							date = new Date(now + (next[0]++) * 1000L);
+						}
+						MoxieData data = new MoxieData(file);
+						data.setOrigin("http://repo1.maven.org/maven2");
+						data.setLastChecked(date);
+						FileUtils.writeContent(file, data.toMaxML());
+
+						// the file is never missing or partially written
+						String content = FileUtils.readContent(file, "\n").trim();
+						assertTrue("missing or empty " + file, content.length() > 0);
+						Maxml.parse(content);
+
+						Date read = new MoxieData(file).getLastChecked();
+						assertTrue("unexpected date " + read, written.contains(read));
+					}
+				} catch (Throwable t) {
+					errors.add(t);
+				}
+			}
+		});
+		String [] temps = file.getParentFile().list();
+		file.delete();
+		assertTrue(errors.toString(), errors.isEmpty());
+		for (String name : temps) {
+			assertFalse("temp file " + name, name.startsWith(file.getName() + "."));
+		}
+	}
+
+	private static void run(final Runnable runnable) throws InterruptedException {
+		final CountDownLatch start = new CountDownLatch(1);
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int i = 0; i < THREADS; i++) {
+			Thread thread = new Thread(new Runnable() {
+				public void run() {
+					try {
+						start.await();
+					} catch (InterruptedException e) {
+						return;
+					}
+					runnable.run();
+				}
+			});
+			thread.start();
+			threads.add(thread);
+		}
+		start.countDown();
+		for (Thread thread : threads) {
+			thread.join();
+		}
+	}
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2013 James Moger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.moxie.tests;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.moxie.utils.Parallel;
+
+public class ParallelTest extends Assert {
+
+	@Test
+	public void testNested() {
+		// more outer operations than threads must not deadlock
+		final Parallel parallel = new Parallel("test", 2);
+		final AtomicInteger count = new AtomicInteger();
+		parallel.forEach(Arrays.asList(1, 2, 3, 4, 5, 6), new Parallel.Operation<Integer>() {
+			public void perform(Integer i) {
+				parallel.forEach(Arrays.asList(1, 2, 3, 4, 5), new Parallel.Operation<Integer>() {
+					public void perform(Integer j) {
+						count.incrementAndGet();
+					}
+				});
+			}
+		});
+		assertEquals(30, count.get());
+	}
+
+	@Test(timeout = 10000)
+	public void testNestedAcrossPools() {
+		// cpu operations which wait on io operations must not exhaust the
+		// workers of either pool
+		final Parallel cpu = new Parallel("cpu", 1);
+		final Parallel io = new Parallel("io", 1);
+		final AtomicInteger count = new AtomicInteger();
+		cpu.forEach(Arrays.asList(1, 2, 3, 4), new Parallel.Operation<Integer>() {
+			public void perform(Integer i) {
+				io.forEach(Arrays.asList(1, 2, 3), new Parallel.Operation<Integer>() {
+					public void perform(Integer j) {
+						cpu.forEach(Arrays.asList(1, 2), new Parallel.Operation<Integer>() {
+							public void perform(Integer k) {
+								count.incrementAndGet();
+							}
+						});
+					}
+				});
+			}
+		});
+		assertEquals(24, count.get());
+	}
+
+	@Test
+	public void testFailFast() {
+		Parallel parallel = new Parallel("test", 2);
+		final AtomicInteger count = new AtomicInteger();
+		List<Integer> list = new ArrayList<Integer>();
+		for (int i = 0; i < 1000; i++) {
+			list.add(i);
+		}
+		try {
+			parallel.forEach(list, new Parallel.Operation<Integer>() {
+				public void perform(Integer i) {
+					count.incrementAndGet();
+					if (i == 0) {
+						throw new IllegalStateException("failed " + i);
+					}
+					try {
+						Thread.sleep(1);
+					} catch (InterruptedException e) {
+					}
+				}
+			});
+			fail("expected failure");
+		} catch (IllegalStateException e) {
+			assertEquals("failed 0", e.getMessage());
+		}
+		assertTrue(count.get() < list.size());
+	}
+
+	@Test
+	public void testCancel() {
+		Parallel parallel = new Parallel("test", 2);
+		parallel.cancel();
+		try {
+			parallel.forEach(Arrays.asList(1, 2), new Parallel.Operation<Integer>() {
+				public void perform(Integer i) {
+				}
+			});
+			fail("expected cancellation");
+		} catch (CancellationException e) {
+		}
+		parallel.reset();
+		parallel.forEach(Arrays.asList(1, 2), new Parallel.Operation<Integer>() {
+			public void perform(Integer i) {
+			}
+		});
+		parallel.shutdown();
+		assertTrue(parallel.isCancelled());
+	}
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2013 James Moger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.moxie.tests;
+
+import java.io.File;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.moxie.Constants;
+import org.moxie.Constants.MavenCacheStrategy;
+import org.moxie.Dependency;
+import org.moxie.MoxieCache;
+import org.moxie.Pom;
+import org.moxie.PomReader;
+import org.moxie.utils.FileUtils;
+
+public class PomCacheTest extends Assert {
+
+	@Test
+	public void testParentChange() throws Exception {
+		File root = File.createTempFile("moxie-", ".pomcache");
+		root.delete();
+		try {
+			MoxieCache cache = new MoxieCache(root);
+			cache.setMavenCacheStrategy(MavenCacheStrategy.IGNORE);
+			Dependency parent = new Dependency("org.moxie.test:parent:1.0");
+			Dependency child = new Dependency("org.moxie.test:child:1.0");
+			File parentFile = cache.getArtifact(parent, Constants.POM);
+			File childFile = cache.getArtifact(child, Constants.POM);
+
+			FileUtils.writeContent(parentFile, pom("parent", null, "1"));
+			FileUtils.writeContent(childFile, pom("child", "parent", null));
+			Pom pom = PomReader.readPom(cache, child);
+			assertEquals("1", pom.getProperties().get("level"));
+
+			// a module view shares the parsed POMs but must notice the
+			// modified parent POM
+			MoxieCache view = new MoxieCache(root, cache);
+			view.setMavenCacheStrategy(MavenCacheStrategy.IGNORE);
+			FileUtils.writeContent(parentFile, pom("parent", null, "22"));
+			pom = PomReader.readPom(view, child);
+			assertEquals("22", pom.getProperties().get("level"));
+
+			// the cached copy is private
+			pom.setProperty("level", "3");
+			assertEquals("22", PomReader.readPom(cache, child).getProperties().get("level"));
+		} finally {
+			FileUtils.delete(root);
+		}
+	}
+
+	private String pom(String artifactId, String parentId, String level) {
+		StringBuilder sb = new StringBuilder();
+		sb.append("<project>\n");
+		if (parentId != null) {
+			sb.append("<parent><groupId>org.moxie.test</groupId><artifactId>").append(parentId);
+			sb.append("</artifactId><version>1.0</version></parent>\n");
+		}
+		sb.append("<groupId>org.moxie.test</groupId>\n");
+		sb.append("<artifactId>").append(artifactId).append("</artifactId>\n");
+		sb.append("<version>1.0</version>\n");
+		if (level != null) {
+			sb.append("<properties><level>").append(level).append("</level></properties>\n");
+		}
+		sb.append("</project>\n");
+		return sb.toString();
+	}
+}
@@ -1,16 +1,11 @@
 package org.moxie.maxml;
 
-import static java.text.MessageFormat.format;
-
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.StringReader;
-import java.lang.reflect.Field;
-import java.util.HashMap;
-import java.util.Map;
 
 /**
  * Static utility methods for the Maxml parser.
@@ -22,7 +17,8 @@ public class Maxml {
 
 	/**
 	 * Parse the Maxml content and reflectively build an object with the
-	 * document's data.
+	 * document's data.  The values are converted to the declared types of the
+	 * fields by the cached {@link MaxmlBinder} of the class.
 	 * 
 	 * @param content
 	 * @param clazz
@@ -33,25 +29,9 @@ public class Maxml {
 			throws MaxmlException {
 		try {
 			MaxmlParser parser = new MaxmlParser();
-			Map<String, Object> map = parser.parse(new BufferedReader(
+			MaxmlMap map = parser.parse(new BufferedReader(
 					new StringReader(content)));
-			X x = clazz.newInstance();
-			Map<String, Field> fields = new HashMap<String, Field>();
-			for (Field field : clazz.getFields()) {
-				fields.put(field.getName().toLowerCase(), field);
-			}
-			for (Map.Entry<String, Object> entry : map.entrySet()) {
-				String key = entry.getKey();
-				Object o = entry.getValue();
-				if (fields.containsKey(key)) {
-					Field field = fields.get(key);
-					field.set(x, o);
-				} else {
-					throw new MaxmlException(format("Unbound property \"{0}\"",
-							key));
-				}
-			}
-			return x;
+			return MaxmlBinder.of(clazz).bind(map);
 		} catch (MaxmlException e) {
 			throw e;
 		} catch (Exception t) {
@@ -0,0 +1,420 @@
+/*
+ * Copyright 2013 James Moger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.moxie.maxml;
+
+import static java.text.MessageFormat.format;
+
+import java.io.File;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.lang.reflect.WildcardType;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.moxie.utils.StringUtils;
+
+/**
+ * MaxmlBinder binds the values of a Maxml map to the public fields of an
+ * object.
+ * <p>
+ * The fields of a class and the conversions of their declared types are
+ * resolved once when the binder is created.  Binders are cached per class and
+ * are immutable, so a binder may be shared by concurrent threads.
+ * <p>
+ * Keys are matched to the lowercase field names.  Values are converted to the
+ * declared type of the field: strings, primitives and their wrappers, enums,
+ * dates, files, lists and sets, maps with string keys, and nested objects
+ * with a public no-argument constructor.  The elements of lists, sets and
+ * maps are converted to their generic type.  A comma-separated string is
+ * accepted for a list or set, like {@link MaxmlMap#getStrings}.
+ *
+ * @author James Moger
+ *
+ */
+public class MaxmlBinder<X> {
+
+	private static final Map<Class<?>, MaxmlBinder<?>> binders = new ConcurrentHashMap<Class<?>, MaxmlBinder<?>>();
+
+	/**
+	 * Returns the cached binder for the class.
+	 *
+	 * @param clazz
+	 * @return the binder
+	 */
+	@SuppressWarnings("unchecked")
+	public static <X> MaxmlBinder<X> of(Class<X> clazz) {
+		MaxmlBinder<X> binder = (MaxmlBinder<X>) binders.get(clazz);
+		if (binder == null) {
+			// a binder may be created more than once by concurrent threads
+			binder = new MaxmlBinder<X>(clazz);
+			binders.put(clazz, binder);
+		}
+		return binder;
+	}
+
+	private final Class<X> clazz;
+
+	private final Map<String, Property> properties;
+
+	private MaxmlBinder(Class<X> clazz) {
+		this.clazz = clazz;
+		this.properties = new HashMap<String, Property>();
+		for (Field field : clazz.getFields()) {
+			int modifiers = field.getModifiers();
+			if (Modifier.isStatic(modifiers) || Modifier.isFinal(modifiers)) {
+				continue;
+			}
+			properties.put(field.getName().toLowerCase(), new Property(field, converter(field.getGenericType())));
+		}
+	}
+
+	/**
+	 * Creates a new object and binds the values of the map.
+	 *
+	 * @param map
+	 * @return a new object
+	 * @throws MaxmlException
+	 *             if a key does not match a field or a value can not be
+	 *             converted
+	 */
+	public X bind(Map<String, ?> map) throws MaxmlException {
+		return bind(map, newInstance(clazz), true);
+	}
+
+	/**
+	 * Binds the values of the map to an existing object.  Fields without a key
+	 * in the map keep their value.
+	 *
+	 * @param map
+	 * @param object
+	 * @param strict
+	 *            if true, keys which do not match a field are an error.  If
+	 *            false, they are ignored.
+	 * @return the object
+	 * @throws MaxmlException
+	 *             if a key does not match a field and strict is true or if a
+	 *             value can not be converted
+	 */
+	public X bind(Map<String, ?> map, X object, boolean strict) throws MaxmlException {
+		for (Map.Entry<String, ?> entry : map.entrySet()) {
+			String key = entry.getKey();
+			Property property = properties.get(key);
+			if (property == null) {
+				property = properties.get(key.toLowerCase());
+			}
+			if (property == null) {
+				if (strict) {
+					throw new MaxmlException(format("Unbound property \"{0}\"", key));
+				}
+				continue;
+			}
+			property.set(object, entry.getValue());
+		}
+		return object;
+	}
+
+	private static <X> X newInstance(Class<X> clazz) throws MaxmlException {
+		try {
+			return clazz.newInstance();
+		} catch (Exception e) {
+			throw new MaxmlException(format("Failed to instantiate {0}", clazz.getName()), e);
+		}
+	}
+
+	/**
+	 * A bound field and the conversion of its declared type.
+	 */
+	private static class Property {
+
+		final Field field;
+
+		final Converter converter;
+
+		Property(Field field, Converter converter) {
+			this.field = field;
+			this.converter = converter;
+		}
+
+		void set(Object object, Object value) throws MaxmlException {
+			Object converted;
+			try {
+				converted = converter.convert(value);
+			} catch (MaxmlException e) {
+				throw new MaxmlException(format("Failed to bind \"{0}\"", field.getName()), e);
+			} catch (RuntimeException e) {
+				throw new MaxmlException(format("Failed to bind \"{0}\"", field.getName()), e);
+			}
+			if (converted == null && field.getType().isPrimitive()) {
+				// keep the default value of a primitive
+				return;
+			}
+			try {
+				field.set(object, converted);
+			} catch (IllegalAccessException e) {
+				throw new MaxmlException(e);
+			}
+		}
+	}
+
+	/**
+	 * Converts a parsed Maxml value to a declared type.
+	 */
+	private interface Converter {
+		Object convert(Object value) throws MaxmlException;
+	}
+
+	/**
+	 * Returns the converter for the declared type.
+	 */
+	private static Converter converter(Type type) {
+		if (type instanceof WildcardType) {
+			Type [] upper = ((WildcardType) type).getUpperBounds();
+			return converter(upper.length == 0 ? Object.class : upper[0]);
+		}
+		if (type instanceof ParameterizedType) {
+			ParameterizedType pt = (ParameterizedType) type;
+			Class<?> raw = (Class<?>) pt.getRawType();
+			Type [] args = pt.getActualTypeArguments();
+			if (Collection.class.isAssignableFrom(raw)) {
+				return collectionConverter(raw, converter(args[0]));
+			} else if (Map.class.isAssignableFrom(raw)) {
+				return mapConverter(raw, converter(args[1]));
+			}
+			return converter(raw);
+		}
+		if (!(type instanceof Class)) {
+			// type variables and generic arrays are bound as parsed
+			return converter(Object.class);
+		}
+		final Class<?> clazz = (Class<?>) type;
+		if (clazz == Object.class) {
+			return new Converter() {
+				public Object convert(Object value) {
+					return value;
+				}
+			};
+		} else if (clazz == String.class) {
+			return new Converter() {
+				public Object convert(Object value) {
+					return value == null ? null : value.toString();
+				}
+			};
+		} else if (clazz == boolean.class || clazz == Boolean.class) {
+			return new Converter() {
+				public Object convert(Object value) {
+					if (value == null || value instanceof Boolean) {
+						return value;
+					}
+					return Boolean.parseBoolean(value.toString());
+				}
+			};
+		} else if (clazz == int.class || clazz == Integer.class) {
+			return new Converter() {
+				public Object convert(Object value) {
+					if (value == null || value instanceof Integer) {
+						return value;
+					} else if (value instanceof Number) {
+						return ((Number) value).intValue();
+					}
+					return Integer.parseInt(value.toString());
+				}
+			};
+		} else if (clazz == long.class || clazz == Long.class) {
+			return new Converter() {
+				public Object convert(Object value) {
+					if (value == null || value instanceof Long) {
+						return value;
+					} else if (value instanceof Number) {
+						return ((Number) value).longValue();
+					}
+					return Long.parseLong(value.toString());
+				}
+			};
+		} else if (clazz == short.class || clazz == Short.class) {
+			return new Converter() {
+				public Object convert(Object value) {
+					if (value == null || value instanceof Short) {
+						return value;
+					} else if (value instanceof Number) {
+						return ((Number) value).shortValue();
+					}
+					return Short.parseShort(value.toString());
+				}
+			};
+		} else if (clazz == byte.class || clazz == Byte.class) {
+			return new Converter() {
+				public Object convert(Object value) {
+					if (value == null || value instanceof Byte) {
+						return value;
+					} else if (value instanceof Number) {
+						return ((Number) value).byteValue();
+					}
+					return Byte.parseByte(value.toString());
+				}
+			};
+		} else if (clazz == double.class || clazz == Double.class) {
+			return new Converter() {
+				public Object convert(Object value) {
+					if (value == null || value instanceof Double) {
+						return value;
+					} else if (value instanceof Number) {
+						return ((Number) value).doubleValue();
+					}
+					return Double.parseDouble(value.toString());
+				}
+			};
+		} else if (clazz == float.class || clazz == Float.class) {
+			return new Converter() {
+				public Object convert(Object value) {
+					if (value == null || value instanceof Float) {
+						return value;
+					} else if (value instanceof Number) {
+						return ((Number) value).floatValue();
+					}
+					return Float.parseFloat(value.toString());
+				}
+			};
+		} else if (clazz == Date.class) {
+			return new Converter() {
+				public Object convert(Object value) throws MaxmlException {
+					if (value == null || value instanceof Date) {
+						return value;
+					}
+					Date date = MaxmlDates.parse(value.toString());
+					if (date == null) {
+						throw new MaxmlException(format("\"{0}\" is not a date", value));
+					}
+					return date;
+				}
+			};
+		} else if (clazz == File.class) {
+			return new Converter() {
+				public Object convert(Object value) {
+					return value == null ? null : new File(value.toString());
+				}
+			};
+		} else if (clazz.isEnum()) {
+			return new Converter() {
+				public Object convert(Object value) throws MaxmlException {
+					if (value == null) {
+						return null;
+					}
+					String name = value.toString();
+					for (Object constant : clazz.getEnumConstants()) {
+						if (((Enum<?>) constant).name().equalsIgnoreCase(name)) {
+							return constant;
+						}
+					}
+					throw new MaxmlException(format("\"{0}\" is not a {1}", value, clazz.getSimpleName()));
+				}
+			};
+		} else if (Collection.class.isAssignableFrom(clazz)) {
+			return collectionConverter(clazz, converter(Object.class));
+		} else if (Map.class.isAssignableFrom(clazz)) {
+			return mapConverter(clazz, converter(Object.class));
+		}
+
+		// nested object, the binder is resolved on first use to allow
+		// recursive types
+		return new Converter() {
+			public Object convert(Object value) throws MaxmlException {
+				if (value == null || clazz.isInstance(value)) {
+					return value;
+				} else if (value instanceof Map) {
+					@SuppressWarnings("unchecked")
+					Map<String, ?> map = (Map<String, ?>) value;
+					return of(clazz).bind(map);
+				}
+				throw new MaxmlException(format("\"{0}\" is not a {1}", value, clazz.getSimpleName()));
+			}
+		};
+	}
+
+	private static Converter collectionConverter(final Class<?> type, final Converter element) {
+		return new Converter() {
+			public Object convert(Object value) throws MaxmlException {
+				if (value == null) {
+					return null;
+				}
+				Collection<Object> collection;
+				if (SortedSet.class.isAssignableFrom(type)) {
+					collection = new TreeSet<Object>();
+				} else if (Set.class.isAssignableFrom(type)) {
+					collection = new LinkedHashSet<Object>();
+				} else {
+					collection = new ArrayList<Object>();
+				}
+				if (value instanceof Collection) {
+					for (Object o : (Collection<?>) value) {
+						collection.add(element.convert(o));
+					}
+				} else if (value instanceof String) {
+					// comma-separated values
+					for (String o : value.toString().split(",")) {
+						collection.add(element.convert(StringUtils.stripQuotes(o.trim())));
+					}
+				} else {
+					collection.add(element.convert(value));
+				}
+				if (!type.isInstance(collection)) {
+					throw new MaxmlException(format("Unsupported collection {0}", type.getName()));
+				}
+				return collection;
+			}
+		};
+	}
+
+	private static Converter mapConverter(final Class<?> type, final Converter element) {
+		return new Converter() {
+			public Object convert(Object value) throws MaxmlException {
+				if (value == null) {
+					return null;
+				} else if (!(value instanceof Map)) {
+					throw new MaxmlException(format("\"{0}\" is not a map", value));
+				}
+				Map<String, Object> map;
+				if (SortedMap.class.isAssignableFrom(type)) {
+					map = new TreeMap<String, Object>();
+				} else if (type.isAssignableFrom(MaxmlMap.class)) {
+					map = new MaxmlMap();
+				} else {
+					map = new LinkedHashMap<String, Object>();
+				}
+				for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+					map.put(entry.getKey().toString(), element.convert(entry.getValue()));
+				}
+				if (!type.isInstance(map)) {
+					throw new MaxmlException(format("Unsupported map {0}", type.getName()));
+				}
+				return map;
+			}
+		};
+	}
+}
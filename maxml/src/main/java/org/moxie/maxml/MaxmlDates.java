@@ -0,0 +1,168 @@
+/*
+ * Copyright 2013 James Moger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.moxie.maxml;
+
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.format.SignStyle;
+import java.time.temporal.ChronoField;
+import java.time.temporal.TemporalAccessor;
+import java.util.Date;
+
+/**
+ * Parses and formats Maxml dates with immutable, thread-safe formatters.
+ * <p>
+ * A date value is parsed from its yyyy-MM-dd'T'HH:mm:ss'Z',
+ * yyyy-MM-dd'T'HH:mm:ssZ, or yyyy-MM-dd prefix.  Like the lenient
+ * SimpleDateFormat, numeric fields may have any number of digits and values
+ * out of range roll over, e.g. 2013-02-30 is March 2nd.  Dates without an
+ * offset are in the default time zone.  A time with a general time zone,
+ * e.g. 2013-01-01T10:00:00GMT, is parsed by SimpleDateFormat as before.
+ *
+ * @author James Moger
+ *
+ */
+class MaxmlDates {
+
+	private static final DateTimeFormatter CANONICAL = new DateTimeFormatterBuilder()
+			.append(date()).appendLiteral('T').append(time()).appendLiteral('Z').toFormatter();
+
+	private static final DateTimeFormatter ISO8601 = new DateTimeFormatterBuilder()
+			.append(date()).appendLiteral('T').append(time()).appendOffset("+HHMM", "+0000").toFormatter();
+
+	private static final DateTimeFormatter DATE = date();
+
+	private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd");
+
+	private static final DateTimeFormatter ISO8601_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ssZ");
+
+	private static DateTimeFormatter date() {
+		return new DateTimeFormatterBuilder()
+				.appendValue(ChronoField.YEAR, 1, 10, SignStyle.NOT_NEGATIVE).appendLiteral('-')
+				.appendValue(ChronoField.MONTH_OF_YEAR, 1, 10, SignStyle.NOT_NEGATIVE).appendLiteral('-')
+				.appendValue(ChronoField.DAY_OF_MONTH, 1, 10, SignStyle.NOT_NEGATIVE).toFormatter();
+	}
+
+	private static DateTimeFormatter time() {
+		return new DateTimeFormatterBuilder()
+				.appendValue(ChronoField.HOUR_OF_DAY, 1, 10, SignStyle.NOT_NEGATIVE).appendLiteral(':')
+				.appendValue(ChronoField.MINUTE_OF_HOUR, 1, 10, SignStyle.NOT_NEGATIVE).appendLiteral(':')
+				.appendValue(ChronoField.SECOND_OF_MINUTE, 1, 10, SignStyle.NOT_NEGATIVE).toFormatter();
+	}
+
+	/**
+	 * Parses a date value.
+	 *
+	 * @param value
+	 * @return the date or null if the value is not a date
+	 */
+	static Date parse(String value) {
+		if (!MaxmlLexer.isDate(value)) {
+			return null;
+		}
+		Date date = parse(CANONICAL, value);
+		if (date == null) {
+			date = parse(ISO8601, value);
+		}
+		if (date == null && value.length() > 10 && value.charAt(10) == 'T') {
+			date = parseTimeZone(value);
+		}
+		if (date == null) {
+			date = parse(DATE, value);
+		}
+		return date;
+	}
+
+	private static Date parse(DateTimeFormatter parser, String value) {
+		ParsePosition position = new ParsePosition(0);
+		TemporalAccessor fields = parser.parseUnresolved(value, position);
+		if (fields != null && position.getErrorIndex() < 0) {
+			return toDate(fields);
+		}
+		return null;
+	}
+
+	/**
+	 * Parses a time with a general time zone, e.g. GMT or PST, which the
+	 * RFC 822 offset of the ISO8601 formatter does not accept.
+	 */
+	private static Date parseTimeZone(String value) {
+		ParsePosition position = new ParsePosition(0);
+		Date date = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ").parse(value, position);
+		if (position.getIndex() > 0) {
+			return date;
+		}
+		return null;
+	}
+
+	/**
+	 * Resolves the parsed fields, rolling over values which are out of range.
+	 */
+	private static Date toDate(TemporalAccessor fields) {
+		try {
+			LocalDateTime time = LocalDate.of(Math.toIntExact(fields.getLong(ChronoField.YEAR)), 1, 1)
+					.plusMonths(fields.getLong(ChronoField.MONTH_OF_YEAR) - 1)
+					.plusDays(fields.getLong(ChronoField.DAY_OF_MONTH) - 1)
+					.atStartOfDay();
+			if (fields.isSupported(ChronoField.HOUR_OF_DAY)) {
+				time = time.plusHours(fields.getLong(ChronoField.HOUR_OF_DAY))
+						.plusMinutes(fields.getLong(ChronoField.MINUTE_OF_HOUR))
+						.plusSeconds(fields.getLong(ChronoField.SECOND_OF_MINUTE));
+			}
+			Instant instant;
+			if (fields.isSupported(ChronoField.OFFSET_SECONDS)) {
+				instant = time.toInstant(ZoneOffset.ofTotalSeconds(Math.toIntExact(fields.getLong(ChronoField.OFFSET_SECONDS))));
+			} else {
+				instant = time.atZone(ZoneId.systemDefault()).toInstant();
+			}
+			return new Date(instant.toEpochMilli());
+		} catch (DateTimeException e) {
+			// out of the supported range
+			return null;
+		} catch (ArithmeticException e) {
+			// overflow
+			return null;
+		}
+	}
+
+	/**
+	 * Formats a date as yyyy-MM-dd in the default time zone.
+	 *
+	 * @param date
+	 * @return the formatted date
+	 */
+	static String formatDate(Date date) {
+		return DATE_FORMAT.format(Instant.ofEpochMilli(date.getTime()).atZone(ZoneId.systemDefault()));
+	}
+
+	/**
+	 * Formats a date as yyyy-MM-dd'T'HH:mm:ssZ in the default time zone.
+	 *
+	 * @param date
+	 * @return the formatted date
+	 */
+	static String formatDateTime(Date date) {
+		return ISO8601_FORMAT.format(Instant.ofEpochMilli(date.getTime()).atZone(ZoneId.systemDefault()));
+	}
+}
@@ -0,0 +1,289 @@
+/*
+ * Copyright 2013 James Moger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.moxie.maxml;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * MaxmlLexer classifies Maxml scalars and splits inline lists and maps in a
+ * single pass over their characters.
+ * <p>
+ * The classifiers accept exactly the strings which the parser would parse as a
+ * number or a date, so the parser does not use failed parse attempts as control
+ * flow.  A lexer reuses its buffers and must not be shared between threads.
+ *
+ * @author James Moger
+ *
+ */
+class MaxmlLexer {
+
+	private boolean [] separators = new boolean[64];
+
+	/**
+	 * Splits the content of an inline list or map on the commas which are not
+	 * within quotes.  The result is identical to splitting with the CSV
+	 * pattern of the parser, including the removal of trailing empty fields.
+	 * <p>
+	 * A comma separates two fields if the remainder of the content is a
+	 * sequence of quoted segments followed by text without quotes.  This is
+	 * determined for all commas with one scan from the end of the content.
+	 *
+	 * @param content
+	 * @return the fields
+	 */
+	List<String> split(String content) {
+		int length = content.length();
+		if (separators.length < length) {
+			separators = new boolean[Math.max(length, separators.length * 2)];
+		}
+
+		// states of the lookahead of the CSV pattern
+		// unquoted: before a quoted segment or within the trailing text
+		// quoted: within a quoted segment
+		// closing: within the quotes, carets, and commas closing a segment
+		boolean unquoted = true;
+		boolean quoted = false;
+		boolean closing = false;
+		boolean split = false;
+		for (int i = length - 1; i >= 0; i--) {
+			char c = content.charAt(i);
+			separators[i] = c == ',' && unquoted;
+			split |= separators[i];
+			if (c == '"') {
+				closing = closing || unquoted;
+				unquoted = quoted;
+				quoted = closing;
+			} else {
+				closing = (c == '^' || c == ',') && closing;
+				quoted = quoted || closing;
+			}
+		}
+
+		List<String> fields = new ArrayList<String>();
+		if (!split) {
+			fields.add(content);
+			return fields;
+		}
+		int start = 0;
+		for (int i = 0; i < length; i++) {
+			if (separators[i]) {
+				fields.add(content.substring(start, i));
+				start = i + 1;
+			}
+		}
+		fields.add(content.substring(start));
+
+		// remove trailing empty fields
+		int size = fields.size();
+		while (size > 0 && fields.get(size - 1).length() == 0) {
+			fields.remove(--size);
+		}
+		return fields;
+	}
+
+	/**
+	 * Returns the substring without leading and trailing whitespace.
+	 *
+	 * @param value
+	 * @param begin
+	 * @param end
+	 * @return the trimmed substring
+	 */
+	static String trim(String value, int begin, int end) {
+		while (begin < end && value.charAt(begin) <= ' ') {
+			begin++;
+		}
+		while (end > begin && value.charAt(end - 1) <= ' ') {
+			end--;
+		}
+		return value.substring(begin, end);
+	}
+
+	/**
+	 * Returns true if the lowercase value equals the lowercase keyword.
+	 *
+	 * @param value
+	 * @param keyword
+	 * @return true if the value is the keyword
+	 */
+	static boolean isKeyword(String value, String keyword) {
+		if (value.length() != keyword.length()) {
+			return false;
+		}
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			char k = keyword.charAt(i);
+			if (c != k && c != Character.toUpperCase(k)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns true if the value is a whole number which Long.decode accepts,
+	 * unless it overflows.  Octal and hexadecimal numbers are supported.
+	 *
+	 * @param value
+	 * @return true if the value is a whole number
+	 */
+	static boolean isWholeNumber(String value) {
+		int length = value.length();
+		if (length == 0) {
+			return false;
+		}
+		int index = 0;
+		char first = value.charAt(0);
+		if (first == '-' || first == '+') {
+			index++;
+		}
+		int radix = 10;
+		if (value.startsWith("0x", index) || value.startsWith("0X", index)) {
+			index += 2;
+			radix = 16;
+		} else if (value.startsWith("#", index)) {
+			index++;
+			radix = 16;
+		} else if (value.startsWith("0", index) && length > 1 + index) {
+			index++;
+			radix = 8;
+		}
+		if (index == length) {
+			return false;
+		}
+		for (int i = index; i < length; i++) {
+			if (Character.digit(value.charAt(i), radix) < 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns true if the value is a comma-formatted whole number, e.g.
+	 * 1,234,567.
+	 *
+	 * @param value
+	 * @return true if the value is a comma-formatted number
+	 */
+	static boolean isGroupedNumber(String value) {
+		int digits = 0;
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c >= '0' && c <= '9') {
+				if (++digits > 3) {
+					return false;
+				}
+			} else if (c == ',' && digits > 0) {
+				digits = 0;
+			} else {
+				return false;
+			}
+		}
+		return digits > 0;
+	}
+
+	/**
+	 * Returns true if the value is a decimal number which Double.parseDouble
+	 * accepts.  Hexadecimal floating point values are not classified and
+	 * return true if they have a binary exponent.
+	 *
+	 * @param value
+	 * @return true if the value is a decimal number
+	 */
+	static boolean isDecimalNumber(String value) {
+		int length = value.length();
+		int i = 0;
+		if (length > 0 && (value.charAt(0) == '-' || value.charAt(0) == '+')) {
+			i++;
+		}
+		if (i == length) {
+			return false;
+		}
+		char c = value.charAt(i);
+		if (c == 'N') {
+			return length - i == 3 && value.startsWith("NaN", i);
+		} else if (c == 'I') {
+			return length - i == 8 && value.startsWith("Infinity", i);
+		} else if (c == '0' && length > i + 1 && (value.charAt(i + 1) == 'x' || value.charAt(i + 1) == 'X')) {
+			// hexadecimal floating point
+			return value.indexOf('p') > -1 || value.indexOf('P') > -1;
+		}
+
+		// digits with an optional decimal point
+		int digits = 0;
+		boolean point = false;
+		for (; i < length; i++) {
+			c = value.charAt(i);
+			if (c >= '0' && c <= '9') {
+				digits++;
+			} else if (c == '.' && !point) {
+				point = true;
+			} else {
+				break;
+			}
+		}
+		if (digits == 0) {
+			return false;
+		}
+
+		// optional exponent
+		if (i < length && (value.charAt(i) == 'e' || value.charAt(i) == 'E')) {
+			i++;
+			if (i < length && (value.charAt(i) == '-' || value.charAt(i) == '+')) {
+				i++;
+			}
+			int exponent = i;
+			while (i < length && value.charAt(i) >= '0' && value.charAt(i) <= '9') {
+				i++;
+			}
+			if (i == exponent) {
+				return false;
+			}
+		}
+
+		// optional float or double suffix
+		if (i == length - 1) {
+			c = value.charAt(i);
+			return c == 'f' || c == 'F' || c == 'd' || c == 'D';
+		}
+		return i == length;
+	}
+
+	/**
+	 * Returns true if the value starts with a yyyy-MM-dd date.
+	 *
+	 * @param value
+	 * @return true if the value starts with a date
+	 */
+	static boolean isDate(String value) {
+		if (value.length() < 10) {
+			return false;
+		}
+		for (int i = 0; i < 10; i++) {
+			char c = value.charAt(i);
+			if (i == 4 || i == 7) {
+				if (c != '-') {
+					return false;
+				}
+			} else if (c < '0' || c > '9') {
+				return false;
+			}
+		}
+		return true;
+	}
+}
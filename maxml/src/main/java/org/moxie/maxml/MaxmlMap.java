@@ -15,15 +15,11 @@
  */
 package org.moxie.maxml;
 
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Calendar;
 import java.util.Date;
 import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.regex.Pattern;
 
 import org.moxie.utils.StringUtils;
 
@@ -108,24 +104,9 @@ public class MaxmlMap extends LinkedHashMap<String, Object> {
 				return (Date) o;
 			} else if (o instanceof String) {
 				// try to convert the string to a date
-				DateFormat canonical = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
-				DateFormat iso8601 = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ");
-				DateFormat date = new SimpleDateFormat("yyyy-MM-dd");
-				Pattern datePattern = Pattern.compile("^[0-9]{4}-[0-9]{2}-[0-9]{2}");
-				if (datePattern.matcher((String) o).find()) {
-					DateFormat[] formats = { canonical, iso8601, date };
-					for (DateFormat df : formats) {
-						try {
-							Date aDate = df.parse((String) o);
-							// reset milliseconds to 0
-							Calendar cal = Calendar.getInstance();
-							cal.setTime(aDate);
-							cal.set(Calendar.MILLISECOND, 0);
-							return cal.getTime();
-						} catch (Throwable t) {
-							// t.printStackTrace();
-						}
-					}
+				Date aDate = MaxmlDates.parse((String) o);
+				if (aDate != null) {
+					return aDate;
 				}
 			}
 		}
@@ -205,12 +186,10 @@ public class MaxmlMap extends LinkedHashMap<String, Object> {
 			sb.append(" ]");
 		} else if (o instanceof java.sql.Date) {
 			// date
-			DateFormat date = new SimpleDateFormat("yyyy-MM-dd");
-			sb.append(date.format((Date) o)).append('\n');
+			sb.append(MaxmlDates.formatDate((Date) o)).append('\n');
 		} else if (o instanceof Date) {
 			// full date
-			DateFormat iso8601 = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ");
-			sb.append(iso8601.format((Date) o)).append('\n');
+			sb.append(MaxmlDates.formatDateTime((Date) o)).append('\n');
 		} else {
 			// number, boolean, string
 			sb.append(o);
@@ -19,12 +19,10 @@ import static java.text.MessageFormat.format;
 
 import java.io.BufferedReader;
 import java.io.IOException;
-import java.text.DateFormat;
 import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
 import java.text.MessageFormat;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Calendar;
 import java.util.Collection;
 import java.util.Date;
 import java.util.List;
@@ -38,19 +36,23 @@ import org.moxie.utils.StringUtils;
  * MaxmlParser is a simple recursive parser that can deserialize an Maxml
  * document. Maxml is based mostly on YAML but borrows ideas from XML and JSON
  * such as space-insensitivity.
+ * <p>
+ * A parser instance parses one document at a time.  Its date formats are
+ * immutable and shared, so parsers may be used on concurrent threads.  Comma
+ * grouped numbers are parsed with the number format of the default locale
+ * when the parser is created, e.g. 1,234 is 1 if the locale groups with
+ * periods.
  * 
  * @author James Moger
  * 
  */
 public class MaxmlParser {
 
-	DateFormat canonical = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
-	DateFormat iso8601 = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ");
-	DateFormat date = new SimpleDateFormat("yyyy-MM-dd");
-	Pattern datePattern = Pattern.compile("^[0-9]{4}-[0-9]{2}-[0-9]{2}");
-	Pattern wholePattern = Pattern.compile("^\\d{1,3}(,\\d{1,3})*$");
-	DecimalFormat wholeFormat = new DecimalFormat("#,###,###,###,###,###,###");
-	String csvPattern = ",(?=(?:[^\\\"]*\\\"[^\\\"]*[\\\"^,]*\\\")*(?![^\\\"]*\\\"))";
+	static final String wholeFormat = "#,###,###,###,###,###,###";
+	final DecimalFormatSymbols wholeSymbols = DecimalFormatSymbols.getInstance();
+	final boolean asciiGrouping = isAsciiGrouping(wholeSymbols);
+	static final Pattern indexPattern = Pattern.compile("(.*)\\[(\\d+)\\]");
+	MaxmlLexer lexer = new MaxmlLexer();
 	int tabWidth = 4;
 	int lineCount;
 	MaxmlMap rootMap;
@@ -102,7 +104,7 @@ public class MaxmlParser {
 						map.put(lastKey, array);
 					}
 					boolean addAll = line.charAt(0) == '+';
-					String rem = line.substring(1).trim();
+					String rem = MaxmlLexer.trim(line, 1, line.length());
 					Object value;
 					if (rem.charAt(0) == '{' && rem.length() == 1) {
 						Map<String, Object> submap = parse(reader);
@@ -147,26 +149,24 @@ public class MaxmlParser {
 						// "key" : value
 						// quoted key because of colons
 						int quote = line.indexOf('\"', 1);
-						key = line.substring(1, quote).trim();
+						key = MaxmlLexer.trim(line, 1, quote);
 
-						value = line.substring(quote + 1).trim();
-						int colon = value.indexOf(':');
-						value = value.substring(colon + 1).trim();
+						int colon = line.indexOf(':', quote + 1);
+						value = MaxmlLexer.trim(line, colon < 0 ? quote + 1 : colon + 1, line.length());
 					} else if (line.charAt(0) == '\'') {
 						// 'key' : value
 						// quoted key because of colons
 						int quote = line.indexOf('\'', 1);
-						key = line.substring(1, quote).trim();
+						key = MaxmlLexer.trim(line, 1, quote);
 
-						value = line.substring(quote + 1).trim();
-						int colon = value.indexOf(':');
-						value = value.substring(colon + 1).trim();
+						int colon = line.indexOf(':', quote + 1);
+						value = MaxmlLexer.trim(line, colon < 0 ? quote + 1 : colon + 1, line.length());
 
 					} else {
 						// key : value
 						int colon = line.indexOf(':');
-						key = line.substring(0, colon).trim();
-						value = line.substring(colon + 1).trim();
+						key = MaxmlLexer.trim(line, 0, colon);
+						value = MaxmlLexer.trim(line, colon + 1, line.length());
 					}
 					Object o;
 					if (value.length() == 0) {
@@ -268,9 +268,7 @@ public class MaxmlParser {
 			// inline list
 			ArrayList<Object> array = new ArrayList<Object>();
 			String inside = value.substring(1, value.length() - 1).trim();
-			// http://www.programmersheaven.com/user/Jonathan/blog/73-Splitting-CSV-with-regex
-			for (String field : inside
-					.split(csvPattern)) {
+			for (String field : lexer.split(inside)) {
 				Object object = parseValue(field);
 				array.add(object);
 			}
@@ -280,71 +278,62 @@ public class MaxmlParser {
 			// inline map
 			MaxmlMap map = new MaxmlMap();
 			String inside = value.substring(1, value.length() - 1).trim();
-			for (String kvp : inside.split(csvPattern)) {
+			for (String kvp : lexer.split(inside)) {
 				int colon = kvp.indexOf(':');
 				if (colon < 0) {
 					throw new MaxmlException(
 							format("Illegal value \"{0}\". Inline map must have key:value pairs!\n{1}",
 									kvp, value));
 				}
-				String[] chunks = kvp.split(":", 2);
-				Object o = parseValue(chunks[1].trim());
-				map.put(chunks[0].trim(), o);
+				Object o = parseValue(kvp.substring(colon + 1));
+				map.put(MaxmlLexer.trim(kvp, 0, colon), o);
 			}
 			return map;
 		}
 
-		String vlc = value.toLowerCase();
-		if (vlc.equals("true") || vlc.equals("yes") || vlc.equals("on")) {
+		if (MaxmlLexer.isKeyword(value, "true") || MaxmlLexer.isKeyword(value, "yes") || MaxmlLexer.isKeyword(value, "on")) {
 			return Boolean.TRUE;
-		} else if (vlc.equals("false") || vlc.equals("no") || vlc.equals("off")) {
+		} else if (MaxmlLexer.isKeyword(value, "false") || MaxmlLexer.isKeyword(value, "no") || MaxmlLexer.isKeyword(value, "off")) {
 			return Boolean.FALSE;
 		} else if (value.length() > 0) {
-			// try parsing a whole number
-			try {
-				long along;
-				if (value.charAt(0) == '0') {
-					// octal
-					along = Long.decode(value);
-				} else if (wholePattern.matcher(value).find()) {
-					// whole number comma-formatted
-					along = wholeFormat.parse(value).longValue();
-				} else {
-					// hexadecimal, plain number
+			// whole number
+			Long along = null;
+			if (value.charAt(0) != '0' && MaxmlLexer.isGroupedNumber(value)) {
+				// whole number comma-formatted
+				along = parseGroupedNumber(value);
+			} else if (MaxmlLexer.isWholeNumber(value)) {
+				// octal, hexadecimal, plain number
+				try {
 					along = Long.decode(value);
+				} catch (NumberFormatException e) {
+					// overflow, try a decimal value
 				}
+			}
+			if (along != null) {
 				if (along <= Integer.MAX_VALUE && along >= Integer.MIN_VALUE) {
 					// if it fits in an int, return an int
-					return (int) along;
+					return along.intValue();
 				}
 				return along;
-			} catch (Exception e) {
 			}
-			// try parsing a decimal value
-			try {
-				double adouble = Double.parseDouble(value);
-				if (adouble <= Float.MAX_VALUE && adouble >= Float.MIN_VALUE) {
-					return (float) adouble;
+
+			// decimal value
+			if (MaxmlLexer.isDecimalNumber(value)) {
+				try {
+					double adouble = Double.parseDouble(value);
+					if (adouble <= Float.MAX_VALUE && adouble >= Float.MIN_VALUE) {
+						return (float) adouble;
+					}
+					return adouble;
+				} catch (NumberFormatException e) {
+					// malformed hexadecimal floating point value
 				}
-				return adouble;
-			} catch (Throwable t) {
 			}
 
 			// date/time parsing
-			if (datePattern.matcher(value).find()) {
-				DateFormat[] formats = { canonical, iso8601, date };
-				for (DateFormat df : formats) {
-					try {
-						Date aDate = df.parse(value);
-						// reset milliseconds to 0
-						Calendar cal = Calendar.getInstance();
-						cal.setTime(aDate);
-						cal.set(Calendar.MILLISECOND, 0);
-						return cal.getTime();
-					} catch (Throwable t) {
-						// t.printStackTrace();
-					}
-				}
+			Date aDate = MaxmlDates.parse(value);
+			if (aDate != null) {
+				return aDate;
 			}
 		}
 
@@ -352,6 +341,39 @@ public class MaxmlParser {
 		return value;
 	}
 	
+	/**
+	 * Parses a comma-formatted whole number.  Numbers of up to 18 digits are
+	 * parsed directly if the number format groups with commas.
+	 * 
+	 * @param value
+	 * @return the number or null
+	 */
+	protected Long parseGroupedNumber(String value) {
+		if (asciiGrouping) {
+			long along = 0;
+			int digits = 0;
+			for (int i = 0; i < value.length(); i++) {
+				char c = value.charAt(i);
+				if (c != ',') {
+					along = along * 10 + (c - '0');
+					digits++;
+				}
+			}
+			if (digits <= 18) {
+				return along;
+			}
+		}
+		try {
+			return new DecimalFormat(wholeFormat, wholeSymbols).parse(value).longValue();
+		} catch (Exception e) {
+			return null;
+		}
+	}
+	
+	private static boolean isAsciiGrouping(DecimalFormatSymbols symbols) {
+		return symbols.getGroupingSeparator() == ',' && symbols.getDecimalSeparator() == '.' && symbols.getZeroDigit() == '0';
+	}
+	
 	protected String parseTextBlock(BufferedReader reader, int offset) throws IOException, MaxmlException {
 		String line = null;
 		StringBuilder sb = new StringBuilder();
@@ -457,10 +479,9 @@ public class MaxmlParser {
 		}
 
 		String [] fields = value.split("\\.");
-		Pattern p = Pattern.compile("(.*)\\[(\\d+)\\]");
 		for (String field : fields) {
 			int index = -1;
-			Matcher m = p.matcher(field);
+			Matcher m = indexPattern.matcher(field);
 			if (m.find()) {
 				String i = m.group(2);
 				index = Integer.parseInt(i);
@@ -480,9 +501,8 @@ public class MaxmlParser {
 	}
 	
 	protected Object getObject(String value, List<?> list) {
-		Pattern p = Pattern.compile("(.*)\\[(\\d+)\\]");
 		int index = -1;
-		Matcher m = p.matcher(value);
+		Matcher m = indexPattern.matcher(value);
 		if (m.find()) {
 			String i = m.group(2);
 			index = Integer.parseInt(i);
@@ -27,6 +27,9 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
 import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
 import java.util.List;
@@ -131,22 +134,14 @@ public class FileUtils {
 	 * @param content
 	 */
 	public static void writeContent(File file, String content) {
-		File tempFile = new File(file.getAbsolutePath() + "." + Long.toHexString(System.currentTimeMillis()));
 		try {
-			file.getAbsoluteFile().getParentFile().mkdirs();
+			File tempFile = createTempFile(file);
 			OutputStreamWriter os = new OutputStreamWriter(
 					new FileOutputStream(tempFile), Charset.forName("UTF-8"));
 			BufferedWriter writer = new BufferedWriter(os);
 			writer.append(content);
 			writer.close();
-			if (file.exists()) {				
-				if (!file.delete()) {
-					System.err.println("Failed to delete " + file);	
-				}
-			}
-			if (!tempFile.renameTo(file)) {
-				System.err.println("Failed to rename temp file to " + file);	
-			}
+			replace(tempFile, file);
 		} catch (Throwable t) {
 			System.err.println("Failed to write content of " + file);
 			t.printStackTrace();
@@ -160,20 +155,66 @@ public class FileUtils {
 	 * @param content
 	 */
 	public static void writeContent(File file, byte [] data) {
-		File tempFile = new File(file.getAbsolutePath() + "." + Long.toHexString(System.currentTimeMillis()));
 		try {
-			file.getAbsoluteFile().getParentFile().mkdirs();
+			File tempFile = createTempFile(file);
 			FileOutputStream os = new FileOutputStream(tempFile);
 			os.write(data);			
 			os.close();
-			if (file.exists()) {				
-				file.delete();
-			}
-			tempFile.renameTo(file);
+			replace(tempFile, file);
 		} catch (IOException e) {
 			throw new RuntimeException("Error writing to file " + file, e);
 		}
 	}
+	
+	/**
+	 * Creates a uniquely named temp file in the folder of the file so that
+	 * concurrent writers of the same file do not share a temp file.
+	 * 
+	 * @param file
+	 * @return the temp file
+	 * @throws IOException
+	 */
+	private static File createTempFile(File file) throws IOException {
+		File folder = file.getAbsoluteFile().getParentFile();
+		folder.mkdirs();
+		String prefix = file.getName() + ".";
+		if (prefix.length() < 3) {
+			// createTempFile requires a prefix of at least 3 characters
+			prefix += "tmp.";
+		}
+		return File.createTempFile(prefix, null, folder);
+	}
+	
+	/**
+	 * Replaces the file with the temp file.  The file is replaced atomically,
+	 * if supported by the file system, so that concurrent readers see either
+	 * the previous or the new content but never a missing or partial file.
+	 * 
+	 * @param tempFile
+	 * @param file
+	 */
+	private static void replace(File tempFile, File file) {
+		try {
+			try {
+				Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+						StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+			return;
+		} catch (IOException e) {
+			// e.g. the file is locked on Windows
+		}
+		if (file.exists()) {				
+			if (!file.delete()) {
+				System.err.println("Failed to delete " + file);	
+			}
+		}
+		if (!tempFile.renameTo(file)) {
+			System.err.println("Failed to rename temp file to " + file);	
+			tempFile.delete();
+		}
+	}
 
 	/**
 	 * Recursively traverses a folder and its subfolders to calculate the total
@@ -0,0 +1,42 @@
+/*
+ * Copyright 2013 James Moger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.moxie.tests;
+
+import java.io.File;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.moxie.utils.FileUtils;
+
+
+public class FileUtilsTest extends Assert {
+
+	@Test
+	public void testWriteShortName() throws Exception {
+		File folder = File.createTempFile("moxie-", ".files");
+		folder.delete();
+		try {
+			File file = new File(folder, "a");
+			FileUtils.writeContent(file, "1");
+			assertEquals("1", FileUtils.readContent(file, null));
+			FileUtils.writeContent(file, "2".getBytes("UTF-8"));
+			assertEquals("2", FileUtils.readContent(file, null));
+			assertEquals(1, folder.list().length);
+		} finally {
+			FileUtils.delete(folder);
+		}
+	}
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2013 James Moger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.moxie.tests;
+
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.moxie.maxml.Maxml;
+import org.moxie.maxml.MaxmlBinder;
+import org.moxie.maxml.MaxmlException;
+import org.moxie.maxml.MaxmlMap;
+
+/**
+ * Measures binding a large build.moxie, e.g. the configuration of a
+ * multi-module build, to typed objects.  The benchmark is not matched by the
+ * default test includes and must be run explicitly.
+ */
+public class MaxmlBinderBenchmark extends Assert {
+
+	private static final int MODULES = 200;
+
+	private static final int WARMUP = 200;
+
+	private static final int RUNS = 2000;
+
+	public static class Module {
+		public String name;
+		public String artifactId;
+		public int port;
+		public boolean active;
+		public List<String> roles;
+		public Map<String, Object> properties;
+	}
+
+	public static class Build {
+		public String name;
+		public String version;
+		public List<String> apply;
+		public List<Module> modules;
+	}
+
+	@Test
+	public void testBind() throws MaxmlException {
+		String content = build(MODULES);
+		MaxmlMap map = Maxml.parse(content);
+		MaxmlBinder<Build> binder = MaxmlBinder.of(Build.class);
+		Build build = null;
+		for (int i = 0; i < WARMUP; i++) {
+			build = binder.bind(map);
+		}
+		long start = System.nanoTime();
+		for (int i = 0; i < RUNS; i++) {
+			build = binder.bind(map);
+		}
+		long bind = System.nanoTime() - start;
+
+		start = System.nanoTime();
+		for (int i = 0; i < RUNS; i++) {
+			build = Maxml.parse(content, Build.class);
+		}
+		long parse = System.nanoTime() - start;
+		System.out.println("bind of " + MODULES + " modules took " + (bind / RUNS / 1000L) + " microseconds");
+		System.out.println("parse and bind of " + MODULES + " modules took " + (parse / RUNS / 1000L) + " microseconds");
+
+		assertEquals(MODULES, build.modules.size());
+		assertEquals(8080 + MODULES - 1, build.modules.get(MODULES - 1).port);
+		assertEquals(2, build.modules.get(0).roles.size());
+	}
+
+	private static String build(int modules) {
+		StringBuilder sb = new StringBuilder();
+		sb.append("name: Moxie\n");
+		sb.append("version: 0.9.0\n");
+		sb.append("apply: eclipse, intellij, pom\n");
+		sb.append("modules:\n");
+		for (int i = 0; i < modules; i++) {
+			sb.append("- {\n");
+			sb.append("  name: module").append(i).append('\n');
+			sb.append("  artifactId: moxie-module").append(i).append('\n');
+			sb.append("  port: ").append(8080 + i).append('\n');
+			sb.append("  active: true\n");
+			sb.append("  roles: [compile, test]\n");
+			sb.append("  properties: {\n");
+			sb.append("    java.version: 1.8\n");
+			sb.append("    encoding: UTF-8\n");
+			sb.append("    }\n");
+			sb.append("  }\n");
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2013 James Moger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.moxie.tests;
+
+import java.io.File;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.moxie.maxml.Maxml;
+import org.moxie.maxml.MaxmlException;
+import org.moxie.maxml.MaxmlParser;
+import org.moxie.utils.FileUtils;
+
+/**
+ * Measures the Maxml parser with a build.moxie and a set of typical scalars.
+ * The benchmark is not matched by the default test includes and must be run
+ * explicitly.
+ */
+public class MaxmlParserBenchmark extends Assert {
+
+	private static final int WARMUP = 2000;
+
+	private static final int RUNS = 20000;
+
+	private static final String [] SCALARS = { "Moxie", "1.2.3", "org.moxie:moxie-common:0.9.0", "true", "8080",
+		"1,101", "0x8", "3.14", "2013-01-01", "2013-01-01T12:00:00Z", "[compile, test, build]",
+		"{ id: central, url: \"https://repo1.maven.org/maven2\", affinity: [ 'org.moxie' ] }" };
+
+	@Test
+	public void testParseDocument() throws MaxmlException {
+		String content = FileUtils.readContent(new File("build.moxie"), "\n");
+		Map<String, Object> map = null;
+		for (int i = 0; i < WARMUP; i++) {
+			map = Maxml.parse(content);
+		}
+		long start = System.nanoTime();
+		for (int i = 0; i < RUNS; i++) {
+			map = Maxml.parse(content);
+		}
+		long elapsed = System.nanoTime() - start;
+		System.out.println("parse of build.moxie took " + (elapsed / RUNS) + " ns");
+		assertEquals("Moxie-Maxml", map.get("name"));
+	}
+
+	@Test
+	public void testParseValues() throws MaxmlException {
+		MaxmlParser parser = new MaxmlParser();
+		Object value = null;
+		for (int i = 0; i < WARMUP; i++) {
+			for (String scalar : SCALARS) {
+				value = parser.parseValue(scalar);
+			}
+		}
+		long start = System.nanoTime();
+		for (int i = 0; i < RUNS; i++) {
+			for (String scalar : SCALARS) {
+				value = parser.parseValue(scalar);
+			}
+		}
+		long elapsed = System.nanoTime() - start;
+		System.out.println("parse of " + SCALARS.length + " values took " + (elapsed / RUNS) + " ns");
+		assertNotNull(value);
+	}
+}
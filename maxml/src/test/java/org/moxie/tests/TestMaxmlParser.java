@@ -4,7 +4,9 @@ import java.io.File;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 import java.util.TimeZone;
 
 import org.junit.Assert;
@@ -117,6 +119,71 @@ public class TestMaxmlParser extends Assert {
 				.parseValue("2003-07-04T15:15:15-0400"))));
 	}
 
+	@SuppressWarnings("rawtypes")
+	@Test
+	public void testScalarClassification() throws Exception {
+		MaxmlParser parser = new MaxmlParser();
+		// whole numbers
+		assertEquals(-255, parser.parseValue("-#ff"));
+		assertEquals(16, parser.parseValue("+0x10"));
+		assertEquals(11, parser.parseValue("1,1"));
+		assertEquals(Long.MAX_VALUE, parser.parseValue("9,223,372,036,854,775,807"));
+		assertEquals(Long.MAX_VALUE, parser.parseValue("9,223,372,036,854,775,808"));
+		assertEquals(Integer.MIN_VALUE, parser.parseValue("-2147483648"));
+		assertEquals(2147483648L, parser.parseValue("2147483648"));
+
+		// invalid octal and overflowing whole numbers are decimals
+		assertEquals(8f, parser.parseValue("08"));
+		assertEquals(1.0E20f, parser.parseValue("99999999999999999999"));
+
+		// decimals
+		assertEquals(1f, parser.parseValue("1."));
+		assertEquals(0.5f, parser.parseValue(".5"));
+		assertEquals(100000f, parser.parseValue("1E+5f"));
+		assertEquals(8f, parser.parseValue("0x1p3"));
+		assertEquals(-1.5d, parser.parseValue("-1.5"));
+		assertEquals(Double.NaN, parser.parseValue("NaN"));
+
+		// strings
+		assertEquals("1.2.3", parser.parseValue("1.2.3"));
+		assertEquals("100l", parser.parseValue("100l"));
+		assertEquals("1e", parser.parseValue("1e"));
+		assertEquals("0,1", parser.parseValue("0,1"));
+		assertEquals("1,", parser.parseValue("1,"));
+		assertEquals("0xZZ", parser.parseValue("0xZZ"));
+		assertEquals("Infinityx", parser.parseValue("Infinityx"));
+		assertEquals("2003-7-04", parser.parseValue("2003-7-04"));
+
+		// booleans are case-insensitive
+		assertEquals(true, parser.parseValue("TRUE"));
+		assertEquals(false, parser.parseValue("oFf"));
+
+		// dates are parsed from a date prefix
+		SimpleDateFormat df = new SimpleDateFormat("yyyy-MM-dd");
+		assertEquals("2003-07-04", df.format(((Date) parser.parseValue("2003-07-04T15:15:15.235Z"))));
+		assertEquals("2003-07-04", df.format(((Date) parser.parseValue("2003-07-04xyz"))));
+
+		// general time zones
+		assertEquals(1357034400000L, ((Date) parser.parseValue("2013-01-01T10:00:00GMT")).getTime());
+		assertEquals(1357030800000L, ((Date) parser.parseValue("2013-01-01T10:00:00GMT+01:00")).getTime());
+
+		// inline lists split on unquoted commas, trailing empty values are dropped
+		assertEquals("[]", parser.parseValue("[,]").toString());
+		assertEquals("[]", parser.parseValue("[]").toString());
+		assertEquals("[a]", parser.parseValue("[a,,]").toString());
+		assertEquals("[, a]", parser.parseValue("[,a]").toString());
+		assertEquals("[, ,, a]", parser.parseValue("[\"\", \",\", a]").toString());
+		assertEquals("[a \"b, c\" d, e]", parser.parseValue("[a \"b, c\" d, e]").toString());
+		assertEquals(2, ((List) parser.parseValue("[\"a\"\"b\", c]")).size());
+
+		// inline maps
+		MaxmlMap map = (MaxmlMap) parser.parseValue("{ a: 1, b: [x], c: \"q, r\", d: e:f }");
+		assertEquals(4, map.size());
+		assertEquals("[x]", map.get("b").toString());
+		assertEquals("q, r", map.get("c"));
+		assertEquals("e:f", map.get("d"));
+	}
+
 	@SuppressWarnings("rawtypes")
 	@Test
 	public void testParse() throws MaxmlException {
@@ -152,6 +219,80 @@ public class TestMaxmlParser extends Assert {
 		assertEquals(2, test.developers.size());
 	}
 
+	@Test
+	public void testLocaleNumbers() throws Exception {
+		Locale locale = Locale.getDefault();
+		try {
+			Locale.setDefault(Locale.GERMANY);
+			// the comma is the decimal separator
+			MaxmlParser parser = new MaxmlParser();
+			assertEquals(1, parser.parseValue("1,234"));
+			assertEquals(999, parser.parseValue("999,999,999,999,999,999"));
+
+			Locale.setDefault(Locale.US);
+			parser = new MaxmlParser();
+			assertEquals(1234, parser.parseValue("1,234"));
+			assertEquals(999999999999999999L, parser.parseValue("999,999,999,999,999,999"));
+		} finally {
+			Locale.setDefault(locale);
+		}
+	}
+
+	@Test
+	public void testBinding() throws MaxmlException {
+		String content = "name: Moxie\nport: 8080\nratio: 3\nactive: \"true\"\nscope: COMPILE\nreleased: 2013-01-01T12:00:00+0000\ncolors: red, green\nports: [80, 8080]\ntags: [b, a, b]\nlimits: {\ncpu: 2\nio: 4\n}\nowner: {\nname: James\nroles: [developer]\n}\nmembers:\n- { name: A }\n- { name: B, roles: tester }";
+		TestBinding test = Maxml.parse(content, TestBinding.class);
+		assertEquals("Moxie", test.name);
+		assertEquals(8080, test.port);
+		assertEquals(3d, test.ratio, 0d);
+		assertTrue(test.active);
+		assertEquals(TestScope.compile, test.scope);
+		assertEquals(1357041600000L, test.released.getTime());
+		assertEquals("[red, green]", test.colors.toString());
+		assertEquals(Integer.valueOf(8080), test.ports.get(1));
+		assertEquals("[b, a]", test.tags.toString());
+		assertEquals(Integer.valueOf(4), test.limits.get("io"));
+		assertEquals("James", test.owner.name);
+		assertEquals("[developer]", test.owner.roles.toString());
+		assertEquals(2, test.members.size());
+		assertEquals("[tester]", test.members.get(1).roles.toString());
+
+		try {
+			Maxml.parse("unknown: 1", TestBinding.class);
+			fail("unbound property");
+		} catch (MaxmlException e) {
+		}
+		try {
+			Maxml.parse("port: eighty", TestBinding.class);
+			fail("illegal number");
+		} catch (MaxmlException e) {
+		}
+	}
+
+	public static enum TestScope {
+		compile, test
+	}
+
+	public static class TestPerson {
+		public String name;
+		public List<String> roles;
+	}
+
+	public static class TestBinding {
+		public String name;
+		public int port;
+		public double ratio;
+		public boolean active;
+		public TestScope scope;
+		public Date released;
+		public List<String> colors;
+		public List<Integer> ports;
+		public Set<String> tags;
+		public Map<String, Integer> limits;
+		public TestPerson owner;
+		public List<TestPerson> members;
+	}
+
 	public static class TestObject {
 
 		public String name;
@@ -0,0 +1,222 @@
+/*
+ * Copyright 2013 James Moger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.moxie.proxy;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.moxie.Constants;
+import org.moxie.Dependency;
+import org.moxie.IMavenCache;
+import org.moxie.utils.DeepCopier;
+import org.moxie.utils.FileUtils;
+import org.moxie.utils.StringUtils;
+
+/**
+ * In-memory index of the artifact folders of the local and proxied
+ * repositories.
+ * <p>
+ * The index of a repository is built when its Lucene index is built and is
+ * updated when the proxy downloads an artifact.  Dependency links and POMs are
+ * looked up in the index instead of the filesystem.  Repositories which have
+ * not been indexed yet and dependencies which must be resolved from
+ * maven-metadata.xml, e.g. version ranges, RELEASE, and LATEST, are looked up
+ * in the filesystem.
+ */
+public class ArtifactIndex {
+
+	private final ProxyConfig config;
+
+	/**
+	 * repository -> artifact folder, e.g. org/moxie/moxie-common/0.9.0 -> file names
+	 */
+	private final Map<String, Map<String, Set<String>>> repositories;
+
+	public ArtifactIndex(ProxyConfig config) {
+		this.config = config;
+		this.repositories = new ConcurrentHashMap<String, Map<String, Set<String>>>();
+	}
+
+	/**
+	 * Rebuilds the index of a repository from its POM files.  Each folder of a
+	 * POM file is listed once.
+	 *
+	 * @param repository
+	 * @param pomFiles
+	 */
+	public void index(String repository, Collection<File> pomFiles) {
+		File root = config.getMavenCache(repository).getRootFolder();
+		Map<String, Set<String>> folders = new ConcurrentHashMap<String, Set<String>>();
+		for (File pomFile : pomFiles) {
+			File folder = pomFile.getParentFile();
+			String path = FileUtils.getRelativePath(root, folder);
+			if (folders.containsKey(path)) {
+				continue;
+			}
+			Set<String> names = newSet();
+			String [] list = folder.list();
+			if (list != null) {
+				Collections.addAll(names, list);
+			}
+			folders.put(path, names);
+		}
+		repositories.put(repository, folders);
+	}
+
+	/**
+	 * Adds a downloaded artifact file to the index of its remote repository.
+	 *
+	 * @param file
+	 */
+	public void add(File file) {
+		String repository = config.getRepositoryId(file);
+		if (repository == null) {
+			return;
+		}
+		Map<String, Set<String>> folders = repositories.get(repository);
+		if (folders == null) {
+			// not indexed yet, the file will be found by the indexer
+			return;
+		}
+		File root = config.getMavenCache(repository).getRootFolder();
+		String path = FileUtils.getRelativePath(root, file.getParentFile());
+		Set<String> names = folders.get(path);
+		if (names == null) {
+			names = newSet();
+			folders.put(path, names);
+		}
+		names.add(file.getName());
+	}
+
+	/**
+	 * Returns true if the repository has been indexed.
+	 *
+	 * @param repository
+	 * @return true if the repository has been indexed
+	 */
+	public boolean isIndexed(String repository) {
+		return repositories.containsKey(repository);
+	}
+
+	/**
+	 * Returns the indexed file names of an artifact folder.
+	 *
+	 * @param repository
+	 * @param folder
+	 * @return the file names or null if the folder or the repository has not
+	 *         been indexed
+	 */
+	public Set<String> getFiles(String repository, File folder) {
+		Map<String, Set<String>> folders = repositories.get(repository);
+		if (folders == null) {
+			return null;
+		}
+		File root = config.getMavenCache(repository).getRootFolder();
+		return folders.get(FileUtils.getRelativePath(root, folder));
+	}
+
+	/**
+	 * Finds the repository folder of a dependency.  If the dependency is
+	 * available from more than one repository, the last repository of the
+	 * configured local and remote repositories is linked.
+	 *
+	 * @param dependency
+	 * @param repositories
+	 *            the repositories in precedence order
+	 * @return a link to the dependency folder or null
+	 */
+	public DependencyLink find(Dependency dependency, List<String> repositories) {
+		String path = null;
+		boolean indexable = !dependency.isRangedVersion()
+				&& !Constants.RELEASE.equalsIgnoreCase(dependency.version)
+				&& !Constants.LATEST.equalsIgnoreCase(dependency.version);
+		String folder = getFolder(dependency);
+		for (String repository : repositories) {
+			Map<String, Set<String>> folders = this.repositories.get(repository);
+			if (indexable && folders != null) {
+				Set<String> names = folders.get(folder);
+				if (names != null && contains(names, dependency)) {
+					path = repository + "/" + folder;
+				}
+			} else {
+				// resolve the artifact from the filesystem
+				IMavenCache cache = config.getMavenCache(repository);
+				if (cache == null) {
+					continue;
+				}
+				// resolving a snapshot or a version range modifies the dependency
+				Dependency artifact = dependency.isMetaVersion() ? DeepCopier.copy(dependency) : dependency;
+				File file = cache.getArtifact(artifact, dependency.extension);
+				if (file != null && file.exists()) {
+					path = repository + "/" + FileUtils.getRelativePath(cache.getRootFolder(), file.getParentFile());
+				}
+			}
+		}
+		if (StringUtils.isEmpty(path)) {
+			return null;
+		}
+		return new DependencyLink(dependency.getCoordinates(), path);
+	}
+
+	/**
+	 * Returns the artifact folder of a dependency, relative to the repository
+	 * root.
+	 */
+	static String getFolder(Dependency dependency) {
+		return dependency.groupId.replace('.', '/') + "/" + dependency.artifactId + "/" + dependency.version;
+	}
+
+	/**
+	 * Returns true if the file names of an artifact folder contain the
+	 * artifact of the dependency.  A snapshot matches any of its revisions.
+	 */
+	static boolean contains(Set<String> names, Dependency dependency) {
+		// [artifactId]-[revision](-[classifier]).[ext]
+		String ext = dependency.extension;
+		String suffix = "." + ext;
+		if (!StringUtils.isEmpty(dependency.classifier) && !Constants.POM.equalsIgnoreCase(ext)) {
+			// POMs do not have classifiers
+			suffix = "-" + dependency.classifier + suffix;
+		}
+		String revision = StringUtils.isEmpty(dependency.revision) ? dependency.version : dependency.revision;
+		if (names.contains(dependency.artifactId + "-" + revision + suffix)) {
+			return true;
+		}
+		if (!dependency.isSnapshot()) {
+			return false;
+		}
+		// timestamped snapshot, e.g. moxie-0.9.0-20130101.120000-1.jar
+		String prefix = dependency.artifactId + "-" + dependency.version.substring(0, dependency.version.indexOf("-SNAPSHOT")) + "-";
+		for (String name : names) {
+			if (name.startsWith(prefix) && name.endsWith(suffix) && name.length() > prefix.length() + suffix.length()) {
+				String timestamp = name.substring(prefix.length(), name.length() - suffix.length());
+				if (timestamp.matches("\\d{8}\\.\\d{6}-\\d+")) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	private static Set<String> newSet() {
+		return Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+	}
+}
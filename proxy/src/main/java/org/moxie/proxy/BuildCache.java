@@ -0,0 +1,282 @@
+/*
+ * Copyright 2013 James Moger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.moxie.proxy;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * Stores the outputs of build actions, e.g. compiled classes, jars, and test
+ * reports, for the Moxie build cache protocol.
+ * <p>
+ * Entries are addressed by the SHA-1 of the inputs of the action and stored
+ * as files in the build cache folder.  When the total size of the entries
+ * exceeds the size limit, the least recently used entries are deleted.  The
+ * last modified time of an entry is its last use so the order is restored
+ * when the proxy restarts.
+ * <p>
+ * An entry is never replaced.  The first stored entry of a key is kept, so a
+ * client can not overwrite the outputs which other clients already use.
+ */
+public class BuildCache {
+
+	private static final Pattern KEY = Pattern.compile("[0-9a-f]{40}");
+
+	private final File folder;
+
+	private final long maxSize;
+
+	private final Map<String, Long> entries;
+
+	private long size;
+
+	private final AtomicLong hits;
+
+	private final AtomicLong misses;
+
+	private final AtomicLong stores;
+
+	private final AtomicLong evictions;
+
+	private final AtomicLong bytesServed;
+
+	/**
+	 * @param folder
+	 * @param maxSize
+	 *            the size limit in bytes
+	 */
+	public BuildCache(File folder, long maxSize) {
+		this.folder = folder;
+		this.maxSize = maxSize;
+		this.entries = new LinkedHashMap<String, Long>(16, 0.75f, true);
+		this.hits = new AtomicLong();
+		this.misses = new AtomicLong();
+		this.stores = new AtomicLong();
+		this.evictions = new AtomicLong();
+		this.bytesServed = new AtomicLong();
+		load();
+	}
+
+	/**
+	 * Reads the existing entries, least recently used first.
+	 */
+	private synchronized void load() {
+		List<File> files = new ArrayList<File>();
+		File [] dirs = folder.listFiles();
+		if (dirs != null) {
+			for (File dir : dirs) {
+				File [] list = dir.listFiles();
+				if (list == null) {
+					continue;
+				}
+				for (File file : list) {
+					if (isKey(file.getName())) {
+						files.add(file);
+					} else {
+						// interrupted upload
+						file.delete();
+					}
+				}
+			}
+		}
+		Collections.sort(files, new Comparator<File>() {
+			@Override
+			public int compare(File o1, File o2) {
+				return Long.compare(o1.lastModified(), o2.lastModified());
+			}
+		});
+		for (File file : files) {
+			entries.put(file.getName(), file.length());
+			size += file.length();
+		}
+		evict();
+	}
+
+	public static boolean isKey(String key) {
+		return key != null && KEY.matcher(key).matches();
+	}
+
+	private File getFile(String key) {
+		return new File(folder, key.substring(0, 2) + "/" + key);
+	}
+
+	/**
+	 * Returns true if the entry is cached.
+	 *
+	 * @param key
+	 * @return true if the entry is cached
+	 */
+	public synchronized boolean contains(String key) {
+		return entries.containsKey(key);
+	}
+
+	/**
+	 * Returns the file of an entry and marks the entry as used.
+	 *
+	 * @param key
+	 * @return the file or null if the entry is not cached
+	 */
+	public File get(String key) {
+		File file = null;
+		synchronized (this) {
+			if (isKey(key) && entries.get(key) != null) {
+				file = getFile(key);
+				file.setLastModified(System.currentTimeMillis());
+			}
+		}
+		if (file == null || !file.exists()) {
+			misses.incrementAndGet();
+			return null;
+		}
+		hits.incrementAndGet();
+		bytesServed.addAndGet(file.length());
+		return file;
+	}
+
+	/**
+	 * Stores an entry.  An entry which is already cached is not replaced and
+	 * an entry which is larger than the size limit is not stored.  The content
+	 * is only read up to the size limit.
+	 *
+	 * @param key
+	 * @param content
+	 * @return true if the entry was stored
+	 * @throws IOException
+	 */
+	public boolean put(String key, InputStream content) throws IOException {
+		if (!isKey(key)) {
+			throw new IllegalArgumentException("invalid key " + key);
+		}
+		if (contains(key)) {
+			return false;
+		}
+		File file = getFile(key);
+		file.getParentFile().mkdirs();
+		File temp = File.createTempFile(key + ".", ".tmp", file.getParentFile());
+		try {
+			long length = 0;
+			OutputStream os = new FileOutputStream(temp);
+			try {
+				byte [] buffer = new byte[32 * 1024];
+				int len;
+				while ((len = content.read(buffer)) > -1) {
+					length += len;
+					if (length > maxSize) {
+						return false;
+					}
+					os.write(buffer, 0, len);
+				}
+			} finally {
+				os.close();
+			}
+			synchronized (this) {
+				if (entries.containsKey(key)) {
+					// stored by a concurrent upload
+					return false;
+				}
+				try {
+					Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+							StandardCopyOption.ATOMIC_MOVE);
+				} catch (AtomicMoveNotSupportedException e) {
+					Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+				}
+				entries.put(key, length);
+				size += length;
+				evict();
+			}
+			stores.incrementAndGet();
+			return true;
+		} finally {
+			temp.delete();
+		}
+	}
+
+	/**
+	 * Deletes the least recently used entries until the cache is within its
+	 * size limit.
+	 */
+	private synchronized void evict() {
+		Iterator<Map.Entry<String, Long>> iterator = entries.entrySet().iterator();
+		while (size > maxSize && iterator.hasNext()) {
+			Map.Entry<String, Long> eldest = iterator.next();
+			getFile(eldest.getKey()).delete();
+			size -= eldest.getValue();
+			iterator.remove();
+			evictions.incrementAndGet();
+		}
+	}
+
+	public File getFolder() {
+		return folder;
+	}
+
+	public long getMaxSize() {
+		return maxSize;
+	}
+
+	public synchronized long getSize() {
+		return size;
+	}
+
+	public synchronized int getCount() {
+		return entries.size();
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	public long getStores() {
+		return stores.get();
+	}
+
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	public long getBytesServed() {
+		return bytesServed.get();
+	}
+
+	/**
+	 * Returns the ratio of served entries to all lookups.
+	 *
+	 * @return the hit rate between 0 and 1
+	 */
+	public double getHitRate() {
+		long lookups = hits.get() + misses.get();
+		return lookups == 0 ? 0 : ((double) hits.get()) / lookups;
+	}
+}
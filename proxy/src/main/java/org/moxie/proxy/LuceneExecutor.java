@@ -33,6 +33,7 @@ import java.util.Set;
 import java.util.TreeSet;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -103,6 +104,8 @@ public class LuceneExecutor implements Runnable {
 
 	private final Queue<IndexPom> queue;
 
+	private final AtomicLong generation = new AtomicLong();
+
 	public LuceneExecutor(ProxyConfig config) {
 		this.config = config;
 		this.indexesFolder = new File(config.getMoxieRoot(), LUCENE_DIR);
@@ -335,6 +338,7 @@ public class LuceneExecutor implements Runnable {
 			MoxieCache moxieCache = config.getMoxieCache();
 			IMavenCache repositoryCache = config.getMavenCache(repository);
 			Collection<File> files = repositoryCache.getFiles("." + org.moxie.Constants.POM);
+			config.getArtifactIndex().index(repository, files);
 			IndexWriter writer = getIndexWriter(repository);
 
 			for (File pomFile : files) {
@@ -365,6 +369,7 @@ public class LuceneExecutor implements Runnable {
 
 			writer.commit();
 			resetIndexSearcher(repository);
+			generation.incrementAndGet();
 			result.success();
 		} catch (Exception e) {
 			logger.log(Level.SEVERE, "Exception while reindexing " + repository, e);
@@ -372,6 +377,16 @@ public class LuceneExecutor implements Runnable {
 		return result;
 	}
 
+	/**
+	 * Returns the generation of the indexes.  The generation is incremented
+	 * each time an index is committed.
+	 * 
+	 * @return the index generation
+	 */
+	public long getGeneration() {
+		return generation.get();
+	}
+
 	/**
 	 * Incrementally update the index.
 	 * 
@@ -417,6 +432,7 @@ public class LuceneExecutor implements Runnable {
 			resetIndexSearcher(repository);
 			
 			config.resetRepositorySize(repository);
+			generation.incrementAndGet();
 		} catch (Exception e) {
 			logger.log(Level.SEVERE, "Exception while indexing " + pomFile, e);
 		}
@@ -16,12 +16,14 @@
 package org.moxie.proxy;
 
 import java.io.File;
-import java.io.FilenameFilter;
 import java.text.MessageFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Executors;
@@ -35,6 +37,7 @@ import org.moxie.RemoteRepository;
 import org.moxie.proxy.connection.ProxyConnectionServer;
 import org.moxie.proxy.resources.ArtifactsResource;
 import org.moxie.proxy.resources.AtomResource;
+import org.moxie.proxy.resources.BuildCacheResource;
 import org.moxie.proxy.resources.RecentResource;
 import org.moxie.proxy.resources.RootResource;
 import org.moxie.proxy.resources.SearchResource;
@@ -52,6 +55,10 @@ import freemarker.template.Configuration;
 
 public class MoxieProxy extends Application {
 
+	private static final int MAX_CACHED_POMS = 1000;
+
+	private static final int MAX_CACHED_PAGES = 500;
+
 	private final ProxyConfig config;
 
 	private final LuceneExecutor lucene;
@@ -60,6 +67,12 @@ public class MoxieProxy extends Application {
 	
 	private final ScheduledExecutorService executorService;
 
+	private final Map<File, CachedPom> poms;
+
+	private final PageCache pages;
+
+	private final BuildCache buildCache;
+
 	private Configuration configuration;
 	
 	public MoxieProxy(ProxyConfig config) {
@@ -67,6 +80,17 @@ public class MoxieProxy extends Application {
 		this.lucene = new LuceneExecutor(config);
 		this.proxy = new ProxyConnectionServer(config, lucene);
 		this.executorService = Executors.newSingleThreadScheduledExecutor();
+		this.poms = Collections.synchronizedMap(new LinkedHashMap<File, CachedPom>(16, 0.75f, true) {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<File, CachedPom> eldest) {
+				return size() > MAX_CACHED_POMS;
+			}
+		});
+		this.pages = new PageCache(MAX_CACHED_PAGES);
+		this.buildCache = new BuildCache(new File(config.getMoxieRoot(), "buildcache"), config.getBuildCacheSize());
 	}
 	
 	@Override
@@ -103,6 +127,10 @@ public class MoxieProxy extends Application {
 		// Atom artifacts feed
 		router.attach("/atom/{repository}", AtomResource.class);
 		router.attach("/atom", AtomResource.class);
+
+		// Build cache
+		router.attach("/cache/{key}", BuildCacheResource.class);
+		router.attach("/cache", BuildCacheResource.class);
 		
 		// Root 
 		router.attach("/", RootResource.class);
@@ -197,24 +225,74 @@ public class MoxieProxy extends Application {
 	public ProxyConfig getProxyConfig() {
 		return config;
 	}
+
+	public PageCache getPageCache() {
+		return pages;
+	}
+
+	public BuildCache getBuildCache() {
+		return buildCache;
+	}
+
+	/**
+	 * Returns the generation of the Lucene indexes, which is incremented each
+	 * time an index is committed.
+	 */
+	public long getIndexGeneration() {
+		return lucene.getGeneration();
+	}
 	
-	public Pom readPom(File folder) {
-		if (folder.isDirectory()) {
-			File [] poms = folder.listFiles(new FilenameFilter() {
-				
-				@Override
-				public boolean accept(File dir, String name) {
-					return name.toLowerCase().endsWith(org.moxie.Constants.POM);
-				}
-			});
-			if (poms == null || poms.length == 0) {
+	/**
+	 * Reads the POM of an artifact folder for browsing.  The POM file is
+	 * looked up in the artifact index and the folder is only listed if the
+	 * index does not know the POM.  Parsed POMs are cached until the POM file
+	 * changes.
+	 * 
+	 * @param repository
+	 * @param folder
+	 * @return the POM, which must not be modified, or null
+	 */
+	public Pom readPom(String repository, File folder) {
+		Collection<String> names = config.getArtifactIndex().getFiles(repository, folder);
+		String name = names == null ? null : getPomName(names);
+		if (name == null) {
+			if (!folder.isDirectory()) {
 				return null;
 			}
-			File pomFile = poms[0];
-			IMavenCache cache = config.getMoxieCache();
-			return PomReader.readPom(cache, pomFile);
+			String [] list = folder.list();
+			if (list == null) {
+				return null;
+			}
+			name = getPomName(Arrays.asList(list));
+			if (name == null) {
+				return null;
+			}
+		}
+		File pomFile = new File(folder, name);
+		CachedPom cached = poms.get(pomFile);
+		if (cached != null && cached.lastModified == pomFile.lastModified() && cached.length == pomFile.length()) {
+			return cached.pom;
+		}
+		IMavenCache cache = config.getMoxieCache();
+		Pom pom = PomReader.readPom(cache, pomFile);
+		if (pom != null) {
+			poms.put(pomFile, new CachedPom(pomFile, pom));
+		}
+		return pom;
+	}
+
+	/**
+	 * Returns the name of the POM file of an artifact folder.  If there are
+	 * several, e.g. snapshot revisions, the last name is returned.
+	 */
+	private String getPomName(Collection<String> names) {
+		String pom = null;
+		for (String name : names) {
+			if (name.toLowerCase().endsWith(org.moxie.Constants.POM) && (pom == null || name.compareTo(pom) > 0)) {
+				pom = name;
+			}
 		}
-		return null;
+		return pom;
 	}
 		
 	/**
@@ -278,4 +356,16 @@ public class MoxieProxy extends Application {
 		// TODO authenticate here
 		return true;
 	}
+
+	private static class CachedPom {
+		final long lastModified;
+		final long length;
+		final Pom pom;
+
+		CachedPom(File file, Pom pom) {
+			this.lastModified = file.lastModified();
+			this.length = file.length();
+			this.pom = pom;
+		}
+	}
 }
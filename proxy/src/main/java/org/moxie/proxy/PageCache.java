@@ -0,0 +1,98 @@
+/*
+ * Copyright 2013 James Moger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.moxie.proxy;
+
+import java.io.UnsupportedEncodingException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.moxie.utils.StringUtils;
+
+/**
+ * Caches rendered pages and feeds of the web interface.
+ * <p>
+ * A page is cached by its request key, e.g. the request url and the language
+ * of the translation, with the version of the data it was rendered from, e.g.
+ * the Lucene index generation and the last modified time of the browsed folder.
+ * A cached page is served as long as the version is unchanged.  The ETag of a
+ * page is the SHA-1 hash of its content.
+ */
+public class PageCache {
+
+	private final Map<String, Page> pages;
+
+	public PageCache(final int maxPages) {
+		this.pages = Collections.synchronizedMap(new LinkedHashMap<String, Page>(16, 0.75f, true) {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Page> eldest) {
+				return size() > maxPages;
+			}
+		});
+	}
+
+	/**
+	 * Returns the cached page for the request key, if it was rendered from the
+	 * specified version of the data.
+	 *
+	 * @param key
+	 * @param version
+	 * @return the page or null
+	 */
+	public Page get(String key, String version) {
+		Page page = pages.get(key);
+		if (page == null || !page.version.equals(version)) {
+			return null;
+		}
+		return page;
+	}
+
+	/**
+	 * Caches a rendered page.
+	 *
+	 * @param key
+	 * @param version
+	 * @param mediaType
+	 * @param content
+	 * @return the cached page
+	 */
+	public Page put(String key, String version, String mediaType, String content) {
+		Page page = new Page(version, mediaType, content);
+		pages.put(key, page);
+		return page;
+	}
+
+	public static class Page {
+		public final String version;
+		public final String mediaType;
+		public final String content;
+		public final String tag;
+
+		Page(String version, String mediaType, String content) {
+			this.version = version;
+			this.mediaType = mediaType;
+			this.content = content;
+			try {
+				this.tag = StringUtils.getSHA1(content.getBytes("UTF-8"));
+			} catch (UnsupportedEncodingException e) {
+				throw new RuntimeException(e);
+			}
+		}
+	}
+}
@@ -18,6 +18,8 @@ package org.moxie.proxy;
 import java.io.File;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
 import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -37,6 +39,8 @@ import org.moxie.MoxieCache;
 import org.moxie.Proxy;
 import org.moxie.RemoteRepository;
 import org.moxie.maxml.Maxml;
+import org.moxie.maxml.MaxmlBinder;
+import org.moxie.maxml.MaxmlException;
 import org.moxie.maxml.MaxmlMap;
 import org.moxie.utils.FileUtils;
 import org.moxie.utils.StringUtils;
@@ -63,6 +67,9 @@ public class ProxyConfig {
 	private String dateFormat;
 	private int atomCount;
 	private int searchCount;
+	private int buildCacheSize;
+	private Map<String, String> buildCacheUsers;
+	private List<String> buildCachePushAddresses;
 	private String keystorePassword;
         private String userAgent;
 
@@ -76,6 +83,8 @@ public class ProxyConfig {
 	private List<AllowDeny> allowDeny;	
 	
 	private MoxieCache moxieCache;
+	private Map<File, IMavenCache> mavenCaches;
+	private ArtifactIndex artifactIndex;
 
 	public ProxyConfig() {
 		shutdownPort = 8079;
@@ -91,8 +100,12 @@ public class ProxyConfig {
 		remoteRepositories = Collections.emptyList();
 		remoteRepositoryLookup = new HashMap<String, RemoteRepository>();
 		repositorySizeCache = new ConcurrentHashMap<String, String>();
+		mavenCaches = new ConcurrentHashMap<File, IMavenCache>();
 		atomCount = 50;
 		searchCount = 50;
+		buildCacheSize = 1024;
+		buildCacheUsers = Collections.emptyMap();
+		buildCachePushAddresses = Collections.emptyList();
 		keystorePassword = "";
 		userAgent = "";
 	}
@@ -151,6 +164,7 @@ public class ProxyConfig {
 					moxieRoot = new File(map.getString("rootFolder", "moxie"));
 					setMoxieRoot(moxieRoot);
 					localRepositories = map.getStrings("localRepositories", localRepositories);
+					buildCacheSize = map.getInt("buildCacheSize", buildCacheSize);
 					remoteRepositories = parseRemoteRepositories(map);
 					for (RemoteRepository repository : remoteRepositories) {
 						remoteRepositoryLookup.put(repository.id, repository);
@@ -166,6 +180,8 @@ public class ProxyConfig {
 				allowDeny = parseAllowDeny(map);
 				atomCount = map.getInt("atomCount", atomCount);
 				searchCount = map.getInt("searchCount", searchCount);
+				buildCacheUsers = parseBuildCacheUsers(map);
+				buildCachePushAddresses = map.getStrings("buildCachePushAddresses", new ArrayList<String>());
 			} catch (Exception e) {
 				log.log(Level.SEVERE, "failed to parse " + configFile, e);
 			}
@@ -192,23 +208,24 @@ public class ProxyConfig {
 	}
 	
 	@SuppressWarnings("unchecked")
-	List<Proxy> parseProxies(MaxmlMap map) {
+	List<Proxy> parseProxies(MaxmlMap map) throws MaxmlException {
 		List<Proxy> list = new ArrayList<Proxy>();
 		if (map.containsKey("proxies")) {
 			List<MaxmlMap> values = (List<MaxmlMap>) map.get("proxies");
+			MaxmlBinder<Proxy> binder = MaxmlBinder.of(Proxy.class);
 			for (MaxmlMap definition : values) {
 				Proxy proxy = new Proxy();
-				proxy.id = definition.getString("id", "");
-				proxy.active = definition.getBoolean("active", true);
-				proxy.protocol = definition.getString("protocol", "http");
-				proxy.host = definition.getString("host", "");
-				proxy.port = definition.getInt("port", 80);
-				proxy.username = definition.getString("username", "");
-				proxy.password = definition.getString("password", "");
-				proxy.repositories = definition.getStrings("repositories", new ArrayList<String>());
-				proxy.proxyHosts = definition.getStrings("proxyHosts", new ArrayList<String>());
-				proxy.nonProxyHosts = definition.getStrings("nonProxyHosts", new ArrayList<String>());
-				list.add(proxy);
+				proxy.id = "";
+				proxy.active = true;
+				proxy.protocol = "http";
+				proxy.host = "";
+				proxy.port = 80;
+				proxy.username = "";
+				proxy.password = "";
+				proxy.repositories = new ArrayList<String>();
+				proxy.proxyHosts = new ArrayList<String>();
+				proxy.nonProxyHosts = new ArrayList<String>();
+				list.add(binder.bind(definition, proxy, false));
 			}
 		}
 		return list;
@@ -250,6 +267,26 @@ public class ProxyConfig {
 		return list;
 	}
 
+	Map<String, String> parseBuildCacheUsers(MaxmlMap map) {
+		Map<String, String> users = new HashMap<String, String>();
+		for (String value : map.getStrings("buildCacheUsers", new ArrayList<String>())) {
+			int colon = value.indexOf(':');
+			if (colon <= 0) {
+				log.warning(MessageFormat.format("illegal build cache user \"{0}\", expected username:password", value));
+				continue;
+			}
+			users.put(value.substring(0, colon), value.substring(colon + 1));
+		}
+		return users;
+	}
+
+	/**
+	 * Returns the last modified time of the loaded config file.
+	 */
+	public long getLastModified() {
+		return configLastModified;
+	}
+
 	public int getAtomCount() {
 		return atomCount;
 	}
@@ -258,6 +295,48 @@ public class ProxyConfig {
 		return searchCount;
 	}
 
+	/**
+	 * Returns the size limit of the build cache in bytes.
+	 */
+	public long getBuildCacheSize() {
+		return buildCacheSize * 1024L * 1024L;
+	}
+
+	/**
+	 * Returns true if build cache users are configured.
+	 */
+	public boolean hasBuildCacheUsers() {
+		return !buildCacheUsers.isEmpty();
+	}
+
+	/**
+	 * Returns true if the credentials are those of a build cache user who may
+	 * store build cache entries.
+	 *
+	 * @param username
+	 * @param password
+	 * @return true if the user may store build cache entries
+	 */
+	public boolean isBuildCacheUser(String username, String password) {
+		String expected = username == null ? null : buildCacheUsers.get(username);
+		if (expected == null || password == null) {
+			return false;
+		}
+		Charset utf8 = Charset.forName("UTF-8");
+		return MessageDigest.isEqual(expected.getBytes(utf8), password.getBytes(utf8));
+	}
+
+	/**
+	 * Returns true if clients of the address may store build cache entries
+	 * without credentials.
+	 *
+	 * @param address
+	 * @return true if the address may store build cache entries
+	 */
+	public boolean isBuildCachePushAddress(String address) {
+		return address != null && buildCachePushAddresses.contains(address);
+	}
+
 	public int getHttpPort() {
 		return httpPort;
 	}
@@ -404,49 +483,51 @@ public class ProxyConfig {
 	public IMavenCache getMavenCache(File file) {
 		String path = FileUtils.getRelativePath(moxieRoot, file);
 		File folder = getArtifactRoot(path);
-		return new MavenCache(folder);
+		return getMavenCacheAt(folder);
 	}
 
 	public IMavenCache getMavenCache(String repository) {
 		for (String repo : localRepositories) {
 			if (repo.equalsIgnoreCase(repository)) {
 				File file = new File(localArtifactsRoot, repo);
-				return new MavenCache(file);
+				return getMavenCacheAt(file);
 			}
 		}
 		if (remoteRepositoryLookup.containsKey(repository)) {
 			RemoteRepository repo = remoteRepositoryLookup.get(repository);
 			String folder = StringUtils.urlToFolder(repo.url);
 			File file = new File(remoteArtifactsRoot, folder);
-			return new MavenCache(file);
+			return getMavenCacheAt(file);
 		}
 		return null;
 	}
 
-	public DependencyLink find(Dependency dependency) {
-		String path = null;
-		for (String repository : localRepositories) {
-			File cacheRoot = new File(localArtifactsRoot, repository);
-			IMavenCache cache = new MavenCache(cacheRoot);
-			File file = cache.getArtifact(dependency, dependency.extension);
-			if (file != null && file.exists()) {				
-				path = repository + "/" + FileUtils.getRelativePath(cacheRoot, file.getParentFile());
-			}
+	/**
+	 * Returns the shared cache of a repository folder.  The cache retains the
+	 * POMs it has parsed.
+	 */
+	private IMavenCache getMavenCacheAt(File folder) {
+		IMavenCache cache = mavenCaches.get(folder);
+		if (cache == null) {
+			cache = new MavenCache(folder);
+			mavenCaches.put(folder, cache);
 		}
-		
-		for (RemoteRepository repository : remoteRepositories) {
-			String folder = StringUtils.urlToFolder(repository.url);
-			File cacheRoot = new File(remoteArtifactsRoot, folder);
-			IMavenCache cache = new MavenCache(cacheRoot);
-			File file = cache.getArtifact(dependency, dependency.extension);
-			if (file != null && file.exists()) {
-				path = repository.id + "/" + FileUtils.getRelativePath(cacheRoot, file.getParentFile());
-			}
+		return cache;
+	}
+
+	public synchronized ArtifactIndex getArtifactIndex() {
+		if (artifactIndex == null) {
+			artifactIndex = new ArtifactIndex(this);
 		}
-		if (StringUtils.isEmpty(path)) {
-			return null;
+		return artifactIndex;
+	}
+
+	public DependencyLink find(Dependency dependency) {
+		List<String> repositories = new ArrayList<String>(localRepositories);
+		for (RemoteRepository repository : remoteRepositories) {
+			repositories.add(repository.id);
 		}
-		return new DependencyLink(dependency.getCoordinates(), path);
+		return getArtifactIndex().find(dependency, repositories);
 	}
 
 	public List<String> getLocalRepositories() {
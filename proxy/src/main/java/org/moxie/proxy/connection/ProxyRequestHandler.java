@@ -176,6 +176,7 @@ public class ProxyRequestHandler extends Thread {
 			ProxyDownload d = new ProxyDownload(config, url, f);
 			try {
 				d.download();
+				config.getArtifactIndex().add(f);
 
 				// index this artifact's pom
 				if (name.toLowerCase().endsWith(Constants.POM)) {
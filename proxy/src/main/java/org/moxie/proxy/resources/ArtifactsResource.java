@@ -298,8 +298,22 @@ public class ArtifactsResource extends BaseResource {
 		return list;
 	}
 
+	/**
+	 * Browsing responses are also invalidated when the browsed file or folder
+	 * changes, e.g. when the proxy downloads an artifact into the folder.
+	 */
+	@Override
+	protected String getResponseVersion() {
+		File file = getFile(getRequestAttribute("path"));
+		return super.getResponseVersion() + "-" + file.lastModified() + "-" + file.length();
+	}
+
 	@Get
 	public Representation toText() {
+		Representation cached = getCachedResponse();
+		if (cached != null) {
+			return cached;
+		}
 		String path = getRequestAttribute("path");
 		File file = getFile(path);
 		if (!file.exists()) {
@@ -327,12 +341,12 @@ public class ArtifactsResource extends BaseResource {
 				String content = FileUtils.readContent(file, "\n").trim();
 				String html = StringUtils.escapeForHtml(content, true);
 				map.put("content", html);
-				return toHtml(map, "artifact.html");
+				return cacheResponse(toHtml(map, "artifact.html"));
 			}
 		}
 				
 		// list of files/folders
-		Pom pom = getApplication().readPom(file);
+		Pom pom = getApplication().readPom(getBasePath(), file);
 		map.put("pom", pom);
 		map.put("dependencies", getDependencies(pom));
 		map.put("isRemoteRepository", isRemote);
@@ -344,7 +358,7 @@ public class ArtifactsResource extends BaseResource {
 		map.put("grapeSnippet", getGrapeSnippet(pom));
 		map.put("ivySnippet", getIvySnippet(pom));
 		map.put("items", getItems(file));
-		return toHtml(map, "artifacts.html");
+		return cacheResponse(toHtml(map, "artifacts.html"));
 	}
 	
 	boolean isText(File file) {
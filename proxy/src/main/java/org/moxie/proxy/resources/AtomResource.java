@@ -34,10 +34,14 @@ public class AtomResource extends BaseResource {
 	
 	@Get
 	public Representation getFeed() {
+		Representation cached = getCachedResponse();
+		if (cached != null) {
+			return cached;
+		}
 		String repository = getRequestAttribute("repository");
 		int count = getQueryValue("count", getProxyConfig().getAtomCount());
 		AtomFeed generator = new AtomFeed(getApplication(), getRootRef().toString(), 
 				(StringUtils.isEmpty(repository) ? "" : (repository + " ")) + getBasePathName());
-		return generator.getFeed(repository, count);
+		return cacheResponse(generator.getFeed(repository, count));
 	}
 }
@@ -15,26 +15,33 @@
  */
 package org.moxie.proxy.resources;
 
+import java.io.IOException;
 import java.text.MessageFormat;
 import java.util.Locale;
 import java.util.Map;
 import java.util.ResourceBundle;
+import java.util.logging.Level;
 
 import org.moxie.RemoteRepository;
 import org.moxie.proxy.Constants;
 import org.moxie.proxy.MoxieProxy;
+import org.moxie.proxy.PageCache.Page;
 import org.moxie.proxy.ProxyConfig;
 import org.moxie.utils.StringUtils;
 import org.restlet.data.CharacterSet;
 import org.restlet.data.Language;
 import org.restlet.data.MediaType;
 import org.restlet.data.Preference;
+import org.restlet.data.Tag;
 import org.restlet.ext.freemarker.TemplateRepresentation;
 import org.restlet.representation.Representation;
+import org.restlet.representation.StringRepresentation;
 import org.restlet.resource.ServerResource;
 
 public abstract class BaseResource extends ServerResource {
 
+	private String responseVersion;
+
 	@Override
 	public MoxieProxy getApplication() {
 		return (MoxieProxy) super.getApplication();
@@ -80,6 +87,63 @@ public abstract class BaseResource extends ServerResource {
 		return super.handle();
 	}
 
+	/**
+	 * Returns the version of the data the response of this request is
+	 * rendered from.  A cached response is served until the version changes.
+	 * 
+	 * @return the version
+	 */
+	protected String getResponseVersion() {
+		return getApplication().getIndexGeneration() + "-" + getProxyConfig().getLastModified();
+	}
+
+	private String getResponseKey() {
+		return getRequest().getResourceRef() + " " + getTranslation().getLocale();
+	}
+
+	/**
+	 * Returns the cached response of this request, if the data has not changed
+	 * since the response was rendered.
+	 * 
+	 * @return the cached response or null
+	 */
+	protected Representation getCachedResponse() {
+		responseVersion = getResponseVersion();
+		Page page = getApplication().getPageCache().get(getResponseKey(), responseVersion);
+		if (page == null) {
+			return null;
+		}
+		return toRepresentation(page);
+	}
+
+	/**
+	 * Renders and caches the response of this request.  The response is tagged
+	 * with a strong ETag so clients can revalidate it with a conditional GET.
+	 * 
+	 * @param representation
+	 * @return the cached response
+	 */
+	protected Representation cacheResponse(Representation representation) {
+		if (responseVersion == null) {
+			responseVersion = getResponseVersion();
+		}
+		try {
+			Page page = getApplication().getPageCache().put(getResponseKey(), responseVersion,
+					representation.getMediaType().getName(), representation.getText());
+			return toRepresentation(page);
+		} catch (IOException e) {
+			getLogger().log(Level.WARNING, "failed to cache " + getRequest().getResourceRef(), e);
+			return representation;
+		}
+	}
+
+	private Representation toRepresentation(Page page) {
+		StringRepresentation representation = new StringRepresentation(page.content,
+				MediaType.valueOf(page.mediaType), null, CharacterSet.UTF_8);
+		representation.setTag(new Tag(page.tag, false));
+		return representation;
+	}
+
 	protected abstract String getBasePath();
 	
 	protected abstract String getBasePathName();
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2013 James Moger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.moxie.proxy.resources;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.text.MessageFormat;
+
+import org.moxie.proxy.BuildCache;
+import org.moxie.proxy.Constants;
+import org.moxie.proxy.MoxieProxy;
+import org.moxie.proxy.ProxyConfig;
+import org.moxie.utils.StringUtils;
+import org.restlet.data.ChallengeRequest;
+import org.restlet.data.ChallengeResponse;
+import org.restlet.data.ChallengeScheme;
+import org.restlet.data.MediaType;
+import org.restlet.data.Status;
+import org.restlet.representation.FileRepresentation;
+import org.restlet.representation.Representation;
+import org.restlet.representation.StringRepresentation;
+import org.restlet.resource.Get;
+import org.restlet.resource.Put;
+import org.restlet.resource.ServerResource;
+
+/**
+ * Serves the build cache.  A GET of <i>/cache/key</i> returns an entry or
+ * 404, a PUT of <i>/cache/key</i> stores an entry, and a GET of <i>/cache</i>
+ * returns the statistics of the build cache.
+ * <p>
+ * Only clients from a <i>buildCachePushAddresses</i> address or with the
+ * HTTP BASIC credentials of one of the <i>buildCacheUsers</i> may store
+ * entries.  A PUT of a cached entry is answered with 409.
+ */
+public class BuildCacheResource extends ServerResource {
+
+	@Override
+	public MoxieProxy getApplication() {
+		return (MoxieProxy) super.getApplication();
+	}
+
+	private BuildCache getBuildCache() {
+		return getApplication().getBuildCache();
+	}
+
+	private String getKey() {
+		Object key = getRequestAttributes().get("key");
+		return key == null ? null : key.toString();
+	}
+
+	@Get
+	public Representation getEntry() {
+		String key = getKey();
+		BuildCache cache = getBuildCache();
+		if (StringUtils.isEmpty(key)) {
+			String stats = MessageFormat.format("entries: {0}\nsize: {1}\nmaxSize: {2}\nhits: {3}\nmisses: {4}\nhitRate: {5,number,0.0%}\nstores: {6}\nevictions: {7}\nbytesServed: {8}\n",
+					cache.getCount(), Long.toString(cache.getSize()), Long.toString(cache.getMaxSize()),
+					cache.getHits(), cache.getMisses(), cache.getHitRate(), cache.getStores(),
+					cache.getEvictions(), Long.toString(cache.getBytesServed()));
+			return new StringRepresentation(stats, MediaType.TEXT_PLAIN);
+		}
+		File file = cache.get(key);
+		if (file == null) {
+			setStatus(Status.CLIENT_ERROR_NOT_FOUND);
+			return null;
+		}
+		return new FileRepresentation(file, MediaType.APPLICATION_OCTET_STREAM);
+	}
+
+	@Put
+	public void putEntry(Representation entity) throws IOException {
+		String key = getKey();
+		if (!BuildCache.isKey(key) || entity == null) {
+			setStatus(Status.CLIENT_ERROR_BAD_REQUEST);
+			return;
+		}
+		if (!isPushAllowed()) {
+			return;
+		}
+		BuildCache cache = getBuildCache();
+		if (cache.contains(key)) {
+			setStatus(Status.CLIENT_ERROR_CONFLICT);
+			return;
+		}
+		if (entity.getSize() > cache.getMaxSize()) {
+			setStatus(Status.CLIENT_ERROR_REQUEST_ENTITY_TOO_LARGE);
+			return;
+		}
+		InputStream is = entity.getStream();
+		try {
+			if (cache.put(key, is)) {
+				setStatus(Status.SUCCESS_CREATED);
+			} else if (cache.contains(key)) {
+				setStatus(Status.CLIENT_ERROR_CONFLICT);
+			} else {
+				setStatus(Status.CLIENT_ERROR_REQUEST_ENTITY_TOO_LARGE);
+			}
+		} finally {
+			is.close();
+		}
+	}
+
+	/**
+	 * Checks that the client may store entries.  If not, the response is
+	 * 401 with a BASIC challenge, or 403 if no build cache users are
+	 * configured.
+	 *
+	 * @return true if the client may store entries
+	 */
+	private boolean isPushAllowed() {
+		ProxyConfig config = getApplication().getProxyConfig();
+		if (config.isBuildCachePushAddress(getClientInfo().getAddress())) {
+			return true;
+		}
+		ChallengeResponse credentials = getChallengeResponse();
+		if (credentials != null && ChallengeScheme.HTTP_BASIC.equals(credentials.getScheme())
+				&& credentials.getSecret() != null
+				&& config.isBuildCacheUser(credentials.getIdentifier(), new String(credentials.getSecret()))) {
+			return true;
+		}
+		if (config.hasBuildCacheUsers()) {
+			getChallengeRequests().add(new ChallengeRequest(ChallengeScheme.HTTP_BASIC, Constants.getName()));
+			setStatus(Status.CLIENT_ERROR_UNAUTHORIZED);
+		} else {
+			setStatus(Status.CLIENT_ERROR_FORBIDDEN);
+		}
+		return false;
+	}
+}
@@ -39,6 +39,10 @@ public class RecentResource extends BaseResource {
 
 	@Get
 	public Representation toText() {
+		Representation cached = getCachedResponse();
+		if (cached != null) {
+			return cached;
+		}
 		String repository = getRequestAttribute("repository");
 		int page = Math.max(1, getQueryValue("page", 1));
 		int count = getQueryValue("count", getProxyConfig().getSearchCount());
@@ -53,6 +57,6 @@ public class RecentResource extends BaseResource {
 		map.put("pageSize", count);
 		map.put("prevPage", page - 1);
 		map.put("nextPage", page + 1);
-		return toHtml(map, "recent.html");
+		return cacheResponse(toHtml(map, "recent.html"));
 	}
 }
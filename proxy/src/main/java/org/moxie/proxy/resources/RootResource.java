@@ -108,11 +108,15 @@ public class RootResource extends BaseResource {
 	
 	@Get
 	public Representation toText() {
+		Representation cached = getCachedResponse();
+		if (cached != null) {
+			return cached;
+		}
 		Map<String, Object> map = new HashMap<String, Object>();
 		map.put("title", Constants.getName());
 		map.put("tagline", getTranslation().getString("mp.tagline"));
 		map.put("content", reportConfig());
 		map.put("results", getApplication().getRecentArtifacts(null, 1, 10));
-		return toHtml(map, "root.html");
+		return cacheResponse(toHtml(map, "root.html"));
 	}
 }
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2013 James Moger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.moxie.proxy;
+
+import java.io.File;
+import java.net.URL;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import org.moxie.Dependency;
+import org.moxie.utils.FileUtils;
+
+public class ArtifactIndexTest extends TestCase {
+
+	ProxyConfig config;
+
+	File root;
+
+	public void testFindRelease() throws Exception {
+		File pom = write("releases", "org/example/lib/1.0/lib-1.0.pom");
+		write("releases", "org/example/lib/1.0/lib-1.0.jar");
+		config.getArtifactIndex().index("releases", Arrays.asList(pom));
+
+		DependencyLink link = config.find(new Dependency("org.example:lib:1.0"));
+		assertEquals("releases/org/example/lib/1.0", link.path);
+		assertNull(config.find(new Dependency("org.example:lib:1.0:sources")));
+		assertNull(config.find(new Dependency("org.example:lib:1.1")));
+	}
+
+	public void testFindTimestampedSnapshot() throws Exception {
+		File pom = write("snapshots", "org/example/lib/1.0-SNAPSHOT/lib-1.0-20130101.120000-1.pom");
+		write("snapshots", "org/example/lib/1.0-SNAPSHOT/lib-1.0-20130101.120000-1.jar");
+		config.getArtifactIndex().index("snapshots", Arrays.asList(pom));
+
+		DependencyLink link = config.find(new Dependency("org.example:lib:1.0-SNAPSHOT"));
+		assertEquals("snapshots/org/example/lib/1.0-SNAPSHOT", link.path);
+		assertNull(config.find(new Dependency("org.example:lib:1.0-SNAPSHOT:sources")));
+	}
+
+	public void testDownloadUpdatesIndex() throws Exception {
+		config.getArtifactIndex().index("central", Arrays.<File>asList());
+		File jar = config.getRemoteArtifact(new URL("https://repo1.maven.org/maven2/org/example/lib/1.0/lib-1.0.jar"));
+		jar.getParentFile().mkdirs();
+		FileUtils.writeContent(jar, "jar");
+		assertNull(config.find(new Dependency("org.example:lib:1.0")));
+
+		config.getArtifactIndex().add(jar);
+		DependencyLink link = config.find(new Dependency("org.example:lib:1.0"));
+		assertEquals("central/org/example/lib/1.0", link.path);
+	}
+
+	public void testRemoteRepositoryTakesPrecedence() throws Exception {
+		File local = write("releases", "org/example/lib/1.0/lib-1.0.pom");
+		config.getArtifactIndex().index("releases", Arrays.asList(local));
+		File remote = config.getRemoteArtifact(new URL("https://repo1.maven.org/maven2/org/example/lib/1.0/lib-1.0.pom"));
+		remote.getParentFile().mkdirs();
+		FileUtils.writeContent(remote, "pom");
+		config.getArtifactIndex().index("central", Arrays.asList(remote));
+
+		Dependency dependency = new Dependency("org.example:lib:1.0");
+		dependency.extension = "pom";
+		assertEquals("central/org/example/lib/1.0", config.find(dependency).path);
+	}
+
+	public void testUnindexedRepository() throws Exception {
+		write("releases", "org/example/lib/1.0/lib-1.0.jar");
+		assertFalse(config.getArtifactIndex().isIndexed("releases"));
+
+		DependencyLink link = config.find(new Dependency("org.example:lib:1.0"));
+		assertEquals("releases/org/example/lib/1.0", link.path);
+	}
+
+	File write(String repository, String path) {
+		File file = new File(config.getMavenCache(repository).getRootFolder(), path);
+		file.getParentFile().mkdirs();
+		FileUtils.writeContent(file, path);
+		return file;
+	}
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+
+		root = File.createTempFile("moxie-", ".index");
+		root.delete();
+		root.mkdirs();
+		config = new ProxyConfig();
+		config.parse(new File("src/test/resources/proxy-test.moxie"));
+		config.setMoxieRoot(root);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		FileUtils.delete(root);
+		super.tearDown();
+	}
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2013 James Moger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.moxie.proxy;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import org.moxie.BuildCacheClient;
+import org.moxie.utils.FileUtils;
+import org.restlet.Component;
+import org.restlet.Server;
+import org.restlet.data.Protocol;
+
+public class BuildCacheResourceTest extends TestCase {
+
+	static final String A = "aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa";
+
+	ProxyConfig config;
+
+	File root;
+
+	public void testClient() throws Exception {
+		ServerSocket socket = new ServerSocket(0);
+		int port = socket.getLocalPort();
+		socket.close();
+
+		config.setHttpPort(port);
+		config.setProxyPort(0);
+		MoxieProxy app = new MoxieProxy(config);
+		Component c = new Component();
+		c.getServers().add(new Server(null, Arrays.asList(Protocol.HTTP), "localhost", port, c, "org.restlet.ext.jetty.HttpServerHelper"));
+		c.getClients().add(Protocol.CLAP);
+		c.getClients().add(Protocol.FILE);
+		c.getDefaultHost().attachDefault(app);
+		c.start();
+		try {
+			String url = "http://localhost:" + port + "/cache/";
+			BuildCacheClient client = new BuildCacheClient(url, "ci", "secret");
+			File file = new File(root, "entry");
+			assertFalse(client.get(A, file));
+
+			// anonymous clients and unknown users may not store entries
+			FileUtils.writeContent(file, "1234");
+			assertPutFails(new BuildCacheClient(url), file, "401");
+			assertPutFails(new BuildCacheClient(url, "ci", "wrong"), file, "401");
+			assertEquals(0, app.getBuildCache().getStores());
+
+			assertTrue(client.put(A, file));
+			file.delete();
+			assertTrue(client.get(A, file));
+			assertEquals("1234", FileUtils.readContent(file, "\n").trim());
+
+			// cached entries are not replaced, which is not an error
+			FileUtils.writeContent(file, "5678");
+			assertFalse(client.put(A, file));
+			file.delete();
+			assertTrue(client.get(A, file));
+			assertEquals("1234", FileUtils.readContent(file, "\n").trim());
+
+			assertEquals(2, client.getHits());
+			assertEquals(1, client.getMisses());
+			assertEquals(1, client.getStores());
+			assertEquals(2, app.getBuildCache().getHits());
+			assertEquals(1, app.getBuildCache().getStores());
+		} finally {
+			c.stop();
+		}
+	}
+
+	void assertPutFails(BuildCacheClient client, File file, String status) {
+		try {
+			client.put(A, file);
+			fail("PUT was accepted");
+		} catch (IOException e) {
+			assertTrue(e.getMessage(), e.getMessage().endsWith(status));
+		}
+	}
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+
+		root = File.createTempFile("moxie-", ".buildcache");
+		root.delete();
+		root.mkdirs();
+		config = new ProxyConfig();
+		config.parse(new File("src/test/resources/proxy-test.moxie"));
+		config.setMoxieRoot(root);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		FileUtils.delete(root);
+		super.tearDown();
+	}
+}
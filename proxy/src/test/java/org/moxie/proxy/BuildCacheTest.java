@@ -0,0 +1,150 @@
+/*
+ * Copyright 2013 James Moger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.moxie.proxy;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import org.moxie.utils.FileUtils;
+
+public class BuildCacheTest extends TestCase {
+
+	static final String A = "aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa";
+
+	static final String B = "bbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbb";
+
+	static final String C = "cccccccccccccccccccccccccccccccccccccccc";
+
+	File root;
+
+	public void testEviction() throws Exception {
+		BuildCache cache = new BuildCache(new File(root, "buildcache"), 10);
+		assertTrue(cache.put(A, content("1234")));
+		assertTrue(cache.put(B, content("1234")));
+		assertNotNull(cache.get(A));
+
+		// B is the least recently used entry
+		assertTrue(cache.put(C, content("1234")));
+		assertNotNull(cache.get(A));
+		assertNull(cache.get(B));
+		assertNotNull(cache.get(C));
+		assertEquals(8, cache.getSize());
+		assertEquals(1, cache.getEvictions());
+
+		// too large
+		assertFalse(cache.put(B, content("12345678901")));
+		assertNull(cache.get(B));
+
+		// the entries survive a restart
+		cache = new BuildCache(new File(root, "buildcache"), 10);
+		assertEquals(2, cache.getCount());
+		assertEquals("1234", FileUtils.readContent(cache.get(C), "\n").trim());
+	}
+
+	public void testNoReplace() throws Exception {
+		BuildCache cache = new BuildCache(new File(root, "buildcache"), 10);
+		assertTrue(cache.put(A, content("1234")));
+		assertTrue(cache.contains(A));
+		assertFalse(cache.put(A, content("5678")));
+		assertEquals("1234", FileUtils.readContent(cache.get(A), "\n").trim());
+		assertEquals(4, cache.getSize());
+		assertEquals(1, cache.getStores());
+	}
+
+	public void testSizeLimit() throws Exception {
+		BuildCache cache = new BuildCache(new File(root, "buildcache"), 10);
+		EndlessStream content = new EndlessStream();
+		assertFalse(cache.put(A, content));
+		assertTrue("read " + content.count + " bytes", content.count <= 32 * 1024);
+		assertFalse(cache.contains(A));
+		assertEquals(0, cache.getSize());
+
+		// the temp file is deleted
+		assertEquals("[]", Arrays.toString(new File(root, "buildcache/aa").list()));
+	}
+
+	public void testInvalidKey() throws Exception {
+		BuildCache cache = new BuildCache(new File(root, "buildcache"), 10);
+		assertNull(cache.get("../" + A));
+		try {
+			cache.put("../" + A, content("1234"));
+			fail("invalid key was accepted");
+		} catch (IllegalArgumentException e) {
+		}
+	}
+
+	public void testPushConfig() throws Exception {
+		ProxyConfig config = new ProxyConfig();
+		assertFalse(config.hasBuildCacheUsers());
+		assertFalse(config.isBuildCacheUser("ci", "secret"));
+		assertFalse(config.isBuildCachePushAddress("127.0.0.1"));
+
+		config.parse(new File("src/test/resources/proxy-test.moxie"));
+		assertTrue(config.hasBuildCacheUsers());
+		assertTrue(config.isBuildCacheUser("ci", "secret"));
+		assertFalse(config.isBuildCacheUser("ci", "wrong"));
+		assertFalse(config.isBuildCacheUser("ci", null));
+		assertFalse(config.isBuildCacheUser(null, "secret"));
+		assertFalse(config.isBuildCacheUser("developer", "secret"));
+		assertTrue(config.isBuildCachePushAddress("10.0.0.1"));
+		assertFalse(config.isBuildCachePushAddress("127.0.0.1"));
+		assertFalse(config.isBuildCachePushAddress(null));
+	}
+
+	ByteArrayInputStream content(String content) throws Exception {
+		return new ByteArrayInputStream(content.getBytes("UTF-8"));
+	}
+
+	/**
+	 * An upload which never ends.
+	 */
+	static class EndlessStream extends InputStream {
+
+		long count;
+
+		@Override
+		public int read() {
+			count++;
+			return 'x';
+		}
+
+		@Override
+		public int read(byte [] b, int off, int len) {
+			Arrays.fill(b, off, off + len, (byte) 'x');
+			count += len;
+			return len;
+		}
+	}
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+
+		root = File.createTempFile("moxie-", ".buildcache");
+		root.delete();
+		root.mkdirs();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		FileUtils.delete(root);
+		super.tearDown();
+	}
+}
@@ -83,6 +83,8 @@ public class Doc implements Serializable {
 	
 	public File customLessFile;
 
+	public boolean incremental;
+
 	public List<File> getSources() {
 		List<File> files = new ArrayList<File>();
 		files.addAll(getSources(structure.elements));
@@ -25,19 +25,23 @@ import java.io.InputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintStream;
 import java.io.StringWriter;
+import java.io.UnsupportedEncodingException;
 import java.nio.charset.Charset;
 import java.text.MessageFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 import java.util.Vector;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.regex.Matcher;
 
 import org.eclipse.mylyn.wikitext.confluence.core.ConfluenceLanguage;
 import org.eclipse.mylyn.wikitext.core.parser.MarkupParser;
@@ -52,6 +56,7 @@ import org.moxie.maxml.MaxmlException;
 import org.moxie.maxml.MaxmlMap;
 import org.moxie.utils.FileUtils;
 import org.moxie.utils.MarkdownUtils;
+import org.moxie.utils.Parallel;
 import org.moxie.utils.StringUtils;
 
 import freemarker.template.Configuration;
@@ -68,6 +73,12 @@ import freemarker.template.TemplateException;
 public class Docs {
 
 	private static PrintStream out = System.out;
+
+	/**
+	 * The pages and content hashes of the last generation, relative to the
+	 * output directory.
+	 */
+	private static final String PAGES_MANIFEST = ".moxie-pages";
 	
 	public static void execute(Build build, Doc doc, boolean verbose) {		
 
@@ -152,7 +163,7 @@ public class Docs {
 		return MessageFormat.format("<iframe src=\"{0}\" style=\"border:1px solid #ccc;\" width=\"100%\" height=\"90%\"></iframe>", src);
 	}
 
-	private static void generatePages(Build build, Doc doc, boolean verbose) {
+	private static void generatePages(final Build build, final Doc doc, boolean verbose) {
 		String projectName = build.getPom().name;
 		if (StringUtils.isEmpty(projectName) && !StringUtils.isEmpty(doc.name)) {
 			projectName = doc.name;
@@ -172,8 +183,8 @@ public class Docs {
 			}
 		}
 
-		String header = generateHeader(projectName, build.getConfig().getProjectConfig(), doc);
-		String footer = generateFooter(doc);
+		final String header = generateHeader(projectName, build.getConfig().getProjectConfig(), doc);
+		final String footer = generateFooter(doc);
 
 		if (!doc.structure.elements.isEmpty()) {
 			build.getConsole().log("Generating Structured Documentation from source files... ");
@@ -181,12 +192,28 @@ public class Docs {
 
 		// read references
 		if (doc.references == null) {
-			doc.references = new References();			
+			doc.references = new References();
 		} else {
 			String content = FileUtils.readContent(new File(doc.sourceDirectory, doc.references.src), "\n");
-			doc.references.content = "\n\n" + content; 
+			doc.references.content = "\n\n" + content;
 		}
-		
+
+		// properties and loaded files are shared by all markdown pages
+		List<String[]> loadedInserts = null;
+		Throwable loadFailure = null;
+		try {
+			loadedInserts = loadInserts(doc);
+		} catch (Throwable t) {
+			loadFailure = t;
+		}
+		final List<String[]> inserts = loadedInserts;
+		final Throwable insertsFailure = loadFailure;
+		String shared = hashSharedInputs(doc, header, footer, inserts);
+
+		// prepare the pages in structure order because templates add
+		// substitutions which are visible to the following pages
+		List<PageTask> tasks = new ArrayList<PageTask>();
+		Set<String> fileNames = new HashSet<String>();
 		for (DocElement element : allElements) {
 			if (!(element instanceof DocPage)) {
 				// nothing to generate
@@ -195,6 +222,7 @@ public class Docs {
 			DocPage page = (DocPage) element;
 			try {
 				String fileName = getHref(page);
+				fileNames.add(fileName);
 				if (StringUtils.isEmpty(page.src)) {
 					// template page
 					build.getConsole().log(1, "{0} => {1}", page.templates.get(0).src, fileName);
@@ -202,404 +230,629 @@ public class Docs {
 					// markdown page
 					build.getConsole().log(1, "{0} => {1}", page.src, fileName);
 				}
-				String content;
-				List<Section> sections = new ArrayList<Section>();
-				String pager = "";
-
+				PageTask task = new PageTask(page, fileName, new File(doc.outputDirectory, fileName));
 				if (page.content != null) {
 					// generated content
-					content = page.content;
-					
+					task.source = page.content;
 					processTemplates(doc, page);
-					
-					for (Substitute sub : doc.substitutions) {
-						if (page.processSubstitutions || sub.isTemplate) {
-							content = content.replace(sub.token, sub.value.toString());
-						}
-					}
-					for (Regex regex : doc.regexes) {
-						content = content.replaceAll(regex.searchPattern, regex.replacePattern);
-					}
+					task.substitutions = getSubstitutions(doc, page);
 				} else if (page.src.endsWith(".html") || page.src.endsWith(".htm")) {
 					// static html content
-					content = FileUtils.readContent(new File(doc.sourceDirectory, page.src), "\n");
+					task.source = FileUtils.readContent(new File(doc.sourceDirectory, page.src), "\n");
+					task.substitutions = new ArrayList<String[]>();
 				} else {
-					// begin markdown
-					String markdownContent = FileUtils.readContent(new File(doc.sourceDirectory, page.src), "\n");
-					
-					// append references, if specified
-					if (!StringUtils.isEmpty(doc.references.content)) {
-						markdownContent += doc.references.content;
+					// markdown
+					task.source = FileUtils.readContent(new File(doc.sourceDirectory, page.src), "\n");
+					processTemplates(doc, page);
+					task.substitutions = getSubstitutions(doc, page);
+				}
+				task.links = generateLinks(build, doc, page, projectName);
+				task.hash = hashPage(shared, task);
+				tasks.add(task);
+			} catch (Throwable t) {
+				build.getConsole().error(t, "Failed to transform " + page.src);
+			}
+		}
+
+		// skip the pages which are unchanged since the last generation
+		File manifestFile = new File(doc.outputDirectory, PAGES_MANIFEST);
+		Map<String, String> manifest = readManifest(manifestFile);
+		List<PageTask> stale = new ArrayList<PageTask>();
+		for (PageTask task : tasks) {
+			if (!doc.incremental || !task.hash.equals(manifest.get(task.fileName)) || !task.output.exists()) {
+				stale.add(task);
+			}
+		}
+		if (doc.incremental) {
+			build.getConsole().log(1, "{0} of {1} pages are unchanged", tasks.size() - stale.size(), tasks.size());
+		}
+
+		// render the pages in parallel
+		final Set<PageTask> failed = Collections.synchronizedSet(new HashSet<PageTask>());
+		build.getSolver().getExecutor().cpu(stale, new Parallel.Operation<PageTask>() {
+			@Override
+			public void perform(PageTask task) {
+				try {
+					if (insertsFailure != null && task.isMarkdown()) {
+						throw insertsFailure;
 					}
+					renderPage(doc, task, header, footer, inserts);
+				} catch (Throwable t) {
+					failed.add(task);
+					build.getConsole().error(t, "Failed to transform " + task.page.src);
+				}
+			}
+		});
 
-					Map<String, String> nomarkdownMap = new HashMap<String, String>();
-
-					// extract sections marked as no-markdown
-					int nmd = 0;
-					for (NoMarkdown nomarkdown : doc.nomarkdowns) {
-						List<String> lines = Arrays.asList(markdownContent.split("\n"));
-						StringBuilder strippedContent = new StringBuilder();
-						for (int i = 0; i < lines.size(); i++) {
-							String line = lines.get(i);
-
-							if (line.trim().startsWith(nomarkdown.startToken)) {
-								// found start token, look for end token
-								int beginCode = i + 1;
-								int endCode = beginCode;
-								for (int j = beginCode; j < lines.size(); j++) {
-									String endLine = lines.get(j);
-									if (endLine.trim().startsWith(nomarkdown.endToken)) {
-										endCode = j;
-										break;
-									}
-								}
+		// record the generated pages for the next incremental generation
+		Map<String, String> generated = new TreeMap<String, String>();
+		for (PageTask task : tasks) {
+			if (!failed.contains(task)) {
+				generated.put(task.fileName, task.hash);
+			}
+		}
+		if (doc.incremental) {
+			// delete pages which were removed from the structure
+			for (String fileName : manifest.keySet()) {
+				if (!fileNames.contains(fileName)) {
+					new File(doc.outputDirectory, fileName).delete();
+				}
+			}
+		}
+		writeManifest(manifestFile, generated);
 
-								if (endCode > beginCode) {
-									// append a placeholder for extracted content
-									String nomarkdownKey = "%NOMARKDOWN" + nmd + "%";
-									strippedContent.append(nomarkdownKey).append( '\n');
-									nmd++;
-
-									// build the hunk from lines
-									StringBuilder sb = new StringBuilder();
-									for (String nl : lines.subList(beginCode, endCode)) {
-										sb.append(nl).append('\n');
-									}
-									String hunk = sb.toString();
-
-									if (nomarkdown instanceof ExcludeText) {
-										// exclude this hunk from the output html
-										nomarkdownMap.put(nomarkdownKey, "");
-									} else if (nomarkdown instanceof WikiText) {
-										// convert this hunk to html from a wiki format
-										StringWriter writer = new StringWriter();
-
-										HtmlDocumentBuilder builder = new HtmlDocumentBuilder(writer);
-										// avoid the <html> and <body> tags
-										builder.setEmitAsDocument(false);
-										
-										WikiText wikitext = (WikiText) nomarkdown;
-										MarkupLanguage lang;
-										switch (wikitext.syntax){
-										case TWIKI:
-											lang = new TWikiLanguage();
-											break;
-										case TEXTILE:
-											lang = new TextileLanguage();
-											break;
-										case TRACWIKI:
-											lang = new TracWikiLanguage();
-											break;
-										case MEDIAWIKI:
-											lang = new MediaWikiLanguage();
-											break;
-										case CONFLUENCE:
-											lang = new ConfluenceLanguage();
-											break;
-										default:
-											throw new MoxieException("Unrecognized wiki syntax!");
-										}
-
-										MarkupParser parser = new MarkupParser(lang);
-										parser.setBuilder(builder);
-										parser.parse(hunk);
-
-										String htmlContent = writer.toString();
-
-										nomarkdownMap.put(nomarkdownKey, htmlContent);
-									} else if (nomarkdown.prettify) {
-										//
-										// Syntax highlighting
-										//
-										StringBuilder ppclass = new StringBuilder();
-										ppclass.append("prettyprint");
-										if (nomarkdown.linenums) {
-											ppclass.append(" linenums");
-										}
-										if (!StringUtils.isEmpty(nomarkdown.lang)) {
-											ppclass.append(" ");
-											ppclass.append(nomarkdown.lang);
-										}
-										StringBuilder code = new StringBuilder();
-										code.append(MessageFormat.format("<pre class=''{0}''>\n", ppclass.toString()));
-										code.append(StringUtils.escapeForHtml(hunk, false));
-										code.append("</pre>");
-										nomarkdownMap.put(nomarkdownKey, code.toString());
-									} else if (nomarkdown.escape) {
-										//
-										// escape the hunk, optionally wrap with pre
-										//
-										StringBuilder code = new StringBuilder();
-										if (nomarkdown.pre) {
-											code.append("<pre>");	
-										}
-										String val = StringUtils.escapeForHtml(hunk, false);
-										if (!nomarkdown.pre) {
-											val = StringUtils.breakLinesForHtml(val);
-										}
-										code.append(val);
-										if (nomarkdown.pre) {
-											code.append("</pre>");	
-										}
-										nomarkdownMap.put(nomarkdownKey, code.toString());
-									} else {
-										//
-										// leave the hunk as-is
-										//
-										nomarkdownMap.put(nomarkdownKey, hunk);
-									}
-
-									// advance the i counter to endCode so we do not
-									// include the lines within the hunk
-									i = endCode;
-								} else {
-									// could not find closing token
-									strippedContent.append(line);
-									strippedContent.append('\n');
-								}
-							} else {
-								// regular line
-								strippedContent.append(line);
-								strippedContent.append('\n');
-							}
-						}
+		// process pages which are not part of the normal structure
+		if (!doc.freeformPages.isEmpty()) {
+			build.getConsole().log("Generating content from Freemarker templates...");
+			for (DocPage page : doc.freeformPages) {
+				try {
+					// template pages
+					String fileName = getHref(page);
+					build.getConsole().log(1, "{0} => {1}", page.templates.get(0).src, fileName);
 
-						// replace markdown content with the stripped content
-						markdownContent = strippedContent.toString();
+					String content = page.content;
+					processTemplates(doc, page);
+					content = substitute(content, getSubstitutions(doc, page));
+					for (Regex regex : doc.regexes) {
+						content = regex.replaceAll(content);
 					}
 
-					// prev/next pager links
-					if (page.showPager) {
-						String prev;
-						if (page.prevPage == null) {
-							prev = "";
-						} else {
-							prev = MessageFormat.format("<li class=\"previous\"><a href=\"{0}\">&larr; {1}</a></li>", getHref(page.prevPage), page.prevPage.name);
-						}
-						String next;
-						if (page.nextPage == null) {
-							next = "";
-						} else {
-							next = MessageFormat.format("<li class=\"next\"><a href=\"{0}\">{1} &rarr;</a></li>", getHref(page.nextPage), page.nextPage.name);
-						}
-						String divClass = "";
-						String pagerClass = "";
-						if (!StringUtils.isEmpty(page.pagerLayout)) {
-							if ("right".equals(page.pagerLayout)) {
-								divClass = "class=\"pull-right\"";
-								pagerClass = "class=\"pager\"";
-							} else if ("justified".equals(page.pagerLayout)) {
-								pagerClass = "class=\"pager\"";
-							}
-						}
-						pager = MessageFormat.format("<div {0}><ul {1}>{2} {3}</ul></div>", divClass, pagerClass, prev, next);
-					}
+					File output = new File(doc.outputDirectory, page.as);
+					FileUtils.writeContent(output, content);
+				} catch (Throwable t) {
+					build.getConsole().error(t, "Failed to transform " + page.src);
+				}
+			}
+		}
+	}
 
-					// header links
-					AtomicInteger sectionCounter = new AtomicInteger();
-					StringBuilder sb = new StringBuilder();
-					for (String line : Arrays.asList(markdownContent.split("\n"))) {
-						if (line.length() == 0) {
-							sb.append('\n');
-							continue;
-						}
-						if (line.charAt(0) == '#') {
-							String section = line.substring(0, line.indexOf(' '));
-							String name = line.substring(line.indexOf(' ') + 1) .trim();
-							if (name.endsWith(section)) {
-								name = name.substring(0, name.indexOf(section)) .trim();
-							}
-							String h = "h" + section.length();
-							String id = "H" + sectionCounter.addAndGet(1);
-							sections.add(new Section(id, name));
-							if (page.showHeaderLinks) {
-								sb.append(MessageFormat.format("<{0} class=\"section\" id=''{2}''><a href=\"#{2}\" class=\"sectionlink\"><i class=\"icon-share-alt\"> </i></a>{1}</{0}>\n", h, name, id));
-							} else {
-								sb.append(MessageFormat.format("<{0} id=''{2}''>{1}</{0}>\n", h, name, id));
+	/**
+	 * Renders and writes a page.  This is called concurrently for different
+	 * pages and must only read the shared state of the doc.
+	 */
+	private static void renderPage(Doc doc, PageTask task, String header, String footer, List<String[]> inserts) throws Exception {
+		DocPage page = task.page;
+		String content;
+		List<Section> sections = new ArrayList<Section>();
+		String pager = "";
+
+		if (page.content != null) {
+			// generated content
+			content = substitute(task.source, task.substitutions);
+			for (Regex regex : doc.regexes) {
+				content = regex.replaceAll(content);
+			}
+		} else if (!task.isMarkdown()) {
+			// static html content
+			content = task.source;
+		} else {
+			// begin markdown
+			String markdownContent = task.source;
+
+			// append references, if specified
+			if (!StringUtils.isEmpty(doc.references.content)) {
+				markdownContent += doc.references.content;
+			}
+
+			Map<String, String> nomarkdownMap = new HashMap<String, String>();
+
+			// extract sections marked as no-markdown
+			List<String> lines = Arrays.asList(markdownContent.split("\n"));
+			int nmd = 0;
+			for (NoMarkdown nomarkdown : doc.nomarkdowns) {
+				List<String> strippedLines = new ArrayList<String>(lines.size());
+				for (int i = 0; i < lines.size(); i++) {
+					String line = lines.get(i);
+
+					if (line.trim().startsWith(nomarkdown.startToken)) {
+						// found start token, look for end token
+						int beginCode = i + 1;
+						int endCode = beginCode;
+						for (int j = beginCode; j < lines.size(); j++) {
+							String endLine = lines.get(j);
+							if (endLine.trim().startsWith(nomarkdown.endToken)) {
+								endCode = j;
+								break;
 							}
-						} else {
-							// preserve line
-							sb.append(line);
-							sb.append('\n');
 						}
-					}
 
-					// replace markdown content with the navigable content
-					markdownContent = sb.toString();
+						if (endCode > beginCode) {
+							// append a placeholder for extracted content
+							String nomarkdownKey = "%NOMARKDOWN" + nmd + "%";
+							strippedLines.add(nomarkdownKey);
+							nmd++;
 
-					// transform markdown to html
-					content = transformMarkdown(markdownContent.toString());
+							// build the hunk from lines
+							StringBuilder sb = new StringBuilder();
+							for (String nl : lines.subList(beginCode, endCode)) {
+								sb.append(nl).append('\n');
+							}
+							String hunk = sb.toString();
 
-					// reinsert nomarkdown chunks
-					for (Map.Entry<String, String> nomarkdown : nomarkdownMap .entrySet()) {
-						content = content.replaceFirst(nomarkdown.getKey(), Matcher.quoteReplacement(nomarkdown.getValue()));
-					}
-					
-					// templates
-					processTemplates(doc, page);
+							if (nomarkdown instanceof ExcludeText) {
+								// exclude this hunk from the output html
+								nomarkdownMap.put(nomarkdownKey, "");
+							} else if (nomarkdown instanceof WikiText) {
+								// convert this hunk to html from a wiki format
+								StringWriter writer = new StringWriter();
 
-					for (Substitute sub : doc.substitutions) {
-						if (page.processSubstitutions || sub.isTemplate) {
-							content = content.replace(sub.token, sub.value.toString());
-						}
-					}
-					
-					for (Regex regex : doc.regexes) {
-						content = content.replaceAll(regex.searchPattern, regex.replacePattern);
-					}
-					for (Prop prop : doc.props) {
-						String loadedContent = generatePropertiesContent(prop);
-						content = content.replace(prop.token, loadedContent);
-					}
-					for (Load load : doc.loads) {
-						String loadedContent = FileUtils.readContent(new File( load.file), "\n");
-						loadedContent = StringUtils.escapeForHtml(loadedContent, false);
-						loadedContent = StringUtils.breakLinesForHtml(loadedContent);
-						content = content.replace(load.token, loadedContent);
-					}
-					// end markdown
-				}
-				
-				// Create the topbar links for this page
-				String links = createLinks(page, doc.structure.elements);
+								HtmlDocumentBuilder builder = new HtmlDocumentBuilder(writer);
+								// avoid the <html> and <body> tags
+								builder.setEmitAsDocument(false);
 
-				if (!StringUtils.isEmpty(doc.googlePlusId)) {
-					links += "<li><a href='https://plus.google.com/"
-							+ doc.googlePlusId
-							+ "?prsrc=3' class='gpluspage'><img src='https://ssl.gstatic.com/images/icons/gplus-16.png' width='16' height='16 style='order: 0;'/></a></li>";
-				}
+								WikiText wikitext = (WikiText) nomarkdown;
+								MarkupLanguage lang;
+								switch (wikitext.syntax){
+								case TWIKI:
+									lang = new TWikiLanguage();
+									break;
+								case TEXTILE:
+									lang = new TextileLanguage();
+									break;
+								case TRACWIKI:
+									lang = new TracWikiLanguage();
+									break;
+								case MEDIAWIKI:
+									lang = new MediaWikiLanguage();
+									break;
+								case CONFLUENCE:
+									lang = new ConfluenceLanguage();
+									break;
+								default:
+									throw new MoxieException("Unrecognized wiki syntax!");
+								}
 
-				// add Google+1 link
-				if (doc.googlePlusOne && !StringUtils.isEmpty(build.getPom().url)) {
-					links += "<li><div class='gplusone'><g:plusone size='small' href='"
-							+ build.getPom().url + "'></g:plusone></div></li>";
-				}
-				String linksHtml = readResource(doc, "links.html");
-				linksHtml = linksHtml.replace("%PROJECTNAME%", projectName);
-				linksHtml = linksHtml.replace("%PROJECTLINKS%", links);
-				if (doc.logo != null) {
-					linksHtml = linksHtml.replace("%PROJECTLOGO%", doc.logo.getName());
-				}
-				links = linksHtml;
+								MarkupParser parser = new MarkupParser(lang);
+								parser.setBuilder(builder);
+								parser.parse(hunk);
 
-				// write final document
-				OutputStreamWriter writer = new OutputStreamWriter(
-						new FileOutputStream(new File(doc.outputDirectory,
-								fileName)), Charset.forName("UTF-8"));
-				writer.write("<!DOCTYPE HTML PUBLIC \"-//W3C//DTD HTML 4.0 Transitional//EN\">\n<html>\n<head>\n");
-				writer.write(header);
+								String htmlContent = writer.toString();
 
-				writer.append("\n<script src=\"./prettify/prettify.js\"></script>");
+								nomarkdownMap.put(nomarkdownKey, htmlContent);
+							} else if (nomarkdown.prettify) {
+								//
+								// Syntax highlighting
+								//
+								StringBuilder ppclass = new StringBuilder();
+								ppclass.append("prettyprint");
+								if (nomarkdown.linenums) {
+									ppclass.append(" linenums");
+								}
+								if (!StringUtils.isEmpty(nomarkdown.lang)) {
+									ppclass.append(" ");
+									ppclass.append(nomarkdown.lang);
+								}
+								StringBuilder code = new StringBuilder();
+								code.append(MessageFormat.format("<pre class=''{0}''>\n", ppclass.toString()));
+								code.append(StringUtils.escapeForHtml(hunk, false));
+								code.append("</pre>");
+								nomarkdownMap.put(nomarkdownKey, code.toString());
+							} else if (nomarkdown.escape) {
+								//
+								// escape the hunk, optionally wrap with pre
+								//
+								StringBuilder code = new StringBuilder();
+								if (nomarkdown.pre) {
+									code.append("<pre>");
+								}
+								String val = StringUtils.escapeForHtml(hunk, false);
+								if (!nomarkdown.pre) {
+									val = StringUtils.breakLinesForHtml(val);
+								}
+								code.append(val);
+								if (nomarkdown.pre) {
+									code.append("</pre>");
+								}
+								nomarkdownMap.put(nomarkdownKey, code.toString());
+							} else {
+								//
+								// leave the hunk as-is
+								//
+								nomarkdownMap.put(nomarkdownKey, hunk);
+							}
 
-				writer.append("\n<script src=\"./bootstrap/js/jquery.js\"></script>");
-				writer.append("\n<script src=\"./bootstrap/js/bootstrap.min.js\"></script>");
-				
-				writer.write("\n</head>");
-				writer.write("\n<body onload='prettyPrint()'>");
-				writer.write(links);
-				if (page.showToc) {
-					if (page.isFluidLayout) {
-						writer.write("\n<div class='container-fluid'>");
-						writer.write("\n<div class='row-fluid'>");
-					} else {
-						writer.write("\n<div class='container'>");
-						writer.write("\n<div class='row'>");
-					}
-					writer.write("\n<!-- sidebar -->");
-					writer.write("\n<div class='span3'>");
-					writer.write("\n<div class='well sidebar-nav'>");
-					writer.write("\n<ul class='nav nav-list'>");
-					writer.write("\n<li class='nav-header'>Table of Contents</li>");
-					for (Section section : sections) {
-						writer.write(MessageFormat.format("\n<li><a href=''#{0}''>{1}</a></li>\n", section.id, section.name));	
-					}
-					writer.write("\n</ul>");
-					writer.write("\n</div>");
-					writer.write("\n</div>");
-					writer.write("\n<div class='span9'>");
-				} else {
-					if (page.isFluidLayout) {
-						writer.write("\n<div class='container-fluid'>");
+							// advance the i counter to endCode so we do not
+							// include the lines within the hunk
+							i = endCode;
+						} else {
+							// could not find closing token
+							strippedLines.add(line);
+						}
 					} else {
-						writer.write("\n<div class='container'>");
+						// regular line
+						strippedLines.add(line);
 					}
 				}
-				
-				boolean manualPagerPlacement = false;
-				// replace %PAGER%
-				if (content.contains("%PAGER%")) {
-					manualPagerPlacement = true;
-					content = content.replace("%PAGER%", pager);
+
+				// replace markdown lines with the stripped lines
+				lines = strippedLines;
+			}
+
+			// prev/next pager links
+			if (page.showPager) {
+				String prev;
+				if (page.prevPage == null) {
+					prev = "";
+				} else {
+					prev = MessageFormat.format("<li class=\"previous\"><a href=\"{0}\">&larr; {1}</a></li>", getHref(page.prevPage), page.prevPage.name);
 				}
-				
-				if (!manualPagerPlacement) {
-					if (!StringUtils.isEmpty(page.pagerPlacement) && page.pagerPlacement.contains("top")) {
-						// top pager
-						writer.write(pager);
-					}
+				String next;
+				if (page.nextPage == null) {
+					next = "";
+				} else {
+					next = MessageFormat.format("<li class=\"next\"><a href=\"{0}\">{1} &rarr;</a></li>", getHref(page.nextPage), page.nextPage.name);
 				}
-				
-				writer.write("\n<!-- Begin Markdown -->\n");
-				writer.write(content);
-				writer.write("\n<!-- End Markdown -->\n");
-								
-				if (!manualPagerPlacement) {
-					if (!StringUtils.isEmpty(page.pagerPlacement) && page.pagerPlacement.contains("bottom")) {
-						// bottom pager
-						writer.write(pager);
+				String divClass = "";
+				String pagerClass = "";
+				if (!StringUtils.isEmpty(page.pagerLayout)) {
+					if ("right".equals(page.pagerLayout)) {
+						divClass = "class=\"pull-right\"";
+						pagerClass = "class=\"pager\"";
+					} else if ("justified".equals(page.pagerLayout)) {
+						pagerClass = "class=\"pager\"";
 					}
 				}
+				pager = MessageFormat.format("<div {0}><ul {1}>{2} {3}</ul></div>", divClass, pagerClass, prev, next);
+			}
 
-				writer.write("<footer class=\"footer\">");
-				writer.write(footer);
-				writer.write("\n</footer>\n</div>");
-				if (page.showToc) {
-					writer.write("\n</div></div>");
+			// header links
+			AtomicInteger sectionCounter = new AtomicInteger();
+			StringBuilder sb = new StringBuilder();
+			for (String line : lines) {
+				if (line.length() == 0) {
+					sb.append('\n');
+					continue;
 				}
-				
-				if (!StringUtils.isEmpty(doc.googleAnalyticsId)) {
-					String analytics = readResource(doc, "analytics.html");
-					analytics = analytics.replace("%ANALYTICSID%", doc.googleAnalyticsId);
-					writer.append('\n');
-					writer.append(analytics);
-					writer.append('\n');
+				if (line.charAt(0) == '#') {
+					String section = line.substring(0, line.indexOf(' '));
+					String name = line.substring(line.indexOf(' ') + 1) .trim();
+					if (name.endsWith(section)) {
+						name = name.substring(0, name.indexOf(section)) .trim();
+					}
+					String h = "h" + section.length();
+					String id = "H" + sectionCounter.addAndGet(1);
+					sections.add(new Section(id, name));
+					if (page.showHeaderLinks) {
+						sb.append(MessageFormat.format("<{0} class=\"section\" id=''{2}''><a href=\"#{2}\" class=\"sectionlink\"><i class=\"icon-share-alt\"> </i></a>{1}</{0}>\n", h, name, id));
+					} else {
+						sb.append(MessageFormat.format("<{0} id=''{2}''>{1}</{0}>\n", h, name, id));
+					}
+				} else {
+					// preserve line
+					sb.append(line);
+					sb.append('\n');
 				}
+			}
 
-				writer.write("\n</body>");
-				writer.write("\n</html>");
-				writer.close();
-			} catch (Throwable t) {
-				build.getConsole().error(t, "Failed to transform " + page.src);
+			// replace markdown content with the navigable content
+			markdownContent = sb.toString();
+
+			// transform markdown to html
+			content = transformMarkdown(markdownContent);
+
+			// reinsert nomarkdown chunks
+			for (Map.Entry<String, String> nomarkdown : nomarkdownMap .entrySet()) {
+				content = replaceFirst(content, nomarkdown.getKey(), nomarkdown.getValue());
 			}
+
+			// templates and substitutions
+			content = substitute(content, task.substitutions);
+
+			for (Regex regex : doc.regexes) {
+				content = regex.replaceAll(content);
+			}
+			content = substitute(content, inserts);
+			// end markdown
 		}
-		
-		// process pages which are not part of the normal structure
-		if (!doc.freeformPages.isEmpty()) {
-			build.getConsole().log("Generating content from Freemarker templates...");
-			for (DocPage page : doc.freeformPages) {
-				try {
-					// template pages
-					String fileName = getHref(page);
-					build.getConsole().log(1, "{0} => {1}", page.templates.get(0).src, fileName);
 
-					String content = page.content;
-					processTemplates(doc, page);
-					for (Substitute sub : doc.substitutions) {
-						if (page.processSubstitutions || sub.isTemplate) {
-							content = content.replace(sub.token, sub.value.toString());
-						}
-					}
-					for (Regex regex : doc.regexes) {
-						content = content.replaceAll(regex.searchPattern, regex.replacePattern);
-					}
+		// write final document
+		OutputStreamWriter writer = new OutputStreamWriter(
+				new FileOutputStream(task.output), Charset.forName("UTF-8"));
+		writer.write("<!DOCTYPE HTML PUBLIC \"-//W3C//DTD HTML 4.0 Transitional//EN\">\n<html>\n<head>\n");
+		writer.write(header);
 
-					File output = new File(doc.outputDirectory, page.as);
-					FileUtils.writeContent(output, content);
-				} catch (Throwable t) {
-					build.getConsole().error(t, "Failed to transform " + page.src);
+		writer.append("\n<script src=\"./prettify/prettify.js\"></script>");
+
+		writer.append("\n<script src=\"./bootstrap/js/jquery.js\"></script>");
+		writer.append("\n<script src=\"./bootstrap/js/bootstrap.min.js\"></script>");
+
+		writer.write("\n</head>");
+		writer.write("\n<body onload='prettyPrint()'>");
+		writer.write(task.links);
+		if (page.showToc) {
+			if (page.isFluidLayout) {
+				writer.write("\n<div class='container-fluid'>");
+				writer.write("\n<div class='row-fluid'>");
+			} else {
+				writer.write("\n<div class='container'>");
+				writer.write("\n<div class='row'>");
+			}
+			writer.write("\n<!-- sidebar -->");
+			writer.write("\n<div class='span3'>");
+			writer.write("\n<div class='well sidebar-nav'>");
+			writer.write("\n<ul class='nav nav-list'>");
+			writer.write("\n<li class='nav-header'>Table of Contents</li>");
+			for (Section section : sections) {
+				writer.write(MessageFormat.format("\n<li><a href=''#{0}''>{1}</a></li>\n", section.id, section.name));
+			}
+			writer.write("\n</ul>");
+			writer.write("\n</div>");
+			writer.write("\n</div>");
+			writer.write("\n<div class='span9'>");
+		} else {
+			if (page.isFluidLayout) {
+				writer.write("\n<div class='container-fluid'>");
+			} else {
+				writer.write("\n<div class='container'>");
+			}
+		}
+
+		boolean manualPagerPlacement = false;
+		// replace %PAGER%
+		if (content.contains("%PAGER%")) {
+			manualPagerPlacement = true;
+			content = content.replace("%PAGER%", pager);
+		}
+
+		if (!manualPagerPlacement) {
+			if (!StringUtils.isEmpty(page.pagerPlacement) && page.pagerPlacement.contains("top")) {
+				// top pager
+				writer.write(pager);
+			}
+		}
+
+		writer.write("\n<!-- Begin Markdown -->\n");
+		writer.write(content);
+		writer.write("\n<!-- End Markdown -->\n");
+
+		if (!manualPagerPlacement) {
+			if (!StringUtils.isEmpty(page.pagerPlacement) && page.pagerPlacement.contains("bottom")) {
+				// bottom pager
+				writer.write(pager);
+			}
+		}
+
+		writer.write("<footer class=\"footer\">");
+		writer.write(footer);
+		writer.write("\n</footer>\n</div>");
+		if (page.showToc) {
+			writer.write("\n</div></div>");
+		}
+
+		if (!StringUtils.isEmpty(doc.googleAnalyticsId)) {
+			String analytics = readResource(doc, "analytics.html");
+			analytics = analytics.replace("%ANALYTICSID%", doc.googleAnalyticsId);
+			writer.append('\n');
+			writer.append(analytics);
+			writer.append('\n');
+		}
+
+		writer.write("\n</body>");
+		writer.write("\n</html>");
+		writer.close();
+	}
+
+	/**
+	 * Creates the topbar links of a page.
+	 */
+	private static String generateLinks(Build build, Doc doc, DocPage page, String projectName) {
+		String links = createLinks(page, doc.structure.elements);
+
+		if (!StringUtils.isEmpty(doc.googlePlusId)) {
+			links += "<li><a href='https://plus.google.com/"
+					+ doc.googlePlusId
+					+ "?prsrc=3' class='gpluspage'><img src='https://ssl.gstatic.com/images/icons/gplus-16.png' width='16' height='16 style='order: 0;'/></a></li>";
+		}
+
+		// add Google+1 link
+		if (doc.googlePlusOne && !StringUtils.isEmpty(build.getPom().url)) {
+			links += "<li><div class='gplusone'><g:plusone size='small' href='"
+					+ build.getPom().url + "'></g:plusone></div></li>";
+		}
+		String linksHtml = readResource(doc, "links.html");
+		linksHtml = linksHtml.replace("%PROJECTNAME%", projectName);
+		linksHtml = linksHtml.replace("%PROJECTLINKS%", links);
+		if (doc.logo != null) {
+			linksHtml = linksHtml.replace("%PROJECTLOGO%", doc.logo.getName());
+		}
+		return linksHtml;
+	}
+
+	/**
+	 * Returns the tokens and values of the substitutions which apply to a
+	 * page, in order.
+	 */
+	private static List<String[]> getSubstitutions(Doc doc, DocPage page) {
+		List<String[]> list = new ArrayList<String[]>();
+		for (Substitute sub : doc.substitutions) {
+			if (page.processSubstitutions || sub.isTemplate) {
+				list.add(new String[] { sub.token, sub.value.toString() });
+			}
+		}
+		return list;
+	}
+
+	/**
+	 * Returns the tokens and contents of the properties and loaded files.
+	 */
+	private static List<String[]> loadInserts(Doc doc) throws Exception {
+		List<String[]> list = new ArrayList<String[]>();
+		for (Prop prop : doc.props) {
+			list.add(new String[] { prop.token, generatePropertiesContent(prop) });
+		}
+		for (Load load : doc.loads) {
+			String loadedContent = FileUtils.readContent(new File( load.file), "\n");
+			loadedContent = StringUtils.escapeForHtml(loadedContent, false);
+			loadedContent = StringUtils.breakLinesForHtml(loadedContent);
+			list.add(new String[] { load.token, loadedContent });
+		}
+		return list;
+	}
+
+	/**
+	 * Replaces the tokens with their values.
+	 */
+	private static String substitute(String content, List<String[]> substitutions) {
+		for (String [] sub : substitutions) {
+			content = replace(content, sub[0], sub[1]);
+		}
+		return content;
+	}
+
+	/**
+	 * Replaces all occurrences of a literal token.  Unlike String.replace
+	 * this does not compile a pattern and does not copy the content if the
+	 * token does not occur.
+	 */
+	private static String replace(String content, String token, String value) {
+		if (token.length() == 0) {
+			return content.replace(token, value);
+		}
+		int index = content.indexOf(token);
+		if (index < 0) {
+			return content;
+		}
+		StringBuilder sb = new StringBuilder(content.length() + value.length());
+		int start = 0;
+		while (index > -1) {
+			sb.append(content, start, index).append(value);
+			start = index + token.length();
+			index = content.indexOf(token, start);
+		}
+		sb.append(content, start, content.length());
+		return sb.toString();
+	}
+
+	/**
+	 * Replaces the first occurrence of a literal token.
+	 */
+	private static String replaceFirst(String content, String token, String value) {
+		int index = content.indexOf(token);
+		if (index < 0) {
+			return content;
+		}
+		return content.substring(0, index) + value + content.substring(index + token.length());
+	}
+
+	/**
+	 * Hashes the inputs which are shared by all pages.
+	 */
+	private static String hashSharedInputs(Doc doc, String header, String footer, List<String[]> inserts) {
+		StringBuilder sb = new StringBuilder();
+		append(sb, Toolkit.getVersion());
+		append(sb, header);
+		append(sb, footer);
+		append(sb, doc.references.content);
+		append(sb, doc.googleAnalyticsId);
+		for (Regex regex : doc.regexes) {
+			append(sb, regex.searchPattern);
+			append(sb, regex.replacePattern);
+		}
+		for (NoMarkdown nomarkdown : doc.nomarkdowns) {
+			append(sb, nomarkdown.getClass().getName());
+			append(sb, nomarkdown.startToken);
+			append(sb, nomarkdown.endToken);
+			append(sb, nomarkdown.escape + "," + nomarkdown.pre + "," + nomarkdown.prettify + "," + nomarkdown.linenums);
+			append(sb, nomarkdown.lang);
+			if (nomarkdown instanceof WikiText) {
+				append(sb, ((WikiText) nomarkdown).syntax);
+			}
+		}
+		if (inserts == null) {
+			append(sb, "failed");
+		} else {
+			for (String [] insert : inserts) {
+				append(sb, insert[0]);
+				append(sb, insert[1]);
+			}
+		}
+		return hash(sb);
+	}
+
+	/**
+	 * Hashes the inputs of a page: the shared inputs, its source, its
+	 * substitutions, its links, and its layout.
+	 */
+	private static String hashPage(String shared, PageTask task) {
+		DocPage page = task.page;
+		StringBuilder sb = new StringBuilder();
+		append(sb, shared);
+		append(sb, task.fileName);
+		append(sb, page.content == null ? page.src : "generated");
+		append(sb, task.source);
+		for (String [] sub : task.substitutions) {
+			append(sb, sub[0]);
+			append(sb, sub[1]);
+		}
+		append(sb, task.links);
+		append(sb, page.showToc + "," + page.showHeaderLinks + "," + page.isFluidLayout + "," + page.showPager);
+		append(sb, page.pagerLayout);
+		append(sb, page.pagerPlacement);
+		if (page.prevPage != null) {
+			append(sb, page.prevPage.name);
+			append(sb, getHref(page.prevPage));
+		}
+		if (page.nextPage != null) {
+			append(sb, page.nextPage.name);
+			append(sb, getHref(page.nextPage));
+		}
+		return hash(sb);
+	}
+
+	private static void append(StringBuilder sb, Object value) {
+		sb.append(value).append('\0');
+	}
+
+	private static String hash(StringBuilder sb) {
+		try {
+			return StringUtils.getSHA1(sb.toString().getBytes("UTF-8"));
+		} catch (UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Reads the pages and hashes of the last generation.
+	 */
+	private static Map<String, String> readManifest(File file) {
+		Map<String, String> manifest = new HashMap<String, String>();
+		if (file.exists()) {
+			for (String line : FileUtils.readContent(file, "\n").split("\n")) {
+				int space = line.indexOf(' ');
+				if (space > 0) {
+					manifest.put(line.substring(space + 1).trim(), line.substring(0, space));
 				}
 			}
 		}
+		return manifest;
+	}
+
+	private static void writeManifest(File file, Map<String, String> pages) {
+		StringBuilder sb = new StringBuilder();
+		for (Map.Entry<String, String> entry : pages.entrySet()) {
+			sb.append(entry.getValue()).append(' ').append(entry.getKey()).append('\n');
+		}
+		FileUtils.writeContent(file, sb.toString());
 	}
 
 	static String extractResource(Doc doc, String folder, String resource) {
@@ -963,4 +1216,28 @@ public class Docs {
 			this.name = name;
 		}
 	}
+
+	/**
+	 * PageTask is a page of the structure with the inputs which were prepared
+	 * for it before rendering.
+	 */
+	private static class PageTask {
+		final DocPage page;
+		final String fileName;
+		final File output;
+		String source;
+		List<String[]> substitutions;
+		String links;
+		String hash;
+
+		PageTask(DocPage page, String fileName, File output) {
+			this.page = page;
+			this.fileName = fileName;
+			this.output = output;
+		}
+
+		boolean isMarkdown() {
+			return page.content == null && !(page.src.endsWith(".html") || page.src.endsWith(".htm"));
+		}
+	}
 }
\ No newline at end of file
@@ -85,6 +85,7 @@ public class MxLauncher {
 		}
 
 		// Load the JARs in the lib and ext folder
+		ClassLoader loader = MxLauncher.class.getClassLoader();
 		String[] folders = appPaths.split(",");
 		List<File> jars = new ArrayList<File>();
 		for (String folder : folders) {
@@ -110,7 +111,7 @@ public class MxLauncher {
 					System.err.println("Failed to find any JARs in " + libFolder.getPath());
 				}
 			}
-		} else {
+		} else if (ClassLoader.getSystemClassLoader() instanceof URLClassLoader) {
 			for (File jar : jars) {
 				try {
 					jar.canRead();
@@ -119,12 +120,25 @@ public class MxLauncher {
 					t.printStackTrace();
 				}
 			}
+		} else {
+			// Java 9+ system classloader can not be extended, load the jars
+			// with a new classloader.  The launcher jar, which contains the
+			// app class, comes first and the parent is the platform
+			// classloader so that the app class is not loaded by the system
+			// classloader which can not see the jars.
+			List<URL> urls = new ArrayList<URL>();
+			urls.add(MxLauncher.class.getProtectionDomain().getCodeSource().getLocation());
+			for (File jar : jars) {
+				if (isLibrary(jar)) {
+					urls.add(jar.toURI().toURL());
+				}
+			}
+			loader = new URLClassLoader(urls.toArray(new URL[urls.size()]), ClassLoader.getSystemClassLoader().getParent());
+			Thread.currentThread().setContextClassLoader(loader);
 		}
 
-		
-		
 		// launch the app class
-		Class<?> appClass = Class.forName(appClassName);
+		Class<?> appClass = Class.forName(appClassName, true, loader);
 		Method main = appClass.getMethod("main", String [].class);
 		main.invoke(null, new Object[] { args });		
 	}
@@ -151,6 +165,17 @@ public class MxLauncher {
 		return jars;
 	}
 
+	/**
+	 * Returns false for source and javadoc jars which are not added to the
+	 * runtime classpath.
+	 * 
+	 * @param f
+	 * @return true if the jar is a library
+	 */
+	public static boolean isLibrary(File f) {
+		return f.getName().indexOf("-sources") < 0 && f.getName().indexOf("-javadoc") < 0;
+	}
+
 	/**
 	 * Adds a file to the classpath
 	 * 
@@ -159,8 +184,7 @@ public class MxLauncher {
 	 * @throws IOException
 	 */
 	public static void addJarFile(File f) throws IOException {
-		if (f.getName().indexOf("-sources") > -1 || f.getName().indexOf("-javadoc") > -1) {
-			// don't add source or javadoc jars to runtime classpath
+		if (!isLibrary(f)) {
 			return;
 		}
 		URL u = f.toURI().toURL();
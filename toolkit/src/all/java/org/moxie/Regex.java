@@ -15,9 +15,12 @@
  */
 package org.moxie;
 
+import java.util.regex.Pattern;
+
 public class Regex {
 	String searchPattern;
 	String replacePattern;
+	Pattern pattern;
 
 	public void setSearchpattern(String pattern) {
 		this.searchPattern = pattern;
@@ -26,4 +29,22 @@ public class Regex {
 	public void setReplacepattern(String pattern) {
 		this.replacePattern = pattern;
 	}
+
+	/**
+	 * Replaces all matches of the search pattern.  The pattern is compiled
+	 * once and shared by all pages.
+	 *
+	 * @param content
+	 * @return the content with all matches replaced
+	 */
+	public String replaceAll(String content) {
+		Pattern p;
+		synchronized (this) {
+			if (pattern == null) {
+				pattern = Pattern.compile(searchPattern);
+			}
+			p = pattern;
+		}
+		return p.matcher(content).replaceAll(replacePattern);
+	}
 }
\ No newline at end of file
@@ -52,6 +52,7 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Map;
 
 /**
  * Represents a directory in the classpath.
@@ -153,6 +154,26 @@ class FileResolver extends PathResolver {
 		return is;
 	}
 	
+	@Override
+	void index(Map<String, PathResolver> index) throws IOException {
+		index(base, "", index);
+	}
+
+	private void index(File dir, String prefix, Map<String, PathResolver> index) {
+		File [] files = dir.listFiles();
+		if (files == null) {
+			return;
+		}
+		for (File file : files) {
+			String name = prefix + file.getName();
+			if (file.isDirectory()) {
+				index(file, name + "/", index);
+			} else if (!index.containsKey(name)) {
+				index.put(name, this);
+			}
+		}
+	}
+
 	@Override
 	public String toString() {
 		return "Resolver " + (isExcluded() ? "EXCLUDED" : "") + " (" + base.getPath() + ")";
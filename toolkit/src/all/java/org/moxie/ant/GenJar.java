@@ -55,14 +55,24 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.text.MessageFormat;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.jar.Attributes;
 import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
 import java.util.jar.JarOutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
 
 import org.apache.tools.ant.BuildException;
 import org.apache.tools.ant.Task;
@@ -71,6 +81,7 @@ import org.apache.tools.ant.taskdefs.Manifest.Section;
 import org.apache.tools.ant.types.Path;
 import org.apache.tools.ant.types.Reference;
 import org.moxie.MoxieException;
+import org.moxie.utils.Parallel;
 import org.moxie.utils.StringUtils;
 
 
@@ -104,7 +115,9 @@ public class GenJar extends Task {
 
 	private List<PathResolver> resolvers = new ArrayList<PathResolver>();
 
-	private Set<String> resolved = new TreeSet<String>();
+	private Map<String, PathResolver> index = new HashMap<String, PathResolver>();
+
+	private Set<String> resolved = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
 	
 	protected Set<String> exportedPackages = new TreeSet<String>();
 	
@@ -116,6 +129,12 @@ public class GenJar extends Task {
 	
 	String excludes;
 
+	boolean parallel;
+
+	int threads;
+
+	int level = Deflater.DEFAULT_COMPRESSION;
+
 	/**
 	 * main execute for genjar
 	 * <ol>
@@ -173,7 +192,7 @@ public class GenJar extends Task {
 		// graphs - when done, getJarEntries() returns a list
 		// of all entries generated by this JarSpec
 		//
-		List<JarEntrySpec> entries = new ArrayList<JarEntrySpec>();
+		Set<JarEntrySpec> entries = new LinkedHashSet<JarEntrySpec>();
 
 		for (JarSpec js : jarSpecs) {
 			try {
@@ -189,9 +208,7 @@ public class GenJar extends Task {
 			// first entry added to jar always wins
 			//
 			for (JarEntrySpec spec : js.getJarEntries()) {
-				if (!entries.contains(spec)) {
-					entries.add(spec);
-				} else {
+				if (!entries.add(spec)) {
 					logger.verbose("Duplicate (ignored): " + spec.getJarName());
 				}
 			}
@@ -203,15 +220,9 @@ public class GenJar extends Task {
 		//
 		for (JarEntrySpec jes : entries) {
 			if (jes.getSourceFile() == null) {
-				try {
-					InputStream is = resolveEntry(jes);
-					if (is != null) {
-						is.close();
-					}
-				} catch (IOException ioe) {
-					throw new MoxieException(
-							"Error while generating manifest entry for: "
-									+ jes.toString(), ioe, getLocation());
+				PathResolver resolver = index.get(jes.getJarName());
+				if (resolver != null) {
+					track(resolver, jes);
 				}
 			}
 		}
@@ -219,7 +230,16 @@ public class GenJar extends Task {
 		JarOutputStream jout = null;
 		InputStream is = null;
 		try {
-			jout = new JarOutputStream(new FileOutputStream(destFile), createJarManifest());
+			if (parallel) {
+				// entries are deflated in parallel and written in order
+				jout = new ParallelJarOutputStream(new FileOutputStream(destFile), level, threads);
+				jout.putNextEntry(new ZipEntry(JarFile.MANIFEST_NAME));
+				createJarManifest().write(jout);
+				jout.closeEntry();
+			} else {
+				jout = new JarOutputStream(new FileOutputStream(destFile), createJarManifest());
+				jout.setLevel(level);
+			}
 			writeJarEntries(jout);
 			
 			for (JarEntrySpec jes : entries) {
@@ -467,6 +487,28 @@ public class GenJar extends Task {
 			}
 			logger.debug("added " + resolver);
 			resolvers.add(resolver);
+			// first resolver of an entry name wins
+			resolver.index(index);
+		}
+	}
+
+	/**
+	 * Keeps track of class files and packages added from output folders.  The
+	 * manifest is built before the entries are written so this only consults
+	 * the entry index and does not open the entries.
+	 * 
+	 * @param resolver
+	 * @param spec
+	 */
+	private void track(PathResolver resolver, JarEntrySpec spec) {
+		if (resolver instanceof FileResolver && spec.getJarName().endsWith(".class")) {
+			String className = spec.getJarName();
+			resolvedLocal.add(className);
+
+			if (className.lastIndexOf('/') > -1) {
+				String packageName = className.substring(0, className.lastIndexOf('/'));
+				exportedPackages.add(packageName);
+			}
 		}
 	}
 
@@ -480,22 +522,19 @@ public class GenJar extends Task {
 	 *             Description of the Exception
 	 */
 	InputStream resolveEntry(JarEntrySpec spec) throws IOException {
-		InputStream is = null;
+		if (spec.getSourceFile() == null) {
+			// class or resource from the classpath
+			PathResolver resolver = index.get(spec.getJarName());
+			if (resolver == null) {
+				return null;
+			}
+			track(resolver, spec);
+			return resolver.resolve(spec);
+		}
 		for (PathResolver resolver : resolvers) {
-			is = resolver.resolve(spec);
+			InputStream is = resolver.resolve(spec);
 			if (is != null) {
-				if (resolver instanceof FileResolver) {
-					// keep track of class files and packages added from output folders
-					if (spec.getJarName().endsWith(".class")) {
-						String className = spec.getJarName();
-						resolvedLocal.add(className);
-						
-						if (className.lastIndexOf('/') > -1) {
-							String packageName = className.substring(0, className.lastIndexOf('/'));						
-							exportedPackages.add(packageName);
-						}
-					}
-				}
+				track(resolver, spec);
 				return is;
 			}
 		}
@@ -512,23 +551,22 @@ public class GenJar extends Task {
 	 *             Description of the Exception
 	 */
 	InputStream resolveEntry(String cname) throws IOException, ExcludedResolverException {
-		InputStream is = null;
-
-		for (PathResolver resolver : resolvers) {
-			is = resolver.resolve(cname);
-			if (is != null) {
-				if (resolver.isExcluded()) {
-					is.close();
-					throw new ExcludedResolverException(resolver.toString());
-				}
-				return is;
-			}
+		PathResolver resolver = index.get(cname);
+		if (resolver == null) {
+			return null;
 		}
-		return null;
+		if (resolver.isExcluded()) {
+			throw new ExcludedResolverException(resolver.toString());
+		}
+		return resolver.resolve(cname);
 	}
 
 	/**
 	 * Generates a list of all classes upon which the list of classes depend.
+	 * <p>
+	 * The dependency closure is computed breadth-first.  The class files of
+	 * each level are read and parsed in parallel and the classes which have
+	 * not been visited yet form the next level.
 	 * 
 	 * @param entries
 	 *            List of <code>JarEntrySpec</code>s used as a list of class
@@ -537,71 +575,85 @@ public class GenJar extends Task {
 	 *                If there's an error reading a class file
 	 */
 	void generateDependencies(List<JarEntrySpec> entries) throws IOException {
+		long start = System.nanoTime();
+		final Set<String> excluded = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
 		Set<String> dependents = new TreeSet<String>();
 
+		List<String> level = new ArrayList<String>();
+		for (JarEntrySpec js : entries) {
+			if (resolved.add(js.getJarName())) {
+				level.add(js.getJarName());
+			}
+		}
+		while (!level.isEmpty()) {
+			final Queue<String> next = new ConcurrentLinkedQueue<String>();
+			try {
+				Parallel.WaitFor(level, new Parallel.Operation<String>() {
+					@Override
+					public void perform(String classFileName) {
+						try {
+							for (String name : readDependencies(classFileName)) {
+								String cname = name + ".class";
+								if (classFilter.include(cname) && resolved.add(cname)) {
+									next.add(cname);
+								}
+							}
+						} catch (ExcludedResolverException e) {
+							// class is located in an excluded source
+							logger.debug(MessageFormat.format("{0} is located in {1}", classFileName, e.getMessage()));
+							excluded.add(classFileName);
+						} catch (IOException e) {
+							throw new RuntimeException(e);
+						}
+					}
+				});
+			} catch (RuntimeException e) {
+				if (e.getCause() instanceof IOException) {
+					throw (IOException) e.getCause();
+				}
+				throw e;
+			}
+			dependents.addAll(next);
+			level = new ArrayList<String>(next);
+		}
+
+		// classes located in an excluded source are removed from the entry list
 		Iterator<JarEntrySpec> itr = entries.iterator();
 		while (itr.hasNext()) {
-			JarEntrySpec js = itr.next();
-			if (!generateClassDependencies(js.getJarName(), dependents)) {
-				// class is located in an excluded source, exclude entry
+			if (excluded.contains(itr.next().getJarName())) {
 				itr.remove();
 			}
 		}
+		dependents.removeAll(excluded);
 
 		for (String dependent : dependents) {
 			entries.add(new JarEntrySpec(dependent, null));
 		}
+		logger.verbose("Resolved " + dependents.size() + " dependent classes in "
+				+ ((System.nanoTime() - start) / 1000000L) + " ms");
 	}
 
 	/**
-	 * Generates a list of classes upon which the named class is dependent.
+	 * Returns the names of the classes referenced by the named class.
 	 * 
-	 * @param classes
-	 *            A List into which the class names are placed
 	 * @param classFileName
-	 *            Description of the Parameter
+	 *            the class file name
+	 * @return the referenced class names
 	 * @throws IOException
-	 *             Description of the Exception
-	 * @return true if the class should be kept
+	 *             if the class can not be found or read
+	 * @throws ExcludedResolverException
+	 *             if the class is located in an excluded source
 	 */
-	boolean generateClassDependencies(String classFileName, Set<String> classes)
-			throws IOException {
-		if (!resolved.contains(classFileName)) {
-			resolved.add(classFileName);
-			
-			InputStream is = null;
-			try {			
-				is = resolveEntry(classFileName);
-			} catch (ExcludedResolverException e) {
-				// class is located in an excluded source
-				// remove from entry list
-				logger.debug(MessageFormat.format("{0} is located in {1}", classFileName, e.getMessage()));
-				return false;
-			}
-
-			if (is == null) {
-				throw new FileNotFoundException(classFileName);
-			}
-			
-			List<String> referenced = ClassUtil.getDependencies(is);
-
-			for (String name : referenced) {
-				String cname = name + ".class";
-
-				if (!classFilter.include(cname) || resolved.contains(cname)) {
-					continue;
-				}
-
-				classes.add(cname);
-				if (!generateClassDependencies(cname, classes)) {
-					// dependent class is located in an excluded source
-					// remove from list
-					classes.remove(cname);
-				}
-			}
+	private List<String> readDependencies(String classFileName) throws IOException, ExcludedResolverException {
+		InputStream is = resolveEntry(classFileName);
+		if (is == null) {
+			throw new FileNotFoundException(classFileName);
+		}
+		try {
+			return ClassUtil.getClassReferences(is);
+		} finally {
 			is.close();
 		}
-		return true;
 	}
 	
 	private static class ExcludedResolverException extends Exception {
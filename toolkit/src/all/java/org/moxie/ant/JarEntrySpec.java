@@ -141,4 +141,9 @@ public class JarEntrySpec {
 		}
 		return jarName.equals(((JarEntrySpec) o).jarName);
 	}
+
+	@Override
+	public int hashCode() {
+		return jarName.hashCode();
+	}
 }
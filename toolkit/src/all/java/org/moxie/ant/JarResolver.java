@@ -51,8 +51,11 @@ package org.moxie.ant;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Enumeration;
+import java.util.Map;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
+import java.util.zip.ZipEntry;
 
 /**
  * Represents a jar file in the classpath.
@@ -156,6 +159,17 @@ class JarResolver extends PathResolver {
 		return is;
 	}
 	
+	@Override
+	void index(Map<String, PathResolver> index) throws IOException {
+		Enumeration<? extends ZipEntry> entries = jarFile.entries();
+		while (entries.hasMoreElements()) {
+			ZipEntry entry = entries.nextElement();
+			if (!entry.isDirectory() && !index.containsKey(entry.getName())) {
+				index.put(entry.getName(), this);
+			}
+		}
+	}
+
 	@Override
 	public String toString() {
 		return "Resolver " + (isExcluded() ? "EXCLUDED" : "") + " (" + file.getPath() + ")";
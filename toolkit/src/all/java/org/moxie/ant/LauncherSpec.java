@@ -22,6 +22,12 @@ public class LauncherSpec extends ClassSpec {
 
 	private String paths;
 	
+	private boolean staticClasspath;
+	
+	private boolean cds;
+	
+	private String trainingArgs;
+	
 	public void setPaths(String paths) {
 		this.paths = paths;
 	}
@@ -30,6 +36,42 @@ public class LauncherSpec extends ClassSpec {
 		return this.paths;
 	}
 
+	/**
+	 * Write a static Class-Path manifest attribute instead of injecting
+	 * MxLauncher.
+	 * 
+	 * @param value
+	 */
+	public void setStatic(boolean value) {
+		this.staticClasspath = value;
+	}
+
+	public boolean isStatic() {
+		return staticClasspath || cds;
+	}
+
+	/**
+	 * Dump a class data sharing archive with a training run of the
+	 * application.  Implies a static classpath.
+	 * 
+	 * @param value
+	 */
+	public void setCds(boolean value) {
+		this.cds = value;
+	}
+
+	public boolean isCds() {
+		return cds;
+	}
+
+	public void setTrainingArgs(String args) {
+		this.trainingArgs = args;
+	}
+
+	public String getTrainingArgs() {
+		return trainingArgs;
+	}
+
 	public LauncherSpec(Project project) {
 		super(project);
 		setName(MxLauncher.class.getName());
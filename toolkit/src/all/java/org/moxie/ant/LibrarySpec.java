@@ -119,6 +119,25 @@ public class LibrarySpec extends DataType implements JarSpec {
 		return jarEntries;
 	}
 
+	/**
+	 * Returns the jar, the dir, or the entries of the path of the library.
+	 * 
+	 * @return the library files
+	 */
+	List<File> getFiles() {
+		List<File> files = new ArrayList<File>();
+		if (jar != null) {
+			files.add(jar);
+		} else if (dir != null) {
+			files.add(dir);
+		} else if (path != null) {
+			for (String p : path.split(File.pathSeparator)) {
+				files.add(new File(p));
+			}
+		}
+		return files;
+	}
+
 	/**
 	 * Gets the name of the resource.
 	 * 
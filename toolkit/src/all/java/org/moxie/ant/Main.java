@@ -39,6 +39,7 @@ import org.eclipse.jgit.api.InitCommand;
 import org.eclipse.jgit.api.errors.GitAPIException;
 import org.eclipse.jgit.lib.PersonIdent;
 import org.eclipse.jgit.lib.StoredConfig;
+import org.moxie.ActionCache;
 import org.moxie.MoxieException;
 import org.moxie.Scope;
 import org.moxie.Toolkit;
@@ -637,6 +638,12 @@ public class Main extends org.apache.tools.ant.Main implements BuildListener {
 				throw new RuntimeException(e);
 			}
 		}
+
+		// report the action cache and build cache hit rates
+		String statistics = ActionCache.getStatistics();
+		if (statistics != null && event.getProject() != null) {
+			event.getProject().log(statistics);
+		}
 	}
 
 	@Override
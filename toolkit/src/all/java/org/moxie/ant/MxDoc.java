@@ -30,6 +30,7 @@ import java.util.zip.ZipInputStream;
 import org.apache.tools.ant.BuildException;
 import org.apache.tools.ant.DirectoryScanner;
 import org.apache.tools.ant.types.FileSet;
+import org.moxie.ActionCache;
 import org.moxie.Build;
 import org.moxie.Dependency;
 import org.moxie.Doc;
@@ -51,6 +52,7 @@ import org.moxie.Toolkit;
 import org.moxie.Toolkit.Key;
 import org.moxie.WikiText;
 import org.moxie.WikiText.Syntax;
+import org.moxie.maxml.MaxmlMap;
 import org.moxie.utils.FileUtils;
 import org.moxie.utils.LessUtils;
 import org.moxie.utils.StringUtils;
@@ -67,6 +69,10 @@ public class MxDoc extends MxTask {
 	Logo favicon;
 
 	List<org.moxie.Resource> resources = new ArrayList<org.moxie.Resource>();
+
+	Boolean actionCache;
+
+	Boolean incremental;
 	
 	public MxDoc() {
 		super();
@@ -199,6 +205,14 @@ public class MxDoc extends MxTask {
 		doc.atomFeed = feed;
 	}
 
+	public void setActionCache(boolean value) {
+		actionCache = value;
+	}
+
+	public void setIncremental(boolean value) {
+		incremental = value;
+	}
+
 	protected void setToken(String token, Object value) {
 		if (value == null) {
 			value = "${" + token + "}";
@@ -271,6 +285,26 @@ public class MxDoc extends MxTask {
 		
 		titleClass(build.getPom().name);
 
+		// restore the site of a previous build with the same sources
+		ActionCache cache = null;
+		ActionCache.Key key = null;
+		MaxmlMap attributes = build.getConfig().getTaskAttributes(getTaskName());
+		if (actionCache == null) {
+			actionCache = attributes != null && attributes.getBoolean("actionCache", false);
+		}
+		if (incremental == null) {
+			incremental = attributes != null && attributes.getBoolean("incremental", false);
+		}
+		doc.incremental = incremental;
+		if (actionCache) {
+			cache = ActionCache.of(build);
+			key = newCacheKey(cache, build);
+			if (cache.restore(key, doc.outputDirectory)) {
+				getConsole().log(1, "restored {0} from the action cache", doc.outputDirectory);
+				return;
+			}
+		}
+
 		loadRuntimeDependencies(build, 
 				new Dependency("mx:pegdown"),
 				new Dependency("mx:wikitext-core"),
@@ -289,7 +323,8 @@ public class MxDoc extends MxTask {
 		
 		loadRuntimeDependencies(build, bootstrap, jquery, d3js, prettify, less);
 
-		if (doc.outputDirectory.exists()) {
+		if (doc.outputDirectory.exists() && !doc.incremental) {
+			// incremental generation keeps the unchanged pages
 			FileUtils.delete(doc.outputDirectory);
 		}
 		doc.outputDirectory.mkdirs();
@@ -383,6 +418,44 @@ public class MxDoc extends MxTask {
 				e.printStackTrace();
 			}
 		}
+
+		if (key != null) {
+			cache.store(key, doc.outputDirectory);
+		}
+	}
+
+	/**
+	 * Returns the action cache key of the site.  The key hashes the build
+	 * file, which declares the structure of the site, the pom, the resolved
+	 * dependencies, and the site sources and resources.  The build date is
+	 * not part of the key so a restored site shows the date of the build
+	 * which generated it.
+	 */
+	private ActionCache.Key newCacheKey(ActionCache cache, Build build) {
+		MaxmlMap attributes = build.getConfig().getTaskAttributes(getTaskName());
+		ActionCache.Key key = cache.newKey(getTaskName())
+				.add("attributes", attributes == null ? null : attributes.toMaxml())
+				.add("pom", build.getPom().toXML(false, build.getConfig().getRepositoryDefinitions()))
+				.add("releaseDate", build.getReleaseDateString());
+		String buildFile = getProject().getProperty("ant.file");
+		key.addFile("buildFile", buildFile == null ? null : new File(buildFile));
+		for (Dependency dependency : build.getSolver().getDependencies(Scope.test)) {
+			key.add("dependency", dependency.getCoordinates() + " " + dependency.ring);
+		}
+		key.addFile("sources", doc.sourceDirectory);
+		key.addFile("templates", doc.templateDirectory);
+		key.addFile("less", doc.customLessFile);
+		key.addFile("logo", doc.logo);
+		key.addFile("favicon", doc.favicon);
+		key.addFiles("resources", build.getConfig().getResourceDirectories(Scope.site));
+		for (org.moxie.Resource resource : resources) {
+			key.add("prefix", resource.prefix);
+			key.addFile("resource", resource.file);
+			for (FileSet fs : resource.filesets) {
+				key.addFile("resource", fs.getDir(getProject()));
+			}
+		}
+		return key;
 	}
 	
 	protected void preparePages(List<DocElement> elements) {
@@ -33,6 +33,7 @@ import java.util.Properties;
 import java.util.Set;
 import java.util.TreeSet;
 import java.util.jar.JarOutputStream;
+import java.util.zip.Deflater;
 import java.util.zip.ZipEntry;
 
 import org.apache.tools.ant.BuildException;
@@ -45,6 +46,7 @@ import org.apache.tools.ant.types.FileSet;
 import org.apache.tools.ant.types.Path;
 import org.apache.tools.ant.types.Path.PathElement;
 import org.apache.tools.ant.types.resources.FileResource;
+import org.moxie.ActionCache;
 import org.moxie.Build;
 import org.moxie.MoxieException;
 import org.moxie.MxLauncher;
@@ -63,6 +65,7 @@ public class MxGenJar extends GenJar {
 	Console console;
 
 	LauncherSpec launcher;
+	StaticLauncher staticLauncher;
 	ClassSpec mainclass;
 	boolean classResolution;
 	boolean fatjar;
@@ -71,6 +74,8 @@ public class MxGenJar extends GenJar {
 	String includes;
 	boolean packageSources;
 	String resourceFolderPrefix;
+	boolean reproducible;
+	boolean actionCache;
 	String tag;
 
 	String classifier;
@@ -128,6 +133,30 @@ public class MxGenJar extends GenJar {
 		this.excludeClasspathJars = value;
 	}
 
+	public boolean getParallel() {
+		return parallel;
+	}
+
+	public void setParallel(boolean value) {
+		this.parallel = value;
+	}
+
+	public boolean getReproducible() {
+		return reproducible;
+	}
+
+	public void setReproducible(boolean value) {
+		this.reproducible = value;
+	}
+
+	public boolean getActioncache() {
+		return actionCache;
+	}
+
+	public void setActioncache(boolean value) {
+		this.actionCache = value;
+	}
+
 	public boolean getExcludepomfiles() {
 		return excludePomFiles;
 	}
@@ -252,6 +281,12 @@ public class MxGenJar extends GenJar {
 			if (launcher == null) {
 				// use specified mainclass
 				setManifest(mft, "Main-Class", mc);
+			} else if (launcher.isStatic()) {
+				// use specified mainclass with a static classpath
+				Object o = getProject().getReference(Key.runtimeClasspath.referenceId());
+				staticLauncher = new StaticLauncher(build, launcher, o instanceof Path ? (Path) o : null);
+				setManifest(mft, "Main-Class", mc);
+				setManifest(mft, "Class-Path", staticLauncher.getClassPath());
 			} else {
 				// inject Moxie Launcher class
 				String mx = launcher.getName().replace('/', '.');
@@ -297,6 +332,7 @@ public class MxGenJar extends GenJar {
 		}
 
 		version = build.getPom().version;
+		threads = build.getConfig().getCpuThreads();
 
 		File outputFolder = build.getConfig().getOutputDirectory(Scope.compile);
 
@@ -350,7 +386,7 @@ public class MxGenJar extends GenJar {
 		AttributeReflector.logAttributes(this, attributes, console);
 
 		// optionally inject MxLauncher utility
-		if (launcher != null) {
+		if (launcher != null && !launcher.isStatic()) {
 			if (launcher.getName().equals(MxLauncher.class.getName().replace('.', '/') + ".class")) {
 				// inject MxLauncher into the output folder of the project
 				for (String cn : Arrays.asList(MxLauncher.class.getName(), MxLauncher.class.getName() + "$1")) {
@@ -388,7 +424,64 @@ public class MxGenJar extends GenJar {
 			}
 		}
 
+		// restore the jars of a previous build with the same inputs
+		ActionCache cache = null;
+		ActionCache.Key key = null;
+		File [] outputs = packageSources ? new File [] { destFile, MxJar.getSourcesFile(destFile, classifier) }
+				: new File [] { destFile };
+		if (actionCache) {
+			cache = ActionCache.of(build);
+			key = MxJar.newCacheKey(cache, build, this, mft.toString())
+					.add("classifier", classifier)
+					.add("tag", tag)
+					.add("fatjar", fatjar)
+					.add("excludes", excludes);
+			for (JarSpec spec : jarSpecs) {
+				if (spec instanceof Resource) {
+					// nested resource files and filesets
+					Resource resource = (Resource) spec;
+					key.addFile("resource", resource.getFile());
+					MxJar.addResources(key, getProject(), resource.getFilesets());
+				} else if (spec instanceof LibrarySpec) {
+					key.addFiles("library", ((LibrarySpec) spec).getFiles());
+				} else {
+					key.add("class", spec.getName());
+				}
+			}
+			for (String path : classpath.list()) {
+				key.addFile("classpath", new File(path));
+			}
+			for (String path : buildClasspath(build, Scope.compile, tag).list()) {
+				key.addFile("classpath", new File(path));
+			}
+			key.addFiles("sources", build.getConfig().getSourceDirectories(Scope.compile, tag));
+			if (includeResources) {
+				key.addFiles("resources", build.getConfig().getResourceDirectories(Scope.compile, tag));
+				for (Build module : build.getSolver().getLinkedModules()) {
+					key.addFiles("resources", module.getConfig().getResourceDirectories(Scope.compile));
+				}
+			}
+			if (cache.restore(key, outputs)) {
+				console.log(1, "restored {0} from the action cache", destFile.getName());
+				if (staticLauncher != null) {
+					staticLauncher.execute(destFile);
+				}
+				return;
+			}
+		}
+
 		long start = System.currentTimeMillis();
+		File jarFile = destFile;
+		ReproducibleJar reproducibleJar = null;
+		if (reproducible) {
+			// write an uncompressed jar which is rewritten reproducibly
+			reproducibleJar = new ReproducibleJar(build, jarFile);
+			destFile = reproducibleJar.getStoredFile();
+			destFile.delete();
+			level = Deflater.NO_COMPRESSION;
+		}
+		boolean parallelDeflate = parallel;
+		parallel = parallel && !reproducible;
 		try {
 			super.execute();
 		} catch (ResolutionFailedException e) {
@@ -401,9 +494,18 @@ public class MxGenJar extends GenJar {
 				msg = MessageFormat.format(template, e.resolvingclass, e.missingclass, tag);
 			}
 			throw new MoxieException(msg);
+		} finally {
+			destFile = jarFile;
+			parallel = parallelDeflate;
+			level = Deflater.DEFAULT_COMPRESSION;
 		}
 
-		if (fatjar) {
+		if (reproducible) {
+			reproducibleJar.threads = parallel ? threads : 1;
+			// merge duplicate META-INF/services files
+			reproducibleJar.mergeServices = fatjar;
+			reproducibleJar.execute();
+		} else if (fatjar) {
 			// try to merge duplicate META-INF/services files
 			JarUtils.mergeMetaInfServices(console, destFile);
 		}
@@ -411,29 +513,31 @@ public class MxGenJar extends GenJar {
 		console.log(1, destFile.getAbsolutePath());
 		console.log(1, "{0} KB, generated in {1} ms", (destFile.length()/1024), System.currentTimeMillis() - start);
 
+		if (staticLauncher != null) {
+			staticLauncher.execute(destFile);
+		}
+
 		/*
 		 * Build sources jar
 		 */
 		if (packageSources) {
-			String name = destFile.getName();
-			if (!StringUtils.isEmpty(classifier)) {
-				// replace the classifier with "sources"
-				name = name.replace(classifier, "sources");
-			} else {
-				// append -sources to the filename before the extension
-				name = name.substring(0, name.lastIndexOf('.')) + "-sources" + name.substring(name.lastIndexOf('.'));
-			}
-			File sourcesFile = new File(destFile.getParentFile(), name);
-			if (sourcesFile.exists()) {
+			File sourcesFile = MxJar.getSourcesFile(destFile, classifier);
+			if (sourcesFile.exists() && !reproducible) {
 				sourcesFile.delete();
 			}
+			ReproducibleJar sources = new ReproducibleJar(build, sourcesFile);
 
 			Jar jar = new Jar();
 			jar.setTaskName(getTaskName());
 			jar.setProject(getProject());
 
 			// set the destination file
-			jar.setDestFile(sourcesFile);
+			if (reproducible) {
+				jar.setDestFile(sources.getStoredFile());
+				jar.setCompress(false);
+			} else {
+				jar.setDestFile(sourcesFile);
+			}
 
 			// use the resolved classes to determine included source files
 			List<FileResource> sourceFiles = new ArrayList<FileResource>();
@@ -504,10 +608,18 @@ public class MxGenJar extends GenJar {
 
 			start = System.currentTimeMillis();
 			jar.execute();
+			if (reproducible) {
+				sources.threads = parallel ? threads : 1;
+				sources.execute();
+			}
 
 			console.log(1, sourcesFile.getAbsolutePath());
 			console.log(1, "{0} KB, generated in {1} ms", (sourcesFile.length()/1024), System.currentTimeMillis() - start);
 		}
+
+		if (key != null) {
+			cache.store(key, outputs);
+		}
 	}
 
 	void configureManifest(Manifest manifest) {
@@ -515,7 +627,9 @@ public class MxGenJar extends GenJar {
 		Manifest mft = new Manifest();
 		setManifest(mft, "Created-By", "Moxie v" + Toolkit.getVersion());
 		setManifest(mft, "Build-Jdk", System.getProperty("java.version"));
-		setManifest(mft, "Build-Date", new SimpleDateFormat("yyyy-MM-dd").format(new Date()));
+		if (!reproducible) {
+			setManifest(mft, "Build-Date", new SimpleDateFormat("yyyy-MM-dd").format(new Date()));
+		}
 
 		setManifest(mft, "Implementation-Title", Key.name);
 		setManifest(mft, "Implementation-Vendor", Key.organization);
@@ -578,7 +692,11 @@ public class MxGenJar extends GenJar {
 		try {
 			ZipEntry entry = new ZipEntry(MessageFormat.format("META-INF/maven/{0}/{1}/pom.properties", build.getPom().groupId, build.getPom().artifactId));
 			jos.putNextEntry(entry);
-			properties.store(dos, "Generated by Moxie");
+			if (reproducible) {
+				dos.write(ReproducibleJar.storeProperties(properties, "Generated by Moxie").getBytes("ISO-8859-1"));
+			} else {
+				properties.store(dos, "Generated by Moxie");
+			}
 			dos.flush();
 			jos.closeEntry();
 		} catch (IOException e) {
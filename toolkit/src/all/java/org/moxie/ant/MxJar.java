@@ -22,20 +22,32 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.text.MessageFormat;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.Enumeration;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.TreeMap;
+import java.util.jar.JarFile;
+import java.util.zip.Deflater;
 
 import org.apache.tools.ant.BuildException;
 import org.apache.tools.ant.Project;
+import org.apache.tools.ant.RuntimeConfigurable;
+import org.apache.tools.ant.Task;
 import org.apache.tools.ant.taskdefs.Jar;
 import org.apache.tools.ant.taskdefs.Manifest;
 import org.apache.tools.ant.taskdefs.Manifest.Attribute;
 import org.apache.tools.ant.taskdefs.ManifestException;
+import org.apache.tools.ant.types.ArchiveFileSet;
 import org.apache.tools.ant.types.FileSet;
 import org.apache.tools.ant.types.Path;
+import org.apache.tools.ant.types.ResourceCollection;
 import org.apache.tools.ant.types.ZipFileSet;
+import org.apache.tools.ant.types.resources.FileProvider;
+import org.moxie.ActionCache;
 import org.moxie.Build;
 import org.moxie.MoxieException;
 import org.moxie.MxLauncher;
@@ -50,10 +62,13 @@ import org.moxie.utils.StringUtils;
 
 public class MxJar extends Jar {
 
+	static final String FATJAR_EXCLUDES = "about.html, META-INF/*.DSA, META-INF/*.SF, META-INF/*.RSA, META-INF/LICENSE*, META-INF/NOTICE*, META-INF/ASL2.0, META-INF/eclipse.inf";
+
 	Build build;
 	Console console;
 
 	LauncherSpec launcher;
+	StaticLauncher staticLauncher;
 	ClassSpec mainclass;
 	boolean fatjar;
 	boolean includeResources;
@@ -62,12 +77,18 @@ public class MxJar extends Jar {
 	String excludes;
 	boolean packageSources;
 	String resourceFolderPrefix;
+	boolean parallel;
+	boolean reproducible;
+	boolean actionCache;
 
 	String tag;
 	String classifier;
 	private boolean configured;
 	Boolean showtitle;
 
+	// filesets, zipfilesets, and other resources added to the jar
+	List<ResourceCollection> resourceCollections = new ArrayList<ResourceCollection>();
+
 	public MxJar() {
 		super();
 		setTaskName("mx:jar");
@@ -101,6 +122,24 @@ public class MxJar extends Jar {
 		throw new MoxieException("Can only specify one launcher class");
 	}
 
+	@Override
+	public void add(ResourceCollection a) {
+		super.add(a);
+		resourceCollections.add(a);
+	}
+
+	@Override
+	public void addZipGroupFileset(FileSet set) {
+		super.addZipGroupFileset(set);
+		resourceCollections.add(set);
+	}
+
+	@Override
+	public void addMetainf(ZipFileSet fs) {
+		super.addMetainf(fs);
+		resourceCollections.add(fs);
+	}
+
 	public boolean getFatjar() {
 		return fatjar;
 	}
@@ -163,6 +202,30 @@ public class MxJar extends Jar {
 		this.classifier = classifier;
 	}
 
+	public boolean getParallel() {
+		return parallel;
+	}
+
+	public void setParallel(boolean value) {
+		this.parallel = value;
+	}
+
+	public boolean getReproducible() {
+		return reproducible;
+	}
+
+	public void setReproducible(boolean value) {
+		this.reproducible = value;
+	}
+
+	public boolean getActioncache() {
+		return actionCache;
+	}
+
+	public void setActioncache(boolean value) {
+		this.actionCache = value;
+	}
+
 	public boolean getPackagesources() {
 		return packageSources;
 	}
@@ -208,6 +271,9 @@ public class MxJar extends Jar {
 		build = (Build) getProject().getReference(Key.build.referenceId());
 		console = build.getConsole();
 
+		// the resources of the build file, before Moxie adds its own
+		List<ResourceCollection> nestedResources = new ArrayList<ResourceCollection>(resourceCollections);
+
 		if (!configured) {
 			// called from moxie.package
 			configure(build);
@@ -234,6 +300,12 @@ public class MxJar extends Jar {
 			if (launcher == null) {
 				// use specified mainclass
 				setManifest(manifest, "Main-Class", mc);
+			} else if (launcher.isStatic()) {
+				// use specified mainclass with a static classpath
+				Object o = getProject().getReference(Key.runtimeClasspath.referenceId());
+				staticLauncher = new StaticLauncher(build, launcher, o instanceof Path ? (Path) o : null);
+				setManifest(manifest, "Main-Class", mc);
+				setManifest(manifest, "Class-Path", staticLauncher.getClassPath());
 			} else {
 				// inject Moxie Launcher class
 				String mx = launcher.getName().replace('/', '.');
@@ -255,6 +327,9 @@ public class MxJar extends Jar {
 			throw new MoxieException(e1);
 		}
 
+		// dependency jars which are copied by the parallel writer
+		List<File> fatjars = new ArrayList<File>();
+		boolean parallelDeflate = parallel && isCompress() && !reproducible;
 		if (fatjar) {
 			// FatJar generation (merging reference dependencies)
 			Object o = getProject().getReference(Key.runtimeClasspath.referenceId());
@@ -262,13 +337,17 @@ public class MxJar extends Jar {
 				Path cp = (Path) o;
 				for (String path : cp.list()) {
 					if (path.toLowerCase().endsWith(".jar")) {
+						if (parallelDeflate) {
+							fatjars.add(new File(path));
+							continue;
+						}
 						ZipFileSet zip = new ZipFileSet();
 						zip.setProject(getProject());
 						if (!StringUtils.isEmpty(getClassFilesetPrefix())) {
 							zip.setPrefix(getClassFilesetPrefix());
 						}
 						zip.setSrc(new File(path));
-						zip.setExcludes("about.html, META-INF/*.DSA, META-INF/*.SF, META-INF/*.RSA, META-INF/LICENSE*, META-INF/NOTICE*, META-INF/ASL2.0, META-INF/eclipse.inf");
+						zip.setExcludes(FATJAR_EXCLUDES);
 						addZipfileset(zip);
 					}
 				}
@@ -360,7 +439,7 @@ public class MxJar extends Jar {
 		AttributeReflector.logAttributes(this, attributes, console);
 
 		// optionally inject MxLauncher utility
-		if (launcher != null) {
+		if (launcher != null && !launcher.isStatic()) {
 			if (launcher.getName().equals(MxLauncher.class.getName().replace('.', '/') + ".class")) {
 				// inject MxLauncher into the output folder of the project
 				for (String cn : Arrays.asList(MxLauncher.class.getName(), MxLauncher.class.getName() + "$1")) {
@@ -393,39 +472,91 @@ public class MxJar extends Jar {
 			}
 		}
 
-		long start = System.currentTimeMillis();
-		super.execute();
+		// restore the jars of a previous build with the same inputs
+		ActionCache cache = null;
+		ActionCache.Key key = null;
+		File [] outputs = packageSources ? new File [] { destFile, getSourcesFile(destFile, classifier) }
+				: new File [] { destFile };
+		if (actionCache) {
+			cache = ActionCache.of(build);
+			key = newCacheKey(cache, build, this, manifest.toString())
+					.add("classifier", classifier)
+					.add("tag", tag)
+					.add("prefix", getClassFilesetPrefix())
+					.add("includes", includes)
+					.add("excludes", excludes);
+			addResources(key, getProject(), nestedResources);
+			key.addFile("classes", outputFolder);
+			for (Build module : build.getSolver().getLinkedModules()) {
+				key.addFile("classes", module.getConfig().getOutputDirectory(Scope.compile));
+				if (includeResources) {
+					key.addFiles("resources", module.getConfig().getResourceDirectories(Scope.compile));
+				}
+			}
+			if (includeResources) {
+				key.addFiles("resources", build.getConfig().getResourceDirectories(Scope.compile, tag));
+			}
+			if (fatjar) {
+				Object o = getProject().getReference(Key.runtimeClasspath.referenceId());
+				if (o instanceof Path) {
+					for (String path : ((Path) o).list()) {
+						key.addFile("classpath", new File(path));
+					}
+				}
+			}
+			if (packageSources) {
+				key.addFiles("sources", build.getConfig().getSourceDirectories(Scope.compile, tag));
+			}
+			if (cache.restore(key, outputs)) {
+				console.log(1, "restored {0} from the action cache", destFile.getName());
+				if (staticLauncher != null) {
+					staticLauncher.execute(destFile);
+				}
+				return;
+			}
+		}
 
-		if (fatjar) {
-			// try to merge duplicate META-INF/services files
-			JarUtils.mergeMetaInfServices(console, destFile);
+		long start = System.currentTimeMillis();
+		if (reproducible) {
+			executeReproducible(destFile);
+		} else if (parallelDeflate) {
+			executeParallel(destFile, fatjars);
+		} else {
+			super.execute();
+
+			if (fatjar) {
+				// try to merge duplicate META-INF/services files
+				JarUtils.mergeMetaInfServices(console, destFile);
+			}
 		}
 
 		console.log(1, "{0} KB, generated in {1} ms", (destFile.length()/1024), System.currentTimeMillis() - start);
 
+		if (staticLauncher != null) {
+			staticLauncher.execute(destFile);
+		}
+
 		/*
 		 * Build sources jar
 		 */
 		if (packageSources) {
-			String name = destFile.getName();
-			if (!StringUtils.isEmpty(classifier)) {
-				// replace the classifier with "sources"
-				name = name.replace(classifier, "sources");
-			} else {
-				// append -sources to the filename before the extension
-				name = name.substring(0, name.lastIndexOf('.')) + "-sources" + name.substring(name.lastIndexOf('.'));
-			}
-			File sourcesFile = new File(destFile.getParentFile(), name);
-			if (sourcesFile.exists()) {
+			File sourcesFile = getSourcesFile(destFile, classifier);
+			if (sourcesFile.exists() && !reproducible) {
 				sourcesFile.delete();
 			}
+			ReproducibleJar sources = new ReproducibleJar(build, sourcesFile);
 
 			Jar jar = new Jar();
 			jar.setTaskName(getTaskName());
 			jar.setProject(getProject());
 
 			// set the destination file
-			jar.setDestFile(sourcesFile);
+			if (reproducible) {
+				jar.setDestFile(sources.getStoredFile());
+				jar.setCompress(false);
+			} else {
+				jar.setDestFile(sourcesFile);
+			}
 
 			List<File> folders = build.getConfig().getSourceDirectories(Scope.compile, tag);
 			for (File folder : folders) {
@@ -463,8 +594,208 @@ public class MxJar extends Jar {
 
 			start = System.currentTimeMillis();
 			jar.execute();
+			if (reproducible) {
+				sources.level = getLevel();
+				sources.threads = parallel ? build.getConfig().getCpuThreads() : 1;
+				sources.execute();
+			}
 			console.log(1, "{0} KB, generated in {1} ms", (sourcesFile.length()/1024), System.currentTimeMillis() - start);
 		}
+
+		if (key != null) {
+			cache.store(key, outputs);
+		}
+	}
+
+	/**
+	 * Returns the sources jar of a jar.
+	 *
+	 * @param destFile
+	 * @param classifier
+	 * @return the sources jar
+	 */
+	static File getSourcesFile(File destFile, String classifier) {
+		String name = destFile.getName();
+		if (!StringUtils.isEmpty(classifier)) {
+			// replace the classifier with "sources"
+			name = name.replace(classifier, "sources");
+		} else {
+			// append -sources to the filename before the extension
+			name = name.substring(0, name.lastIndexOf('.')) + "-sources" + name.substring(name.lastIndexOf('.'));
+		}
+		return new File(destFile.getParentFile(), name);
+	}
+
+	/**
+	 * Returns a new action cache key for a jar of the build.  The key hashes
+	 * the task attributes of the Moxie descriptor and of the build file, the
+	 * pom, and the manifest, except for the build date, so that a jar is
+	 * restored on the next day.
+	 *
+	 * @param cache
+	 * @param build
+	 * @param task
+	 * @param manifest
+	 * @return a new key
+	 */
+	static ActionCache.Key newCacheKey(ActionCache cache, Build build, Task task, String manifest) {
+		StringBuilder sb = new StringBuilder();
+		for (String line : manifest.split("\r?\n")) {
+			if (!line.startsWith("Build-Date:")) {
+				sb.append(line).append('\n');
+			}
+		}
+		MaxmlMap attributes = build.getConfig().getTaskAttributes(task.getTaskName());
+		ActionCache.Key key = cache.newKey(task.getTaskName())
+				.add("attributes", attributes == null ? null : attributes.toMaxml())
+				.add("pom", build.getPom().toXML(false, build.getConfig().getRepositoryDefinitions()))
+				.add("manifest", sb);
+		addAttributes(key, task.getProject(), task.getTaskName(), task.getRuntimeConfigurableWrapper());
+		return key;
+	}
+
+	/**
+	 * Adds the attributes and text of an element of the build file, and of
+	 * its nested elements, to a key.  Properties are expanded.
+	 *
+	 * @param key
+	 * @param project
+	 * @param path
+	 * @param element
+	 */
+	private static void addAttributes(ActionCache.Key key, Project project, String path, RuntimeConfigurable element) {
+		Map<String, Object> attributes = new TreeMap<String, Object>(element.getAttributeMap());
+		for (Map.Entry<String, Object> entry : attributes.entrySet()) {
+			key.add(path + "@" + entry.getKey(), project.replaceProperties(String.valueOf(entry.getValue())));
+		}
+		String text = element.getText().toString().trim();
+		if (text.length() > 0) {
+			key.add(path + "#text", project.replaceProperties(text));
+		}
+		Enumeration<RuntimeConfigurable> children = element.getChildren();
+		for (int i = 0; children.hasMoreElements(); i++) {
+			RuntimeConfigurable child = children.nextElement();
+			addAttributes(key, project, path + "/" + child.getElementTag() + "[" + i + "]", child);
+		}
+	}
+
+	/**
+	 * Adds the names and contents of the resources of nested filesets,
+	 * zipfilesets, and other resource collections to a key.
+	 *
+	 * @param key
+	 * @param project
+	 * @param collections
+	 */
+	static void addResources(ActionCache.Key key, Project project, List<? extends ResourceCollection> collections) {
+		for (ResourceCollection collection : collections) {
+			if (collection instanceof ArchiveFileSet) {
+				ArchiveFileSet set = (ArchiveFileSet) collection;
+				key.add("prefix", set.getPrefix(project))
+						.add("fullpath", set.getFullpath(project));
+				if (set.getSrc(project) != null) {
+					// the entries of an archive are hashed by the archive
+					key.addFile("archive", set.getSrc(project));
+				}
+			}
+			Map<String, org.apache.tools.ant.types.Resource> resources = new TreeMap<String, org.apache.tools.ant.types.Resource>();
+			for (org.apache.tools.ant.types.Resource resource : collection) {
+				resources.put(resource.getName(), resource);
+			}
+			for (Map.Entry<String, org.apache.tools.ant.types.Resource> entry : resources.entrySet()) {
+				org.apache.tools.ant.types.Resource resource = entry.getValue();
+				FileProvider provider = resource.as(FileProvider.class);
+				key.add("resource", entry.getKey());
+				if (provider != null) {
+					key.addFile("content", provider.getFile());
+				} else {
+					key.add("content", resource.getSize() + ":" + resource.getLastModified());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Generates a reproducible archive.  Ant writes an uncompressed archive
+	 * which is rewritten with sorted entries and fixed entry times.  The jar
+	 * is only rewritten if its entries have changed.
+	 *
+	 * @param destFile
+	 */
+	private void executeReproducible(File destFile) {
+		ReproducibleJar jar = new ReproducibleJar(build, destFile);
+		File storedFile = jar.getStoredFile();
+		storedFile.delete();
+		setDestFile(storedFile);
+		boolean compress = isCompress();
+		setCompress(false);
+		try {
+			super.execute();
+		} finally {
+			setDestFile(destFile);
+			setCompress(compress);
+		}
+		jar.level = compress ? getLevel() : Deflater.NO_COMPRESSION;
+		jar.threads = parallel ? build.getConfig().getCpuThreads() : 1;
+		jar.duplicate = duplicate;
+		// merge duplicate META-INF/services files
+		jar.mergeServices = fatjar;
+		jar.execute();
+	}
+
+	/**
+	 * Generates the archive with parallel compression.  Ant writes an
+	 * uncompressed archive which is then deflated in parallel.  The entries
+	 * of fat jar dependencies are copied verbatim without recompressing them.
+	 *
+	 * @param destFile
+	 * @param jars
+	 *            the fat jar dependencies
+	 */
+	private void executeParallel(File destFile, List<File> jars) {
+		File storedFile = new File(destFile.getParentFile(), destFile.getName() + ".stored");
+		storedFile.delete();
+		setDestFile(storedFile);
+		setCompress(false);
+		try {
+			super.execute();
+		} finally {
+			setDestFile(destFile);
+			setCompress(true);
+		}
+		if (!storedFile.exists()) {
+			return;
+		}
+
+		ParallelJarOutputStream os = null;
+		try {
+			os = new ParallelJarOutputStream(new FileOutputStream(destFile), getLevel(), build.getConfig().getCpuThreads());
+			os.setDuplicate(duplicate);
+			// merge duplicate META-INF/services files
+			os.setMergeServices(fatjar);
+			os.copyArchive(storedFile, null, null);
+			String excludes = FATJAR_EXCLUDES;
+			if (StringUtils.isEmpty(getClassFilesetPrefix())) {
+				// Ant skips the manifests of merged jars
+				excludes += ", " + JarFile.MANIFEST_NAME;
+			}
+			for (File jar : jars) {
+				os.copyArchive(jar, getClassFilesetPrefix(), excludes);
+			}
+			os.close();
+			os = null;
+		} catch (IOException e) {
+			throw new MoxieException("Failed to write " + destFile.getName(), e);
+		} finally {
+			if (os != null) {
+				try {
+					os.close();
+				} catch (IOException e) {
+				}
+				destFile.delete();
+			}
+			storedFile.delete();
+		}
 	}
 
 	void configureManifest(Manifest manifest) {
@@ -472,7 +803,9 @@ public class MxJar extends Jar {
 		Manifest mft = new Manifest();
 		setManifest(mft, "Created-By", "Moxie v" + Toolkit.getVersion());
 		setManifest(mft, "Build-Jdk", System.getProperty("java.version"));
-		setManifest(mft, "Build-Date", new SimpleDateFormat("yyyy-MM-dd").format(new Date()));
+		if (!reproducible) {
+			setManifest(mft, "Build-Date", new SimpleDateFormat("yyyy-MM-dd").format(new Date()));
+		}
 
 		setManifest(mft, "Implementation-Title", Key.name);
 		setManifest(mft, "Implementation-Vendor", Key.organization);
@@ -531,10 +864,14 @@ public class MxJar extends Jar {
 			properties.put(Key.version.name(), build.getPom().version);
 
 			File tmpFile = new File(build.getConfig().getOutputDirectory(null), "pom.properties");
-			FileWriter writer = new FileWriter(tmpFile);
-			properties.store(writer, "Generated by Moxie");
-			writer.flush();
-			writer.close();
+			if (reproducible) {
+				FileUtils.writeContent(tmpFile, ReproducibleJar.storeProperties(properties, "Generated by Moxie"));
+			} else {
+				FileWriter writer = new FileWriter(tmpFile);
+				properties.store(writer, "Generated by Moxie");
+				writer.flush();
+				writer.close();
+			}
 
 			ZipFileSet set = new ZipFileSet();
 			set.setProject(getProject());
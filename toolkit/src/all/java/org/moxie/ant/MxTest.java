@@ -16,12 +16,17 @@
 package org.moxie.ant;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import org.apache.tools.ant.BuildException;
 import org.apache.tools.ant.types.Environment;
 import org.apache.tools.ant.types.FileSet;
 import org.apache.tools.ant.types.Path;
 import org.apache.tools.ant.types.Reference;
+import org.moxie.ActionCache;
 import org.moxie.Build;
 import org.moxie.BuildConfig;
 import org.moxie.MoxieException;
@@ -32,6 +37,8 @@ import org.moxie.mxtest.Cobertura;
 import org.moxie.mxtest.Emma;
 import org.moxie.mxtest.JUnit;
 import org.moxie.mxtest.Jacoco;
+import org.moxie.mxtest.Shards;
+import org.moxie.mxtest.TestImpact;
 import org.moxie.mxtest.TestNG;
 import org.moxie.utils.FileUtils;
 
@@ -50,6 +57,10 @@ public class MxTest extends MxTask {
 	FileSet unitTests;
 	String failureProperty;
 	boolean failOnError;
+	int shards;
+	int jvmPool;
+	boolean codeCoverage;
+	Map<String, Long> testDurations;
 	
 	public MxTest() {
 		super();
@@ -104,6 +115,22 @@ public class MxTest extends MxTask {
 		return failureProperty;
 	}
 	
+	public int getShards() {
+		return shards;
+	}
+	
+	public int getJvmPool() {
+		return jvmPool;
+	}
+	
+	public boolean isCodeCoverage() {
+		return codeCoverage;
+	}
+	
+	public Map<String, Long> getTestDurations() {
+		return testDurations;
+	}
+	
 	public boolean getFailOnError() {
 		return failOnError;
 	}
@@ -113,11 +140,19 @@ public class MxTest extends MxTask {
 	}
 	
 	public Environment.Variable getCoberturaFileProperty() {
-		return newFile("net.sourceforge.cobertura.datafile", coberturaData.getAbsolutePath());
+		return getCoberturaFileProperty(0);
+	}
+	
+	public Environment.Variable getCoberturaFileProperty(int shard) {
+		return newFile("net.sourceforge.cobertura.datafile", Shards.getFile(coberturaData, shard).getAbsolutePath());
 	}
 	
 	public Environment.Variable getEmmaFileProperty() {
-		return newFile("emma.coverage.out.file", emmaData.getAbsolutePath());
+		return getEmmaFileProperty(0);
+	}
+	
+	public Environment.Variable getEmmaFileProperty(int shard) {
+		return newFile("emma.coverage.out.file", Shards.getFile(emmaData, shard).getAbsolutePath());
 	}
 	
 	public Environment.Variable getEmmaMergeProperty() {
@@ -147,14 +182,24 @@ public class MxTest extends MxTask {
 		
 		Build build = getBuild();
 		BuildConfig config = build.getConfig();
-		
+		MaxmlMap attributes = config.getTaskAttributes(getTaskName());
+		shards = Math.max(1, attributes.getInt("shards", 1));
+		jvmPool = Math.max(0, attributes.getInt("jvmPool", 0));
+
 		// generate unit test info into build/tests
 		unitTestOutputDirectory = new File(config.getOutputDirectory(null), "tests");
-		FileUtils.delete(unitTestOutputDirectory);
-		unitTestOutputDirectory.mkdirs();
 
 		// generate unit test info into target/tests
 		testReports = new File(config.getReportsTargetDirectory(), "tests");
+
+		// shards are balanced by the durations of the previous run
+		testDurations = new HashMap<String, Long>();
+		if (shards > 1) {
+			testDurations = Shards.readDurations(unitTestOutputDirectory, testReports);
+		}
+
+		FileUtils.delete(unitTestOutputDirectory);
+		unitTestOutputDirectory.mkdirs();
 		FileUtils.delete(testReports);
 		testReports.mkdirs();
 		
@@ -171,14 +216,17 @@ public class MxTest extends MxTask {
 		// delete Corbertura metadata
 		coberturaData = new File(config.getOutputDirectory(null), "cobertura.ser");
 		coberturaData.delete();
+		Shards.deleteFiles(coberturaData);
 
 		// delete EMMA metadata
 		emmaData = new File(config.getOutputDirectory(null), "metadata.emma");
 		emmaData.delete();
+		Shards.deleteFiles(emmaData);
 
 		// delete JaCoCo metadata
 		jacocoData = new File(config.getOutputDirectory(null), "jacoco.exec");
 		jacocoData.delete();
+		Shards.deleteFiles(jacocoData);
 
 		classesDirectory = config.getOutputDirectory(Scope.compile);
 		testClassesDirectory = config.getOutputDirectory(Scope.test);
@@ -188,7 +236,6 @@ public class MxTest extends MxTask {
 		unitTests.setProject(getProject());
 		unitTests.setDir(testClassesDirectory);
 
-		MaxmlMap attributes = config.getTaskAttributes(getTaskName());
 		failureProperty = attributes.getString("failureProperty", "unit.test.failed");
 		failOnError = attributes.getBoolean("failOnError", false);
 		unitTests.createInclude().setName(attributes.getString("include", "**/*Test.class"));
@@ -217,7 +264,52 @@ public class MxTest extends MxTask {
 		compile.setScope(Scope.test.name());
 		compile.execute();
 
+		// restore the reports of a previous successful run with the same classes
+		ActionCache cache = null;
+		ActionCache.Key key = null;
+		File [] outputs = { unitTestOutputDirectory, testReports, coverageReports };
+		if (attributes.getBoolean("actionCache", false)) {
+			cache = ActionCache.of(build);
+			key = cache.newKey(getTaskName())
+					.add("attributes", attributes.toMaxml())
+					.add("junit", config.getTaskAttributes("junit"))
+					.add("testng", config.getTaskAttributes("testng"))
+					.add("java", System.getProperty("java.version"));
+			for (String path : unitTestClasspath.list()) {
+				key.addFile("classpath", new File(path));
+			}
+			// test fixtures outside of the classpath, e.g. src/test/data
+			for (String input : attributes.getStrings("actionCacheInputs", new ArrayList<String>())) {
+				key.addFile("input", getProject().resolveFile(input));
+			}
+			if (cache.restore(key, outputs)) {
+				build.getConsole().log("restored the test reports of a previous successful run from the action cache");
+				return;
+			}
+		}
+
+		// select the tests affected by the changes since the last successful run
+		TestImpact impact = null;
+		if (attributes.getBoolean("impactAnalysis", false)) {
+			impact = new TestImpact(new File(config.getTargetDirectory(), "mxtest/impact.deps"),
+					classesDirectory, testClassesDirectory);
+			impact.read();
+			String fingerprint = TestImpact.getFingerprint(unitTestClasspath, attributes.getString("include", "**/*Test.class"),
+					instrumentedBuild, classesDirectory, testClassesDirectory);
+			String [] tests = unitTests.getDirectoryScanner(getProject()).getIncludedFiles();
+			List<String> selected = impact.select(tests, fingerprint, build.getConsole());
+			if (selected != null) {
+				if (selected.isEmpty()) {
+					build.getConsole().log("no tests are affected by the changes since the last successful run");
+					impact.write();
+					return;
+				}
+				unitTests = Shards.newFileSet(this, selected);
+			}
+		}
+
 		// instrument code classes
+		codeCoverage = true;
 		if (hasClass("net.sourceforge.cobertura.ant.InstrumentTask")) {			
 			Cobertura.instrument(this);
 		} else if (hasClass("com.vladium.emma.emmaTask")) {
@@ -225,6 +317,7 @@ public class MxTest extends MxTask {
 		} else if (hasClass("org.jacoco.ant.AbstractCoverageTask")) {
 			// jacoco wraps unit test tasks
 		} else {
+			codeCoverage = false;
 			build.getConsole().warn("SKIPPING code-coverage!");
 			build.getConsole().warn("add \"- build jacoco\", \"- build cobertura\", or \"- build emma\" to your dependencies for code-coverage.");
 		}
@@ -245,6 +338,16 @@ public class MxTest extends MxTask {
 			build.getConsole().warn("add \"- test junit\" or \"- test testng\" to your dependencies to execute unit tests.");
 		}
 		
+		// merge the coverage data of the test shards
+		if (shards > 1) {
+			if (hasClass("net.sourceforge.cobertura.ant.InstrumentTask")) {
+				Cobertura.merge(this);
+			}
+			if (hasClass("org.jacoco.ant.AbstractCoverageTask")) {
+				Jacoco.merge(this);
+			}
+		}
+
 		// generate code coverage reports
 		if (hasClass("net.sourceforge.cobertura.ant.ReportTask")) {
 			Cobertura.report(this);
@@ -254,6 +357,16 @@ public class MxTest extends MxTask {
 			Jacoco.report(this);
 		}
 		
+		// record the state of a successful run for the next test selection
+		if (impact != null && getProject().getProperty(getFailureProperty()) == null) {
+			impact.write();
+		}
+
+		// only successful runs are cached
+		if (key != null && getProject().getProperty(getFailureProperty()) == null) {
+			cache.store(key, outputs);
+		}
+
 		if ((getProject().getProperty(getFailureProperty()) != null) && failOnError) {
 			throw new MoxieException("{0} has failed unit tests! Build aborted!", build.getPom().getArtifactId());
 		}
@@ -16,22 +16,50 @@
 package org.moxie.ant;
 
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
+import org.apache.tools.ant.Project;
 import org.apache.tools.ant.taskdefs.Zip;
 import org.apache.tools.ant.types.ZipFileSet;
 import org.moxie.Build;
+import org.moxie.MoxieException;
 import org.moxie.Toolkit.Key;
+import org.moxie.maxml.MaxmlMap;
 import org.moxie.utils.StringUtils;
 
 
 public class MxZip extends Zip {
 	
+	private boolean parallel;
+
 	public MxZip() {
 		super();
 		setTaskName("mx:zip");
 	}
+
+	public boolean getParallel() {
+		return parallel;
+	}
+
+	public void setParallel(boolean value) {
+		this.parallel = value;
+	}
+
+	@Override
+	public void setProject(Project project) {
+		super.setProject(project);
+		Build build = (Build) getProject().getReference(Key.build.referenceId());
+		if (build != null) {
+			// mx:zip attributes are optional
+			MaxmlMap attributes = build.getConfig().getTaskAttributes(getTaskName());
+			if (attributes != null) {
+				AttributeReflector.setAttributes(getProject(), this, attributes);
+			}
+		}
+	}
 	
 	private List<ZipDependencies> dependencies = new ArrayList<ZipDependencies>();
 	
@@ -91,6 +119,54 @@ public class MxZip extends Zip {
 				addZipfileset(fs);
 			}
 		}
-		super.execute();
+
+		if (parallel && isCompress()) {
+			executeParallel(build);
+		} else {
+			super.execute();
+		}
+	}
+
+	/**
+	 * Generates the archive with parallel compression.  Ant writes an
+	 * uncompressed archive which is then deflated in parallel.
+	 *
+	 * @param build
+	 */
+	private void executeParallel(Build build) {
+		File destFile = zipFile;
+		File storedFile = new File(destFile.getParentFile(), destFile.getName() + ".stored");
+		storedFile.delete();
+		setDestFile(storedFile);
+		setCompress(false);
+		try {
+			super.execute();
+		} finally {
+			setDestFile(destFile);
+			setCompress(true);
+		}
+		if (!storedFile.exists()) {
+			return;
+		}
+
+		ParallelJarOutputStream os = null;
+		try {
+			os = new ParallelJarOutputStream(new FileOutputStream(destFile), getLevel(), build.getConfig().getCpuThreads());
+			os.setDuplicate(duplicate);
+			os.copyArchive(storedFile, null, null);
+			os.close();
+			os = null;
+		} catch (IOException e) {
+			throw new MoxieException("Failed to write " + destFile.getName(), e);
+		} finally {
+			if (os != null) {
+				try {
+					os.close();
+				} catch (IOException e) {
+				}
+				destFile.delete();
+			}
+			storedFile.delete();
+		}
 	}
 }
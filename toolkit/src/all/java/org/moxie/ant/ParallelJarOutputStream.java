@@ -0,0 +1,1048 @@
+/*
+ * Copyright 2013 James Moger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.moxie.ant;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.jar.JarOutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+
+import org.apache.tools.ant.types.selectors.SelectorUtils;
+
+/**
+ * Writes a jar or zip archive whose entries are deflated in parallel.
+ * <p>
+ * Entries are buffered in memory and compressed on a pool of threads, but
+ * they are always written in the order in which they were added so that the
+ * archive layout is deterministic.  Entries of existing archives may be copied
+ * with {@link #copyArchive(File, String, String)} which copies compressed
+ * entries verbatim and only deflates stored entries.  Individual entries may
+ * be read or copied from an {@link Archive}.
+ * <p>
+ * The level, method, and comment of the archive may be set like those of a
+ * JarOutputStream.  Stored entries need not declare their size and crc, they
+ * are computed from the buffered data.
+ * <p>
+ * Entries larger than 4 GB are not supported.  Archives with more than 65535
+ * entries or larger than 4 GB are written with Zip64 end records.
+ */
+public class ParallelJarOutputStream extends JarOutputStream {
+
+	private static final int LOCAL_HEADER = 0x04034b50;
+
+	private static final int CENTRAL_HEADER = 0x02014b50;
+
+	private static final int END_HEADER = 0x06054b50;
+
+	private static final int ZIP64_END_HEADER = 0x06064b50;
+
+	private static final int ZIP64_LOCATOR = 0x07064b50;
+
+	private static final long MAX_U4 = 0xffffffffL;
+
+	private static final int UTF8_FLAG = 1 << 11;
+
+	private final OutputStream os;
+
+	private final ExecutorService executor;
+
+	private final ConcurrentLinkedQueue<Deflater> deflaters;
+
+	private final LinkedList<Future<Entry>> pending;
+
+	private final List<Entry> written;
+
+	private final Set<String> names;
+
+	private final Map<String, List<byte []>> services;
+
+	private final int maxPending;
+
+	private volatile int level;
+
+	private int method;
+
+	private byte [] comment;
+
+	private long offset;
+
+	private Entry current;
+
+	private ZipEntry currentZipEntry;
+
+	private ByteArrayOutputStream buffer;
+
+	private String duplicate;
+
+	private boolean mergeServices;
+
+	private Integer fixedTime;
+
+	private boolean finished;
+
+	/**
+	 * Creates a parallel archive writer.
+	 *
+	 * @param out
+	 *            the archive output stream
+	 * @param level
+	 *            the deflate level, -1 for the default level
+	 * @param threads
+	 *            the number of deflate threads, values < 1 use the number of
+	 *            cores
+	 * @throws IOException
+	 */
+	public ParallelJarOutputStream(OutputStream out, int level, int threads) throws IOException {
+		super(out);
+		this.os = new BufferedOutputStream(out, 64 * 1024);
+		this.level = level;
+		int n = threads < 1 ? Runtime.getRuntime().availableProcessors() : threads;
+		this.executor = Executors.newFixedThreadPool(n, new DeflaterThreadFactory());
+		this.deflaters = new ConcurrentLinkedQueue<Deflater>();
+		this.pending = new LinkedList<Future<Entry>>();
+		this.written = new ArrayList<Entry>();
+		this.names = new HashSet<String>();
+		this.services = new TreeMap<String, List<byte []>>();
+		// bound the buffered entries
+		this.maxPending = 4 * n;
+		this.method = ZipEntry.DEFLATED;
+		this.duplicate = "add";
+	}
+
+	/**
+	 * Sets the deflate level of subsequently added entries.
+	 *
+	 * @param level
+	 *            the deflate level, -1 for the default level
+	 */
+	@Override
+	public void setLevel(int level) {
+		if (level != Deflater.DEFAULT_COMPRESSION && (level < 0 || level > 9)) {
+			throw new IllegalArgumentException("invalid compression level");
+		}
+		this.level = level;
+	}
+
+	/**
+	 * Sets the default method of subsequently added entries which do not
+	 * specify a method.
+	 *
+	 * @param method
+	 *            ZipEntry.DEFLATED or ZipEntry.STORED
+	 */
+	@Override
+	public void setMethod(int method) {
+		if (method != ZipEntry.DEFLATED && method != ZipEntry.STORED) {
+			throw new IllegalArgumentException("invalid compression method");
+		}
+		this.method = method;
+	}
+
+	/**
+	 * Sets the comment of the archive.
+	 *
+	 * @param comment
+	 */
+	@Override
+	public void setComment(String comment) {
+		if (comment == null) {
+			this.comment = null;
+			return;
+		}
+		try {
+			byte [] bytes = comment.getBytes("UTF-8");
+			if (bytes.length > 0xffff) {
+				throw new IllegalArgumentException("archive comment too long");
+			}
+			this.comment = bytes;
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalArgumentException(e);
+		}
+	}
+
+	/**
+	 * Sets the duplicate file policy: add, preserve, or fail.  Duplicate
+	 * directories are always skipped.
+	 *
+	 * @param duplicate
+	 */
+	public void setDuplicate(String duplicate) {
+		this.duplicate = duplicate;
+	}
+
+	/**
+	 * Merge duplicate META-INF/services definitions instead of applying the
+	 * duplicate policy.  All service definitions are written at the end of
+	 * the archive.
+	 *
+	 * @param value
+	 */
+	public void setMergeServices(boolean value) {
+		this.mergeServices = value;
+	}
+
+	/**
+	 * Sets a fixed modification time for all entries, including copied
+	 * entries.  The time is converted in UTC so that the archive does not
+	 * depend on the time zone of the build.
+	 *
+	 * @param time
+	 */
+	public void setTime(long time) {
+		Entry entry = new Entry(null);
+		entry.setTime(time, Calendar.getInstance(TimeZone.getTimeZone("UTC")));
+		this.fixedTime = entry.dosTime;
+	}
+
+	@Override
+	public void putNextEntry(ZipEntry ze) throws IOException {
+		if (current != null) {
+			closeEntry();
+		}
+		Entry entry = new Entry(ze.getName());
+		long time = ze.getTime() == -1 ? System.currentTimeMillis() : ze.getTime();
+		entry.setTime(time);
+		entry.external = ze.isDirectory() ? 0x10 : 0;
+		entry.method = ze.getMethod() == -1 ? method : ze.getMethod();
+		current = entry;
+		currentZipEntry = ze;
+		buffer = new ByteArrayOutputStream();
+	}
+
+	@Override
+	public void write(byte [] b, int off, int len) throws IOException {
+		if (current == null) {
+			throw new ZipException("no current entry");
+		}
+		buffer.write(b, off, len);
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		write(new byte [] { (byte) b }, 0, 1);
+	}
+
+	@Override
+	public void closeEntry() throws IOException {
+		if (current == null) {
+			return;
+		}
+		Entry entry = current;
+		ZipEntry ze = currentZipEntry;
+		byte [] data = buffer.toByteArray();
+		current = null;
+		currentZipEntry = null;
+		buffer = null;
+		if (entry.method == ZipEntry.STORED) {
+			CRC32 crc = new CRC32();
+			crc.update(data, 0, data.length);
+			if ((ze.getSize() != -1 && ze.getSize() != data.length)
+					|| (ze.getCrc() != -1 && ze.getCrc() != crc.getValue())) {
+				throw new ZipException("invalid size or crc of stored entry " + entry.name);
+			}
+		}
+		add(entry, data);
+	}
+
+	/**
+	 * Copies the entries of an archive.  Deflated entries are copied without
+	 * inflating them, stored entries are deflated.
+	 *
+	 * @param archive
+	 *            the source archive
+	 * @param prefix
+	 *            the optional prefix of the entry names
+	 * @param excludes
+	 *            optional comma-separated Ant patterns of excluded entries
+	 * @throws IOException
+	 */
+	public void copyArchive(File archive, String prefix, String excludes) throws IOException {
+		List<String> patterns = new ArrayList<String>();
+		if (excludes != null) {
+			for (String pattern : excludes.split(",")) {
+				if (pattern.trim().length() > 0) {
+					patterns.add(pattern.trim());
+				}
+			}
+		}
+		String pre = prefix == null ? "" : prefix;
+		if (pre.length() > 0 && !pre.endsWith("/")) {
+			pre += "/";
+		}
+
+		final RandomAccessFile raf = new RandomAccessFile(archive, "r");
+		boolean closeRaf = true;
+		try {
+			List<Entry> entries = readCentralDirectory(raf);
+			if (entries == null) {
+				// unsupported central directory, copy through java.util.zip
+				copyArchive(archive, pre, patterns);
+				return;
+			}
+			for (Entry source : entries) {
+				if (isExcluded(source.name, patterns)) {
+					continue;
+				}
+				if (copy(raf, source, pre + source.name)) {
+					closeRaf = false;
+				}
+			}
+		} finally {
+			if (closeRaf) {
+				raf.close();
+			} else {
+				// the source is closed after its last entry has been written
+				Entry last = new Entry(null);
+				last.source = raf;
+				pending.add(new Done(last));
+			}
+		}
+	}
+
+	/**
+	 * Queues a copy of an archive entry.
+	 *
+	 * @param raf
+	 * @param source
+	 *            the source entry
+	 * @param name
+	 *            the name of the copy
+	 * @return true if the entry is copied verbatim from the archive when it is
+	 *         written
+	 * @throws IOException
+	 */
+	private boolean copy(RandomAccessFile raf, Entry source, String name) throws IOException {
+		Entry entry = source.rename(name);
+		if (entry.method == ZipEntry.STORED && entry.size > 0) {
+			// deflate the stored entry
+			byte [] data = new byte[(int) entry.size];
+			raf.seek(getDataOffset(raf, source));
+			raf.readFully(data);
+			entry.method = ZipEntry.DEFLATED;
+			add(entry, data);
+			return false;
+		}
+		// copy the compressed entry verbatim when it is written
+		entry.source = raf;
+		entry.sourceOffset = getDataOffset(raf, source);
+		add(entry, null);
+		return true;
+	}
+
+	/**
+	 * Opens an archive whose entries may be read or copied individually.
+	 *
+	 * @param file
+	 * @return the archive
+	 * @throws IOException
+	 *             if the archive can not be read or uses encryption, Zip64
+	 *             entries, or an unsupported compression method
+	 */
+	public static Archive openArchive(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			List<Entry> entries = readCentralDirectory(raf);
+			if (entries == null) {
+				throw new ZipException(file.getName() + " uses unsupported zip features");
+			}
+			return new Archive(raf, entries);
+		} catch (IOException e) {
+			raf.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Copies an entry of an archive.  A deflated entry is copied without
+	 * inflating it, a stored entry is deflated.
+	 *
+	 * @param archive
+	 * @param index
+	 *            the index of the entry in the archive
+	 * @throws IOException
+	 */
+	public void copyEntry(Archive archive, int index) throws IOException {
+		Entry source = archive.entries.get(index);
+		copy(archive.raf, source, source.name);
+	}
+
+	/**
+	 * Closes an archive after its copied entries have been written.
+	 *
+	 * @param archive
+	 */
+	public void closeArchive(Archive archive) {
+		Entry last = new Entry(null);
+		last.source = archive.raf;
+		pending.add(new Done(last));
+	}
+
+	private void copyArchive(File archive, String prefix, List<String> patterns) throws IOException {
+		ZipFile zip = new ZipFile(archive);
+		try {
+			for (ZipEntry ze : Collections.list(zip.entries())) {
+				if (isExcluded(ze.getName(), patterns)) {
+					continue;
+				}
+				Entry entry = new Entry(prefix + ze.getName());
+				entry.setTime(ze.getTime());
+				entry.external = ze.isDirectory() ? 0x10 : 0;
+				ByteArrayOutputStream data = new ByteArrayOutputStream();
+				if (!ze.isDirectory()) {
+					InputStream is = zip.getInputStream(ze);
+					try {
+						byte [] b = new byte[8192];
+						int len;
+						while ((len = is.read(b)) != -1) {
+							data.write(b, 0, len);
+						}
+					} finally {
+						is.close();
+					}
+				}
+				add(entry, data.toByteArray());
+			}
+		} finally {
+			zip.close();
+		}
+	}
+
+	private static boolean isExcluded(String name, List<String> patterns) {
+		for (String pattern : patterns) {
+			if (SelectorUtils.matchPath(pattern, name)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Applies the duplicate and service policies and queues the entry.
+	 *
+	 * @param entry
+	 * @param data
+	 *            the uncompressed data or null for a verbatim copy
+	 * @throws IOException
+	 */
+	private void add(final Entry entry, final byte [] data) throws IOException {
+		if (finished) {
+			throw new IOException("archive has been finished");
+		}
+		if (fixedTime != null) {
+			entry.dosTime = fixedTime;
+		}
+		boolean directory = entry.name.endsWith("/");
+		if (mergeServices && !directory && entry.name.toLowerCase().startsWith("meta-inf/services")) {
+			List<byte []> definitions = services.get(entry.name);
+			if (definitions == null) {
+				definitions = new ArrayList<byte []>();
+				services.put(entry.name, definitions);
+			}
+			definitions.add(data == null ? inflate(entry) : data);
+			return;
+		}
+		if (!names.add(entry.name)) {
+			if (directory || "preserve".equals(duplicate)) {
+				return;
+			} else if ("fail".equals(duplicate)) {
+				throw new ZipException("duplicate entry: " + entry.name);
+			}
+		}
+
+		if (data == null) {
+			pending.add(new Done(entry));
+		} else if (data.length == 0 || entry.method == ZipEntry.STORED) {
+			CRC32 crc = new CRC32();
+			crc.update(data, 0, data.length);
+			entry.method = ZipEntry.STORED;
+			entry.crc = crc.getValue();
+			entry.size = data.length;
+			entry.csize = data.length;
+			entry.data = data;
+			pending.add(new Done(entry));
+		} else {
+			final int entryLevel = level;
+			pending.add(executor.submit(new Callable<Entry>() {
+				@Override
+				public Entry call() {
+					deflate(entry, data, entryLevel);
+					return entry;
+				}
+			}));
+		}
+		while (pending.size() > maxPending) {
+			writeNext();
+		}
+	}
+
+	/**
+	 * Deflates the data into the entry.  Runs on the deflate threads.
+	 */
+	private void deflate(Entry entry, byte [] data, int level) {
+		CRC32 crc = new CRC32();
+		crc.update(data, 0, data.length);
+		Deflater deflater = deflaters.poll();
+		if (deflater == null) {
+			deflater = new Deflater(level, true);
+		} else {
+			deflater.setLevel(level);
+		}
+		try {
+			deflater.setInput(data);
+			deflater.finish();
+			ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, data.length / 2));
+			byte [] b = new byte[Math.min(64 * 1024, Math.max(512, data.length))];
+			while (!deflater.finished()) {
+				int len = deflater.deflate(b);
+				out.write(b, 0, len);
+			}
+			entry.method = ZipEntry.DEFLATED;
+			entry.crc = crc.getValue();
+			entry.size = data.length;
+			entry.data = out.toByteArray();
+			entry.csize = entry.data.length;
+		} finally {
+			deflater.reset();
+			deflaters.add(deflater);
+		}
+	}
+
+	/**
+	 * Inflates a verbatim entry.  Only used for merged service definitions.
+	 */
+	private static byte [] inflate(Entry entry) throws IOException {
+		byte [] raw = new byte[(int) entry.csize];
+		entry.source.seek(entry.sourceOffset);
+		entry.source.readFully(raw);
+		if (entry.method == ZipEntry.STORED) {
+			return raw;
+		}
+		Inflater inflater = new Inflater(true);
+		try {
+			// an extra byte is required by the inflater in nowrap mode
+			byte [] input = new byte[raw.length + 1];
+			System.arraycopy(raw, 0, input, 0, raw.length);
+			inflater.setInput(input);
+			byte [] data = new byte[(int) entry.size];
+			int off = 0;
+			while (off < data.length && !inflater.finished()) {
+				int len = inflater.inflate(data, off, data.length - off);
+				if (len == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+					break;
+				}
+				off += len;
+			}
+			if (off != data.length) {
+				throw new ZipException("failed to inflate " + entry.name);
+			}
+			return data;
+		} catch (DataFormatException e) {
+			throw new ZipException("failed to inflate " + entry.name + ": " + e.getMessage());
+		} finally {
+			inflater.end();
+		}
+	}
+
+	/**
+	 * Waits for the oldest queued entry and writes it.
+	 */
+	private void writeNext() throws IOException {
+		Entry entry;
+		try {
+			entry = pending.removeFirst().get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("interrupted while deflating entries");
+		} catch (ExecutionException e) {
+			throw new IOException("failed to deflate entry", e.getCause());
+		}
+		if (entry.name == null) {
+			// end of a source archive
+			entry.source.close();
+			return;
+		}
+		if (entry.size >= MAX_U4 || entry.csize >= MAX_U4) {
+			throw new ZipException(entry.name + " is too large for parallel compression");
+		}
+		entry.offset = offset;
+		byte [] name = entry.name.getBytes("UTF-8");
+		writeInt(LOCAL_HEADER);
+		writeShort(entry.method == ZipEntry.DEFLATED ? 20 : 10);
+		writeShort(entry.flags);
+		writeShort(entry.method);
+		writeInt(entry.dosTime);
+		writeInt((int) entry.crc);
+		writeInt((int) entry.csize);
+		writeInt((int) entry.size);
+		writeShort(name.length);
+		writeShort(0);
+		writeBytes(name, 0, name.length);
+		if (entry.data != null) {
+			writeBytes(entry.data, 0, entry.data.length);
+			// release the compressed data
+			entry.data = null;
+		} else {
+			byte [] b = new byte[64 * 1024];
+			long remaining = entry.csize;
+			entry.source.seek(entry.sourceOffset);
+			while (remaining > 0) {
+				int len = (int) Math.min(b.length, remaining);
+				entry.source.readFully(b, 0, len);
+				writeBytes(b, 0, len);
+				remaining -= len;
+			}
+			entry.source = null;
+		}
+		written.add(entry);
+	}
+
+	@Override
+	public void finish() throws IOException {
+		if (finished) {
+			return;
+		}
+		if (current != null) {
+			closeEntry();
+		}
+		// merged service definitions
+		boolean merge = mergeServices;
+		mergeServices = false;
+		if (merge) {
+			for (Map.Entry<String, List<byte []>> service : services.entrySet()) {
+				List<byte []> definitions = service.getValue();
+				byte [] data = definitions.get(0);
+				if (definitions.size() > 1) {
+					StringBuilder sb = new StringBuilder();
+					for (byte [] definition : definitions) {
+						sb.append(new String(definition, "UTF-8")).append('\n');
+					}
+					// strip blank lines
+					data = sb.toString().replace("\r\n", "\n").replace("\n\n", "\n").getBytes("UTF-8");
+				}
+				Entry entry = new Entry(service.getKey());
+				entry.setTime(System.currentTimeMillis());
+				add(entry, data);
+			}
+		}
+		while (!pending.isEmpty()) {
+			writeNext();
+		}
+		finished = true;
+
+		// central directory
+		long cdOffset = offset;
+		for (Entry entry : written) {
+			byte [] name = entry.name.getBytes("UTF-8");
+			boolean zip64 = entry.offset >= MAX_U4;
+			writeInt(CENTRAL_HEADER);
+			writeShort(zip64 ? 45 : entry.madeBy);
+			writeShort(zip64 ? 45 : (entry.method == ZipEntry.DEFLATED ? 20 : 10));
+			writeShort(entry.flags);
+			writeShort(entry.method);
+			writeInt(entry.dosTime);
+			writeInt((int) entry.crc);
+			writeInt((int) entry.csize);
+			writeInt((int) entry.size);
+			writeShort(name.length);
+			writeShort(zip64 ? 12 : 0);
+			writeShort(0);
+			writeShort(0);
+			writeShort(0);
+			writeInt(entry.external);
+			writeInt(zip64 ? (int) MAX_U4 : (int) entry.offset);
+			writeBytes(name, 0, name.length);
+			if (zip64) {
+				writeShort(0x0001);
+				writeShort(8);
+				writeLong(entry.offset);
+			}
+		}
+		long cdSize = offset - cdOffset;
+		int count = written.size();
+		if (count >= 0xffff || cdOffset >= MAX_U4 || cdSize >= MAX_U4) {
+			long zip64Offset = offset;
+			writeInt(ZIP64_END_HEADER);
+			writeLong(44);
+			writeShort(45);
+			writeShort(45);
+			writeInt(0);
+			writeInt(0);
+			writeLong(count);
+			writeLong(count);
+			writeLong(cdSize);
+			writeLong(cdOffset);
+			writeInt(ZIP64_LOCATOR);
+			writeInt(0);
+			writeLong(zip64Offset);
+			writeInt(1);
+		}
+		writeInt(END_HEADER);
+		writeShort(0);
+		writeShort(0);
+		writeShort(Math.min(count, 0xffff));
+		writeShort(Math.min(count, 0xffff));
+		writeInt((int) Math.min(cdSize, MAX_U4));
+		writeInt((int) Math.min(cdOffset, MAX_U4));
+		if (comment == null) {
+			writeShort(0);
+		} else {
+			writeShort(comment.length);
+			writeBytes(comment, 0, comment.length);
+		}
+		os.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			finish();
+		} finally {
+			executor.shutdownNow();
+			Deflater deflater;
+			while ((deflater = deflaters.poll()) != null) {
+				deflater.end();
+			}
+			// release the unused deflater of the superclass
+			def.end();
+			for (Future<Entry> future : pending) {
+				// close sources of an aborted archive
+				if (future instanceof Done && ((Done) future).entry.name == null) {
+					((Done) future).entry.source.close();
+				}
+			}
+			os.close();
+		}
+	}
+
+	@Override
+	public void flush() throws IOException {
+		// entries are written in order as they are compressed
+	}
+
+	private void writeShort(int v) throws IOException {
+		os.write(v & 0xff);
+		os.write((v >>> 8) & 0xff);
+		offset += 2;
+	}
+
+	private void writeInt(int v) throws IOException {
+		writeShort(v & 0xffff);
+		writeShort((v >>> 16) & 0xffff);
+	}
+
+	private void writeLong(long v) throws IOException {
+		writeInt((int) v);
+		writeInt((int) (v >>> 32));
+	}
+
+	private void writeBytes(byte [] b, int off, int len) throws IOException {
+		os.write(b, off, len);
+		offset += len;
+	}
+
+	private static int u2(byte [] b, int pos) {
+		return (b[pos] & 0xff) | ((b[pos + 1] & 0xff) << 8);
+	}
+
+	private static long u4(byte [] b, int pos) {
+		return (u2(b, pos) | ((long) u2(b, pos + 2) << 16)) & MAX_U4;
+	}
+
+	private static long u8(byte [] b, int pos) {
+		return u4(b, pos) | (u4(b, pos + 4) << 32);
+	}
+
+	/**
+	 * Reads the central directory of an archive.
+	 *
+	 * @param raf
+	 * @return the entries or null if the archive uses Zip64 entries or encryption
+	 * @throws IOException
+	 */
+	private static List<Entry> readCentralDirectory(RandomAccessFile raf) throws IOException {
+		// find the end of central directory record, it may be followed by a comment
+		long length = raf.length();
+		int tail = (int) Math.min(length, 0xffff + 22);
+		byte [] b = new byte[tail];
+		raf.seek(length - tail);
+		raf.readFully(b);
+		int end = -1;
+		for (int i = tail - 22; i >= 0; i--) {
+			if (u4(b, i) == END_HEADER) {
+				end = i;
+				break;
+			}
+		}
+		if (end < 0) {
+			throw new ZipException("not a zip archive");
+		}
+		long count = u2(b, end + 10);
+		long cdSize = u4(b, end + 12);
+		long cdOffset = u4(b, end + 16);
+		if (count == 0xffff || cdSize == MAX_U4 || cdOffset == MAX_U4) {
+			// read the Zip64 end record through its locator
+			long locator = length - tail + end - 20;
+			if (locator < 0) {
+				return null;
+			}
+			byte [] l = new byte[20];
+			raf.seek(locator);
+			raf.readFully(l);
+			if (u4(l, 0) != ZIP64_LOCATOR) {
+				return null;
+			}
+			byte [] z = new byte[56];
+			raf.seek(u8(l, 8));
+			raf.readFully(z);
+			if (u4(z, 0) != ZIP64_END_HEADER) {
+				return null;
+			}
+			count = u8(z, 32);
+			cdSize = u8(z, 40);
+			cdOffset = u8(z, 48);
+			if (cdSize > Integer.MAX_VALUE) {
+				return null;
+			}
+		}
+
+		byte [] cd = new byte[(int) cdSize];
+		raf.seek(cdOffset);
+		raf.readFully(cd);
+		List<Entry> entries = new ArrayList<Entry>((int) count);
+		int pos = 0;
+		for (int i = 0; i < count; i++) {
+			if (u4(cd, pos) != CENTRAL_HEADER) {
+				throw new ZipException("invalid central directory");
+			}
+			int flags = u2(cd, pos + 8);
+			int nameLength = u2(cd, pos + 28);
+			int extraLength = u2(cd, pos + 30);
+			int commentLength = u2(cd, pos + 32);
+			Entry entry = new Entry(new String(cd, pos + 46, nameLength,
+					(flags & UTF8_FLAG) != 0 ? "UTF-8" : "Cp437"));
+			entry.madeBy = u2(cd, pos + 4);
+			// drop the data descriptor flag, sizes are written in the local header
+			entry.flags = flags & (UTF8_FLAG | 0x06);
+			entry.method = u2(cd, pos + 10);
+			entry.dosTime = (int) u4(cd, pos + 12);
+			entry.crc = u4(cd, pos + 16);
+			entry.csize = u4(cd, pos + 20);
+			entry.size = u4(cd, pos + 24);
+			entry.external = (int) u4(cd, pos + 38);
+			entry.offset = u4(cd, pos + 42);
+			if ((flags & 1) != 0 || entry.csize == MAX_U4 || entry.size == MAX_U4 || entry.offset == MAX_U4
+					|| (entry.method != ZipEntry.STORED && entry.method != ZipEntry.DEFLATED)) {
+				// encrypted, Zip64, or unsupported compression
+				return null;
+			}
+			entries.add(entry);
+			pos += 46 + nameLength + extraLength + commentLength;
+		}
+		return entries;
+	}
+
+	/**
+	 * Returns the offset of the data of an entry from its local header.
+	 */
+	private static long getDataOffset(RandomAccessFile raf, Entry entry) throws IOException {
+		byte [] b = new byte[30];
+		raf.seek(entry.offset);
+		raf.readFully(b);
+		if (u4(b, 0) != LOCAL_HEADER) {
+			throw new ZipException("invalid local header of " + entry.name);
+		}
+		return entry.offset + 30 + u2(b, 26) + u2(b, 28);
+	}
+
+	/**
+	 * An archive entry.
+	 */
+	private static class Entry {
+		final String name;
+		int madeBy = 20;
+		int flags = UTF8_FLAG;
+		int method = ZipEntry.DEFLATED;
+		int dosTime;
+		long crc;
+		long size;
+		long csize;
+		int external;
+		long offset;
+		byte [] data;
+		RandomAccessFile source;
+		long sourceOffset;
+
+		Entry(String name) {
+			this.name = name;
+		}
+
+		Entry rename(String newName) {
+			Entry entry = new Entry(newName);
+			entry.madeBy = madeBy;
+			entry.flags = flags | UTF8_FLAG;
+			entry.method = method;
+			entry.dosTime = dosTime;
+			entry.crc = crc;
+			entry.size = size;
+			entry.csize = csize;
+			entry.external = external;
+			return entry;
+		}
+
+		void setTime(long time) {
+			setTime(time, Calendar.getInstance());
+		}
+
+		void setTime(long time, Calendar cal) {
+			cal.setTimeInMillis(time);
+			int year = cal.get(Calendar.YEAR);
+			if (year < 1980) {
+				dosTime = (1 << 21) | (1 << 16);
+				return;
+			}
+			dosTime = (year - 1980) << 25 | (cal.get(Calendar.MONTH) + 1) << 21
+					| cal.get(Calendar.DAY_OF_MONTH) << 16 | cal.get(Calendar.HOUR_OF_DAY) << 11
+					| cal.get(Calendar.MINUTE) << 5 | cal.get(Calendar.SECOND) >> 1;
+		}
+	}
+
+	/**
+	 * An archive opened by {@link ParallelJarOutputStream#openArchive(File)}.
+	 */
+	public static class Archive implements Closeable {
+		final RandomAccessFile raf;
+		final List<Entry> entries;
+
+		Archive(RandomAccessFile raf, List<Entry> entries) {
+			this.raf = raf;
+			this.entries = entries;
+		}
+
+		/**
+		 * @return the number of entries in the archive
+		 */
+		public int size() {
+			return entries.size();
+		}
+
+		/**
+		 * @param index
+		 * @return the name of the entry
+		 */
+		public String getName(int index) {
+			return entries.get(index).name;
+		}
+
+		/**
+		 * Reads the uncompressed data of an entry.
+		 *
+		 * @param index
+		 * @return the data of the entry
+		 * @throws IOException
+		 */
+		public byte [] read(int index) throws IOException {
+			Entry source = entries.get(index);
+			Entry entry = source.rename(source.name);
+			entry.source = raf;
+			entry.sourceOffset = getDataOffset(raf, source);
+			return inflate(entry);
+		}
+
+		@Override
+		public void close() throws IOException {
+			raf.close();
+		}
+	}
+
+	/**
+	 * A queued entry which does not need to be compressed.
+	 */
+	private static class Done implements Future<Entry> {
+		final Entry entry;
+
+		Done(Entry entry) {
+			this.entry = entry;
+		}
+
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			return false;
+		}
+
+		@Override
+		public boolean isCancelled() {
+			return false;
+		}
+
+		@Override
+		public boolean isDone() {
+			return true;
+		}
+
+		@Override
+		public Entry get() {
+			return entry;
+		}
+
+		@Override
+		public Entry get(long timeout, TimeUnit unit) {
+			return entry;
+		}
+	}
+
+	private static class DeflaterThreadFactory implements ThreadFactory {
+		final AtomicInteger count = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "moxie-deflate-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
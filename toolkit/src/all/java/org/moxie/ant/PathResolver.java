@@ -57,6 +57,7 @@ import java.io.InputStream;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.Locale;
+import java.util.Map;
 
 /**
  * <p>
@@ -161,6 +162,17 @@ abstract class PathResolver {
 	 */
 	abstract void close() throws IOException;
 
+	/**
+	 * Adds the names of all entries of this resolver to the index, unless the
+	 * name is already indexed by a preceding resolver.
+	 * 
+	 * @param index
+	 *            map of entry name to resolver
+	 * @throws IOException
+	 *             Oops!
+	 */
+	abstract void index(Map<String, PathResolver> index) throws IOException;
+
 	/**
 	 * Formats a date compatable with RFC1123. Well, close anyway. To be truly
 	 * conformant the time zone would always be GMT. This formats the date in
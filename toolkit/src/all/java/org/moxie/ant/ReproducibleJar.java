@@ -0,0 +1,279 @@
+/*
+ * Copyright 2013 James Moger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.moxie.ant;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.jar.JarFile;
+import java.util.zip.ZipEntry;
+
+import org.moxie.Build;
+import org.moxie.MoxieException;
+import org.moxie.console.Console;
+import org.moxie.utils.FileUtils;
+import org.moxie.utils.StringUtils;
+
+/**
+ * Rewrites an archive as a reproducible jar.
+ * <p>
+ * The entries are sorted by name, apart from the manifest which must be the
+ * first entry, and all entries have the same fixed modification time.  The
+ * SHA-1 hashes of the entries are recorded in a hash manifest in the build
+ * output directory.  If no entry has changed since the previous build the jar
+ * is not rewritten, otherwise the unchanged entries are copied from the
+ * previous jar without recompressing them.
+ */
+class ReproducibleJar {
+
+	/**
+	 * The modification time of all entries, 1980-02-01 00:00:00 UTC.  This is
+	 * the earliest time which is safe in all zip time formats.
+	 */
+	static final long TIME = 318211200000L;
+
+	private static final String HEADER = "# reproducible jar v1";
+
+	private final Console console;
+
+	private final File destFile;
+
+	private final File hashFile;
+
+	int level;
+
+	int threads;
+
+	String duplicate;
+
+	boolean mergeServices;
+
+	ReproducibleJar(Build build, File destFile) {
+		this.console = build.getConsole();
+		this.destFile = destFile;
+		this.hashFile = new File(build.getConfig().getOutputDirectory(null), "jars/" + destFile.getName() + ".hashes");
+		this.level = -1;
+		this.threads = 1;
+		this.duplicate = "add";
+	}
+
+	/**
+	 * Returns the stored archive which should be rewritten into the jar.
+	 */
+	File getStoredFile() {
+		return new File(destFile.getParentFile(), destFile.getName() + ".stored");
+	}
+
+	/**
+	 * Rewrites the stored archive into the jar and deletes the stored archive.
+	 */
+	void execute() {
+		File storedFile = getStoredFile();
+		if (!storedFile.exists()) {
+			return;
+		}
+		try {
+			if (!write(storedFile)) {
+				console.log(1, "{0} is up-to-date", destFile.getName());
+			}
+		} catch (IOException e) {
+			throw new MoxieException("Failed to write " + destFile.getName(), e);
+		} finally {
+			storedFile.delete();
+		}
+	}
+
+	/**
+	 * Writes the entries of the source archive to the jar.
+	 *
+	 * @param source
+	 * @return true if the jar was written, false if it is up-to-date
+	 * @throws IOException
+	 */
+	boolean write(File source) throws IOException {
+		ParallelJarOutputStream.Archive archive = ParallelJarOutputStream.openArchive(source);
+		try {
+			final List<String> names = new ArrayList<String>();
+			for (int i = 0; i < archive.size(); i++) {
+				names.add(archive.getName(i));
+			}
+			List<Integer> order = new ArrayList<Integer>();
+			for (int i = 0; i < names.size(); i++) {
+				order.add(i);
+			}
+			// stable sort, duplicate entries keep their order
+			Collections.sort(order, new Comparator<Integer>() {
+				@Override
+				public int compare(Integer a, Integer b) {
+					String x = names.get(a);
+					String y = names.get(b);
+					int rx = rank(x);
+					int ry = rank(y);
+					if (rx != ry) {
+						return rx - ry;
+					}
+					return x.compareTo(y);
+				}
+			});
+
+			// hash the entries
+			Set<String> unique = new HashSet<String>();
+			Set<String> duplicates = new HashSet<String>();
+			String [] hashes = new String[names.size()];
+			StringBuilder sb = new StringBuilder();
+			sb.append(HEADER).append(" level=").append(level).append(" services=").append(mergeServices).append('\n');
+			String header = sb.toString();
+			for (int i : order) {
+				String name = names.get(i);
+				hashes[i] = name.endsWith("/") ? "-" : StringUtils.getSHA1(archive.read(i));
+				sb.append(hashes[i]).append(' ').append(name).append('\n');
+				if (!unique.add(name)) {
+					duplicates.add(name);
+				}
+			}
+			String manifest = sb.toString();
+
+			String previous = null;
+			if (hashFile.exists() && destFile.exists()) {
+				previous = FileUtils.readContent(hashFile, "\n");
+				if (previous.equals(manifest + "# " + destFile.length() + "\n")) {
+					// no entry has changed
+					return false;
+				}
+			}
+
+			// unchanged entries may be copied from the previous jar
+			Map<String, String> previousHashes = new HashMap<String, String>();
+			if (previous != null && previous.startsWith(header)) {
+				for (String line : previous.substring(header.length()).split("\n")) {
+					int space = line.indexOf(' ');
+					if (space > 0 && !line.startsWith("#")) {
+						previousHashes.put(line.substring(space + 1), line.substring(0, space));
+					}
+				}
+			}
+			ParallelJarOutputStream.Archive previousJar = null;
+			Map<String, Integer> previousEntries = new HashMap<String, Integer>();
+			if (!previousHashes.isEmpty()) {
+				try {
+					previousJar = ParallelJarOutputStream.openArchive(destFile);
+					for (int i = 0; i < previousJar.size(); i++) {
+						previousEntries.put(previousJar.getName(i), i);
+					}
+				} catch (IOException e) {
+					console.debug(1, "can not reuse entries of {0}: {1}", destFile.getName(), e.getMessage());
+				}
+			}
+
+			File tmpFile = new File(destFile.getParentFile(), destFile.getName() + ".tmp");
+			ParallelJarOutputStream os = new ParallelJarOutputStream(new FileOutputStream(tmpFile), level, threads);
+			int reused = 0;
+			boolean written = false;
+			try {
+				os.setTime(TIME);
+				os.setDuplicate(duplicate);
+				os.setMergeServices(mergeServices);
+				for (int i : order) {
+					String name = names.get(i);
+					Integer index = previousEntries.get(name);
+					if (index != null && !duplicates.contains(name) && hashes[i].equals(previousHashes.get(name))) {
+						os.copyEntry(previousJar, index);
+						reused++;
+					} else {
+						os.putNextEntry(new ZipEntry(name));
+						os.write(archive.read(i));
+						os.closeEntry();
+					}
+				}
+				if (previousJar != null) {
+					os.closeArchive(previousJar);
+				}
+				os.close();
+				written = true;
+			} finally {
+				if (!written) {
+					try {
+						os.close();
+					} catch (IOException e) {
+					}
+					tmpFile.delete();
+				}
+				if (previousJar != null) {
+					previousJar.close();
+				}
+			}
+			destFile.delete();
+			if (!tmpFile.renameTo(destFile)) {
+				throw new IOException("failed to rename " + tmpFile.getName());
+			}
+			FileUtils.writeContent(hashFile, manifest + "# " + destFile.length() + "\n");
+			console.debug(1, "copied {0} of {1} entries from the previous jar", reused, names.size());
+			return true;
+		} finally {
+			archive.close();
+		}
+	}
+
+	/**
+	 * The manifest and its folder are the first entries of a jar.
+	 */
+	private static int rank(String name) {
+		if (name.equalsIgnoreCase("META-INF/")) {
+			return 0;
+		} else if (name.equalsIgnoreCase(JarFile.MANIFEST_NAME)) {
+			return 1;
+		}
+		return 2;
+	}
+
+	/**
+	 * Returns the properties in the format of Properties.store without the
+	 * timestamp comment.
+	 *
+	 * @param properties
+	 * @param comments
+	 * @return the properties
+	 */
+	static String storeProperties(Properties properties, String comments) {
+		StringWriter writer = new StringWriter();
+		try {
+			properties.store(writer, comments);
+		} catch (IOException e) {
+			throw new MoxieException(e);
+		}
+		StringBuilder sb = new StringBuilder();
+		boolean skipped = false;
+		for (String line : writer.toString().split("\r?\n")) {
+			if (!skipped && line.startsWith("#") && !line.equals("#" + comments)) {
+				// the timestamp follows the comments
+				skipped = true;
+				continue;
+			}
+			sb.append(line).append('\n');
+		}
+		return sb.toString();
+	}
+}
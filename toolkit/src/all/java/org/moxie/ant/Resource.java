@@ -166,10 +166,29 @@ public class Resource extends DataType implements JarSpec {
 			throw new MoxieException("can't add Fileset - file already set");
 		}
 		FileSet set = new FileSet();
+		set.setProject(project);
 		filesets.add(set);
 		return set;
 	}
 
+	/**
+	 * Returns the file attribute, if set.
+	 * 
+	 * @return the file or null
+	 */
+	File getFile() {
+		return file;
+	}
+
+	/**
+	 * Returns the fileset children.
+	 * 
+	 * @return the filesets
+	 */
+	List<FileSet> getFilesets() {
+		return filesets;
+	}
+
 	/**
 	 * changes the path portion of the file if the <var>pkg</var> variable is
 	 * not null
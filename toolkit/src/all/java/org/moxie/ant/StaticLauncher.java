@@ -0,0 +1,251 @@
+/*
+ * Copyright 2013 James Moger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.moxie.ant;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.tools.ant.types.Commandline;
+import org.apache.tools.ant.types.Path;
+import org.moxie.Build;
+import org.moxie.MoxieException;
+import org.moxie.console.Console;
+import org.moxie.utils.FileUtils;
+import org.moxie.utils.StringUtils;
+
+/**
+ * Lays out an application jar with a flat, static classpath.
+ * <p>
+ * The runtime dependencies are listed in the Class-Path manifest attribute
+ * and copied next to the jar.  Unlike MxLauncher, which adds the jars to the
+ * system classloader at runtime, all classes are loaded from the classpath
+ * of the JVM.  This is required by class data sharing: the application
+ * classes of a CDS archive are only used if they are loaded from the same
+ * classpath as when the archive was dumped.  The archive is dumped by a
+ * training run of the application and the generated launch scripts specify
+ * it with -XX:SharedArchiveFile.
+ * <p>
+ * The launcher is laid out in its own folder next to the jar so that the
+ * scripts and the archive, which are named after the jar, are not published
+ * with the artifacts of the build.
+ */
+class StaticLauncher {
+
+	/**
+	 * Dynamic CDS archives (-XX:ArchiveClassesAtExit) require Java 13.
+	 */
+	static final int CDS_JAVA_VERSION = 13;
+
+	private static final long TRAINING_TIMEOUT_MINUTES = 5;
+
+	/**
+	 * The folder of the launcher, relative to the folder of the jar.
+	 */
+	static final String LAUNCHER_FOLDER = "launcher";
+
+	private final Console console;
+
+	private final LauncherSpec spec;
+
+	private final String folder;
+
+	private final List<File> jars;
+
+	StaticLauncher(Build build, LauncherSpec spec, Path classpath) {
+		this.console = build.getConsole();
+		this.spec = spec;
+		String paths = spec.getPaths();
+		this.folder = StringUtils.isEmpty(paths) ? "lib" : paths.split(",")[0].trim();
+		this.jars = new ArrayList<File>();
+		if (classpath != null) {
+			for (String path : classpath.list()) {
+				File file = new File(path);
+				String name = file.getName().toLowerCase();
+				if (name.endsWith(".jar") && name.indexOf("-sources") < 0 && name.indexOf("-javadoc") < 0) {
+					jars.add(file);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the value of the Class-Path manifest attribute.
+	 */
+	String getClassPath() {
+		StringBuilder sb = new StringBuilder();
+		for (File jar : jars) {
+			sb.append(folder).append('/').append(jar.getName()).append(' ');
+		}
+		return sb.toString().trim();
+	}
+
+	/**
+	 * Copies the jar and its dependencies into the launcher folder, dumps the
+	 * CDS archive and writes the launch scripts.
+	 *
+	 * @param builtJar
+	 */
+	void execute(File builtJar) {
+		File dir = new File(builtJar.getAbsoluteFile().getParentFile(), LAUNCHER_FOLDER);
+		File jarFile = new File(dir, builtJar.getName());
+		String name = jarFile.getName();
+		if (name.toLowerCase().endsWith(".jar")) {
+			name = name.substring(0, name.length() - ".jar".length());
+		}
+		File archive = new File(dir, name + ".jsa");
+		try {
+			// the classpath of the archive is validated by size and timestamp
+			FileUtils.copyFile(builtJar, jarFile);
+			File lib = new File(dir, folder);
+			int copied = 0;
+			for (File jar : jars) {
+				File target = new File(lib, jar.getName());
+				if (target.length() != jar.length() || target.lastModified() != jar.lastModified()) {
+					FileUtils.copyFile(jar, target);
+					copied++;
+				}
+			}
+			console.debug(1, "copied {0} of {1} dependencies to {2}", copied, jars.size(), lib);
+
+			archive.delete();
+			if (spec.isCds()) {
+				dump(dir, jarFile, archive);
+			}
+			writeScripts(dir, name, jarFile, archive.exists() ? archive : null);
+		} catch (IOException e) {
+			throw new MoxieException("Failed to write launcher for " + jarFile.getName(), e);
+		}
+	}
+
+	/**
+	 * Runs the application with the training arguments and dumps the classes
+	 * it loaded into a dynamic CDS archive when it exits.
+	 */
+	private void dump(File dir, File jarFile, File archive) throws IOException {
+		int version = getJavaVersion();
+		if (version < CDS_JAVA_VERSION) {
+			console.warn(1, "skipping class data sharing archive, Java {0} or later is required", CDS_JAVA_VERSION);
+			return;
+		}
+		List<String> cmd = new ArrayList<String>();
+		cmd.add(new File(System.getProperty("java.home"), "bin/java").getAbsolutePath());
+		cmd.add("-XX:ArchiveClassesAtExit=" + archive.getName());
+		// the archive records the classpath as it was specified
+		cmd.add("-jar");
+		cmd.add(jarFile.getAbsolutePath());
+		if (!StringUtils.isEmpty(spec.getTrainingArgs())) {
+			cmd.addAll(Arrays.asList(Commandline.translateCommandline(spec.getTrainingArgs())));
+		}
+		console.debug(1, "training run: {0}", cmd);
+
+		long start = System.currentTimeMillis();
+		ProcessBuilder pb = new ProcessBuilder(cmd);
+		pb.directory(dir);
+		pb.redirectErrorStream(true);
+		final Process process = pb.start();
+		process.getOutputStream().close();
+		final ByteArrayOutputStream output = new ByteArrayOutputStream();
+		Thread reader = new Thread("cds-training") {
+			@Override
+			public void run() {
+				try {
+					InputStream is = process.getInputStream();
+					byte [] buffer = new byte[4096];
+					int len;
+					while ((len = is.read(buffer)) > -1) {
+						output.write(buffer, 0, len);
+					}
+				} catch (IOException e) {
+				}
+			}
+		};
+		reader.setDaemon(true);
+		reader.start();
+		try {
+			if (!process.waitFor(TRAINING_TIMEOUT_MINUTES, TimeUnit.MINUTES)) {
+				// the archive is still dumped when the JVM exits
+				console.warn(1, "training run did not exit within {0} minutes", TRAINING_TIMEOUT_MINUTES);
+				process.destroy();
+				process.waitFor();
+			}
+			reader.join(1000);
+		} catch (InterruptedException e) {
+			// kill the training run so it does not dump a partial archive
+			process.destroyForcibly();
+			archive.delete();
+			Thread.currentThread().interrupt();
+			console.warn(1, "training run was interrupted, skipping class data sharing archive");
+			return;
+		}
+		console.debug(1, "{0}", output.toString().trim());
+		if (process.exitValue() != 0) {
+			console.warn(1, "training run exited with {0}", process.exitValue());
+		}
+		if (archive.exists()) {
+			console.log(1, "{0} KB class data sharing archive, trained in {1} ms",
+					archive.length() / 1024, System.currentTimeMillis() - start);
+		} else {
+			console.warn(1, "failed to dump class data sharing archive {0}", archive.getName());
+		}
+	}
+
+	/**
+	 * Writes the launch scripts for Unix and Windows.
+	 */
+	private void writeScripts(File dir, String name, File jarFile, File archive) {
+		String options = archive == null ? "" : "-XX:SharedArchiveFile=\"$DIR/" + archive.getName() + "\" ";
+		StringBuilder sh = new StringBuilder();
+		sh.append("#!/bin/sh\n");
+		sh.append("# generated by Moxie\n");
+		sh.append("DIR=$(cd \"$(dirname \"$0\")\" && pwd)\n");
+		sh.append("JAVA=java\n");
+		sh.append("if [ -n \"$JAVA_HOME\" ]; then JAVA=\"$JAVA_HOME/bin/java\"; fi\n");
+		sh.append("exec \"$JAVA\" ").append(options).append("-jar \"$DIR/").append(jarFile.getName()).append("\" \"$@\"\n");
+		File script = new File(dir, name + ".sh");
+		FileUtils.writeContent(script, sh.toString());
+		script.setExecutable(true, false);
+
+		options = archive == null ? "" : "-XX:SharedArchiveFile=\"%~dp0" + archive.getName() + "\" ";
+		StringBuilder cmd = new StringBuilder();
+		cmd.append("@echo off\r\n");
+		cmd.append("rem generated by Moxie\r\n");
+		cmd.append("set JAVA=java\r\n");
+		cmd.append("if defined JAVA_HOME set JAVA=\"%JAVA_HOME%\\bin\\java\"\r\n");
+		cmd.append("%JAVA% ").append(options).append("-jar \"%~dp0").append(jarFile.getName()).append("\" %*\r\n");
+		FileUtils.writeContent(new File(dir, name + ".cmd"), cmd.toString());
+	}
+
+	/**
+	 * Returns the major version of the running Java runtime.
+	 */
+	static int getJavaVersion() {
+		String version = System.getProperty("java.specification.version");
+		if (version.startsWith("1.")) {
+			version = version.substring(2);
+		}
+		try {
+			return Integer.parseInt(version);
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+}
@@ -51,6 +51,8 @@ package org.moxie.ant;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Enumeration;
+import java.util.Map;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
@@ -148,6 +150,17 @@ class ZipResolver extends PathResolver {
 		return is;
 	}
 	
+	@Override
+	void index(Map<String, PathResolver> index) throws IOException {
+		Enumeration<? extends ZipEntry> entries = zip.entries();
+		while (entries.hasMoreElements()) {
+			ZipEntry entry = entries.nextElement();
+			if (!entry.isDirectory() && !index.containsKey(entry.getName())) {
+				index.put(entry.getName(), this);
+			}
+		}
+	}
+
 	@Override
 	public String toString() {
 		return "Resolver " + (isExcluded() ? "EXCLUDED" : "") + " (" + file.getPath() + ")";
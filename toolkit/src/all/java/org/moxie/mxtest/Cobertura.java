@@ -15,6 +15,9 @@
  */
 package org.moxie.mxtest;
 
+import java.io.File;
+import java.util.List;
+
 import net.sourceforge.cobertura.ant.InstrumentTask;
 
 import org.apache.tools.ant.types.FileSet;
@@ -47,6 +50,28 @@ public class Cobertura {
 		task.execute();
 	}
 	
+	/**
+	 * Merges the data files of the test shards into the Cobertura data file.
+	 * The data file contains the instrumentation metadata and each shard file
+	 * contains the coverage of the classes loaded by the shard.
+	 */
+	public static void merge(MxTest mxtest) {
+		List<File> files = Shards.getFiles(mxtest.getCoberturaData());
+		if (files.isEmpty()) {
+			return;
+		}
+		CoberturaMergeTask task = new CoberturaMergeTask();
+		task.setTaskName("merge");
+		task.setProject(mxtest.getProject());
+		task.init();
+
+		task.setDataFile(mxtest.getCoberturaData().getAbsolutePath());
+		for (File file : files) {
+			task.addFile(file);
+		}
+		task.execute();
+	}
+
 	public static void report(MxTest mxtest) {
 		CoberturaReportTask task = new CoberturaReportTask();
 		task.setTaskName("report");
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2013 James Moger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.moxie.mxtest;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.sourceforge.cobertura.util.CommandLineBuilder;
+
+import org.apache.tools.ant.BuildException;
+import org.moxie.MoxieException;
+
+/**
+ * Merges Cobertura data files into a destination data file.  Like the report
+ * task, the GPL licensed merge is executed in a separate virtual machine.
+ */
+public class CoberturaMergeTask extends CommonMatchingTask {
+
+	private String dataFile;
+
+	private final List<File> files;
+
+	public CoberturaMergeTask() {
+		super("net.sourceforge.cobertura.merge.Main");
+		files = new ArrayList<File>();
+	}
+
+	@Override
+	public void execute() throws BuildException {
+		CommandLineBuilder builder = null;
+		try {
+			builder = new CommandLineBuilder();
+			if (dataFile != null) {
+				builder.addArg("--datafile", dataFile);
+			}
+			for (File file : files) {
+				builder.addArg(file.getAbsolutePath());
+			}
+			builder.saveArgs();
+		} catch (IOException e) {
+			throw new MoxieException("Unable to create the commands file.", e);
+		}
+
+		getJava().createArg().setValue("--commandsfile");
+		getJava().createArg().setValue(builder.getCommandLineFile());
+		if (getJava().executeJava() != 0) {
+			throw new MoxieException("Error merging Cobertura data files. See messages above.");
+		}
+
+		builder.dispose();
+	}
+
+	public void setDataFile(String dataFile) {
+		this.dataFile = dataFile;
+	}
+
+	public void addFile(File file) {
+		files.add(file);
+	}
+}
@@ -74,6 +74,13 @@ public class Emma {
 		fileSet.setProject(mxtest.getProject());
 		fileSet.setFile(mxtest.getEmmaData());
 		report.addFileset(fileSet);
+		// coverage data of the test shards
+		for (File file : Shards.getFiles(mxtest.getEmmaData())) {
+			XFileSet shardSet = new XFileSet();
+			shardSet.setProject(mxtest.getProject());
+			shardSet.setFile(file);
+			report.addFileset(shardSet);
+		}
 		report.createHtml().setOutfile(new File(mxtest.getCoverageReports(), "index.html").getAbsolutePath());
 		
 		emma.execute();
@@ -15,11 +15,17 @@
  */
 package org.moxie.mxtest;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.tools.ant.Task;
 import org.apache.tools.ant.taskdefs.optional.junit.AggregateTransformer;
 import org.apache.tools.ant.taskdefs.optional.junit.BatchTest;
 import org.apache.tools.ant.taskdefs.optional.junit.FormatterElement;
 import org.apache.tools.ant.taskdefs.optional.junit.FormatterElement.TypeAttribute;
 import org.apache.tools.ant.taskdefs.optional.junit.JUnitTask;
+import org.apache.tools.ant.taskdefs.optional.junit.JUnitTask.ForkMode;
 import org.apache.tools.ant.taskdefs.optional.junit.XMLResultAggregator;
 import org.apache.tools.ant.types.FileSet;
 import org.moxie.ant.AttributeReflector;
@@ -33,6 +39,73 @@ import org.moxie.utils.StringUtils;
 public class JUnit {
 
 	public static void test(MxTest mxtest, String jvmarg) {
+		// warm test JVMs can not write the coverage data of a JVM exit
+		boolean pooled = mxtest.getJvmPool() > 0;
+		if (pooled && mxtest.isCodeCoverage()) {
+			mxtest.getBuild().getConsole().log(1, "warm test JVMs are not used with code-coverage");
+			pooled = false;
+		}
+		// warm test JVMs only honor the timeout of the junit attributes,
+		// e.g. jvmarg, sysproperty, and maxmemory require a forked JVM
+		MaxmlMap testAttributes = mxtest.getBuild().getConfig().getTaskAttributes("junit");
+		if (pooled && testAttributes != null) {
+			List<String> keys = new ArrayList<String>(testAttributes.keySet());
+			keys.remove("timeout");
+			if (!keys.isEmpty()) {
+				mxtest.getBuild().getConsole().log(1, "warm test JVMs are not used with the junit attributes {0}", keys);
+				pooled = false;
+			}
+		}
+		if (mxtest.getShards() > 1) {
+			List<List<String>> shards = Shards.balance(mxtest);
+			List<Task> tasks = new ArrayList<Task>();
+			for (int i = 0; i < shards.size(); i++) {
+				int shard = i + 1;
+				String shardJvmarg = jvmarg;
+				if (!StringUtils.isEmpty(jvmarg)) {
+					// each shard writes its own JaCoCo execution data
+					shardJvmarg = Jacoco.newJvmarg(mxtest, Shards.getFile(mxtest.getJaCoCoData(), shard));
+				}
+				Task task = newJUnitTask(mxtest, shardJvmarg, Shards.newFileSet(mxtest, shards.get(i)), shard);
+				if (pooled) {
+					task = new TestPool(mxtest, i % mxtest.getJvmPool(), shards.get(i), task);
+				}
+				tasks.add(task);
+			}
+			Shards.execute(mxtest, tasks);
+		} else if (pooled) {
+			String [] files = mxtest.getUnitTests().getDirectoryScanner(mxtest.getProject()).getIncludedFiles();
+			new TestPool(mxtest, 0, Arrays.asList(files), newJUnitTask(mxtest, jvmarg, mxtest.getUnitTests(), 0)).execute();
+		} else {
+			newJUnitTask(mxtest, jvmarg, mxtest.getUnitTests(), 0).execute();
+		}
+
+		// all shards write their results into the same folder
+		XMLResultAggregator junitReport = new XMLResultAggregator();
+		junitReport.setTaskName("test");
+		junitReport.setProject(mxtest.getProject());
+		junitReport.init();
+				
+		FileSet fileSet = new FileSet();
+		fileSet.setProject(mxtest.getProject());
+		fileSet.setDir(mxtest.getUnitTestOutputDir());
+		fileSet.setIncludes("TEST-*.xml");	 	
+		junitReport.addFileSet(fileSet);
+		
+		AggregateTransformer report = junitReport.createReport();
+		// configure properties from Moxie file
+		MaxmlMap reportAttributes = mxtest.getBuild().getConfig().getTaskAttributes("junitreport");
+		if (reportAttributes != null) {
+			AttributeReflector.setAttributes(mxtest.getProject(), report, reportAttributes);
+		}
+		report.setTodir(mxtest.getTestReports());
+		
+		junitReport.setTodir(mxtest.getUnitTestOutputDir());
+
+		junitReport.execute();
+	}
+
+	private static JUnitTask newJUnitTask(MxTest mxtest, String jvmarg, FileSet tests, int shard) {
 		JUnitTask junit = null;
 		try {
 			// constructor throws Exception. Really??
@@ -50,14 +123,14 @@ public class JUnit {
 		junit.setFailureProperty(mxtest.getFailureProperty());
 		junit.createClasspath().add(mxtest.getUnitTestClasspath());
 		
-		junit.addConfiguredSysproperty(mxtest.getCoberturaFileProperty());
-		junit.addConfiguredSysproperty(mxtest.getEmmaFileProperty());
+		junit.addConfiguredSysproperty(mxtest.getCoberturaFileProperty(shard));
+		junit.addConfiguredSysproperty(mxtest.getEmmaFileProperty(shard));
 		junit.addConfiguredSysproperty(mxtest.getEmmaMergeProperty());
 		
 		BatchTest batchTest = junit.createBatchTest();
 		batchTest.setFork(true);
 		batchTest.setTodir(mxtest.getUnitTestOutputDir());
-		batchTest.addFileSet(mxtest.getUnitTests());
+		batchTest.addFileSet(tests);
 		
 		TypeAttribute xml = (TypeAttribute) TypeAttribute.getInstance(TypeAttribute.class, "xml");
 		FormatterElement formatter = new FormatterElement();
@@ -65,35 +138,17 @@ public class JUnit {
 		formatter.setType(xml);
 		junit.addFormatter(formatter);
 
+		if (shard > 0) {
+			// run the test classes of a shard in one JVM, unless configured
+			junit.setForkMode(new ForkMode("once"));
+		}
+
 		// configure properties from Moxie file
 		MaxmlMap testAttributes = mxtest.getBuild().getConfig().getTaskAttributes("junit");
 		if (testAttributes != null) {
 			AttributeReflector.setAttributes(mxtest.getProject(), junit, testAttributes);
 		}
 
-		junit.execute();
-
-		XMLResultAggregator junitReport = new XMLResultAggregator();
-		junitReport.setTaskName("test");
-		junitReport.setProject(mxtest.getProject());
-		junitReport.init();
-				
-		FileSet fileSet = new FileSet();
-		fileSet.setProject(mxtest.getProject());
-		fileSet.setDir(mxtest.getUnitTestOutputDir());
-		fileSet.setIncludes("TEST-*.xml");	 	
-		junitReport.addFileSet(fileSet);
-		
-		AggregateTransformer report = junitReport.createReport();
-		// configure properties from Moxie file
-		MaxmlMap reportAttributes = mxtest.getBuild().getConfig().getTaskAttributes("junitreport");
-		if (reportAttributes != null) {
-			AttributeReflector.setAttributes(mxtest.getProject(), report, reportAttributes);
-		}
-		report.setTodir(mxtest.getTestReports());
-		
-		junitReport.setTodir(mxtest.getUnitTestOutputDir());
-
-		junitReport.execute();
+		return junit;
 	}
 }
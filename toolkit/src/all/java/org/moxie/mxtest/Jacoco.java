@@ -17,12 +17,15 @@ package org.moxie.mxtest;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.List;
 
 import org.apache.tools.ant.Project;
+import org.apache.tools.ant.types.FileSet;
 import org.apache.tools.ant.types.Path;
 import org.apache.tools.ant.types.Reference;
 import org.apache.tools.ant.types.resources.Union;
 import org.jacoco.agent.AgentJar;
+import org.jacoco.ant.MergeTask;
 import org.jacoco.ant.ReportTask;
 import org.jacoco.ant.ReportTask.GroupElement;
 import org.jacoco.ant.ReportTask.SourceFilesElement;
@@ -38,8 +41,12 @@ import org.moxie.maxml.MaxmlMap;
 public class Jacoco {
 
 	public static String newJvmarg(MxTest mxtest) {
+		return newJvmarg(mxtest, mxtest.getJaCoCoData());
+	}
+
+	public static String newJvmarg(MxTest mxtest, File destfile) {
 		AgentOptions options = new AgentOptions();
-		options.setDestfile(mxtest.getJaCoCoData().getAbsolutePath());	
+		options.setDestfile(destfile.getAbsolutePath());	
 		// TODO reflective attributes here
 		String vmarg = options.getVMArgument(getAgentFile(mxtest.getProject()));
 		return vmarg;
@@ -62,6 +69,30 @@ public class Jacoco {
 		}
 	}
 
+	/**
+	 * Merges the execution data files of the test shards.
+	 */
+	public static void merge(MxTest mxtest) {
+		List<File> files = Shards.getFiles(mxtest.getJaCoCoData());
+		if (files.isEmpty()) {
+			return;
+		}
+		MergeTask task = new MergeTask();
+		task.setTaskName("merge");
+		task.setProject(mxtest.getProject());
+		task.init();
+
+		FileSet fileSet = new FileSet();
+		fileSet.setProject(mxtest.getProject());
+		fileSet.setDir(mxtest.getJaCoCoData().getParentFile());
+		for (File file : files) {
+			fileSet.createInclude().setName(file.getName());
+		}
+		task.addConfigured(fileSet);
+		task.setDestfile(mxtest.getJaCoCoData());
+		task.execute();
+	}
+
 	public static void report(MxTest mxtest) {
 		ReportTask task = new ReportTask();
 		task.setTaskName("report");
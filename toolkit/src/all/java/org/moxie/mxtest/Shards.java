@@ -0,0 +1,336 @@
+/*
+ * Copyright 2013 James Moger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.moxie.mxtest;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+
+import org.apache.tools.ant.Task;
+import org.apache.tools.ant.types.FileSet;
+import org.moxie.MoxieException;
+import org.moxie.ant.MxTest;
+import org.moxie.console.Console;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Utility class for sharded test execution.
+ * <p>
+ * The test classes are split into shards which run concurrently, each in its
+ * own forked JVM.  The shards are balanced by the durations of the test
+ * classes in the previous run, as recorded in the TEST-*.xml result files, by
+ * assigning the slowest remaining test class to the shard with the least total
+ * duration.  Each shard writes its own coverage data file which is merged
+ * after all shards have finished.
+ */
+public class Shards {
+
+	/**
+	 * The assumed duration of a test class if there is no previous result.
+	 */
+	static final long DEFAULT_DURATION = 1000L;
+
+	/**
+	 * Returns the durations in milliseconds of the test classes recorded in
+	 * the TEST-*.xml files of the specified folders and their subfolders.
+	 *
+	 * @param folders
+	 * @return a map of test class name to duration
+	 */
+	public static Map<String, Long> readDurations(File... folders) {
+		Map<String, Long> durations = new HashMap<String, Long>();
+		SAXParser parser;
+		try {
+			parser = SAXParserFactory.newInstance().newSAXParser();
+		} catch (Exception e) {
+			return durations;
+		}
+		for (File folder : folders) {
+			readDurations(parser, folder, durations);
+		}
+		return durations;
+	}
+
+	private static void readDurations(SAXParser parser, File folder, Map<String, Long> durations) {
+		File [] files = folder.listFiles();
+		if (files == null) {
+			return;
+		}
+		for (File file : files) {
+			String name = file.getName();
+			if (file.isDirectory()) {
+				readDurations(parser, file, durations);
+			} else if (name.startsWith("TEST-") && name.endsWith(".xml")) {
+				String className = name.substring("TEST-".length(), name.length() - ".xml".length());
+				long time = readTime(parser, file);
+				if (time >= 0) {
+					Long previous = durations.get(className);
+					durations.put(className, previous == null ? time : previous + time);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads the time attribute of the testsuite root element.  The parser
+	 * stops at the root element so the test output is not parsed.
+	 */
+	private static long readTime(SAXParser parser, File file) {
+		final String [] time = new String[1];
+		try {
+			parser.reset();
+			parser.parse(file, new DefaultHandler() {
+				@Override
+				public void startElement(String uri, String localName, String qName, Attributes attributes) throws SAXException {
+					time[0] = attributes.getValue("time");
+					throw new SAXException("root element");
+				}
+			});
+		} catch (Exception e) {
+			// expected
+		}
+		if (time[0] == null) {
+			return -1;
+		}
+		try {
+			return (long) (Double.parseDouble(time[0]) * 1000);
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Splits the test class files into the specified number of shards.  Test
+	 * classes without a previous result are assumed to take the average
+	 * duration of the known test classes.
+	 *
+	 * @param files
+	 *            the test class files, relative to the test classes folder
+	 * @param durations
+	 *            the previous durations of the test classes
+	 * @param count
+	 *            the number of shards
+	 * @return the non-empty shards
+	 */
+	public static List<List<String>> balance(String [] files, Map<String, Long> durations, int count) {
+		final Map<String, Long> estimates = new HashMap<String, Long>();
+		long total = 0;
+		int known = 0;
+		for (String file : files) {
+			Long duration = durations.get(getClassName(file));
+			if (duration != null) {
+				estimates.put(file, duration);
+				total += duration;
+				known++;
+			}
+		}
+		long average = known == 0 ? DEFAULT_DURATION : Math.max(1, total / known);
+		for (String file : files) {
+			if (!estimates.containsKey(file)) {
+				estimates.put(file, average);
+			}
+		}
+
+		List<String> sorted = new ArrayList<String>(Arrays.asList(files));
+		Collections.sort(sorted, new Comparator<String>() {
+			@Override
+			public int compare(String a, String b) {
+				int c = estimates.get(b).compareTo(estimates.get(a));
+				return c != 0 ? c : a.compareTo(b);
+			}
+		});
+
+		List<List<String>> shards = new ArrayList<List<String>>();
+		long [] loads = new long[Math.max(1, count)];
+		for (int i = 0; i < loads.length; i++) {
+			shards.add(new ArrayList<String>());
+		}
+		for (String file : sorted) {
+			int min = 0;
+			for (int i = 1; i < loads.length; i++) {
+				if (loads[i] < loads[min]) {
+					min = i;
+				}
+			}
+			shards.get(min).add(file);
+			loads[min] += estimates.get(file);
+		}
+		List<List<String>> nonEmpty = new ArrayList<List<String>>();
+		for (List<String> shard : shards) {
+			if (!shard.isEmpty()) {
+				nonEmpty.add(shard);
+			}
+		}
+		return nonEmpty;
+	}
+
+	/**
+	 * Splits the test classes of mx:test into shards.
+	 *
+	 * @param mxtest
+	 * @return the non-empty shards
+	 */
+	public static List<List<String>> balance(MxTest mxtest) {
+		String [] files = mxtest.getUnitTests().getDirectoryScanner(mxtest.getProject()).getIncludedFiles();
+		List<List<String>> shards = balance(files, mxtest.getTestDurations(), mxtest.getShards());
+		mxtest.getBuild().getConsole().log(1, "{0} test classes in {1} shards, {2} with previous durations",
+				files.length, shards.size(), countKnown(files, mxtest.getTestDurations()));
+		return shards;
+	}
+
+	private static int countKnown(String [] files, Map<String, Long> durations) {
+		int count = 0;
+		for (String file : files) {
+			if (durations.containsKey(getClassName(file))) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Returns a fileset of the test class files of a shard.
+	 */
+	public static FileSet newFileSet(MxTest mxtest, List<String> files) {
+		FileSet fileSet = new FileSet();
+		fileSet.setProject(mxtest.getProject());
+		fileSet.setDir(mxtest.getTestClassesDir());
+		for (String file : files) {
+			fileSet.createInclude().setName(file);
+		}
+		return fileSet;
+	}
+
+	/**
+	 * Returns the class name of a class file.
+	 */
+	static String getClassName(String file) {
+		String name = file;
+		if (name.endsWith(".class")) {
+			name = name.substring(0, name.length() - ".class".length());
+		}
+		return name.replace('/', '.').replace('\\', '.');
+	}
+
+	/**
+	 * Returns the file of a shard, e.g. jacoco-shard2.exec for jacoco.exec.
+	 * Shard 0 is the file itself.
+	 *
+	 * @param file
+	 * @param shard
+	 * @return the file of the shard
+	 */
+	public static File getFile(File file, int shard) {
+		if (shard <= 0) {
+			return file;
+		}
+		String name = file.getName();
+		int dot = name.lastIndexOf('.');
+		String base = dot < 0 ? name : name.substring(0, dot);
+		String ext = dot < 0 ? "" : name.substring(dot);
+		return new File(file.getParentFile(), base + "-shard" + shard + ext);
+	}
+
+	/**
+	 * Returns the existing shard files of a file.
+	 *
+	 * @param file
+	 * @return the shard files
+	 */
+	public static List<File> getFiles(File file) {
+		List<File> files = new ArrayList<File>();
+		File [] siblings = file.getParentFile().listFiles();
+		if (siblings != null) {
+			String name = file.getName();
+			int dot = name.lastIndexOf('.');
+			String prefix = (dot < 0 ? name : name.substring(0, dot)) + "-shard";
+			String ext = dot < 0 ? "" : name.substring(dot);
+			for (File sibling : siblings) {
+				String n = sibling.getName();
+				if (n.startsWith(prefix) && n.endsWith(ext) && sibling.isFile()) {
+					files.add(sibling);
+				}
+			}
+		}
+		Collections.sort(files);
+		return files;
+	}
+
+	/**
+	 * Deletes the shard files of a file.
+	 *
+	 * @param file
+	 */
+	public static void deleteFiles(File file) {
+		for (File shardFile : getFiles(file)) {
+			shardFile.delete();
+		}
+	}
+
+	/**
+	 * Executes the test tasks of the shards concurrently and waits for all of
+	 * them to finish.  The first failure is rethrown.
+	 *
+	 * @param mxtest
+	 * @param tasks
+	 */
+	public static void execute(MxTest mxtest, List<? extends Task> tasks) {
+		final Console console = mxtest.getBuild().getConsole();
+		final List<RuntimeException> failures = Collections.synchronizedList(new ArrayList<RuntimeException>());
+		List<Thread> threads = new ArrayList<Thread>();
+		long start = System.currentTimeMillis();
+		for (int i = 0; i < tasks.size(); i++) {
+			final Task task = tasks.get(i);
+			final int shard = i + 1;
+			Thread thread = new Thread("test-shard-" + shard) {
+				@Override
+				public void run() {
+					long start = System.currentTimeMillis();
+					try {
+						task.execute();
+					} catch (RuntimeException e) {
+						failures.add(e);
+					}
+					console.log(1, "shard {0} finished in {1} ms", shard, System.currentTimeMillis() - start);
+				}
+			};
+			thread.start();
+			threads.add(thread);
+		}
+		try {
+			for (Thread thread : threads) {
+				thread.join();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new MoxieException("interrupted while waiting for the test shards", e);
+		}
+		console.log(1, "{0} shards finished in {1} ms", tasks.size(), System.currentTimeMillis() - start);
+		if (!failures.isEmpty()) {
+			throw failures.get(0);
+		}
+	}
+}
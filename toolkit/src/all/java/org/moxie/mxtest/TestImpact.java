@@ -0,0 +1,318 @@
+/*
+ * Copyright 2013 James Moger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.moxie.mxtest;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.apache.tools.ant.types.Path;
+import org.moxie.ant.ClassUtil;
+import org.moxie.ant.ClassUtil.ClassInfo;
+import org.moxie.console.Console;
+import org.moxie.utils.FileUtils;
+import org.moxie.utils.StringUtils;
+
+/**
+ * Selects the test classes which are affected by the changes since the last
+ * successful test run.
+ * <p>
+ * The state file records the SHA-1 hashes of all classes and resources of the
+ * project and, for each test class, the project classes it transitively
+ * references.  A test class is selected if one of the classes it depended on
+ * in the last successful run, or depends on now, has been added, changed, or
+ * deleted.  All tests are run if there is no previous successful run, if the
+ * classpath has changed, or if a resource has changed because resources and
+ * reflective class references are not part of the class dependency graph.
+ */
+public class TestImpact {
+
+	private static final String VERSION = "1";
+
+	private final File file;
+
+	private final File [] classDirs;
+
+	private final Map<String, String> classes;
+
+	private final Map<String, String> resources;
+
+	private final Map<String, Set<String>> tests;
+
+	private final Map<String, String> currentClasses;
+
+	private final Map<String, String> currentResources;
+
+	private final Map<String, Set<String>> currentTests;
+
+	private String fingerprint;
+
+	private String currentFingerprint;
+
+	private boolean loaded;
+
+	public TestImpact(File file, File... classDirs) {
+		this.file = file;
+		this.classDirs = classDirs;
+		this.classes = new TreeMap<String, String>();
+		this.resources = new TreeMap<String, String>();
+		this.tests = new TreeMap<String, Set<String>>();
+		this.currentClasses = new TreeMap<String, String>();
+		this.currentResources = new TreeMap<String, String>();
+		this.currentTests = new TreeMap<String, Set<String>>();
+	}
+
+	/**
+	 * Reads the state of the last successful test run.
+	 *
+	 * @return true if the state was read
+	 */
+	public boolean read() {
+		loaded = false;
+		if (!file.exists()) {
+			return false;
+		}
+		List<String> lines = FileUtils.readLines(file, "\n");
+		if (lines.isEmpty() || !("version " + VERSION).equals(lines.get(0))) {
+			return false;
+		}
+		for (String line : lines.subList(1, lines.size())) {
+			String [] fields = line.split(" ");
+			if (line.startsWith("fingerprint ")) {
+				fingerprint = fields[1];
+			} else if (line.startsWith("class ") && fields.length == 3) {
+				// class name sha1
+				classes.put(fields[1], fields[2]);
+			} else if (line.startsWith("resource ") && fields.length == 3) {
+				// resource path sha1
+				resources.put(fields[1], fields[2]);
+			} else if (line.startsWith("test ")) {
+				// test name dependencies...
+				tests.put(fields[1], new LinkedHashSet<String>(Arrays.asList(fields).subList(2, fields.length)));
+			}
+		}
+		loaded = true;
+		return true;
+	}
+
+	/**
+	 * Selects the test classes which are affected by the changes since the
+	 * last successful test run.
+	 *
+	 * @param testFiles
+	 *            the test class files, relative to the test classes folder
+	 * @param fingerprint
+	 *            the fingerprint of the test classpath
+	 * @param console
+	 * @return the affected test class files or null if all tests must be run
+	 */
+	public List<String> select(String [] testFiles, String fingerprint, Console console) {
+		long start = System.currentTimeMillis();
+		currentFingerprint = fingerprint;
+		Map<String, ClassInfo> infos = new TreeMap<String, ClassInfo>();
+		for (File dir : classDirs) {
+			scan(dir, dir.getName() + "/", "", infos, console);
+		}
+
+		// the project classes transitively referenced by each test class
+		Map<String, String> names = new TreeMap<String, String>();
+		for (String testFile : testFiles) {
+			String name = testFile.replace('\\', '/');
+			name = name.substring(0, name.length() - ".class".length());
+			names.put(name, testFile);
+			currentTests.put(name, getDependencies(name, infos));
+		}
+
+		if (!loaded) {
+			console.log(1, "running all tests, there is no previous successful test run");
+			return null;
+		}
+		if (!fingerprint.equals(this.fingerprint)) {
+			console.log(1, "running all tests, the test classpath has changed");
+			return null;
+		}
+		if (!resources.equals(currentResources)) {
+			console.log(1, "running all tests, resources have changed");
+			return null;
+		}
+
+		Set<String> changed = new HashSet<String>();
+		for (Map.Entry<String, String> entry : currentClasses.entrySet()) {
+			if (!entry.getValue().equals(classes.get(entry.getKey()))) {
+				changed.add(entry.getKey());
+			}
+		}
+		for (String name : classes.keySet()) {
+			if (!currentClasses.containsKey(name)) {
+				changed.add(name);
+			}
+		}
+
+		List<String> selected = new ArrayList<String>();
+		for (Map.Entry<String, String> entry : names.entrySet()) {
+			String name = entry.getKey();
+			Set<String> previous = tests.get(name);
+			if (previous == null || intersects(previous, changed) || intersects(currentTests.get(name), changed)) {
+				selected.add(entry.getValue());
+			}
+		}
+		console.log(1, "{0} of {1} test classes are affected by {2} changed classes ({3} ms)",
+				selected.size(), testFiles.length, changed.size(), System.currentTimeMillis() - start);
+		return selected;
+	}
+
+	/**
+	 * Writes the state of a successful test run.
+	 */
+	public void write() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("version ").append(VERSION).append('\n');
+		sb.append("fingerprint ").append(currentFingerprint).append('\n');
+		for (Map.Entry<String, String> entry : currentClasses.entrySet()) {
+			sb.append("class ").append(entry.getKey()).append(' ').append(entry.getValue()).append('\n');
+		}
+		for (Map.Entry<String, String> entry : currentResources.entrySet()) {
+			sb.append("resource ").append(entry.getKey()).append(' ').append(entry.getValue()).append('\n');
+		}
+		for (Map.Entry<String, Set<String>> entry : currentTests.entrySet()) {
+			sb.append("test ").append(entry.getKey());
+			for (String dependency : entry.getValue()) {
+				sb.append(' ').append(dependency);
+			}
+			sb.append('\n');
+		}
+		file.getParentFile().mkdirs();
+		FileUtils.writeContent(file, sb.toString());
+	}
+
+	/**
+	 * Hashes the classes and resources of a directory and reads the class
+	 * references.
+	 */
+	private void scan(File dir, String key, String prefix, Map<String, ClassInfo> infos, Console console) {
+		File [] files = dir.listFiles();
+		if (files == null) {
+			return;
+		}
+		for (File f : files) {
+			String name = prefix + f.getName();
+			if (f.isDirectory()) {
+				scan(f, key, name + "/", infos, console);
+				continue;
+			}
+			byte [] bytes = FileUtils.readContent(f);
+			String sha1 = StringUtils.getSHA1(bytes);
+			if (name.endsWith(".class")) {
+				String className = name.substring(0, name.length() - ".class".length());
+				currentClasses.put(className, sha1);
+				try {
+					infos.put(className, ClassUtil.getClassInfo(new DataInputStream(new ByteArrayInputStream(bytes))));
+				} catch (Exception e) {
+					console.warn("failed to read {0}: {1}", f, e.getMessage());
+				}
+			} else if (name.indexOf(' ') < 0) {
+				currentResources.put(key + name, sha1);
+			} else {
+				// the state file is space delimited
+				currentResources.put(key + name.replace(' ', '?'), sha1);
+			}
+		}
+	}
+
+	/**
+	 * Returns the project classes which are transitively referenced by a
+	 * class, including the class itself.
+	 */
+	private static Set<String> getDependencies(String name, Map<String, ClassInfo> infos) {
+		Set<String> dependencies = new LinkedHashSet<String>();
+		List<String> queue = new ArrayList<String>();
+		queue.add(name);
+		dependencies.add(name);
+		for (int i = 0; i < queue.size(); i++) {
+			ClassInfo info = infos.get(queue.get(i));
+			if (info == null) {
+				continue;
+			}
+			for (String reference : info.references) {
+				if (infos.containsKey(reference) && dependencies.add(reference)) {
+					queue.add(reference);
+				}
+			}
+		}
+		return dependencies;
+	}
+
+	private static boolean intersects(Set<String> a, Set<String> b) {
+		for (String value : a) {
+			if (b.contains(value)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the fingerprint of a test classpath.  The project class
+	 * directories are excluded because their classes are hashed individually.
+	 *
+	 * @param classpath
+	 * @param include
+	 *            the test class include pattern
+	 * @param excludes
+	 *            the project class directories
+	 * @return the fingerprint
+	 */
+	public static String getFingerprint(Path classpath, String include, File... excludes) {
+		Set<String> excluded = new HashSet<String>();
+		for (File exclude : excludes) {
+			excluded.add(exclude.getAbsolutePath());
+		}
+		StringBuilder sb = new StringBuilder();
+		sb.append(include);
+		for (String path : classpath.list()) {
+			File f = new File(path);
+			if (excluded.contains(f.getAbsolutePath())) {
+				continue;
+			}
+			sb.append('\n').append(path).append(' ');
+			if (f.isDirectory()) {
+				sb.append(getNewest(f));
+			} else {
+				sb.append(f.length()).append(' ').append(f.lastModified());
+			}
+		}
+		return StringUtils.getSHA1(sb.toString());
+	}
+
+	private static long getNewest(File dir) {
+		long newest = dir.lastModified();
+		File [] files = dir.listFiles();
+		if (files != null) {
+			for (File f : files) {
+				newest = Math.max(newest, f.isDirectory() ? getNewest(f) : f.lastModified());
+			}
+		}
+		return newest;
+	}
+}
@@ -15,6 +15,11 @@
  */
 package org.moxie.mxtest;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.tools.ant.types.FileSet;
 import org.moxie.ant.AttributeReflector;
 import org.moxie.ant.MxTest;
 import org.moxie.maxml.MaxmlMap;
@@ -27,7 +32,25 @@ import org.testng.TestNGAntTask;
 public class TestNG {
 
 	public static void test(MxTest mxtest, String jvmarg) {
-		
+		if (mxtest.getShards() > 1) {
+			List<List<String>> shards = Shards.balance(mxtest);
+			List<TestNGAntTask> tasks = new ArrayList<TestNGAntTask>();
+			for (int i = 0; i < shards.size(); i++) {
+				int shard = i + 1;
+				String shardJvmarg = jvmarg;
+				if (!StringUtils.isEmpty(jvmarg)) {
+					// each shard writes its own JaCoCo execution data
+					shardJvmarg = Jacoco.newJvmarg(mxtest, Shards.getFile(mxtest.getJaCoCoData(), shard));
+				}
+				tasks.add(newTestNGTask(mxtest, shardJvmarg, Shards.newFileSet(mxtest, shards.get(i)), shard));
+			}
+			Shards.execute(mxtest, tasks);
+		} else {
+			newTestNGTask(mxtest, jvmarg, mxtest.getUnitTests(), 0).execute();
+		}
+	}
+
+	private static TestNGAntTask newTestNGTask(MxTest mxtest, String jvmarg, FileSet tests, int shard) {
 		// use default TestNG reports
 		TestNGAntTask testng = new TestNGAntTask();
 		testng.setTaskName("test");
@@ -39,17 +62,22 @@ public class TestNG {
 		}
 
 		testng.setWorkingDir(mxtest.getProject().getBaseDir());
-		testng.setOutputDir(mxtest.getTestReports());
+		if (shard > 0) {
+			// each shard writes its reports into its own folder
+			testng.setOutputDir(new File(mxtest.getTestReports(), "shard" + shard));
+		} else {
+			testng.setOutputDir(mxtest.getTestReports());
+		}
 		testng.setFailureProperty(mxtest.getFailureProperty());
 		
 		testng.createClasspath().add(mxtest.getUnitTestClasspath());
-		testng.addClassfileset(mxtest.getUnitTests());
+		testng.addClassfileset(tests);
 		
 		// Cobertura properties
-		testng.addSysproperty(mxtest.getCoberturaFileProperty());
+		testng.addSysproperty(mxtest.getCoberturaFileProperty(shard));
 		
 		// EMMA properties
-		testng.addSysproperty(mxtest.getEmmaFileProperty());
+		testng.addSysproperty(mxtest.getEmmaFileProperty(shard));
 		testng.addSysproperty(mxtest.getEmmaMergeProperty());
 	
 		// configure properties from Moxie file
@@ -58,6 +86,6 @@ public class TestNG {
 			AttributeReflector.setAttributes(mxtest.getProject(), testng, attributes);
 		}
 
-		testng.execute();
+		return testng;
 	}
 }
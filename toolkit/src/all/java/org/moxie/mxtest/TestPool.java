@@ -0,0 +1,243 @@
+/*
+ * Copyright 2013 James Moger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.moxie.mxtest;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.Task;
+import org.apache.tools.ant.taskdefs.optional.junit.JUnitTask;
+import org.moxie.Toolkit;
+import org.moxie.ant.MxTest;
+import org.moxie.ant.TestServer;
+import org.moxie.ant.TestServer.Response;
+import org.moxie.ant.TestServer.Result;
+import org.moxie.console.Console;
+import org.moxie.maxml.MaxmlMap;
+import org.moxie.utils.StringUtils;
+
+/**
+ * Runs JUnit test classes on a warm test JVM of the pool.
+ * <p>
+ * Each JVM of the pool is a {@link TestServer} of the project.  If the JVM is
+ * not running, it is started in the background and the tests are run by the
+ * fallback task, a forked JUnit task.  The fallback task is also used if the
+ * JVM is busy or fails during the run.
+ * <p>
+ * The results are awaited for the junit timeout of the project.  A JVM whose
+ * tests do not complete in time is stopped and the run fails, like a forked
+ * run which is killed by the timeout.
+ */
+public class TestPool extends Task {
+
+	/**
+	 * The timeout of a run if the project does not specify a junit timeout.
+	 */
+	static final int DEFAULT_TIMEOUT = 60 * 60 * 1000;
+
+	private final MxTest mxtest;
+
+	private final int index;
+
+	private final File stateFile;
+
+	private final List<String> tests;
+
+	private final Task fallback;
+
+	/**
+	 * @param mxtest
+	 * @param index
+	 *            the index of the JVM in the pool
+	 * @param testFiles
+	 *            the test class files, relative to the test classes folder
+	 * @param fallback
+	 *            the task which runs the tests if the JVM is not available
+	 */
+	public TestPool(MxTest mxtest, int index, List<String> testFiles, Task fallback) {
+		this.mxtest = mxtest;
+		this.index = index;
+		this.stateFile = getStateFile(mxtest, index);
+		this.tests = new ArrayList<String>();
+		for (String file : testFiles) {
+			tests.add(Shards.getClassName(file));
+		}
+		this.fallback = fallback;
+		setProject(mxtest.getProject());
+		setTaskName("test");
+	}
+
+	/**
+	 * Returns the state file of a JVM of the pool.  The pool belongs to the
+	 * project directory, the Java runtime, and the Moxie version.
+	 */
+	static File getStateFile(MxTest mxtest, int index) {
+		String project = mxtest.getBuild().getConfig().getProjectDirectory().getAbsolutePath()
+				+ "\n" + System.getProperty("java.home") + "\n" + Toolkit.getVersion();
+		String name = StringUtils.getSHA1(project).substring(0, 8) + "-" + index + ".properties";
+		return new File(mxtest.getBuild().getConfig().getMoxieRoot(), "testserver/" + name);
+	}
+
+	@Override
+	public void execute() {
+		Console console = mxtest.getBuild().getConsole();
+		Properties state = TestServer.readState(stateFile);
+		if (state == null) {
+			// start the JVM for the next run
+			start();
+		} else {
+			long start = System.currentTimeMillis();
+			try {
+				List<String> jars = new ArrayList<String>();
+				List<String> folders = new ArrayList<String>();
+				getClasspath(jars, folders);
+				Response response = TestServer.test(state, jars, folders, mxtest.getUnitTestOutputDir(), tests, getTimeout());
+				if (response != null) {
+					report(response, System.currentTimeMillis() - start);
+					if (response.recycle != null) {
+						console.log(1, "recycling test JVM {0}, {1}", index, response.recycle);
+						start();
+					}
+					return;
+				}
+				console.log(1, "test JVM {0} is busy", index);
+			} catch (SocketTimeoutException e) {
+				console.error("test JVM {0} did not complete {1} test classes within {2} ms", index, tests.size(), getTimeout());
+				getProject().setNewProperty(mxtest.getFailureProperty(), "true");
+				try {
+					TestServer.stop(state);
+				} catch (IOException x) {
+					stateFile.delete();
+				}
+				return;
+			} catch (IOException e) {
+				console.log(1, "test JVM {0} is not available: {1}", index, e.getMessage());
+				stateFile.delete();
+				start();
+			}
+		}
+		fallback.execute();
+	}
+
+	/**
+	 * Returns the timeout of a run in milliseconds, the junit timeout of the
+	 * project or {@link #DEFAULT_TIMEOUT}.
+	 */
+	private int getTimeout() {
+		MaxmlMap attributes = mxtest.getBuild().getConfig().getTaskAttributes("junit");
+		if (attributes == null) {
+			return DEFAULT_TIMEOUT;
+		}
+		return attributes.getInt("timeout", DEFAULT_TIMEOUT);
+	}
+
+	/**
+	 * Splits the unit test classpath into the dependency jars, which are
+	 * cached by the JVM, and the class folders, which are reloaded for each
+	 * run.  The Ant JUnit runner is added to the dependencies.
+	 */
+	private void getClasspath(List<String> jars, List<String> folders) {
+		Set<String> set = new LinkedHashSet<String>();
+		for (String path : mxtest.getUnitTestClasspath().list()) {
+			File file = new File(path);
+			if (file.isDirectory()) {
+				folders.add(file.getAbsolutePath());
+			} else if (file.exists()) {
+				set.add(file.getAbsolutePath());
+			}
+		}
+		File ant = getLocation(Project.class);
+		File antJUnit = getLocation(JUnitTask.class);
+		if (ant != null) {
+			set.add(ant.getAbsolutePath());
+		}
+		if (antJUnit != null) {
+			set.add(antJUnit.getAbsolutePath());
+			File antJUnit4 = new File(antJUnit.getParentFile(), "ant-junit4.jar");
+			if (antJUnit4.exists()) {
+				set.add(antJUnit4.getAbsolutePath());
+			}
+		}
+		jars.addAll(set);
+	}
+
+	private static File getLocation(Class<?> clazz) {
+		try {
+			return new File(clazz.getProtectionDomain().getCodeSource().getLocation().toURI());
+		} catch (Exception e) {
+			return null;
+		}
+	}
+
+	private void report(Response response, long elapsed) {
+		Console console = mxtest.getBuild().getConsole();
+		long runs = 0;
+		long failures = 0;
+		long errors = 0;
+		for (Result result : response.results) {
+			runs += result.runs;
+			failures += result.failures;
+			errors += result.errors;
+			if (result.retCode != 0) {
+				console.warn(1, "Test {0} FAILED", result.name);
+			}
+		}
+		if (failures + errors > 0) {
+			getProject().setNewProperty(mxtest.getFailureProperty(), "true");
+		}
+		console.log(1, "test JVM {0} ran {1} tests of {2} test classes, {3} failures, {4} errors, {5} ms",
+				index, runs, response.results.size(), failures, errors, elapsed);
+	}
+
+	/**
+	 * Starts the JVM in the background with the java executable of the
+	 * current runtime.
+	 */
+	private void start() {
+		synchronized (TestPool.class) {
+			File lockFile = new File(stateFile.getAbsolutePath() + ".starting");
+			if (stateFile.exists() || (lockFile.exists() && System.currentTimeMillis() - lockFile.lastModified() < 60000L)) {
+				// running or starting
+				return;
+			}
+			try {
+				File jar = getLocation(TestServer.class);
+				String java = new File(System.getProperty("java.home"), "bin/java").getAbsolutePath();
+				stateFile.getParentFile().mkdirs();
+				lockFile.createNewFile();
+				lockFile.setLastModified(System.currentTimeMillis());
+				ProcessBuilder pb = new ProcessBuilder(java, "-cp", jar.getAbsolutePath(), TestServer.class.getName(),
+						stateFile.getAbsolutePath(), "" + TestServer.DEFAULT_IDLE_MINUTES);
+				// tests run in the project directory, like forked tests
+				pb.directory(mxtest.getBuild().getConfig().getProjectDirectory());
+				pb.redirectErrorStream(true);
+				String log = stateFile.getName().substring(0, stateFile.getName().lastIndexOf('.')) + ".log";
+				pb.redirectOutput(ProcessBuilder.Redirect.appendTo(new File(stateFile.getParentFile(), log)));
+				pb.start();
+				mxtest.getBuild().getConsole().debug(1, "started test JVM {0}", index);
+			} catch (Exception e) {
+				mxtest.getBuild().getConsole().warn(1, "failed to start test JVM {0}: {1}", index, e.getMessage());
+			}
+		}
+	}
+}
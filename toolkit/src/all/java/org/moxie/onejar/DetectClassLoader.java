@@ -17,6 +17,10 @@ import java.security.ProtectionDomain;
  */
 public class DetectClassLoader extends JarClassLoader {
 
+	static {
+		registerAsParallelCapable();
+	}
+
 	public DetectClassLoader(String $wrap) {
 		super($wrap);
 	}
@@ -17,9 +17,12 @@
 
 package org.moxie.onejar;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
@@ -41,11 +44,11 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.Enumeration;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.jar.Attributes;
 import java.util.jar.Attributes.Name;
 import java.util.jar.JarEntry;
@@ -54,6 +57,9 @@ import java.util.jar.JarInputStream;
 import java.util.jar.Manifest;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
 
 /**
  * Loads classes from pre-defined locations inside the jar file containing this
@@ -84,6 +90,8 @@ public class JarClassLoader extends ClassLoader implements IProperties {
     public final static String SHOW_EXPAND = "One-Jar-Show-Expand";
     public final static String CONFIRM_EXPAND = "One-Jar-Confirm-Expand";
     public final static String CLASS = ".class";
+    public final static String INDEX = "META-INF/one-jar.index";
+    public final static String INDEX_VERSION = "one-jar-index-1";
     
     public final static String NL = System.getProperty("line.separator");
     
@@ -94,6 +102,10 @@ public class JarClassLoader extends ClassLoader implements IProperties {
     protected ClassLoader externalClassLoader;
     
     static {
+        // Classes are loaded under a lock per class name rather than under
+        // a lock on the classloader.
+        registerAsParallelCapable();
+        
         // Add our 'onejar:' protocol handler, but leave open the 
         // possibility of a subsequent class taking over the 
         // factory.  TODO: (how reasonable is this?)
@@ -133,12 +145,12 @@ public class JarClassLoader extends ClassLoader implements IProperties {
         System.out.print(message);
     }
     
-    // Synchronize for thread safety.  This is less important until we
-    // start to do lazy loading, but it's a good idea anyway.
-    protected Map byteCode = Collections.synchronizedMap(new HashMap());
-    protected Map pdCache = Collections.synchronizedMap(new HashMap());
-    protected Map binLibPath = Collections.synchronizedMap(new HashMap());
-    protected Set jarNames = Collections.synchronizedSet(new HashSet());
+    // Concurrent for thread safety: the classloader is parallel capable, so
+    // lookups from many threads must not serialize on these maps.
+    protected Map byteCode = new ConcurrentHashMap();
+    protected Map pdCache = new ConcurrentHashMap();
+    protected Map binLibPath = new ConcurrentHashMap();
+    protected Set jarNames = Collections.newSetFromMap(new ConcurrentHashMap());
     
     protected boolean record = false, flatten = false, unpackFindResource = false;
     protected boolean verbose = false, info = false, warning = true;
@@ -149,17 +161,97 @@ public class JarClassLoader extends ClassLoader implements IProperties {
     
     protected static class ByteCode {
 		public ByteCode(String $name, String $original, ByteArrayOutputStream baos, String $codebase, Manifest $manifest) {
+            this($name, $original, $codebase, $manifest);
+            bytes = baos.toByteArray();
+        }
+        protected ByteCode(String $name, String $original, String $codebase, Manifest $manifest) {
             name = $name;
             original = $original;
-            bytes = baos.toByteArray();
             codebase = $codebase;
 			manifest = $manifest;
         }
+        public byte[] getBytes() throws IOException {
+            return bytes;
+        }
         public byte bytes[];
         public String name, original, codebase;
 		public Manifest manifest;
     }
     
+    /**
+     * The bytes of an entry of a nested jar which was indexed by the One-Jar
+     * task.  The nested jar is stored in the one-jar file, so the entry is
+     * read in place each time it is requested and its bytes are not retained.
+     */
+    protected static class IndexedByteCode extends ByteCode {
+        public IndexedByteCode(String $name, String $original, String $codebase, Manifest $manifest,
+                JarFile $file, JarEntry $jar, IndexEntry $entry) {
+            super($name, $original, $codebase, $manifest);
+            file = $file;
+            jar = $jar;
+            entry = $entry;
+        }
+        public byte[] getBytes() throws IOException {
+            InputStream is = file.getInputStream(jar);
+            byte raw[] = new byte[entry.csize + 1];
+            try {
+                // Skipping a stored entry of a JarFile does not read it.
+                long remaining = entry.offset;
+                while (remaining > 0) {
+                    long skipped = is.skip(remaining);
+                    if (skipped <= 0) throw new EOFException(jar.getName() + "!/" + original);
+                    remaining -= skipped;
+                }
+                new DataInputStream(is).readFully(raw, 0, entry.csize);
+            } finally {
+                is.close();
+            }
+            if (!entry.deflated) {
+                byte bytes[] = new byte[entry.size];
+                System.arraycopy(raw, 0, bytes, 0, entry.size);
+                return bytes;
+            }
+            // The extra byte of the input is required by nowrap inflaters.
+            Inflater inflater = new Inflater(true);
+            try {
+                inflater.setInput(raw);
+                byte bytes[] = new byte[entry.size];
+                int off = 0;
+                while (off < bytes.length) {
+                    int len = inflater.inflate(bytes, off, bytes.length - off);
+                    if (len == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) break;
+                    off += len;
+                }
+                if (off != bytes.length) throw new IOException("Unable to inflate " + jar.getName() + "!/" + original);
+                return bytes;
+            } catch (DataFormatException dfx) {
+                throw new IOException("Unable to inflate " + jar.getName() + "!/" + original + ": " + dfx.getMessage());
+            } finally {
+                inflater.end();
+            }
+        }
+        public JarFile file;
+        public JarEntry jar;
+        public IndexEntry entry;
+    }
+    
+    /**
+     * An entry of a nested jar in the index written by the One-Jar task.
+     */
+    protected static class IndexEntry {
+        public String name;
+        public int offset, csize, size, crc;
+        public boolean deflated;
+    }
+    
+    /**
+     * A nested jar in the index written by the One-Jar task.
+     */
+    protected static class IndexedJar {
+        public long size, crc;
+        public List entries = new ArrayList();
+    }
+    
     
     /**
      * Create a non-delegating but jar-capable classloader for bootstrap
@@ -351,6 +443,7 @@ public class JarClassLoader extends ClassLoader implements IProperties {
             JarFile jarFile = new JarFile(jarName);
             Enumeration _enum = jarFile.entries();
             Manifest manifest = jarFile.getManifest();
+            Map index = readIndex(jarFile);
             String expandPaths[] = null;
             // TODO: Allow a destination directory (relative or absolute) to 
             // be specified like this:
@@ -404,6 +497,7 @@ public class JarClassLoader extends ClassLoader implements IProperties {
                 // directories in the JAR to be expanded (comma separated). For example:
                 // One-Jar-Expand: build,tmp,webapps
                 String $entry = entry.getName();
+                if ($entry.equals(INDEX)) continue;
                 if (expandPaths != null) {
                     // TODO: Can't think of a better way to do this right now.  
                     // This code really doesn't need to be optimized anyway.
@@ -444,7 +538,12 @@ public class JarClassLoader extends ClassLoader implements IProperties {
                     // Load it! 
                     VERBOSE("caching " + $entry);
                     VERBOSE("using jarFile.getInputStream(" + entry + ")");
-                    {
+                    IndexedJar indexed = index == null ? null : (IndexedJar)index.get($entry);
+                    if (indexed != null && entry.getMethod() == ZipEntry.STORED
+                            && entry.getSize() == indexed.size && entry.getCrc() == indexed.crc) {
+                        // The entries are read on demand from the stored jar.
+                        loadIndexed(jarFile, entry, indexed);
+                    } else {
                         // Note: loadByteCode consumes the input stream, so make sure its scope
                         // does not extend beyond here.
                         InputStream is = jarFile.getInputStream(entry);
@@ -533,7 +632,6 @@ public class JarClassLoader extends ClassLoader implements IProperties {
 	protected void loadByteCode(InputStream is, String jar, String tmp) throws IOException {
         JarInputStream jis = new JarInputStream(is);
         JarEntry entry = null;
-        // TODO: implement lazy loading of bytecode.
         Manifest manifest = jis.getManifest();
         if (manifest == null) {
             WARNING("Null manifest from input stream associated with: " + jar);
@@ -553,6 +651,90 @@ public class JarClassLoader extends ClassLoader implements IProperties {
 
     }
 	
+    /**
+     * Reads the index of the nested jars which is written by the One-Jar task
+     * in lazy mode.
+     * 
+     * @return a map of the nested jar names to their indexes, or null if the
+     * one-jar file is not indexed
+     */
+    protected Map readIndex(JarFile jarFile) {
+        JarEntry entry = jarFile.getJarEntry(INDEX);
+        if (entry == null) return null;
+        Map index = new HashMap();
+        try {
+            DataInputStream dis = new DataInputStream(new BufferedInputStream(jarFile.getInputStream(entry)));
+            try {
+                if (!INDEX_VERSION.equals(dis.readUTF())) {
+                    WARNING("Ignoring unsupported index " + INDEX);
+                    return null;
+                }
+                while (dis.readBoolean()) {
+                    String jar = dis.readUTF();
+                    IndexedJar indexed = new IndexedJar();
+                    indexed.size = dis.readLong();
+                    indexed.crc = dis.readLong();
+                    int count = dis.readInt();
+                    for (int i = 0; i < count; i++) {
+                        IndexEntry e = new IndexEntry();
+                        e.name = dis.readUTF();
+                        e.offset = dis.readInt();
+                        e.csize = dis.readInt();
+                        e.size = dis.readInt();
+                        e.crc = dis.readInt();
+                        e.deflated = dis.readBoolean();
+                        indexed.entries.add(e);
+                    }
+                    index.put(jar, indexed);
+                }
+            } finally {
+                dis.close();
+            }
+        } catch (IOException iox) {
+            WARNING("Unable to read " + INDEX + ": " + iox);
+            return null;
+        }
+        VERBOSE("read index of " + index.size() + " jars");
+        return index;
+    }
+    
+    /**
+     * Caches the entries of an indexed nested jar without reading them.
+     */
+    protected void loadIndexed(JarFile jarFile, JarEntry entry, IndexedJar indexed) throws IOException {
+        String jar = entry.getName();
+        Manifest manifest = null;
+        for (Iterator iter = indexed.entries.iterator(); iter.hasNext(); ) {
+            IndexEntry e = (IndexEntry)iter.next();
+            if (e.name.equalsIgnoreCase(Boot.MANIFEST)) {
+                byte bytes[] = new IndexedByteCode(e.name, e.name, jar, null, jarFile, entry, e).getBytes();
+                manifest = new Manifest(new ByteArrayInputStream(bytes));
+                break;
+            }
+        }
+        if (manifest == null) {
+            WARNING("Null manifest from indexed jar: " + jar);
+        }
+        for (Iterator iter = indexed.entries.iterator(); iter.hasNext(); ) {
+            IndexEntry e = (IndexEntry)iter.next();
+            if (e.name.endsWith("/")) continue;
+            if (e.name.endsWith(CLASS)) {
+                ByteCode bytecode = new IndexedByteCode(e.name, e.name, jar, manifest, jarFile, entry, e);
+                if (alreadyCached(e.name, jar, bytecode)) continue;
+                byteCode.put(e.name, bytecode);
+            } else {
+                // Same mapping as loadBytes: jar-local and the first global name.
+                String localname = jar + "/" + e.name;
+                byteCode.put(localname, new IndexedByteCode(localname, e.name, jar, manifest, jarFile, entry, e));
+                jarNames.add(jar);
+                ByteCode bytecode = new IndexedByteCode(e.name, e.name, jar, manifest, jarFile, entry, e);
+                if (alreadyCached(e.name, jar, bytecode)) continue;
+                byteCode.put(e.name, bytecode);
+            }
+        }
+        VERBOSE("indexed " + indexed.entries.size() + " entries of " + jar);
+    }
+	
 	protected void loadBytes(JarEntry entry, InputStream is, String jar, String tmp, Manifest man) throws IOException {
         String entryName = entry.getName();
         int index = entryName.lastIndexOf('.');
@@ -627,7 +809,10 @@ public class JarClassLoader extends ClassLoader implements IProperties {
         // Otherwise it would default to the sun.misc.Launcher$AppClassLoader which
         // is used to launch the jar application, and attempts to load through
         // it would fail if that code is encapsulated inside the one-jar.
-        Thread.currentThread().setContextClassLoader(this);
+        Thread thread = Thread.currentThread();
+        if (thread.getContextClassLoader() != this) {
+            thread.setContextClassLoader(this);
+        }
 	    return super.loadClass(name, resolve);
 	}
 	
@@ -676,7 +861,12 @@ public class JarClassLoader extends ClassLoader implements IProperties {
             }
             
             // Do it the simple way.
-            byte bytes[] = bytecode.bytes;
+            byte bytes[];
+            try {
+                bytes = bytecode.getBytes();
+            } catch (IOException iox) {
+                throw new ClassNotFoundException(name, iox);
+            }
 			
 			int i = name.lastIndexOf('.');
 			if (i != -1) {
@@ -700,10 +890,15 @@ public class JarClassLoader extends ClassLoader implements IProperties {
 						}
 					}
 				} else {
-					if (man != null) {
-						definePackage(pkgname, man, pd.getCodeSource().getLocation());
-					} else {
-						definePackage(pkgname, null, null, null, null, null, null, null);
+					try {
+						if (man != null) {
+							definePackage(pkgname, man, pd.getCodeSource().getLocation());
+						} else {
+							definePackage(pkgname, null, null, null, null, null, null, null);
+						}
+					} catch (IllegalArgumentException iax) {
+						// The package was defined by a concurrent findClass.
+						if (getPackage(pkgname) == null) throw iax;
 					}
 				}
 			}
@@ -814,7 +1009,7 @@ public class JarClassLoader extends ClassLoader implements IProperties {
             VERBOSE("" + file);
             try {
                 FileOutputStream fos = new FileOutputStream(file);
-                fos.write(bytecode.bytes);
+                fos.write(bytecode.getBytes());
                 fos.close();
                 
             } catch (IOException iox) {
@@ -880,13 +1075,21 @@ public class JarClassLoader extends ClassLoader implements IProperties {
         	resource = canon(resource);
             
             // Look up resolving first.  This allows jar-local 
-            // resolution to take place.
-            ByteCode bytecode = (ByteCode)byteCode.get(resolve(resource));
+            // resolution to take place.  The byteCode map does not accept
+            // null keys so an unresolved resource is not looked up.
+            String resolved = resolve(resource);
+            ByteCode bytecode = resolved == null ? null : (ByteCode)byteCode.get(resolved);
             if (bytecode == null) {
                 // Try again with an unresolved name.
                 bytecode = (ByteCode)byteCode.get(resource);
             }
-            if (bytecode != null) result = new ByteArrayInputStream(bytecode.bytes);
+            if (bytecode != null) {
+                try {
+                    result = new ByteArrayInputStream(bytecode.getBytes());
+                } catch (IOException iox) {
+                    WARNING("Unable to read " + bytecode.codebase + "!/" + bytecode.original + ": " + iox);
+                }
+            }
     	}
     	
         // Contributed by SourceForge "ffrog_8" (with thanks, Pierce. T. Wetter III).
@@ -930,7 +1133,7 @@ public class JarClassLoader extends ClassLoader implements IProperties {
         
         String resource = null;
         String caller = getCaller();
-        ByteCode callerCode = (ByteCode)byteCode.get(caller);
+        ByteCode callerCode = caller == null ? null : (ByteCode)byteCode.get(caller);
         
         if (callerCode != null) {
             // Jar-local first, then global.
@@ -952,16 +1155,19 @@ public class JarClassLoader extends ClassLoader implements IProperties {
     }
     
     protected boolean alreadyCached(String name, String jar, ByteArrayOutputStream baos) {
+        return alreadyCached(name, jar, new ByteCode(name, name, baos, jar, null));
+    }
+    
+    protected boolean alreadyCached(String name, String jar, ByteCode bytecode) {
         // TODO: check resource map to see how we will map requests for this
         // resource from this jar file.  Only a conflict if we are using a
         // global map and the resource is defined by more than
         // one jar file (default is to map to local jar).
         ByteCode existing = (ByteCode)byteCode.get(name);
         if (existing != null) {
-            byte[] bytes = baos.toByteArray();
             // If bytecodes are identical, no real problem.  Likewise if it's in
             // META-INF.
-            if (!Arrays.equals(existing.bytes, bytes) && !name.startsWith("META-INF")) {
+            if (!name.startsWith("META-INF") && !sameBytes(existing, bytecode)) {
                 // TODO: this really needs to be a warning, but there needs to be a way
                 // to shut it down.  INFO it for now.  Ideally we need to provide a 
                 // logging layer (like commons-logging) to allow logging to be delegated.
@@ -975,13 +1181,28 @@ public class JarClassLoader extends ClassLoader implements IProperties {
             } else {
                 VERBOSE(existing.name + " in " + jar + " is hidden by " + existing.codebase + " (with same bytecode)");
             }
-            // Speedup GC.
-            bytes = null;
             return true;
         }
         return false;
     }
     
+    /**
+     * Compares the bytes of two entries.  Indexed entries are compared by
+     * their size and CRC so that they are not read.
+     */
+    protected boolean sameBytes(ByteCode a, ByteCode b) {
+        if (a instanceof IndexedByteCode && b instanceof IndexedByteCode) {
+            IndexEntry x = ((IndexedByteCode)a).entry;
+            IndexEntry y = ((IndexedByteCode)b).entry;
+            return x.size == y.size && x.crc == y.crc;
+        }
+        try {
+            return Arrays.equals(a.getBytes(), b.getBytes());
+        } catch (IOException iox) {
+            return false;
+        }
+    }
+    
     
     protected String getCaller() {
         
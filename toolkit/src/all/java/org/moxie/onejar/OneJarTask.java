@@ -5,6 +5,8 @@
 package org.moxie.onejar;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
@@ -20,6 +22,7 @@ import java.util.List;
 import java.util.Set;
 import java.util.jar.Attributes;
 import java.util.jar.JarInputStream;
+import java.util.zip.CRC32;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
@@ -59,6 +62,8 @@ public class OneJarTask extends Jar {
     protected File mainManifest;
     protected String oneJarMainClass;
     protected boolean manifestSet;
+    protected boolean lazy;
+    protected List index = new ArrayList();
 
     public static class Main extends Task {
         protected List filesets = new ArrayList();
@@ -174,6 +179,15 @@ public class OneJarTask extends Jar {
         oneJarMainClass = main;
     }
 
+    /**
+     * Store the nested jars and index their entries so that the One-Jar
+     * classloader reads classes and resources on demand.
+     * @param lazy
+     */
+    public void setLazy(boolean lazy) {
+        this.lazy = lazy;
+    }
+
     public void setOneJarBoot(ZipFile jar) {
         log("setOneJarBoot(" + jar + ")", Project.MSG_VERBOSE);
         this.onejar = jar;
@@ -440,7 +454,11 @@ public class OneJarTask extends Jar {
         // Assemble main/main.jar
         FileSetPump pump = new FileSetPump(MAIN_MAIN_JAR);
         pump.start();
-        super.zipFile(pump.pin, zOut, MAIN_MAIN_JAR, System.currentTimeMillis(), null, ZipFileSet.DEFAULT_FILE_MODE);
+        if (lazy) {
+            zipIndexed(pump.pin, zOut, MAIN_MAIN_JAR, System.currentTimeMillis(), null, ZipFileSet.DEFAULT_FILE_MODE);
+        } else {
+            super.zipFile(pump.pin, zOut, MAIN_MAIN_JAR, System.currentTimeMillis(), null, ZipFileSet.DEFAULT_FILE_MODE);
+        }
 
     }
 
@@ -450,6 +468,7 @@ public class OneJarTask extends Jar {
         // Sanity Checks.
         checkMain();
         checkManifest();
+        index.clear();
 
         // Add com.simontuffs.onejar classes
         addOneJarBoot(zOut);
@@ -481,8 +500,119 @@ public class OneJarTask extends Jar {
             int mode) throws IOException {
         if (vPath.equals(Boot.MAIN_JAR) && (main == null || main.jar == null)) {
             log("zipFile(): unable to build " + Boot.MAIN_JAR, Project.MSG_VERBOSE);
+        } else if (lazy && vPath.endsWith(".jar") && (vPath.startsWith(JarClassLoader.LIB_PREFIX) || vPath.startsWith(JarClassLoader.MAIN_PREFIX))) {
+            zipIndexed(is, zOut, vPath, lastModified, fromArchive, mode);
         } else {
             super.zipFile(is, zOut, vPath, lastModified, fromArchive, mode);
         }
     }
+
+    /**
+     * Stores a nested jar and indexes its entries.  The entries of a stored
+     * jar can be read in place by the One-Jar classloader.
+     */
+    protected void zipIndexed(InputStream is, ZipOutputStream zOut, String vPath, long lastModified, File fromArchive,
+            int mode) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        copy(is, baos, false);
+        byte bytes[] = baos.toByteArray();
+        byte record[] = indexJar(vPath, bytes);
+        if (record != null) {
+            index.add(record);
+        } else {
+            log("Unable to index " + vPath + ", it will be loaded eagerly", Project.MSG_VERBOSE);
+        }
+        boolean compress = isCompress();
+        setCompress(false);
+        try {
+            super.zipFile(new ByteArrayInputStream(bytes), zOut, vPath, lastModified, fromArchive, mode);
+        } finally {
+            setCompress(compress);
+        }
+    }
+
+    /**
+     * Returns the index record of a jar, or null if the jar can not be
+     * indexed.  The data offset, sizes and method of each entry are read from
+     * the central directory and the local headers.  Zip64 and encrypted jars
+     * are not indexed.
+     */
+    protected byte[] indexJar(String vPath, byte jar[]) throws IOException {
+        int end = -1;
+        for (int i = jar.length - 22; i >= 0 && i >= jar.length - 22 - 0xffff; i--) {
+            if (u4(jar, i) == 0x06054b50L) {
+                end = i;
+                break;
+            }
+        }
+        if (end < 0) return null;
+        int count = u2(jar, end + 10);
+        long offset = u4(jar, end + 16);
+        if (count == 0xffff || offset == 0xffffffffL) return null;
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(baos);
+        CRC32 crc = new CRC32();
+        crc.update(jar);
+        dos.writeBoolean(true);
+        dos.writeUTF(vPath);
+        dos.writeLong(jar.length);
+        dos.writeLong(crc.getValue());
+        dos.writeInt(count);
+        int pos = (int)offset;
+        for (int i = 0; i < count; i++) {
+            if (pos + 46 > jar.length || u4(jar, pos) != 0x02014b50L) return null;
+            int flags = u2(jar, pos + 8);
+            int method = u2(jar, pos + 10);
+            long csize = u4(jar, pos + 20);
+            long size = u4(jar, pos + 24);
+            int nameLength = u2(jar, pos + 28);
+            int extraLength = u2(jar, pos + 30);
+            int commentLength = u2(jar, pos + 32);
+            long local = u4(jar, pos + 42);
+            if ((flags & 1) != 0 || (method != ZipEntry.STORED && method != ZipEntry.DEFLATED)
+                    || csize == 0xffffffffL || size == 0xffffffffL || local + 30 > jar.length
+                    || u4(jar, (int)local) != 0x04034b50L) {
+                return null;
+            }
+            long data = local + 30 + u2(jar, (int)local + 26) + u2(jar, (int)local + 28);
+            if (data + csize > jar.length) return null;
+            dos.writeUTF(new String(jar, pos + 46, nameLength, "UTF-8"));
+            dos.writeInt((int)data);
+            dos.writeInt((int)csize);
+            dos.writeInt((int)size);
+            dos.writeInt((int)u4(jar, pos + 16));
+            dos.writeBoolean(method == ZipEntry.DEFLATED);
+            pos += 46 + nameLength + extraLength + commentLength;
+        }
+        dos.close();
+        return baos.toByteArray();
+    }
+
+    protected static int u2(byte b[], int off) {
+        return (b[off] & 0xff) | ((b[off + 1] & 0xff) << 8);
+    }
+
+    protected static long u4(byte b[], int off) {
+        return u2(b, off) | ((long)u2(b, off + 2) << 16);
+    }
+
+    @Override
+    protected void finalizeZipOutputStream(ZipOutputStream zOut) throws IOException, BuildException {
+        if (lazy && !index.isEmpty()) {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            DataOutputStream dos = new DataOutputStream(baos);
+            dos.writeUTF(JarClassLoader.INDEX_VERSION);
+            Iterator iter = index.iterator();
+            while (iter.hasNext()) {
+                dos.write((byte[])iter.next());
+            }
+            dos.writeBoolean(false);
+            dos.close();
+            log("Indexed " + index.size() + " nested jars", Project.MSG_VERBOSE);
+            super.zipFile(new ByteArrayInputStream(baos.toByteArray()), zOut, JarClassLoader.INDEX,
+                    System.currentTimeMillis(), null, ZipFileSet.DEFAULT_FILE_MODE);
+        }
+        super.finalizeZipOutputStream(zOut);
+    }
 }
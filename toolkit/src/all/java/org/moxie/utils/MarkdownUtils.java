@@ -29,6 +29,17 @@ import org.pegdown.PegDownProcessor;
  */
 public class MarkdownUtils {
 
+	/**
+	 * Processors are expensive to create and are not thread-safe, so each
+	 * thread reuses its own.
+	 */
+	private static final ThreadLocal<PegDownProcessor> processors = new ThreadLocal<PegDownProcessor>() {
+		@Override
+		protected PegDownProcessor initialValue() {
+			return new PegDownProcessor(ALL & ~SMARTYPANTS);
+		}
+	};
+
 	/**
 	 * Returns the html version of the markdown source text.
 	 *
@@ -48,7 +59,7 @@ public class MarkdownUtils {
 	 * @throws java.text.ParseException
 	 */
 	public static String transformMarkdown(String markdown, LinkRenderer linkRenderer) {
-		PegDownProcessor pd = new PegDownProcessor(ALL & ~SMARTYPANTS);
+		PegDownProcessor pd = processors.get();
 		String html = pd.markdownToHtml(markdown, linkRenderer == null ? new LinkRenderer() : linkRenderer);
 		return html;
 	}
@@ -0,0 +1,588 @@
+/*
+ * Copyright 2013 James Moger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.moxie;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.MessageFormat;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import org.moxie.utils.FileUtils;
+import org.moxie.utils.StringUtils;
+
+/**
+ * A local, content-addressed cache of the outputs of build actions.
+ * <p>
+ * An action, e.g. the compile of a scope or the generation of a jar, is
+ * identified by a key which hashes all of its inputs: the toolkit version,
+ * the task attributes, the classpath, and the contents of the source files.
+ * The outputs of a successful action are stored under the key and restored by
+ * a later build with the same key instead of running the action again.
+ * <p>
+ * Entries are written to a temp folder and renamed into place so that
+ * concurrent builds never restore a partially stored entry.  Restored files
+ * get the current time so that the up-to-date checks of later tasks which
+ * do not use the cache see them as new.
+ * <p>
+ * The cache may be backed by the build cache of a Moxie Proxy which is shared
+ * by all builds, e.g. by developers and CI.  A local miss is looked up in the
+ * remote cache and a hit is added to the local cache.  Newly stored entries
+ * are uploaded if pushing is enabled.  The remote cache is not used for the
+ * rest of the process after the first failed request so that an unavailable
+ * proxy does not slow down the build.
+ *
+ * @author James Moger
+ *
+ */
+public class ActionCache {
+
+	/**
+	 * The content hashes of files, keyed by path, length and modification
+	 * time, so that unchanged classpath jars are hashed once per process.
+	 */
+	private static final Map<String, String> hashes = new ConcurrentHashMap<String, String>();
+
+	/**
+	 * The remote caches by url, shared by all builds of the process.
+	 */
+	private static final Map<String, BuildCacheClient> remotes = new ConcurrentHashMap<String, BuildCacheClient>();
+
+	private static final AtomicLong lookups = new AtomicLong();
+
+	private static final AtomicLong localHits = new AtomicLong();
+
+	private static final AtomicLong remoteHits = new AtomicLong();
+
+	private static final AtomicLong bytesRestored = new AtomicLong();
+
+	private static volatile String remoteError;
+
+	private final File folder;
+
+	private final BuildCacheClient remote;
+
+	private final boolean push;
+
+	public ActionCache(File folder) {
+		this(folder, null, false);
+	}
+
+	/**
+	 * @param folder
+	 * @param remote
+	 *            the remote build cache, may be null
+	 * @param push
+	 *            true if newly stored entries are uploaded to the remote cache
+	 */
+	public ActionCache(File folder, BuildCacheClient remote, boolean push) {
+		this.folder = folder;
+		this.remote = remote;
+		this.push = push;
+	}
+
+	/**
+	 * Returns the action cache of a build.
+	 *
+	 * @param build
+	 * @return the action cache in the Moxie root folder
+	 */
+	public static ActionCache of(Build build) {
+		BuildConfig config = build.getConfig();
+		BuildCacheClient remote = null;
+		String url = config.getBuildCache();
+		if (!StringUtils.isEmpty(url)) {
+			remote = remotes.get(url);
+			if (remote == null) {
+				remote = new BuildCacheClient(url, config.getBuildCacheUsername(), config.getBuildCachePassword());
+				remotes.put(url, remote);
+			}
+		}
+		return new ActionCache(new File(config.getMoxieRoot(), "actions"), remote, config.isBuildCachePush());
+	}
+
+	public File getFolder() {
+		return folder;
+	}
+
+	/**
+	 * Returns a new key for an action.  The key includes the toolkit version.
+	 *
+	 * @param action
+	 *            the name of the action, e.g. the task name
+	 * @return a new key
+	 */
+	public Key newKey(String action) {
+		Key key = new Key();
+		key.add("moxie", Toolkit.getVersion());
+		key.add("action", action);
+		return key;
+	}
+
+	/**
+	 * Restores the outputs of an action.  Existing outputs are replaced.
+	 *
+	 * @param key
+	 * @param outputs
+	 *            the files or folders in the order they were stored
+	 * @return true if the action was cached and its outputs were restored
+	 */
+	public boolean restore(Key key, File... outputs) {
+		lookups.incrementAndGet();
+		File entry = getEntry(key);
+		boolean local = entry.isDirectory();
+		if (!local && !download(key, entry)) {
+			return false;
+		}
+		for (int i = 0; i < outputs.length; i++) {
+			if (!new File(entry, String.valueOf(i)).exists()) {
+				return false;
+			}
+		}
+		(local ? localHits : remoteHits).incrementAndGet();
+		try {
+			for (int i = 0; i < outputs.length; i++) {
+				FileUtils.delete(outputs[i]);
+				bytesRestored.addAndGet(copy(new File(entry, String.valueOf(i)), outputs[i]));
+			}
+			// mark the entry as recently used
+			entry.setLastModified(System.currentTimeMillis());
+			return true;
+		} catch (IOException e) {
+			throw new MoxieException("failed to restore " + Arrays.toString(outputs) + " from " + entry, e);
+		}
+	}
+
+	/**
+	 * Stores the outputs of a successful action.  An existing entry with the
+	 * same key is kept.
+	 *
+	 * @param key
+	 * @param outputs
+	 *            the files or folders to store
+	 */
+	public void store(Key key, File... outputs) {
+		File entry = getEntry(key);
+		if (entry.exists()) {
+			return;
+		}
+		File temp = getTemp(entry, ".tmp");
+		try {
+			temp.mkdirs();
+			for (int i = 0; i < outputs.length; i++) {
+				if (!outputs[i].exists()) {
+					throw new IOException(outputs[i] + " does not exist");
+				}
+				copy(outputs[i], new File(temp, String.valueOf(i)));
+			}
+			move(temp, entry);
+		} catch (IOException e) {
+			// the entry was stored concurrently or could not be written
+			return;
+		} finally {
+			if (temp.exists()) {
+				FileUtils.delete(temp);
+			}
+		}
+		if (push) {
+			upload(key, entry);
+		}
+	}
+
+	private File getEntry(Key key) {
+		String hash = key.hash();
+		return new File(folder, hash.substring(0, 2) + "/" + hash);
+	}
+
+	private File getTemp(File entry, String extension) {
+		return new File(entry.getParentFile(), entry.getName() + "." + Thread.currentThread().getId()
+				+ "." + System.nanoTime() + extension);
+	}
+
+	private boolean isRemoteEnabled() {
+		return remote != null && remoteError == null;
+	}
+
+	/**
+	 * Downloads an entry from the remote cache and adds it to the local cache.
+	 *
+	 * @param key
+	 * @param entry
+	 * @return true if the entry was downloaded
+	 */
+	private boolean download(Key key, File entry) {
+		if (!isRemoteEnabled()) {
+			return false;
+		}
+		entry.getParentFile().mkdirs();
+		File zip = getTemp(entry, ".zip");
+		File temp = getTemp(entry, ".tmp");
+		try {
+			if (!remote.get(key.hash(), zip)) {
+				return false;
+			}
+			unzip(zip, temp);
+			move(temp, entry);
+		} catch (IOException e) {
+			if (!entry.isDirectory()) {
+				disableRemote(e);
+				return false;
+			}
+			// the entry was stored concurrently
+		} finally {
+			zip.delete();
+			if (temp.exists()) {
+				FileUtils.delete(temp);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Uploads a stored entry to the remote cache.
+	 *
+	 * @param key
+	 * @param entry
+	 */
+	private void upload(Key key, File entry) {
+		if (!isRemoteEnabled()) {
+			return;
+		}
+		File zip = getTemp(entry, ".zip");
+		try {
+			zip(entry, zip);
+			// an entry uploaded by another build is kept and is not an error
+			remote.put(key.hash(), zip);
+		} catch (IOException e) {
+			disableRemote(e);
+		} finally {
+			zip.delete();
+		}
+	}
+
+	private void disableRemote(IOException e) {
+		remoteError = MessageFormat.format("{0} is disabled: {1}", remote.getUrl(), e.getMessage());
+	}
+
+	private static void move(File from, File to) throws IOException {
+		try {
+			Files.move(from.toPath(), to.toPath(), StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(from.toPath(), to.toPath());
+		}
+	}
+
+	/**
+	 * Copies a file or folder.
+	 *
+	 * @return the number of copied bytes
+	 */
+	private static long copy(File from, File to) throws IOException {
+		long length = 0;
+		if (from.isDirectory()) {
+			to.mkdirs();
+			String [] names = from.list();
+			if (names != null) {
+				for (String name : names) {
+					length += copy(new File(from, name), new File(to, name));
+				}
+			}
+		} else {
+			to.getParentFile().mkdirs();
+			Files.copy(from.toPath(), to.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			length += to.length();
+		}
+		return length;
+	}
+
+	/**
+	 * Zips the outputs of an entry for the remote cache.
+	 *
+	 * @param entry
+	 * @param zip
+	 * @throws IOException
+	 */
+	static void zip(File entry, File zip) throws IOException {
+		ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(zip));
+		try {
+			zip(zos, entry, "");
+		} finally {
+			zos.close();
+		}
+	}
+
+	private static void zip(ZipOutputStream zos, File folder, String prefix) throws IOException {
+		String [] names = folder.list();
+		if (names == null) {
+			return;
+		}
+		Arrays.sort(names);
+		for (String name : names) {
+			File file = new File(folder, name);
+			if (file.isDirectory()) {
+				zos.putNextEntry(new ZipEntry(prefix + name + "/"));
+				zos.closeEntry();
+				zip(zos, file, prefix + name + "/");
+			} else {
+				zos.putNextEntry(new ZipEntry(prefix + name));
+				Files.copy(file.toPath(), zos);
+				zos.closeEntry();
+			}
+		}
+	}
+
+	/**
+	 * Extracts an entry of the remote cache.  Entries which would be extracted
+	 * outside of the folder are rejected.
+	 *
+	 * @param zip
+	 * @param folder
+	 * @throws IOException
+	 */
+	static void unzip(File zip, File folder) throws IOException {
+		String root = folder.getCanonicalPath() + File.separator;
+		ZipInputStream zis = new ZipInputStream(new FileInputStream(zip));
+		try {
+			folder.mkdirs();
+			ZipEntry ze;
+			while ((ze = zis.getNextEntry()) != null) {
+				File file = new File(folder, ze.getName());
+				if (!file.getCanonicalPath().startsWith(root)) {
+					throw new IOException("illegal entry " + ze.getName());
+				}
+				if (ze.isDirectory()) {
+					file.mkdirs();
+				} else {
+					file.getParentFile().mkdirs();
+					OutputStream os = new FileOutputStream(file);
+					try {
+						byte [] buffer = new byte[32 * 1024];
+						int len;
+						while ((len = zis.read(buffer)) > -1) {
+							os.write(buffer, 0, len);
+						}
+					} finally {
+						os.close();
+					}
+				}
+			}
+		} finally {
+			zis.close();
+		}
+	}
+
+	/**
+	 * Returns the statistics of the action caches of this process, e.g. for
+	 * a summary at the end of a build.
+	 *
+	 * @return the statistics or null if no action was looked up
+	 */
+	public static String getStatistics() {
+		long count = lookups.get();
+		if (count == 0) {
+			return null;
+		}
+		long hits = localHits.get() + remoteHits.get();
+		StringBuilder sb = new StringBuilder();
+		sb.append(MessageFormat.format("action cache: {0} of {1} actions restored ({2,number,0%}), {3} local, {4} remote, {5} restored",
+				hits, count, ((double) hits) / count, localHits.get(), remoteHits.get(),
+				FileUtils.formatSize(bytesRestored.get())));
+		for (BuildCacheClient client : remotes.values()) {
+			sb.append('\n');
+			sb.append(MessageFormat.format("build cache {0}: {1} hits, {2} misses ({3,number,0%}), {4} stores, {5} downloaded, {6} uploaded",
+					client.getUrl(), client.getHits(), client.getMisses(), client.getHitRate(), client.getStores(),
+					FileUtils.formatSize(client.getBytesDownloaded()), FileUtils.formatSize(client.getBytesUploaded())));
+		}
+		if (remoteError != null) {
+			sb.append('\n').append(remoteError);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Returns the SHA-1 of the content of a file.
+	 *
+	 * @param file
+	 * @return the content hash
+	 */
+	static String hashContent(File file) throws IOException {
+		String id = file.getAbsolutePath() + File.pathSeparator + file.length() + File.pathSeparator + file.lastModified();
+		String hash = hashes.get(id);
+		if (hash == null) {
+			MessageDigest md = newDigest();
+			InputStream is = new FileInputStream(file);
+			try {
+				byte [] buffer = new byte[32 * 1024];
+				int len;
+				while ((len = is.read(buffer)) > -1) {
+					md.update(buffer, 0, len);
+				}
+			} finally {
+				is.close();
+			}
+			hash = toHex(md.digest());
+			hashes.put(id, hash);
+		}
+		return hash;
+	}
+
+	private static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static String toHex(byte [] bytes) {
+		StringBuilder sb = new StringBuilder(bytes.length * 2);
+		for (byte b : bytes) {
+			sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * The key of an action.  Values, files and folders are added in a fixed
+	 * order and hashed to identify the action.
+	 */
+	public static class Key {
+
+		private final MessageDigest md;
+
+		private String hash;
+
+		Key() {
+			md = newDigest();
+		}
+
+		private void update(String value) {
+			if (hash != null) {
+				throw new IllegalStateException("the key has been hashed");
+			}
+			try {
+				md.update(value.getBytes("UTF-8"));
+				md.update((byte) 0);
+			} catch (UnsupportedEncodingException e) {
+				throw new RuntimeException(e);
+			}
+		}
+
+		/**
+		 * Adds a named value to the key.
+		 *
+		 * @param name
+		 * @param value
+		 * @return the key
+		 */
+		public Key add(String name, Object value) {
+			update(name);
+			update(String.valueOf(value));
+			return this;
+		}
+
+		/**
+		 * Adds a file, or the relative paths and contents of all files of a
+		 * folder, to the key.  A missing file is added as missing.
+		 *
+		 * @param name
+		 * @param file
+		 * @return the key
+		 */
+		public Key addFile(String name, File file) {
+			update(name);
+			if (file == null || !file.exists()) {
+				update("-");
+			} else if (file.isDirectory()) {
+				addFolder(file, "");
+			} else {
+				update(hashOf(file));
+			}
+			return this;
+		}
+
+		/**
+		 * Adds the entries of a path, e.g. a classpath, to the key.
+		 *
+		 * @param name
+		 * @param files
+		 * @return the key
+		 */
+		public Key addFiles(String name, Iterable<File> files) {
+			for (File file : files) {
+				addFile(name, file);
+			}
+			return this;
+		}
+
+		private void addFolder(File folder, String prefix) {
+			String [] names = folder.list();
+			if (names == null) {
+				return;
+			}
+			Arrays.sort(names);
+			for (String name : names) {
+				File file = new File(folder, name);
+				if (file.isDirectory()) {
+					addFolder(file, prefix + name + "/");
+				} else {
+					update(prefix + name);
+					update(hashOf(file));
+				}
+			}
+		}
+
+		private static String hashOf(File file) {
+			try {
+				return hashContent(file);
+			} catch (IOException e) {
+				throw new MoxieException("failed to hash " + file, e);
+			}
+		}
+
+		/**
+		 * Returns the hash of the key.  No more values can be added.
+		 *
+		 * @return the SHA-1 of the key
+		 */
+		public String hash() {
+			if (hash == null) {
+				hash = toHex(md.digest());
+			}
+			return hash;
+		}
+
+		@Override
+		public String toString() {
+			return hash();
+		}
+	}
+}
@@ -55,12 +55,18 @@ public class Build {
 	private final Date buildDate;
 
 	public Build(File configFile, File basedir) throws MaxmlException, IOException {
+		this(configFile, basedir, null);
+	}
+
+	Build(File configFile, File basedir, MoxieCache moxieCache) throws MaxmlException, IOException {
 		this.config = new BuildConfig(configFile, basedir);
 
 		this.console = new Console(config.isColor());
 		this.console.setDebug(config.isDebug());
+		this.console.debug("loaded config {0}: {1} parsed, {2} cached, {3} ms", configFile,
+				config.getConfigParseCount(), config.getConfigCacheHitCount(), config.getConfigLoadTime());
 
-		this.solver = new Solver(console, config);
+		this.solver = new Solver(console, config, moxieCache);
 		this.buildDate = new Date();
 	}
 
@@ -628,7 +634,7 @@ public class Build {
 			}
 			ToolkitConfig moduleConfig;
 			try {
-				moduleConfig = new ToolkitConfig(configFile, moduleFolder, Toolkit.MOXIE_DEFAULTS);
+				moduleConfig = ToolkitConfig.load(configFile, moduleFolder, Toolkit.MOXIE_DEFAULTS);
 				if (StringUtils.isEmpty(moduleConfig.getPom().artifactId)) {
 					console.warn(2, "excluding module ''{0}'' from IntelliJ IDEA project because it has no artifactId!", module.folder);
 					continue;
@@ -48,6 +48,9 @@ public class BuildConfig {
 	private final File moxieRoot;
 	private final File projectConfigFile;
 	private final File projectDirectory;
+	private final int configParseCount;
+	private final int configCacheHitCount;
+	private final long configLoadTime;
 	private boolean verbose;
 
 	public BuildConfig(File configFile, File basedir) throws MaxmlException, IOException {
@@ -62,8 +65,16 @@ public class BuildConfig {
 		this.moxieRoot = Toolkit.getMxRoot();
 		this.moxieRoot.mkdirs();
 
-		this.toolkitConfig = new ToolkitConfig(new File(moxieRoot, Toolkit.MOXIE_SETTINGS), projectDirectory, Toolkit.MOXIE_SETTINGS);
+		// the settings are shared by all builds, the project config is
+		// modified by the solver and is always parsed
+		int parses = ToolkitConfig.getParseCount();
+		int hits = ToolkitConfig.getCacheHitCount();
+		long start = System.nanoTime();
+		this.toolkitConfig = ToolkitConfig.load(new File(moxieRoot, Toolkit.MOXIE_SETTINGS), projectDirectory, Toolkit.MOXIE_SETTINGS);
 		this.projectConfig = new ToolkitConfig(configFile, projectDirectory, Toolkit.MOXIE_DEFAULTS);
+		this.configLoadTime = (System.nanoTime() - start) / 1000000L;
+		this.configParseCount = ToolkitConfig.getParseCount() - parses;
+		this.configCacheHitCount = ToolkitConfig.getCacheHitCount() - hits;
 
 		this.proxies = new LinkedHashSet<Proxy>();
 		this.repositories = new LinkedHashSet<Repository>();
@@ -135,6 +146,54 @@ public class BuildConfig {
 		return toolkitConfig.failFastOnArtifactResolution;
 	}
 
+	/**
+	 * Returns the number of threads for I/O bound work like artifact retrieval.
+	 * Unspecified defaults to twice the number of processors, minimum 4.
+	 *
+	 * @return the io thread count
+	 */
+	public int getIoThreads() {
+		if (toolkitConfig.ioThreads > 0) {
+			return toolkitConfig.ioThreads;
+		}
+		return Math.max(4, 2 * Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Returns the number of threads for cpu bound work.  Unspecified defaults
+	 * to the number of processors.
+	 *
+	 * @return the cpu thread count
+	 */
+	public int getCpuThreads() {
+		if (toolkitConfig.cpuThreads > 0) {
+			return toolkitConfig.cpuThreads;
+		}
+		return Runtime.getRuntime().availableProcessors();
+	}
+
+	/**
+	 * Returns the url of the build cache of a Moxie Proxy which backs the
+	 * action cache, e.g. http://proxy:8080/cache.
+	 *
+	 * @return the build cache url or null
+	 */
+	public String getBuildCache() {
+		return toolkitConfig.buildCache;
+	}
+
+	public boolean isBuildCachePush() {
+		return toolkitConfig.buildCachePush;
+	}
+
+	public String getBuildCacheUsername() {
+		return toolkitConfig.buildCacheUsername;
+	}
+
+	public String getBuildCachePassword() {
+		return toolkitConfig.buildCachePassword;
+	}
+
 	public UpdatePolicy getUpdatePolicy() {
 		return toolkitConfig.updatePolicy;
 	}
@@ -203,6 +262,27 @@ public class BuildConfig {
 		return moxieRoot;
 	}
 
+	/**
+	 * Returns the number of configs parsed for this build.
+	 */
+	public int getConfigParseCount() {
+		return configParseCount;
+	}
+
+	/**
+	 * Returns the number of configs of this build served from the cache.
+	 */
+	public int getConfigCacheHitCount() {
+		return configCacheHitCount;
+	}
+
+	/**
+	 * Returns the time in milliseconds to load the configs of this build.
+	 */
+	public long getConfigLoadTime() {
+		return configLoadTime;
+	}
+
 	public ToolkitConfig getMoxieConfig() {
 		return toolkitConfig;
 	}
@@ -15,10 +15,14 @@
  */
 package org.moxie;
 
+import java.io.Serializable;
+
 import org.moxie.utils.StringUtils;
 
 
-public class Module implements Comparable<Module> {
+public class Module implements Comparable<Module>, Serializable {
+
+	private static final long serialVersionUID = 1L;
 
 	final String folder;
 	final String descriptor;
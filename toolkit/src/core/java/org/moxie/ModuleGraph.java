@@ -0,0 +1,213 @@
+/*
+ * Copyright 2013 James Moger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.moxie;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.moxie.console.Console;
+import org.moxie.utils.Parallel;
+
+/**
+ * The graph of linked modules of a build.
+ * <p>
+ * The graph is discovered serially, in declaration order, from the root build
+ * and each module is solved exactly once after all of its own linked modules
+ * have been solved.  Independent modules are solved concurrently on the cpu
+ * pool of the root Solver.  Each module has its own view of the Moxie cache,
+ * which shares the parsed POMs of the root Solver's cache, and the retrieval
+ * of each artifact is serialized through the cache locks.
+ */
+class ModuleGraph {
+
+	private final Solver root;
+	private final Console console;
+	private final Map<File, Node> nodes;
+
+	ModuleGraph(Solver root) {
+		this.root = root;
+		this.console = root.getConsole();
+		this.nodes = new LinkedHashMap<File, Node>();
+	}
+
+	/**
+	 * Recursively locates and parses all linked modules of the root build.
+	 *
+	 * @param descriptor
+	 *            the root build descriptor
+	 */
+	void discover(File descriptor) {
+		Node node = new Node(descriptor, null);
+		nodes.put(descriptor, node);
+		discover(node, root, new LinkedHashSet<File>());
+	}
+
+	private void discover(Node node, Solver solver, Set<File> path) {
+		path.add(node.descriptor);
+		for (File descriptor : solver.locateModules()) {
+			if (path.contains(descriptor)) {
+				StringBuilder sb = new StringBuilder();
+				for (File file : path) {
+					sb.append(file.getParentFile().getName()).append(" -> ");
+				}
+				sb.append(descriptor.getParentFile().getName());
+				String msg = console.error("circular module link {0}", sb.toString());
+				throw new MoxieException(msg);
+			}
+			node.links.add(descriptor);
+			if (nodes.containsKey(descriptor)) {
+				// already discovered through another module
+				continue;
+			}
+			Build build;
+			try {
+				build = new Build(descriptor, null, root.getMoxieCache());
+			} catch (Exception e) {
+				console.error(e, "failed to parse module {0}", descriptor.getParentFile().getName());
+				throw new RuntimeException(e);
+			}
+			Node child = new Node(descriptor, build);
+			nodes.put(descriptor, child);
+			discover(child, build.getSolver(), path);
+		}
+		path.remove(node.descriptor);
+	}
+
+	/**
+	 * Returns the number of discovered modules, excluding the root.
+	 *
+	 * @return the module count
+	 */
+	int size() {
+		return nodes.size() - 1;
+	}
+
+	/**
+	 * Solves all linked modules of the specified descriptor.
+	 *
+	 * @param descriptor
+	 */
+	void solve(File descriptor) {
+		solveAll(nodes.get(descriptor).links);
+	}
+
+	private void solveAll(Collection<File> descriptors) {
+		root.getExecutor().cpu(descriptors, new Parallel.Operation<File>() {
+			@Override
+			public void perform(File descriptor) {
+				solve(nodes.get(descriptor));
+			}
+		});
+	}
+
+	private void solve(Node node) {
+		if (!node.claimed.compareAndSet(false, true)) {
+			// module is solved or being solved by another worker
+			await(node);
+			return;
+		}
+		long start = System.nanoTime();
+		try {
+			solveAll(node.links);
+			node.build.getSolver().solve(this);
+		} catch (RuntimeException e) {
+			node.failure = e;
+			throw e;
+		} finally {
+			node.elapsed = (System.nanoTime() - start) / 1000000L;
+			node.solved.countDown();
+		}
+	}
+
+	private void await(final Node node) {
+		try {
+			ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+				@Override
+				public boolean block() throws InterruptedException {
+					node.solved.await();
+					return true;
+				}
+
+				@Override
+				public boolean isReleasable() {
+					return node.solved.getCount() == 0;
+				}
+			});
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new CancellationException("interrupted while solving " + node.build.getPom().getCoordinates());
+		}
+		if (node.failure != null) {
+			throw new MoxieException("failed to solve module " + node.build.getPom().getCoordinates(), node.failure);
+		}
+	}
+
+	/**
+	 * Returns the solved linked modules of the specified descriptor in
+	 * declaration order.
+	 *
+	 * @param descriptor
+	 * @return the list of linked module builds
+	 */
+	List<Build> getLinkedModules(File descriptor) {
+		List<Build> list = new ArrayList<Build>();
+		for (File link : nodes.get(descriptor).links) {
+			Node node = nodes.get(link);
+			await(node);
+			list.add(node.build);
+		}
+		return list;
+	}
+
+	/**
+	 * Logs the solve time of each module in discovery order.
+	 */
+	void report() {
+		for (Node node : nodes.values()) {
+			if (node.build != null) {
+				console.log(1, "=> solved module {0} ({1} ms)", node.build.getPom().getCoordinates(), node.elapsed);
+			}
+		}
+	}
+
+	private static class Node {
+		final File descriptor;
+		final Build build;
+		final List<File> links;
+		final AtomicBoolean claimed;
+		final CountDownLatch solved;
+		volatile RuntimeException failure;
+		volatile long elapsed;
+
+		Node(File descriptor, Build build) {
+			this.descriptor = descriptor;
+			this.build = build;
+			this.links = new ArrayList<File>();
+			this.claimed = new AtomicBoolean();
+			this.solved = new CountDownLatch(1);
+		}
+	}
+}
@@ -365,7 +365,7 @@ public class Repository {
 			}
 
 			// merge metadata
-			Metadata newMetadata = MetadataReader.readMetadata(new String(data.content, "UTF-8"));
+			Metadata newMetadata = MetadataReader.readMetadata(data.content);
 			newMetadata.merge(oldMetadata);
 
 			// set origin so that we write the artifact into the proper cache
@@ -375,40 +375,23 @@ public class Repository {
 			file = solver.getMoxieCache().writeMetadata(dep, Constants.XML, newMetadata.toXML());
 			file.setLastModified(data.lastModified);
 
+			// resolve the Moxie data of the dependency from the merged
+			// metadata instead of re-reading the metadata file
+			Dependency resolved = solver.getMoxieCache().resolveRevision(DeepCopier.copy(dep), newMetadata);
+			MoxieData moxiedata = solver.getMoxieCache().readMoxieData(resolved);
+			moxiedata.setOrigin(getRepositoryUrl());
+			// do not set lastDownloaded for metadata retrieval
 			Date now = new Date();
+			moxiedata.setLastChecked(now);
 			if (dep.isSnapshot()) {
-				MoxieData moxiedata = solver.getMoxieCache().readMoxieData(dep);
-				moxiedata.setOrigin(getRepositoryUrl());
-				// do not set lastDownloaded for metadata retrieval
-				moxiedata.setLastChecked(now);
 				moxiedata.setLastUpdated(newMetadata.lastUpdated);
-				solver.getMoxieCache().writeMoxieData(dep, moxiedata);
 			} else {
-				// update the Moxie RELEASE metadata
-				Dependency versions = DeepCopier.copy(dep);
-				versions.version = Constants.RELEASE;
-
-				MoxieData moxiedata = solver.getMoxieCache().readMoxieData(versions);
-				moxiedata.setOrigin(getRepositoryUrl());
-				// do not set lastDownloaded for metadata retrieval
-				moxiedata.setLastChecked(now);
-				moxiedata.setLastUpdated(now);
-				moxiedata.setRELEASE(newMetadata.release);
-				moxiedata.setLATEST(newMetadata.latest);
-				solver.getMoxieCache().writeMoxieData(dep, moxiedata);
-
-				// update the Moxie LATEST metadata
-				versions.version = Constants.LATEST;
-
-				moxiedata = solver.getMoxieCache().readMoxieData(versions);
-				moxiedata.setOrigin(getRepositoryUrl());
-				// do not set lastDownloaded for metadata retrieval
-				moxiedata.setLastChecked(now);
+				// update the Moxie RELEASE and LATEST metadata
 				moxiedata.setLastUpdated(now);
 				moxiedata.setRELEASE(newMetadata.release);
 				moxiedata.setLATEST(newMetadata.latest);
-				solver.getMoxieCache().writeMoxieData(dep, moxiedata);
 			}
+			solver.getMoxieCache().writeMoxieData(resolved, moxiedata);
 			return file;
 		} catch (MalformedURLException m) {
 			m.printStackTrace();
@@ -63,6 +63,7 @@ public class Solver {
 	private final BuildConfig config;
 	private final MoxieCache moxieCache;
 	private final Console console;
+	private final SolverExecutor executor;
 	
 	private final Map<Scope, Collection<Dependency>> requiredDependencies;
 	private final Map<Scope, Set<Dependency>> solutions;	
@@ -75,15 +76,31 @@ public class Solver {
 	private boolean solutionBuilt;
 	
 	public Solver(Console console, BuildConfig config) {
+		this(console, config, null);
+	}
+	
+	/**
+	 * Creates a Solver which optionally shares the parsed POMs of the
+	 * MoxieCache of another Solver, e.g. the root Solver of a multi-module
+	 * build.  The Solver always has its own view of the cache so that the
+	 * moxieRoot and mavenCacheStrategy of its build are honored.
+	 * 
+	 * @param console
+	 * @param config
+	 * @param sharedCache
+	 *            the cache to share parsed POMs with or null
+	 */
+	Solver(Console console, BuildConfig config, MoxieCache sharedCache) {
 		this.config = config;
 		
-		this.moxieCache = new MoxieCache(config.getMoxieRoot());
+		this.moxieCache = new MoxieCache(config.getMoxieRoot(), sharedCache);
 		this.requiredDependencies = new HashMap<Scope, Collection<Dependency>>();
 		this.solutions = new HashMap<Scope, Set<Dependency>>();
 		this.classpaths = new HashMap<Scope, List<File>>();
 		this.linkedModuleBuilds = new ArrayList<Build>();
 		this.registeredUrls = new HashSet<String>();
 		this.console = console == null ? new Console(config.isColor()) : console;
+		this.executor = new SolverExecutor(config);
 		
 		this.moxieCache.setMavenCacheStrategy(config.getMavenCacheStrategy());
 		this.moxieCache.setLogger(console);
@@ -179,6 +196,10 @@ public class Solver {
 		return console;
 	}
 	
+	public SolverExecutor getExecutor() {
+		return executor;
+	}
+	
 	public BuildConfig getBuildConfig() {
 		return config;
 	}
@@ -216,26 +237,44 @@ public class Solver {
 	}
 	
 	public boolean solve() {
-		return solve(new LinkedHashSet<Build>());
+		return solve((ModuleGraph) null);
 	}
 	
-	private boolean solve(Set<Build> solvedProjects) {
+	boolean solve(ModuleGraph graph) {
+		if (graph != null) {
+			// linked module of a multi-module build
+			silent = true;
+		}
+		long mark = executor.start();
 		readProjectSolution();
+		executor.stop("read solution", mark);
 		if (solutions.size() == 0) {
 			// solve linked projects
-			solveLinkedModules(solvedProjects);
+			mark = executor.start();
+			solveLinkedModules(graph);
+			executor.stop("solve modules", mark);
 			
 			// substitute aliases with definitions
 			resolveAliasedDependencies();
 
 			// build solution
+			mark = executor.start();
 			retrievePOMs();
+			executor.stop("retrieve POMs", mark);
+
+			mark = executor.start();
 			importDependencyManagement();
 			assimilateDependencies();
+			executor.stop("assimilate", mark);
+
+			mark = executor.start();
 			retrieveDependencies();
+			executor.stop("retrieve artifacts", mark);
 			
 			// cache built solution
+			mark = executor.start();
 			cacheProjectSolution();
+			executor.stop("cache solution", mark);
 			
 			// flag new solution
 			solutionBuilt = true;
@@ -246,16 +285,19 @@ public class Solver {
 			for (Map.Entry<Scope, Set<Dependency>> entry : solutions.entrySet()) {
 				all.addAll(entry.getValue());
 			}
+			mark = executor.start();
 			Set<Dependency> retrieved = new HashSet<Dependency>();
 			for (Dependency dep : all) {
 				if (!retrieved.contains(dep)) {
 					retrievePOM(dep, retrieved);					
 				}
 			}
+			executor.stop("retrieve POMs", mark);
 			
+			mark = executor.start();
 			if (config.isParallelDownloads()) {
 				// download artifacts in parallel
-				Parallel.WaitFor(retrieved, new Parallel.Operation<Dependency>() {
+				executor.io(retrieved, new Parallel.Operation<Dependency>() {
 					public void perform(Dependency dep) {
 						retrieveArtifact(dep);					
 					}
@@ -266,17 +308,23 @@ public class Solver {
 					retrieveArtifact(dep);
 				}
 			}
+			executor.stop("retrieve artifacts", mark);
+		}
+		
+		console.debug("solver timings {0}", config.getPom().getManagementId());
+		for (Map.Entry<String, Long> entry : executor.getTimings().entrySet()) {
+			console.debug(1, "{0} {1} ms", entry.getKey(), entry.getValue());
 		}
 		return solutionBuilt;
 	}
 	
-	private void solveLinkedModules(Set<Build> solvedModules) {
-		if (config.getProjectConfig().linkedModules.size() > 0) {
-			console.separator();
-			console.log("solving {0} modules", config.getPom().getManagementId());
-			console.separator();
-		}
-		Set<Build> builds = new LinkedHashSet<Build>();
+	/**
+	 * Locates the descriptors of the linked modules of this build.
+	 * 
+	 * @return the list of linked module descriptors in declaration order
+	 */
+	List<File> locateModules() {
+		List<File> descriptors = new ArrayList<File>();
 		for (Module linkedModule : config.getProjectConfig().linkedModules) {
 			console.debug(Console.SEP);
 			String resolvedName = config.getPom().resolveProperties(linkedModule.folder);
@@ -295,49 +343,57 @@ public class Solver {
 					throw new MoxieException(msg);
 				}
 			}
-			try {
-				File file = new File(moduleDir, linkedModule.descriptor);
-				if (file.exists()) {
-					// use Moxie config
-					console.debug("located module {0} ({1})", linkedModule.folder, file.getAbsolutePath());
-					Build subModule = new Build(file.getAbsoluteFile(), null);
-					if (solvedModules.contains(subModule)) {
-						for (Build solvedProject: solvedModules) {
-							if (solvedProject.equals(subModule)) {
-								// add this submodule and it's dependent modules
-								builds.add(subModule);
-								builds.addAll(subModule.getSolver().getLinkedModules());
-								break;
-							}
-						}
-						console.log(1, "=> already solved module {0}", subModule.getPom().getCoordinates());
-						continue;
-					}
-					console.log(1, "=> solving module {0}", subModule.getPom().getCoordinates());
-					subModule.getSolver().silent = true;
-					subModule.getSolver().solve(solvedModules);
-
-					// add this subproject and it's dependent modules
-					// as solvedModules for recursive, cross-linked modules
-					solvedModules.add(subModule);
-					solvedModules.addAll(subModule.getSolver().getLinkedModules());
-
-					// add this submodule and it's dependent modules
-					builds.add(subModule);
-					builds.addAll(subModule.getSolver().getLinkedModules());
-					
-					// linked module dependencies are considered ring-1
-					for (Scope scope : new Scope[] { Scope.compile }) {
-						for (Dependency dep : subModule.getPom().getDependencies(scope, Constants.RING1)) {
-							config.getPom().addDependency(dep, scope);
-						}
-					}
-				} else {
-					console.error("module {0} does not have a {1} descriptor!", linkedModule.folder, linkedModule.descriptor);
+			File file = new File(moduleDir, linkedModule.descriptor);
+			if (file.exists()) {
+				// use Moxie config
+				console.debug("located module {0} ({1})", linkedModule.folder, file.getAbsolutePath());
+				descriptors.add(FileUtils.getExactFile(file));
+			} else {
+				console.error("module {0} does not have a {1} descriptor!", linkedModule.folder, linkedModule.descriptor);
+			}
+		}
+		return descriptors;
+	}
+	
+	/**
+	 * Solves the linked modules of this build.  The root build discovers the
+	 * complete module graph and solves independent modules concurrently.
+	 * Linked modules are always assimilated in declaration order.
+	 * 
+	 * @param graph
+	 *            the module graph or null if this is the root build
+	 */
+	private void solveLinkedModules(ModuleGraph graph) {
+		if (config.getProjectConfig().linkedModules.size() == 0) {
+			return;
+		}
+		File descriptor = FileUtils.getExactFile(config.getProjectConfig().file);
+		if (graph == null) {
+			// root build, discover and solve the module graph
+			console.separator();
+			console.log("solving {0} modules", config.getPom().getManagementId());
+			console.separator();
+			
+			long start = System.nanoTime();
+			graph = new ModuleGraph(this);
+			graph.discover(descriptor);
+			graph.solve(descriptor);
+			long elapsed = (System.nanoTime() - start) / 1000000L;
+			graph.report();
+			console.log(1, "solved {0} modules in {1} ms", graph.size(), elapsed);
+		}
+		
+		Set<Build> builds = new LinkedHashSet<Build>();
+		for (Build subModule : graph.getLinkedModules(descriptor)) {
+			// add this submodule and it's dependent modules
+			builds.add(subModule);
+			builds.addAll(subModule.getSolver().getLinkedModules());
+			
+			// linked module dependencies are considered ring-1
+			for (Scope scope : new Scope[] { Scope.compile }) {
+				for (Dependency dep : subModule.getPom().getDependencies(scope, Constants.RING1)) {
+					config.getPom().addDependency(dep, scope);
 				}
-			} catch (Exception e) {
-				console.error(e, "failed to parse module {0}", linkedModule.folder);
-				throw new RuntimeException(e);
 			}
 		}
 		
@@ -442,8 +498,9 @@ public class Solver {
 				};
 				
 				if (config.isParallelDownloads()) {
-					// Download artifacts in parallel
-					Parallel.WaitFor(solution, worker);
+					// Download artifacts in parallel, a fail-fast resolution
+					// failure cancels the remaining downloads
+					executor.io(solution, worker);
 				} else {
 					// Download artifacts in serial
 					for (Dependency dep : solution) {
@@ -589,7 +646,6 @@ public class Solver {
 		if (transitiveDependencies.size() == 0) {
 			return;
 		}
-		MoxieData moxiedata = moxieCache.readMoxieData(dependency);
 		// copy transitives and reset the ring level relative to the dependency		
 		List<Dependency> dependencies = new ArrayList<Dependency>();
 		for (Dependency dep : transitiveDependencies) {
@@ -597,14 +653,17 @@ public class Solver {
 			dep.ring -= (dependency.ring + 1);
 			dependencies.add(dep);
 		}
-		try {
-			console.debug(1, "=> caching solution {0}", scope);			
-			moxiedata.setDependencies(scope, dependencies);
-			// solution date is lastModified of POM
-			moxiedata.setLastSolved(new Date(FileUtils.getLastModified(moxieCache.getArtifact(dependency, Constants.POM))));
-			moxieCache.writeMoxieData(dependency, moxiedata);
-		} catch (Exception e) {
-			console.error(e, "Failed to cache {0} solution {1}", scope, dependency.getDetailedCoordinates());
+		synchronized (moxieCache.getLock(dependency)) {
+			MoxieData moxiedata = moxieCache.readMoxieData(dependency);
+			try {
+				console.debug(1, "=> caching solution {0}", scope);			
+				moxiedata.setDependencies(scope, dependencies);
+				// solution date is lastModified of POM
+				moxiedata.setLastSolved(new Date(FileUtils.getLastModified(moxieCache.getArtifact(dependency, Constants.POM))));
+				moxieCache.writeMoxieData(dependency, moxiedata);
+			} catch (Exception e) {
+				console.error(e, "Failed to cache {0} solution {1}", scope, dependency.getDetailedCoordinates());
+			}
 		}
 	}
 	
@@ -699,38 +758,80 @@ public class Solver {
 			return null;
 		}
 		
-		if (dependency.isMetaVersion()) {
-			// Support VERSION RANGE, SNAPSHOT, RELEASE, and LATEST versions
-			File metadataFile = moxieCache.getMetadata(dependency, Constants.XML);
-			boolean updateRequired = !metadataFile.exists() || isUpdateMetadata();
-			// read MoxieData which sets the origin, if we have it
-			MoxieData moxiedata = moxieCache.readMoxieData(dependency);
+		// serialize the retrieval of this artifact and the updates of its Moxie
+		// data with concurrently solved modules
+		MoxieData moxiedata;
+		File pomFile;
+		synchronized (moxieCache.getLock(dependency)) {
+			if (dependency.isMetaVersion()) {
+				// Support VERSION RANGE, SNAPSHOT, RELEASE, and LATEST versions
+				File metadataFile = moxieCache.getMetadata(dependency, Constants.XML);
+				boolean updateRequired = !metadataFile.exists() || isUpdateMetadata();
+				// read MoxieData which sets the origin, if we have it
+				moxiedata = moxieCache.readMoxieData(dependency);
 			
-			if (!updateRequired) {
-				UpdatePolicy policy = config.getUpdatePolicy();
-				// we have metadata, check update policy
-				if (UpdatePolicy.daily.equals(policy)) {
-					// daily is a special case
-					SimpleDateFormat df = new SimpleDateFormat("yyyyMMdd");
-					String mdate = df.format(moxiedata.getLastChecked());
-					String today = df.format(new Date());
-					updateRequired = !mdate.equals(today);
-				} else {
-					// always, never, interval
-					long msecs = policy.mins*60*1000L;
-					updateRequired = Math.abs(System.currentTimeMillis() - moxiedata.getLastChecked().getTime()) > msecs;
+				if (!updateRequired) {
+					UpdatePolicy policy = config.getUpdatePolicy();
+					// we have metadata, check update policy
+					if (UpdatePolicy.daily.equals(policy)) {
+						// daily is a special case
+						SimpleDateFormat df = new SimpleDateFormat("yyyyMMdd");
+						String mdate = df.format(moxiedata.getLastChecked());
+						String today = df.format(new Date());
+						updateRequired = !mdate.equals(today);
+					} else {
+						// always, never, interval
+						long msecs = policy.mins*60*1000L;
+						updateRequired = Math.abs(System.currentTimeMillis() - moxiedata.getLastChecked().getTime()) > msecs;
+					}
+				
+					if (updateRequired) {
+						console.debug(1, "{0} maven-metadata.xml is STALE according to {1} update policy", dependency.getManagementId(), policy.toString());
+					} else {
+						console.debug(1, "{0} maven-metadata.xml is CURRENT according to {1} update policy", dependency.getManagementId(), policy.toString());
+					}
 				}
+			
+				if (updateRequired && isOnline()) {
+					// download artifact maven-metadata.xml
+					console.debug(1, "locating maven-metadata.xml for {0}", dependency.getManagementId());
+					for (Repository repository : config.getRepositories(dependency)) {
+						if (!repository.isMavenSource()) {
+							// skip non-Maven repositories
+							continue;
+						}
+						if (!repository.isSource(dependency)) {
+							// try to match origins
+							continue;
+						}
+						metadataFile = repository.downloadMetadata(this, dependency);
+						if (metadataFile != null && metadataFile.exists()) {
+							// downloaded the metadata
+							break;
+						}
+					}
 				
-				if (updateRequired) {
-					console.debug(1, "{0} maven-metadata.xml is STALE according to {1} update policy", dependency.getManagementId(), policy.toString());
+					// reload Moxie data and reset last checked date for next update
+					// check after we have resolved RELEASE, LATEST, or SNAPSHOT
+					moxiedata = moxieCache.readMoxieData(dependency);
+					moxiedata.setLastChecked(new Date());
+					moxieCache.writeMoxieData(dependency, moxiedata);
 				} else {
-					console.debug(1, "{0} maven-metadata.xml is CURRENT according to {1} update policy", dependency.getManagementId(), policy.toString());
+					console.debug(1, "reading maven-metadata.xml for {0}", dependency.getManagementId());
 				}
 			}
-			
-			if (updateRequired && isOnline()) {
-				// download artifact maven-metadata.xml
-				console.debug(1, "locating maven-metadata.xml for {0}", dependency.getManagementId());
+		
+			String unresolvedVersion = dependency.getVersion();
+			boolean isRangedVersion = dependency.isRangedVersion();		
+			moxiedata = moxieCache.readMoxieData(dependency);
+			pomFile = moxieCache.getArtifact(dependency, Constants.POM);
+			if (isRangedVersion) {
+				console.notice(1, "{0}:{1} resolved to {2}", dependency.getManagementId(), unresolvedVersion, dependency.getVersion());
+			}
+		
+			if ((!pomFile.exists() || (dependency.isSnapshot() && moxiedata.isRefreshRequired())) && isOnline()) {
+				// download the POM
+				console.debug(1, "locating POM for {0}", dependency.getDetailedCoordinates());
 				for (Repository repository : config.getRepositories(dependency)) {
 					if (!repository.isMavenSource()) {
 						// skip non-Maven repositories
@@ -740,48 +841,12 @@ public class Solver {
 						// try to match origins
 						continue;
 					}
-					metadataFile = repository.downloadMetadata(this, dependency);
-					if (metadataFile != null && metadataFile.exists()) {
-						// downloaded the metadata
+					File retrievedFile = repository.download(this, dependency, Constants.POM);
+					if (retrievedFile != null && retrievedFile.exists()) {
+						pomFile = retrievedFile;
 						break;
 					}
 				}
-				
-				// reload Moxie data and reset last checked date for next update
-				// check after we have resolved RELEASE, LATEST, or SNAPSHOT
-				moxiedata = moxieCache.readMoxieData(dependency);
-				moxiedata.setLastChecked(new Date());
-				moxieCache.writeMoxieData(dependency, moxiedata);
-			} else {
-				console.debug(1, "reading maven-metadata.xml for {0}", dependency.getManagementId());
-			}
-		}
-		
-		String unresolvedVersion = dependency.getVersion();
-		boolean isRangedVersion = dependency.isRangedVersion();		
-		MoxieData moxiedata = moxieCache.readMoxieData(dependency);
-		File pomFile = moxieCache.getArtifact(dependency, Constants.POM);
-		if (isRangedVersion) {
-			console.notice(1, "{0}:{1} resolved to {2}", dependency.getManagementId(), unresolvedVersion, dependency.getVersion());
-		}
-		
-		if ((!pomFile.exists() || (dependency.isSnapshot() && moxiedata.isRefreshRequired())) && isOnline()) {
-			// download the POM
-			console.debug(1, "locating POM for {0}", dependency.getDetailedCoordinates());
-			for (Repository repository : config.getRepositories(dependency)) {
-				if (!repository.isMavenSource()) {
-					// skip non-Maven repositories
-					continue;
-				}
-				if (!repository.isSource(dependency)) {
-					// try to match origins
-					continue;
-				}
-				File retrievedFile = repository.download(this, dependency, Constants.POM);
-				if (retrievedFile != null && retrievedFile.exists()) {
-					pomFile = retrievedFile;
-					break;
-				}
 			}
 		}
 
@@ -848,77 +913,81 @@ public class Solver {
 			String path = ((SystemDependency) dependency).path;
 			return new File(path);
 		}
-		if (Constants.POM.equals(dependency.extension)) {
-			// POM dependencies do not have other artifacts
-			if (dependency.isSnapshot()) {
-				// ... but we still have to purge old pom snapshots
-				for (Repository repository : config.getRepositories(dependency)) {
-					if (!repository.isSource(dependency)) {
-						// dependency incompatible with repository
-						console.debug(1, "{0} is not source of {1}, skipping", repository.name, dependency.getCoordinates());
-						continue;
-					}
+		// serialize the retrieval of this artifact and the updates of its Moxie
+		// data with concurrently solved modules
+		synchronized (moxieCache.getLock(dependency)) {
+			if (Constants.POM.equals(dependency.extension)) {
+				// POM dependencies do not have other artifacts
+				if (dependency.isSnapshot()) {
+					// ... but we still have to purge old pom snapshots
+					for (Repository repository : config.getRepositories(dependency)) {
+						if (!repository.isSource(dependency)) {
+							// dependency incompatible with repository
+							console.debug(1, "{0} is not source of {1}, skipping", repository.name, dependency.getCoordinates());
+							continue;
+						}
 
-					// purge snapshots for this dependency			
-					moxieCache.purgeSnapshots(dependency, repository.purgePolicy);
+						// purge snapshots for this dependency			
+						moxieCache.purgeSnapshots(dependency, repository.purgePolicy);
+					}
 				}
+				return null;
 			}
-			return null;
-		}
 		
-		// standard artifact, read Moxie data and set dependency origin
-		MoxieData moxiedata = moxieCache.readMoxieData(dependency);
+			// standard artifact, read Moxie data and set dependency origin
+			MoxieData moxiedata = moxieCache.readMoxieData(dependency);
 
-		for (Repository repository : config.getRepositories(dependency)) {
-			if (!repository.isSource(dependency)) {
-				// dependency incompatible with repository
-				console.debug(1, "{0} is not source of {1}, skipping", repository.name, dependency.getCoordinates());
-				continue;
-			}
+			for (Repository repository : config.getRepositories(dependency)) {
+				if (!repository.isSource(dependency)) {
+					// dependency incompatible with repository
+					console.debug(1, "{0} is not source of {1}, skipping", repository.name, dependency.getCoordinates());
+					continue;
+				}
 			
-			// Determine to download/update the dependency
-			File artifactFile = moxieCache.getArtifact(dependency, dependency.extension);
-			boolean downloadDependency = !artifactFile.exists();				
-			if (!downloadDependency && dependency.isSnapshot()) {
-				downloadDependency = moxiedata.isRefreshRequired();
-				if (downloadDependency) {
-					console.debug(1, "{0} is STALE according to {1}", dependency.getManagementId(), moxiedata.getOrigin());
-				} else {
-					console.debug(1, "{0} is CURRENT according to {1}", dependency.getManagementId(), moxiedata.getOrigin());
+				// Determine to download/update the dependency
+				File artifactFile = moxieCache.getArtifact(dependency, dependency.extension);
+				boolean downloadDependency = !artifactFile.exists();				
+				if (!downloadDependency && dependency.isSnapshot()) {
+					downloadDependency = moxiedata.isRefreshRequired();
+					if (downloadDependency) {
+						console.debug(1, "{0} is STALE according to {1}", dependency.getManagementId(), moxiedata.getOrigin());
+					} else {
+						console.debug(1, "{0} is CURRENT according to {1}", dependency.getManagementId(), moxiedata.getOrigin());
+					}
 				}
-			}
 			
-			if (downloadDependency && isOnline()) {
-				// Download primary artifact (e.g. jar)
-				artifactFile = repository.download(this, dependency, dependency.extension);
+				if (downloadDependency && isOnline()) {
+					// Download primary artifact (e.g. jar)
+					artifactFile = repository.download(this, dependency, dependency.extension);
 				
-				if (artifactFile != null && dependency.isJavaBinary()) {
-					// Download sources artifact (e.g. -sources.jar)
-					Dependency sources = dependency.getSourcesArtifact();
-					File sourcesFile = moxieCache.getArtifact(sources, sources.extension);
-					if (dependency.isSnapshot() || !sourcesFile.exists()) {
-						repository.download(this, sources, sources.extension);
-					}
+					if (artifactFile != null && dependency.isJavaBinary()) {
+						// Download sources artifact (e.g. -sources.jar)
+						Dependency sources = dependency.getSourcesArtifact();
+						File sourcesFile = moxieCache.getArtifact(sources, sources.extension);
+						if (dependency.isSnapshot() || !sourcesFile.exists()) {
+							repository.download(this, sources, sources.extension);
+						}
 
-					// Download javadoc artifact (e.g. -javadoc.jar)
-					Dependency javadoc = dependency.getJavadocArtifact();
-					File javadocFile = moxieCache.getArtifact(javadoc, javadoc.extension);
-					if (dependency.isSnapshot() || !javadocFile.exists()) {
-						repository.download(this, javadoc, javadoc.extension);
+						// Download javadoc artifact (e.g. -javadoc.jar)
+						Dependency javadoc = dependency.getJavadocArtifact();
+						File javadocFile = moxieCache.getArtifact(javadoc, javadoc.extension);
+						if (dependency.isSnapshot() || !javadocFile.exists()) {
+							repository.download(this, javadoc, javadoc.extension);
+						}
 					}
 				}
-			}
 			
-			// purge snapshots for this dependency			
-			moxieCache.purgeSnapshots(dependency, repository.purgePolicy);
+				// purge snapshots for this dependency			
+				moxieCache.purgeSnapshots(dependency, repository.purgePolicy);
 			
-			// artifact retrieved
-			if (artifactFile != null) {
-				return artifactFile;
+				// artifact retrieved
+				if (artifactFile != null) {
+					return artifactFile;
+				}
 			}
-		}
 		
-		return null;
+			return null;
+		}
 	}
 	
 	private void copyArtifact(Dependency dependency, File artifactFile) {
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2013 James Moger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.moxie;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.moxie.utils.Parallel;
+
+/**
+ * The execution layer of the Solver.
+ * <p>
+ * Artifact retrieval is I/O bound and is executed on the io pool while
+ * computational work (solving, compiling) is executed on the cpu pool.  The
+ * pools are sized by the ioThreads and cpuThreads settings and are shared by
+ * all Solvers in the process so that linked modules do not multiply threads.
+ * Both pools are nesting-safe and an operation on one pool which submits work
+ * to the other pool executes that work inline rather than blocking a worker.
+ * Because the pools are shared, they are never cancelled by a Solver.
+ * <p>
+ * The executor also records the elapsed time of the named solver phases.
+ */
+public class SolverExecutor {
+
+	private static final Map<String, Parallel> pools = new HashMap<String, Parallel>();
+
+	private final Parallel io;
+	private final Parallel cpu;
+	private final Map<String, Long> timings;
+
+	public SolverExecutor(BuildConfig config) {
+		this.io = getPool("moxie-io", config.getIoThreads());
+		this.cpu = getPool("moxie-cpu", config.getCpuThreads());
+		this.timings = Collections.synchronizedMap(new LinkedHashMap<String, Long>());
+	}
+
+	private static Parallel getPool(String name, int threads) {
+		String key = name + "-" + threads;
+		synchronized (pools) {
+			Parallel pool = pools.get(key);
+			if (pool == null || pool.isCancelled()) {
+				if (pool != null) {
+					pool.shutdown();
+				}
+				pool = new Parallel(name, threads);
+				pools.put(key, pool);
+			}
+			return pool;
+		}
+	}
+
+	/**
+	 * Performs the operation for each element on the io pool.
+	 *
+	 * @param elements
+	 * @param operation
+	 */
+	public <T> void io(Iterable<T> elements, Parallel.Operation<T> operation) {
+		io.forEach(elements, operation);
+	}
+
+	/**
+	 * Performs the operation for each element on the cpu pool.
+	 *
+	 * @param elements
+	 * @param operation
+	 */
+	public <T> void cpu(Iterable<T> elements, Parallel.Operation<T> operation) {
+		cpu.forEach(elements, operation);
+	}
+
+	public Parallel getIoPool() {
+		return io;
+	}
+
+	public Parallel getCpuPool() {
+		return cpu;
+	}
+
+	/**
+	 * Returns a start mark for a phase.
+	 *
+	 * @return the start mark
+	 */
+	public long start() {
+		return System.nanoTime();
+	}
+
+	/**
+	 * Records the elapsed time of a phase.  Repeated phases are accumulated.
+	 *
+	 * @param phase
+	 * @param start
+	 *            the mark returned by {@link #start()}
+	 * @return the elapsed milliseconds of this invocation
+	 */
+	public long stop(String phase, long start) {
+		long elapsed = (System.nanoTime() - start) / 1000000L;
+		synchronized (timings) {
+			Long total = timings.get(phase);
+			timings.put(phase, total == null ? elapsed : total + elapsed);
+		}
+		return elapsed;
+	}
+
+	/**
+	 * Returns the accumulated elapsed milliseconds of each recorded phase.
+	 *
+	 * @return an ordered map of phase timings
+	 */
+	public Map<String, Long> getTimings() {
+		synchronized (timings) {
+			return new LinkedHashMap<String, Long>(timings);
+		}
+	}
+}
@@ -44,6 +44,16 @@ public class SourceDirectory implements Serializable {
 		tags = new TreeSet<String>();
 	}
 
+	/**
+	 * Returns an unresolved copy of this source directory.
+	 */
+	SourceDirectory copy() {
+		SourceDirectory sd = new SourceDirectory(name, scope);
+		sd.tags.addAll(tags);
+		sd.apt = apt;
+		return sd;
+	}
+
 	boolean resolve(File projectDirectory, File outputDirectory) {
 		sources = new File(projectDirectory, name);
 		if (sources.exists() || apt) {
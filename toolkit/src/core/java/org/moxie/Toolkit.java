@@ -82,7 +82,8 @@ public class Toolkit {
 		siteSourceDirectory, siteTargetDirectory, failFastOnArtifactResolution, mavenUrl,
 		resourceDirectories, parallelDownloads, dependencyNamePattern, javadocTargetDirectory,
 		connectTimeout, readTimeout, username, password, compileOutputPath, testOutputPath,
-		compileResourcePath, runtimeResourcePath, testResourcePath;
+		compileResourcePath, runtimeResourcePath, testResourcePath, ioThreads, cpuThreads,
+		buildCache, buildCachePush, buildCacheUsername, buildCachePassword;
 
 		public String projectId() {
 			return "project." + name().replace('_', '.');
@@ -27,16 +27,20 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.moxie.Constants.MavenCacheStrategy;
 import org.moxie.Toolkit.Key;
 import org.moxie.maxml.Maxml;
+import org.moxie.maxml.MaxmlBinder;
 import org.moxie.maxml.MaxmlException;
 import org.moxie.maxml.MaxmlMap;
 import org.moxie.utils.FileUtils;
@@ -45,11 +49,22 @@ import org.moxie.utils.StringUtils;
 
 /**
  * Reads a Moxie tookit config file such as settings.moxie or build.moxie.
+ * <p>
+ * Parsed configs may be shared through a process-wide cache, see
+ * {@link #load(File, File, String)}.  A cached config is validated against
+ * the last modified times of the files it was parsed from and the SHA-1 hash
+ * of its content.
  */
 public class ToolkitConfig implements Serializable {
 
 	private static final long serialVersionUID = 1L;
 
+	private static final Map<String, ToolkitConfig> cache = new ConcurrentHashMap<String, ToolkitConfig>();
+
+	private static final AtomicInteger parseCount = new AtomicInteger();
+
+	private static final AtomicInteger cacheHitCount = new AtomicInteger();
+
 	File file;
 	File baseDirectory;
 	Pom pom;
@@ -78,8 +93,19 @@ public class ToolkitConfig implements Serializable {
 	MavenCacheStrategy mavenCacheStrategy;
 	boolean failFastOnArtifactResolution;
 	boolean parallelDownloads;
+	int ioThreads;
+	int cpuThreads;
+	String buildCache;
+	boolean buildCachePush;
+	String buildCacheUsername;
+	String buildCachePassword;
 	String dependencyNamePattern;
 
+	// the inputs of the parsed config and their last modified times
+	Map<File, Long> inputs;
+	String contentHash;
+	ToolkitConfig parent;
+
 	public ToolkitConfig() {
 		// default configuration
 		sourceDirectories = Arrays.asList(
@@ -117,6 +143,7 @@ public class ToolkitConfig implements Serializable {
 		updatePolicy = UpdatePolicy.defaultPolicy;
 		revisionRetentionCount = 1;
 		revisionPurgeAfterDays = 0;
+		inputs = new LinkedHashMap<File, Long>();
 	}
 
 	public ToolkitConfig(File file, File baseDirectory, String defaultResource) throws IOException, MaxmlException {
@@ -124,6 +151,65 @@ public class ToolkitConfig implements Serializable {
 		parse(file, baseDirectory, defaultResource);
 	}
 
+	/**
+	 * Returns the shared config parsed from the file.  The config is parsed
+	 * once and cached until the file, its parents, or its imported properties
+	 * change.  A shared config must not be modified.
+	 *
+	 * @param file
+	 * @param baseDirectory
+	 * @param defaultResource
+	 * @return the shared config
+	 * @throws IOException
+	 * @throws MaxmlException
+	 */
+	public static ToolkitConfig load(File file, File baseDirectory, String defaultResource) throws IOException, MaxmlException {
+		String key = file.getAbsolutePath() + File.pathSeparator
+				+ (baseDirectory == null ? "" : baseDirectory.getAbsolutePath()) + File.pathSeparator
+				+ defaultResource + File.pathSeparator + Toolkit.getMxRoot().getAbsolutePath();
+		ToolkitConfig config = cache.get(key);
+		if (config != null && config.isCurrent()) {
+			cacheHitCount.incrementAndGet();
+			return config;
+		}
+		config = new ToolkitConfig(file, baseDirectory, defaultResource);
+		cache.put(key, config);
+		return config;
+	}
+
+	/**
+	 * Returns the shared config parsed from the Moxie-shipped resource.
+	 *
+	 * @param resource
+	 * @return the shared config
+	 * @throws IOException
+	 * @throws MaxmlException
+	 */
+	static ToolkitConfig loadResource(String resource) throws IOException, MaxmlException {
+		ToolkitConfig config = cache.get(resource);
+		if (config != null) {
+			cacheHitCount.incrementAndGet();
+			return config;
+		}
+		config = new ToolkitConfig(resource);
+		cache.put(resource, config);
+		return config;
+	}
+
+	/**
+	 * Returns the number of configs parsed by this process.
+	 */
+	static int getParseCount() {
+		return parseCount.get();
+	}
+
+	/**
+	 * Returns the number of configs served from the cache.
+	 */
+	static int getCacheHitCount() {
+		return cacheHitCount.get();
+	}
+
 	private ToolkitConfig(String resource) throws IOException, MaxmlException {
 		this();
 		InputStream is = getClass().getResourceAsStream(resource);
@@ -168,12 +254,36 @@ public class ToolkitConfig implements Serializable {
 			}
 			this.lastModified = FileUtils.getLastModified(file);
 			content = FileUtils.readContent(file, "\n").trim();
+			this.contentHash = StringUtils.getSHA1(content);
+		}
+		if (file != null) {
+			inputs.put(file, file.lastModified());
 		}
 		return parse(content, defaultResource);
 	}
 
+	/**
+	 * Returns true if the files this config was parsed from are unchanged.
+	 */
+	boolean isCurrent() {
+		for (Map.Entry<File, Long> input : inputs.entrySet()) {
+			if (input.getKey().lastModified() != input.getValue()) {
+				return false;
+			}
+		}
+		if (contentHash != null) {
+			// the last modified time may be too coarse to detect an edit
+			String content = FileUtils.readContent(file, "\n").trim();
+			if (!contentHash.equals(StringUtils.getSHA1(content))) {
+				return false;
+			}
+		}
+		return parent == null || parent.isCurrent();
+	}
+
 
 	ToolkitConfig parse(String content, String defaultResource) throws IOException, MaxmlException {
+		parseCount.incrementAndGet();
 		MaxmlMap map = Maxml.parse(content);
 
 		if (map.containsKey(Key.requires.name())) {
@@ -191,19 +301,17 @@ public class ToolkitConfig implements Serializable {
 			File parentConfig = readFile(map, Key.parent, null);
 			if (parentConfig == null) {
 				File defaultFile = new File(Toolkit.getMxRoot(), defaultResource);
+				inputs.put(defaultFile, defaultFile.lastModified());
 				if (this.file == null || this.file.equals(defaultFile) || !defaultFile.exists()) {
 					// Moxie-shipped default resource
-					ToolkitConfig parent = new ToolkitConfig("/" + defaultResource);
-					setDefaultsFrom(parent);
+					setDefaultsFrom(loadResource("/" + defaultResource));
 				} else {
 					// local filesystem default is available
-					ToolkitConfig parent = new ToolkitConfig(defaultFile, baseDirectory, defaultResource);
-					setDefaultsFrom(parent);
+					setDefaultsFrom(load(defaultFile, baseDirectory, defaultResource));
 				}
 			} else {
 				// parent has been specified
-				ToolkitConfig parent = new ToolkitConfig(parentConfig, baseDirectory, defaultResource);
-				setDefaultsFrom(parent);
+				setDefaultsFrom(load(parentConfig, baseDirectory, defaultResource));
 			}
 		}
 
@@ -260,6 +368,12 @@ public class ToolkitConfig implements Serializable {
 		mavenCacheStrategy = MavenCacheStrategy.fromString(map.getString(Key.mavenCacheStrategy.name(), mavenCacheStrategy == null ? null : mavenCacheStrategy.name()));
 		parallelDownloads = map.getBoolean(Key.parallelDownloads.name(), parallelDownloads);
 		failFastOnArtifactResolution = map.getBoolean(Key.failFastOnArtifactResolution.name(), failFastOnArtifactResolution);
+		ioThreads = Math.max(0, map.getInt(Key.ioThreads.name(), ioThreads));
+		cpuThreads = Math.max(0, map.getInt(Key.cpuThreads.name(), cpuThreads));
+		buildCache = map.getString(Key.buildCache.name(), buildCache);
+		buildCachePush = map.getBoolean(Key.buildCachePush.name(), buildCachePush);
+		buildCacheUsername = map.getString(Key.buildCacheUsername.name(), buildCacheUsername);
+		buildCachePassword = map.getString(Key.buildCachePassword.name(), buildCachePassword);
 		apply = new TreeSet<String>(readStrings(map, Key.apply, new ArrayList<String>(apply), true));
 		outputDirectory = readFile(map, Key.outputDirectory, new File(baseDirectory, "build"));
 		targetDirectory = readFile(map, Key.targetDirectory, new File(baseDirectory, "build/target"));
@@ -469,23 +583,24 @@ public class ToolkitConfig implements Serializable {
 	}
 
 	@SuppressWarnings("unchecked")
-	void parseProxies(MaxmlMap map, Key key) {
+	void parseProxies(MaxmlMap map, Key key) throws MaxmlException {
 		if (map.containsKey(key.name())) {
 			List<MaxmlMap> values = (List<MaxmlMap>) map.getList(key.name(), null);
 			List<Proxy> ps = new ArrayList<Proxy>();
+			MaxmlBinder<Proxy> binder = MaxmlBinder.of(Proxy.class);
 			for (MaxmlMap definition : values) {
 				Proxy proxy = new Proxy();
-				proxy.id = definition.getString("id", "");
-				proxy.active = definition.getBoolean("active", false);
-				proxy.protocol = definition.getString("protocol", "http");
-				proxy.host = definition.getString("host", "");
-				proxy.port = definition.getInt("port", 80);
-				proxy.username = definition.getString("username", "");
-				proxy.password = definition.getString("password", "");
-				proxy.repositories = definition.getStrings("repositories", new ArrayList<String>());
-				proxy.proxyHosts = definition.getStrings("proxyHosts", new ArrayList<String>());
-				proxy.nonProxyHosts = definition.getStrings("nonProxyHosts", new ArrayList<String>());
-				ps.add(proxy);
+				proxy.id = "";
+				proxy.active = false;
+				proxy.protocol = "http";
+				proxy.host = "";
+				proxy.port = 80;
+				proxy.username = "";
+				proxy.password = "";
+				proxy.repositories = new ArrayList<String>();
+				proxy.proxyHosts = new ArrayList<String>();
+				proxy.nonProxyHosts = new ArrayList<String>();
+				ps.add(binder.bind(definition, proxy, false));
 			}
 			proxies = ps;
 		}
@@ -712,21 +827,15 @@ public class ToolkitConfig implements Serializable {
 		return list;
 	}
 
-	List<Person> readPersons(MaxmlMap map, Key key) {
+	List<Person> readPersons(MaxmlMap map, Key key) throws MaxmlException {
 		List<Person> list = new ArrayList<Person>();
 		if (map.containsKey(key)) {
+			MaxmlBinder<Person> binder = MaxmlBinder.of(Person.class);
 			for (Object o : map.getList(key.name(), new ArrayList<Object>())) {
 				if (o instanceof MaxmlMap) {
-					MaxmlMap m = (MaxmlMap) o;
 					Person p = new Person();
-					p.id = m.getString(Key.id.name(), null);
-					p.name = m.getString(Key.name.name(), null);
-					p.email = m.getString(Key.email.name(), null);
-					p.organization = m.getString(Key.organization.name(), null);
-					p.organizationUrl = m.getString(Key.organizationUrl.name(), null);
-					p.url = m.getString(Key.url.name(), null);
-					p.roles = m.getStrings(Key.roles.name(), new ArrayList<String>());
-					list.add(p);
+					p.roles = new ArrayList<String>();
+					list.add(binder.bind((MaxmlMap) o, p, false));
 				}
 			}
 		}
@@ -874,6 +983,7 @@ public class ToolkitConfig implements Serializable {
 	}
 
 	void importExternalProperties(File propsFile) {
+		inputs.put(propsFile, propsFile.lastModified());
 		if (propsFile.exists()) {
 			// System.out.println("importing " + propsFile.getAbsolutePath());
 			try {
@@ -891,29 +1001,57 @@ public class ToolkitConfig implements Serializable {
 	}
 
 	void setDefaultsFrom(ToolkitConfig parent) {
-		pom = parent.pom;
+		// the parent is shared, copy everything this config may modify
+		this.parent = parent;
+		pom = parent.pom.copy();
 		lastModified = Math.max(lastModified, parent.lastModified);
 
-		proxies = parent.proxies;
-		linkedModules = parent.linkedModules;
-		repositories = parent.repositories;
-		registeredRepositories = parent.registeredRepositories;
+		proxies = new ArrayList<Proxy>(parent.proxies);
+		linkedModules = new ArrayList<Module>(parent.linkedModules);
+		repositories = new ArrayList<String>(parent.repositories);
+		registeredRepositories = new ArrayList<RemoteRepository>(parent.registeredRepositories);
 
 		dependencyDirectory = parent.dependencyDirectory;
-		sourceDirectories = parent.sourceDirectories;
-		resourceDirectories = parent.resourceDirectories;
+		sourceDirectories = copy(parent.sourceDirectories);
+		resourceDirectories = copy(parent.resourceDirectories);
 		outputDirectory = parent.outputDirectory;
 		targetDirectory = parent.targetDirectory;
-		apply = parent.apply;
-		tasks = parent.tasks;
-		dependencyOverrides = parent.dependencyOverrides;
-		dependencyAliases = parent.dependencyAliases;
-		externalProperties = parent.externalProperties;
+		apply = new TreeSet<String>(parent.apply);
+		tasks = new MaxmlMap();
+		for (Map.Entry<String, Object> entry : parent.tasks.entrySet()) {
+			if (entry.getValue() instanceof MaxmlMap) {
+				MaxmlMap attributes = new MaxmlMap();
+				attributes.putAll((MaxmlMap) entry.getValue());
+				tasks.put(entry.getKey(), attributes);
+			} else {
+				tasks.put(entry.getKey(), entry.getValue());
+			}
+		}
+		dependencyOverrides = new HashMap<Scope, Map<String, Pom>>();
+		for (Map.Entry<Scope, Map<String, Pom>> entry : parent.dependencyOverrides.entrySet()) {
+			dependencyOverrides.put(entry.getKey(), new TreeMap<String, Pom>(entry.getValue()));
+		}
+		dependencyAliases = new HashMap<String, Dependency>(parent.dependencyAliases);
+		externalProperties = new HashMap<String, String>(parent.externalProperties);
 		updatePolicy = parent.updatePolicy;
 		revisionRetentionCount = parent.revisionRetentionCount;
 		revisionPurgeAfterDays = parent.revisionPurgeAfterDays;
 		mavenCacheStrategy = parent.mavenCacheStrategy;
 		parallelDownloads = parent.parallelDownloads;
 		failFastOnArtifactResolution = parent.failFastOnArtifactResolution;
+		ioThreads = parent.ioThreads;
+		cpuThreads = parent.cpuThreads;
+		buildCache = parent.buildCache;
+		buildCachePush = parent.buildCachePush;
+		buildCacheUsername = parent.buildCacheUsername;
+		buildCachePassword = parent.buildCachePassword;
+	}
+
+	private static List<SourceDirectory> copy(List<SourceDirectory> directories) {
+		List<SourceDirectory> list = new ArrayList<SourceDirectory>();
+		for (SourceDirectory sd : directories) {
+			list.add(sd.copy());
+		}
+		return list;
 	}
 }
@@ -0,0 +1,343 @@
+/*
+ * Copyright 2013 James Moger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.moxie.ant;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.moxie.ant.ClassUtil.ClassInfo;
+import org.moxie.console.Console;
+import org.moxie.utils.FileUtils;
+import org.moxie.utils.StringUtils;
+
+/**
+ * The source and class dependency graph of an incremental compile.
+ * <p>
+ * The graph records the classes generated from each source file and the
+ * classes referenced by each generated class.  When sources change, the
+ * classes of the changed sources and of all sources which transitively
+ * reference those classes are deleted so that they are recompiled.  Classes of
+ * deleted sources are also deleted.
+ * <p>
+ * A full rebuild is required if the graph does not exist, if the classpath or
+ * compiler options have changed, or if a changed source declares compile-time
+ * constants which javac may have inlined into other classes.
+ */
+class ClassGraph {
+
+	private static final String VERSION = "1";
+
+	private final File file;
+
+	private final Map<File, Source> sources;
+
+	private String fingerprint;
+
+	private boolean loaded;
+
+	ClassGraph(File file) {
+		this.file = file;
+		this.sources = new TreeMap<File, Source>();
+	}
+
+	/**
+	 * Reads the graph from the state file.
+	 *
+	 * @return true if the graph was read
+	 */
+	boolean read() {
+		sources.clear();
+		loaded = false;
+		if (!file.exists()) {
+			return false;
+		}
+		List<String> lines = FileUtils.readLines(file, "\n");
+		if (lines.isEmpty() || !("version " + VERSION).equals(lines.get(0))) {
+			return false;
+		}
+		Source source = null;
+		for (String line : lines.subList(1, lines.size())) {
+			if (line.startsWith("fingerprint ")) {
+				fingerprint = line.substring("fingerprint ".length());
+			} else if (line.startsWith("source ")) {
+				// source lastModified path
+				String [] fields = line.split(" ", 3);
+				source = new Source(new File(fields[2]));
+				source.lastModified = Long.parseLong(fields[1]);
+				sources.put(source.file, source);
+			} else if (line.startsWith("class ") && source != null) {
+				// class name constants references...
+				String [] fields = line.split(" ");
+				Set<String> references = new LinkedHashSet<String>(Arrays.asList(fields).subList(3, fields.length));
+				source.classes.put(fields[1], new ClassInfo(fields[1], null, references, Boolean.parseBoolean(fields[2])));
+			}
+		}
+		loaded = true;
+		return true;
+	}
+
+	/**
+	 * Writes the graph to the state file.
+	 *
+	 * @param fingerprint
+	 *            the fingerprint of the classpath and compiler options
+	 */
+	void write(String fingerprint) {
+		this.fingerprint = fingerprint;
+		// only references to classes of this graph are relevant, changes to
+		// classes on the classpath change the fingerprint
+		Set<String> names = new HashSet<String>();
+		for (Source source : sources.values()) {
+			names.addAll(source.classes.keySet());
+		}
+		StringBuilder sb = new StringBuilder();
+		sb.append("version ").append(VERSION).append('\n');
+		sb.append("fingerprint ").append(fingerprint).append('\n');
+		for (Source source : sources.values()) {
+			sb.append("source ").append(source.lastModified).append(' ').append(source.file.getAbsolutePath()).append('\n');
+			for (ClassInfo info : source.classes.values()) {
+				sb.append("class ").append(info.name).append(' ').append(info.constants);
+				for (String reference : info.references) {
+					if (names.contains(reference)) {
+						sb.append(' ').append(reference);
+					}
+				}
+				sb.append('\n');
+			}
+		}
+		file.getParentFile().mkdirs();
+		FileUtils.writeContent(file, sb.toString());
+	}
+
+	/**
+	 * Deletes the classes of changed and deleted sources and the classes of
+	 * all sources which transitively depend on them.
+	 *
+	 * @param current
+	 *            the current source files
+	 * @param fingerprint
+	 *            the fingerprint of the classpath and compiler options
+	 * @param destdir
+	 *            the class output directory
+	 * @param console
+	 * @return the sources to recompile or null if a full rebuild is required
+	 */
+	Set<File> invalidate(Collection<File> current, String fingerprint, File destdir, Console console) {
+		if (!loaded) {
+			console.debug(1, "full rebuild, no class dependency graph");
+			return null;
+		}
+		if (!fingerprint.equals(this.fingerprint)) {
+			console.debug(1, "full rebuild, classpath or compiler options have changed");
+			return null;
+		}
+
+		Set<File> changed = new LinkedHashSet<File>();
+		for (File file : current) {
+			Source source = sources.get(file);
+			if (source == null || source.lastModified != file.lastModified()) {
+				changed.add(file);
+			}
+		}
+		Set<File> deleted = new LinkedHashSet<File>(sources.keySet());
+		deleted.removeAll(current);
+
+		// classes of the changed and deleted sources
+		List<String> dirty = new ArrayList<String>();
+		for (File file : concat(changed, deleted)) {
+			Source source = sources.get(file);
+			if (source == null) {
+				continue;
+			}
+			for (ClassInfo info : source.classes.values()) {
+				if (info.constants) {
+					console.debug(1, "full rebuild, {0} declares constants", info.name);
+					return null;
+				}
+				dirty.add(info.name);
+			}
+		}
+
+		// reverse the class references
+		Map<String, Set<Source>> referrers = new HashMap<String, Set<Source>>();
+		for (Source source : sources.values()) {
+			for (ClassInfo info : source.classes.values()) {
+				for (String reference : info.references) {
+					Set<Source> set = referrers.get(reference);
+					if (set == null) {
+						set = new HashSet<Source>();
+						referrers.put(reference, set);
+					}
+					set.add(source);
+				}
+			}
+		}
+
+		// transitive dependents of the dirty classes
+		Set<File> recompile = new LinkedHashSet<File>(changed);
+		Set<String> visited = new HashSet<String>(dirty);
+		for (int i = 0; i < dirty.size(); i++) {
+			Set<Source> set = referrers.get(dirty.get(i));
+			if (set == null) {
+				continue;
+			}
+			for (Source source : set) {
+				if (deleted.contains(source.file) || !recompile.add(source.file)) {
+					continue;
+				}
+				for (String name : source.classes.keySet()) {
+					if (visited.add(name)) {
+						dirty.add(name);
+					}
+				}
+			}
+		}
+
+		// delete the stale classes
+		for (File file : concat(recompile, deleted)) {
+			Source source = sources.get(file);
+			if (source == null) {
+				continue;
+			}
+			for (String name : source.classes.keySet()) {
+				new File(destdir, name + ".class").delete();
+			}
+		}
+		for (File file : deleted) {
+			sources.remove(file);
+		}
+
+		console.debug(1, "{0} changed, {1} deleted, {2} dependent sources",
+				changed.size(), deleted.size(), recompile.size() - changed.size());
+		return recompile;
+	}
+
+	/**
+	 * Updates the graph from the classes written by the compiler.
+	 *
+	 * @param compiled
+	 *            the sources which were to be compiled
+	 * @param sourceDirs
+	 *            the source directories
+	 * @param destdir
+	 *            the class output directory
+	 * @param since
+	 *            classes modified after this time are read
+	 * @param console
+	 */
+	void update(Collection<File> compiled, List<File> sourceDirs, File destdir, long since, Console console) {
+		for (File file : compiled) {
+			Source source = new Source(file);
+			source.lastModified = file.lastModified();
+			sources.put(file, source);
+		}
+		Set<String> known = new HashSet<String>();
+		for (Source source : sources.values()) {
+			known.addAll(source.classes.keySet());
+		}
+
+		Map<String, File> classes = new TreeMap<String, File>();
+		listClasses(destdir, "", classes);
+		int read = 0;
+		for (Map.Entry<String, File> entry : classes.entrySet()) {
+			String name = entry.getKey();
+			File classFile = entry.getValue();
+			if (known.contains(name) && classFile.lastModified() < since) {
+				// unchanged class
+				continue;
+			}
+			ClassInfo info;
+			try {
+				info = ClassUtil.getClassInfo(classFile);
+				read++;
+			} catch (Exception e) {
+				console.warn("failed to read {0}: {1}", classFile, e.getMessage());
+				continue;
+			}
+			Source source = findSource(info, sourceDirs);
+			if (source != null) {
+				source.classes.put(info.name, info);
+			}
+		}
+		console.debug(1, "read {0} of {1} classes", read, classes.size());
+	}
+
+	/**
+	 * Returns the graph source of a class.
+	 */
+	private Source findSource(ClassInfo info, List<File> sourceDirs) {
+		String sourceFile = info.sourceFile;
+		if (StringUtils.isEmpty(sourceFile)) {
+			// no debug info, assume the source is named for the outer class
+			String simpleName = info.name.substring(info.name.lastIndexOf('/') + 1);
+			int dollar = simpleName.indexOf('$');
+			sourceFile = (dollar > 0 ? simpleName.substring(0, dollar) : simpleName) + ".java";
+		}
+		String pkg = info.getPackage();
+		String path = pkg.length() == 0 ? sourceFile : (pkg + "/" + sourceFile);
+		for (File dir : sourceDirs) {
+			Source source = sources.get(new File(dir, path));
+			if (source != null) {
+				return source;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Recursively lists the class files of a directory by internal class name.
+	 */
+	private static void listClasses(File dir, String prefix, Map<String, File> classes) {
+		File [] files = dir.listFiles();
+		if (files == null) {
+			return;
+		}
+		for (File file : files) {
+			String name = file.getName();
+			if (file.isDirectory()) {
+				listClasses(file, prefix + name + "/", classes);
+			} else if (name.endsWith(".class")) {
+				classes.put(prefix + name.substring(0, name.length() - ".class".length()), file);
+			}
+		}
+	}
+
+	private static List<File> concat(Collection<File> a, Collection<File> b) {
+		List<File> list = new ArrayList<File>(a);
+		list.addAll(b);
+		return list;
+	}
+
+	private static class Source {
+		final File file;
+		final Map<String, ClassInfo> classes;
+		long lastModified;
+
+		Source(File file) {
+			this.file = file;
+			this.classes = new TreeMap<String, ClassInfo>();
+		}
+	}
+}
@@ -0,0 +1,694 @@
+/*
+ * The Apache Software License, Version 1.1
+ *
+ * Copyright © 2002 Jesse Stockall.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *
+ * 3. The end-user documentation included with the redistribution, if
+ *    any, must include the following acknowlegement:
+ *       "This product includes software developed by the
+ *        Apache Software Foundation (http://www.apache.org/)."
+ *    Alternately, this acknowlegement may appear in the software itself,
+ *    if and wherever such third-party acknowlegements normally appear.
+ *
+ * 4. The names "The Jakarta Project", "Tomcat", and "Apache Software
+ *    Foundation" must not be used to endorse or promote products derived
+ *    from this software without prior written permission. For written
+ *    permission, please contact apache@apache.org.
+ *
+ * 5. Products derived from this software may not be called "Apache"
+ *    nor may "Apache" appear in their names without prior written
+ *    permission of the Apache Group.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL THE APACHE SOFTWARE FOUNDATION OR
+ * ITS CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF
+ * USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+ * OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ */
+package org.moxie.ant;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Examines a class file and returns a list of all referenced classes.
+ * 
+ * @author Original Code: <a href="mailto:jake@riggshill.com">John W. Kohler
+ *         </a>
+ * @author Jesse Stockall
+ * @version $Revision: 1.1.1.1 $ $Date: 2002/09/26 20:27:16 $
+ */
+public class ClassUtil {
+
+	//
+	// ConstantPool entry identifiers
+	//
+	private static final int CONSTANT_Utf8 = 1;
+
+	private static final int CONSTANT_Integer = 3;
+
+	private static final int CONSTANT_Float = 4;
+
+	private static final int CONSTANT_Long = 5;
+
+	private static final int CONSTANT_Double = 6;
+
+	private static final int CONSTANT_Class = 7;
+
+	private static final int CONSTANT_String = 8;
+
+	private static final int CONSTANT_Fieldref = 9;
+
+	private static final int CONSTANT_Methodref = 10;
+
+	private static final int CONSTANT_InterfaceMethodref = 11;
+
+	private static final int CONSTANT_NameAndType = 12;
+
+	private static final int CONSTANT_MethodHandle = 15;
+
+	private static final int CONSTANT_MethodType = 16;
+
+	private static final int CONSTANT_Dynamic = 17;
+
+	private static final int CONSTANT_InvokeDynamic = 18;
+
+	private static final int CONSTANT_Module = 19;
+
+	private static final int CONSTANT_Package = 20;
+
+	//
+	// field access flags
+	//
+	private static final int ACC_PRIVATE = 0x0002;
+
+	private static final int ACC_FINAL = 0x0010;
+
+	/** no ctor necessary */
+	private ClassUtil() {
+	}
+
+	/**
+	 * Reads the indicated class file and returns a list of all referenced
+	 * classes (dependency list). The list will not refer itself.
+	 * 
+	 * @param classFile
+	 *            the name of the class file to read
+	 * @return List a list of all referenced class names
+	 * @throws IOException
+	 *             when IO errors occur
+	 */
+	public static List<String> getDependencies(String classFile) throws IOException {
+		return getDependencies(new File(classFile));
+	}
+
+	/**
+	 * Reads the indicated class file and returns a list of all referenced
+	 * classes (dependency list). The list will not refer itself.
+	 * 
+	 * @param classFile
+	 *            a File indicating the class file to read
+	 * @return List a list of all referenced class names
+	 * @throws IOException
+	 *             when IO errors occur
+	 */
+	public static List<String> getDependencies(File classFile) throws IOException {
+		InputStream is = null;
+		try {
+			is = new FileInputStream(classFile);
+			return getDependencies(is);
+		} finally {
+			if (is != null) {
+				is.close();
+			}
+		}
+	}
+
+	/**
+	 * Reads the indicated class file and returns a list of all referenced
+	 * classes (dependency list). The list will not refer itself.
+	 * 
+	 * @param is
+	 *            an inputstream opened to the first byte of a class file
+	 * @return List a list of all referenced class names
+	 * @throws IOException
+	 *             when IO errors occur
+	 */
+	public static List<String> getDependencies(InputStream is) throws IOException {
+		return getDependencies(new DataInputStream(is));
+	}
+
+	/**
+	 * Reads the indicated class file and returns a list of all referenced
+	 * classes (dependency list). The list will not refer itself.
+	 * 
+	 * @param is
+	 *            a DataInput opened to the first byte of a class file
+	 * @return List a list of all referenced class names
+	 * @throws IOException
+	 *             when IO errors occur
+	 */
+	public static List<String> getDependencies(DataInputStream is) throws IOException {
+		//
+		// read the prefix stuff
+		//
+		if (is.readInt() != 0xcafebabe) {
+			throw new IllegalStateException("NOT A CLASS FILE");
+		}
+
+		is.readUnsignedShort(); // minor
+		is.readUnsignedShort(); // major
+
+		int pool_count = is.readUnsignedShort();
+
+		//
+		// this array holds various objects from the constant pool
+		// (in essence it IS the constant pool although we're
+		// not populating with all types)
+		//
+		Object[] cp = new Object[pool_count];
+		//
+		// this list holds all class references from the pool
+		// poolCount / 4 should be larger than we ever need
+		// this holds indices into the UTFs for class class names
+		//
+		List<Integer> classRefs = new ArrayList<Integer>(pool_count / 4);
+		readConstantPool(is, cp, classRefs);
+
+		int access = is.readUnsignedShort(); // access flags
+		int thisClassIdx = ((Integer) (cp[is.readUnsignedShort()])).intValue();
+		//
+		// do we need to consume the entire class file? If we open the
+		// file obviuously not but if the user is passing us a stream
+		// couldn't they assume that the entire file was read? I can't
+		// come up with a scenario where it'd matter, but...
+		//
+		List<String> classNames = new ArrayList<String>(classRefs.size());
+		for (Integer idx : classRefs) {
+			if (idx != thisClassIdx) {
+				// strip array references here
+				classNames.add(cp[idx].toString());
+			}
+		}
+		return classNames;
+	}
+
+	/**
+	 * Reads the class file from the stream and returns the internal names of
+	 * all referenced classes.  The stream is read to the end but not closed.
+	 * 
+	 * @param is
+	 *            an inputstream opened to the first byte of a class file
+	 * @return the referenced class names
+	 * @throws IOException
+	 *             when IO errors occur
+	 * @see #getClassReferences(byte[], int)
+	 */
+	public static List<String> getClassReferences(InputStream is) throws IOException {
+		byte [] b = new byte[8192];
+		int length = 0;
+		int n;
+		while ((n = is.read(b, length, b.length - length)) != -1) {
+			length += n;
+			if (length == b.length) {
+				b = Arrays.copyOf(b, b.length * 2);
+			}
+		}
+		return getClassReferences(b, length);
+	}
+
+	/**
+	 * Parses the constant pool of a class file and returns the internal names
+	 * of all referenced classes except the class itself.  Array types are
+	 * reduced to their element class.
+	 * <p>
+	 * Unlike {@link #getDependencies(DataInputStream)}, this parser works on
+	 * the bytes of the class file and only decodes the Utf8 entries which are
+	 * referenced by Class entries and by the descriptors of MethodType,
+	 * InvokeDynamic, and Dynamic entries.  The descriptors contribute the
+	 * types of lambdas and method references which do not necessarily have a
+	 * Class entry.
+	 * 
+	 * @param b
+	 *            the class file bytes
+	 * @param length
+	 *            the number of valid bytes
+	 * @return the referenced class names
+	 * @throws IOException
+	 *             if the bytes are not a class file
+	 */
+	public static List<String> getClassReferences(byte [] b, int length) throws IOException {
+		if (length < 10 || u4(b, 0) != 0xcafebabe) {
+			throw new IOException("NOT A CLASS FILE");
+		}
+		int pool_count = u2(b, 8);
+		// offset of each Utf8 entry or the value of each indexing entry
+		int [] slots = new int[pool_count];
+		byte [] tags = new byte[pool_count];
+		int pos = 10;
+		try {
+			for (int i = 1; i < pool_count; ++i) {
+				int tag = b[pos] & 0xff;
+				tags[i] = (byte) tag;
+				switch (tag) {
+				case CONSTANT_Utf8:
+					slots[i] = pos + 1;
+					pos += 3 + u2(b, pos + 1);
+					break;
+				case CONSTANT_Class:
+				case CONSTANT_MethodType:
+					slots[i] = u2(b, pos + 1);
+					pos += 3;
+					break;
+				case CONSTANT_NameAndType:
+					// descriptor index
+					slots[i] = u2(b, pos + 3);
+					pos += 5;
+					break;
+				case CONSTANT_Dynamic:
+				case CONSTANT_InvokeDynamic:
+					// name and type index
+					slots[i] = u2(b, pos + 3);
+					pos += 5;
+					break;
+				case CONSTANT_Integer:
+				case CONSTANT_Float:
+				case CONSTANT_Fieldref:
+				case CONSTANT_Methodref:
+				case CONSTANT_InterfaceMethodref:
+					pos += 5;
+					break;
+				case CONSTANT_Long:
+				case CONSTANT_Double:
+					// 8 byte constants take up 2 entries
+					pos += 9;
+					++i;
+					break;
+				case CONSTANT_String:
+				case CONSTANT_Module:
+				case CONSTANT_Package:
+					pos += 3;
+					break;
+				case CONSTANT_MethodHandle:
+					pos += 4;
+					break;
+				default:
+					throw new IOException("unknown constant pool tag " + tag);
+				}
+			}
+			int thisClass = slots[u2(b, pos + 2)];
+
+			Set<String> names = new LinkedHashSet<String>();
+			for (int i = 1; i < pool_count; ++i) {
+				switch (tags[i]) {
+				case CONSTANT_Class:
+					if (slots[i] != thisClass) {
+						addClassName(utf8(b, slots[slots[i]]), names);
+					}
+					break;
+				case CONSTANT_MethodType:
+					addDescriptorTypes(utf8(b, slots[slots[i]]), names);
+					break;
+				case CONSTANT_Dynamic:
+				case CONSTANT_InvokeDynamic:
+					addDescriptorTypes(utf8(b, slots[slots[slots[i]]]), names);
+					break;
+				default:
+					break;
+				}
+			}
+			names.remove(utf8(b, slots[thisClass]));
+			return new ArrayList<String>(names);
+		} catch (ArrayIndexOutOfBoundsException e) {
+			throw new IOException("TRUNCATED CLASS FILE");
+		}
+	}
+
+	/**
+	 * Adds the class name of a Class entry, reducing array types to their
+	 * element class.
+	 */
+	private static void addClassName(String name, Set<String> names) {
+		if (name.charAt(0) != '[') {
+			names.add(name);
+			return;
+		}
+		int i = name.lastIndexOf('[') + 1;
+		if (name.charAt(i) == 'L') {
+			names.add(name.substring(i + 1, name.length() - 1));
+		}
+	}
+
+	private static int u2(byte [] b, int pos) {
+		return ((b[pos] & 0xff) << 8) | (b[pos + 1] & 0xff);
+	}
+
+	private static int u4(byte [] b, int pos) {
+		return (u2(b, pos) << 16) | u2(b, pos + 2);
+	}
+
+	/**
+	 * Decodes the modified UTF-8 entry at the specified offset.
+	 * 
+	 * @param b
+	 * @param pos
+	 *            the offset of the length of the entry
+	 * @return the string
+	 */
+	private static String utf8(byte [] b, int pos) {
+		int length = u2(b, pos);
+		char [] chars = new char[length];
+		int count = 0;
+		int i = pos + 2;
+		int end = i + length;
+		while (i < end) {
+			int c = b[i++] & 0xff;
+			if (c < 0x80) {
+				chars[count++] = (char) c;
+			} else if (c < 0xe0) {
+				chars[count++] = (char) (((c & 0x1f) << 6) | (b[i++] & 0x3f));
+			} else {
+				chars[count++] = (char) (((c & 0x0f) << 12) | ((b[i++] & 0x3f) << 6) | (b[i++] & 0x3f));
+			}
+		}
+		return new String(chars, 0, count);
+	}
+
+	/**
+	 * Reads the indicated class file and returns the class name, the source
+	 * file name, and all referenced class names.  In addition to the class
+	 * entries of the constant pool, the references include all class names
+	 * which appear in descriptors, signatures, and annotations.
+	 * 
+	 * @param classFile
+	 *            a File indicating the class file to read
+	 * @return the class info
+	 * @throws IOException
+	 *             when IO errors occur
+	 */
+	public static ClassInfo getClassInfo(File classFile) throws IOException {
+		DataInputStream is = null;
+		try {
+			is = new DataInputStream(new BufferedInputStream(new FileInputStream(classFile)));
+			return getClassInfo(is);
+		} finally {
+			if (is != null) {
+				is.close();
+			}
+		}
+	}
+
+	/**
+	 * Reads the indicated class file and returns the class name, the source
+	 * file name, and all referenced class names.
+	 * 
+	 * @param is
+	 *            a DataInput opened to the first byte of a class file
+	 * @return the class info
+	 * @throws IOException
+	 *             when IO errors occur
+	 */
+	public static ClassInfo getClassInfo(DataInputStream is) throws IOException {
+		if (is.readInt() != 0xcafebabe) {
+			throw new IllegalStateException("NOT A CLASS FILE");
+		}
+
+		is.readUnsignedShort(); // minor
+		is.readUnsignedShort(); // major
+
+		int pool_count = is.readUnsignedShort();
+		Object[] cp = new Object[pool_count];
+		List<Integer> classRefs = new ArrayList<Integer>(pool_count / 4);
+		readConstantPool(is, cp, classRefs);
+
+		is.readUnsignedShort(); // access flags
+		String name = cp[((Integer) cp[is.readUnsignedShort()]).intValue()].toString();
+		is.readUnsignedShort(); // super class
+		int interfaces = is.readUnsignedShort();
+		for (int i = 0; i < interfaces; i++) {
+			is.readUnsignedShort();
+		}
+
+		// non-private final fields with a ConstantValue attribute are
+		// compile-time constants which javac inlines into referencing classes,
+		// javac also inlines the constants of final instance fields
+		boolean constants = false;
+		int fields = is.readUnsignedShort();
+		for (int i = 0; i < fields; i++) {
+			int access = is.readUnsignedShort();
+			is.readUnsignedShort(); // name
+			is.readUnsignedShort(); // descriptor
+			boolean inlined = (access & ACC_PRIVATE) == 0 && (access & ACC_FINAL) != 0;
+			int attributes = is.readUnsignedShort();
+			for (int j = 0; j < attributes; j++) {
+				Object attribute = cp[is.readUnsignedShort()];
+				if (inlined && "ConstantValue".equals(attribute)) {
+					constants = true;
+				}
+				skip(is, is.readInt());
+			}
+		}
+		int methods = is.readUnsignedShort();
+		for (int i = 0; i < methods; i++) {
+			is.readUnsignedShort(); // access flags
+			is.readUnsignedShort(); // name
+			is.readUnsignedShort(); // descriptor
+			int attributes = is.readUnsignedShort();
+			for (int j = 0; j < attributes; j++) {
+				is.readUnsignedShort();
+				skip(is, is.readInt());
+			}
+		}
+		String sourceFile = null;
+		int attributes = is.readUnsignedShort();
+		for (int j = 0; j < attributes; j++) {
+			Object attribute = cp[is.readUnsignedShort()];
+			int length = is.readInt();
+			if ("SourceFile".equals(attribute)) {
+				sourceFile = cp[is.readUnsignedShort()].toString();
+				length -= 2;
+			}
+			skip(is, length);
+		}
+
+		Set<String> references = new LinkedHashSet<String>();
+		for (Integer idx : classRefs) {
+			String ref = cp[idx].toString();
+			if (ref.charAt(0) != '[') {
+				references.add(ref);
+			}
+		}
+		for (Object o : cp) {
+			if (o instanceof String) {
+				addDescriptorTypes((String) o, references);
+			}
+		}
+		references.remove(name);
+		return new ClassInfo(name, sourceFile, references, constants);
+	}
+
+	/**
+	 * Adds the class names of all object types (Lname; or Lname<) of a field
+	 * descriptor, method descriptor, or generic signature.  Strings which are
+	 * not descriptors may contribute names which do not exist.
+	 * 
+	 * @param descriptor
+	 * @param names
+	 */
+	private static void addDescriptorTypes(String descriptor, Set<String> names) {
+		int start = descriptor.indexOf('L');
+		while (start > -1) {
+			int end = start + 1;
+			while (end < descriptor.length()) {
+				char c = descriptor.charAt(end);
+				if (c == ';' || c == '<') {
+					break;
+				} else if (c == '(' || c == ')' || c == '[' || c == ' ' || c == '.') {
+					end = -1;
+					break;
+				}
+				end++;
+			}
+			if (end > start + 1 && end < descriptor.length()) {
+				names.add(descriptor.substring(start + 1, end));
+				start = descriptor.indexOf('L', end);
+			} else {
+				start = descriptor.indexOf('L', start + 1);
+			}
+		}
+	}
+
+	private static void skip(DataInputStream is, int length) throws IOException {
+		while (length > 0) {
+			int skipped = is.skipBytes(length);
+			if (skipped <= 0) {
+				throw new EOFException();
+			}
+			length -= skipped;
+		}
+	}
+
+	/**
+	 * Reads the constant pool storing UTF entries as Strings and CLASS entries
+	 * as indices into the UTF entries.
+	 * 
+	 * @param is
+	 * @param cp
+	 *            the constant pool array
+	 * @param classRefs
+	 *            the list of indices of class names
+	 * @throws IOException
+	 */
+	private static void readConstantPool(DataInputStream is, Object[] cp, List<Integer> classRefs) throws IOException {
+		int pool_count = cp.length;
+		//
+		// now read the constant pool - storing only
+		// UTF and CLASS entries
+		//
+		for (int i = 1; i < pool_count; ++i) {
+			switch (is.readUnsignedByte()) {
+
+			case CONSTANT_Utf8:
+				cp[i] = is.readUTF();
+				break;
+			case CONSTANT_Integer:
+			case CONSTANT_Float:
+				is.readInt();
+				break;
+			case CONSTANT_Long:
+			case CONSTANT_Double:
+				is.readInt();
+				is.readInt();
+				// section 4.4.5 of the Java VM spec states that all 8
+				// byte constants take up 2 entries in the constant
+				// table - the next entry (n+1) is not used|usable
+				// therefore we need to skip it - if we don't then
+				// things sometimes get munged
+				//
+				++i;
+				break;
+			case CONSTANT_Class:
+				//
+				// class references are what we're really after so store
+				// 'em in a seperate list for simple/fast retrieval
+				// note: the ONLY reason I'm storing the idx object in the
+				// cp array is so that we can deref the this_class index later
+				//
+				Integer idx = new Integer(is.readUnsignedShort());
+				cp[i] = idx;
+				classRefs.add(idx);
+				break;
+			case CONSTANT_String:
+				is.readUnsignedShort();
+				break;
+			case CONSTANT_Fieldref:
+			case CONSTANT_Methodref:
+			case CONSTANT_InterfaceMethodref:
+				is.readUnsignedShort();
+				is.readUnsignedShort();
+				break;
+			case CONSTANT_NameAndType:
+				is.readUnsignedShort();
+				is.readUnsignedShort();
+				break;
+			case CONSTANT_MethodHandle:
+				is.readUnsignedByte();
+				is.readUnsignedShort();
+				break;
+			case CONSTANT_MethodType:
+				is.readUnsignedShort();
+				break;
+			case CONSTANT_Dynamic:
+			case CONSTANT_InvokeDynamic:
+				is.readUnsignedShort();
+				is.readUnsignedShort();
+				break;
+			case CONSTANT_Module:
+			case CONSTANT_Package:
+				is.readUnsignedShort();
+				break;
+			default:
+				break;
+			}
+		}
+	}
+
+	/**
+	 * The name, source file, and references of a class.
+	 */
+	public static class ClassInfo {
+
+		/**
+		 * the internal name of the class (e.g. org/moxie/Build)
+		 */
+		public final String name;
+
+		/**
+		 * the source file name of the class or null if it is not known
+		 */
+		public final String sourceFile;
+
+		/**
+		 * the internal names of the referenced classes
+		 */
+		public final Set<String> references;
+
+		/**
+		 * true if the class declares non-private compile-time constants
+		 */
+		public final boolean constants;
+
+		ClassInfo(String name, String sourceFile, Set<String> references, boolean constants) {
+			this.name = name;
+			this.sourceFile = sourceFile;
+			this.references = Collections.unmodifiableSet(references);
+			this.constants = constants;
+		}
+
+		/**
+		 * Returns the internal name of the package of the class.
+		 * 
+		 * @return the package name or an empty string for the default package
+		 */
+		public String getPackage() {
+			int slash = name.lastIndexOf('/');
+			return slash < 0 ? "" : name.substring(0, slash);
+		}
+	}
+}
@@ -0,0 +1,432 @@
+/*
+ * Copyright 2013 James Moger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.moxie.ant;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+/**
+ * A long-lived local compile server which keeps a warm system compiler.
+ * <p>
+ * The server listens on a loopback port and writes the port and a random
+ * access token to a state file which is only readable by the current user.
+ * Each request must present the token.  Until the token is verified, strings
+ * are limited to {@link #MAX_HEADER_LENGTH} bytes, and a request which is not
+ * read within {@link #REQUEST_TIMEOUT} ms is dropped.  File managers, and
+ * therefore the indexes of the classpath jars, are cached by the compiler
+ * options and the size and modification time of the classpath jars.  The
+ * server exits after it has been idle for the specified number of minutes.
+ * <p>
+ * A server only serves builds with the same Java runtime and Moxie version
+ * because its state file is named by {@link #getStateFile(File, String)}.
+ * <p>
+ * This class only depends on the JDK because it is launched with the Moxie
+ * jar as its only classpath entry.
+ */
+public class CompileServer {
+
+	static final String PROTOCOL = "mxjavac-1";
+
+	static final String COMPILE = "compile";
+
+	static final String STOP = "stop";
+
+	static final String OK = "ok";
+
+	static final String FAILED = "failed";
+
+	static final int DEFAULT_IDLE_MINUTES = 180;
+
+	/**
+	 * The length limit of the protocol and the token.
+	 */
+	static final int MAX_HEADER_LENGTH = 64;
+
+	/**
+	 * The length limit of a string or list of an authenticated request.
+	 */
+	static final int MAX_LENGTH = 16 * 1024 * 1024;
+
+	/**
+	 * The read timeout of an accepted connection.
+	 */
+	static final int REQUEST_TIMEOUT = 60 * 1000;
+
+	private static final int MAX_FILE_MANAGERS = 8;
+
+	private final File stateFile;
+
+	private final long idleTimeout;
+
+	private final JavaCompiler compiler;
+
+	private final Map<String, StandardJavaFileManager> fileManagers;
+
+	private volatile boolean running;
+
+	public CompileServer(File stateFile, int idleMinutes) {
+		this.stateFile = stateFile;
+		this.idleTimeout = idleMinutes * 60 * 1000L;
+		this.compiler = ToolProvider.getSystemJavaCompiler();
+		this.fileManagers = new LinkedHashMap<String, StandardJavaFileManager>(16, 0.75f, true);
+	}
+
+	public static void main(String... args) throws Exception {
+		if (args.length == 0) {
+			System.err.println("usage: CompileServer <state file> [idle minutes]");
+			System.exit(1);
+		}
+		int idle = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_IDLE_MINUTES;
+		CompileServer server = new CompileServer(new File(args[0]), idle);
+		server.run();
+	}
+
+	/**
+	 * Listens for compile requests until the server is stopped or idle.
+	 *
+	 * @throws IOException
+	 */
+	public void run() throws IOException {
+		if (compiler == null) {
+			throw new IOException("the system Java compiler is not available");
+		}
+		ServerSocket serverSocket = new ServerSocket();
+		serverSocket.bind(new InetSocketAddress(InetAddress.getByName(null), 0));
+		serverSocket.setSoTimeout((int) Math.min(idleTimeout, Integer.MAX_VALUE));
+
+		byte [] bytes = new byte[16];
+		new SecureRandom().nextBytes(bytes);
+		StringBuilder token = new StringBuilder();
+		for (byte b : bytes) {
+			token.append(String.format("%02x", b & 0xff));
+		}
+		writeState(serverSocket.getLocalPort(), token.toString());
+		log("listening on port " + serverSocket.getLocalPort());
+
+		running = true;
+		try {
+			while (running) {
+				final Socket socket;
+				try {
+					socket = serverSocket.accept();
+				} catch (SocketTimeoutException e) {
+					log("idle for " + (idleTimeout / 60000L) + " minutes, exiting");
+					break;
+				}
+				final String expected = token.toString();
+				Thread thread = new Thread("mxjavac-" + socket.getPort()) {
+					@Override
+					public void run() {
+						handle(socket, expected);
+					}
+				};
+				thread.setDaemon(true);
+				thread.start();
+			}
+		} finally {
+			serverSocket.close();
+			stateFile.delete();
+			synchronized (fileManagers) {
+				for (StandardJavaFileManager fileManager : fileManagers.values()) {
+					close(fileManager);
+				}
+				fileManagers.clear();
+			}
+		}
+	}
+
+	private void writeState(int port, String token) throws IOException {
+		Properties props = new Properties();
+		props.setProperty("port", "" + port);
+		props.setProperty("token", token);
+		props.setProperty("protocol", PROTOCOL);
+		stateFile.getParentFile().mkdirs();
+		File tmp = new File(stateFile.getAbsolutePath() + ".tmp");
+		FileOutputStream os = new FileOutputStream(tmp);
+		try {
+			// restrict the token to the current user
+			tmp.setReadable(false, false);
+			tmp.setReadable(true, true);
+			tmp.setWritable(false, false);
+			tmp.setWritable(true, true);
+			props.store(os, "Moxie compile server");
+		} finally {
+			os.close();
+		}
+		stateFile.delete();
+		if (!tmp.renameTo(stateFile)) {
+			throw new IOException("failed to write " + stateFile);
+		}
+		new File(stateFile.getAbsolutePath() + ".starting").delete();
+	}
+
+	private void handle(Socket socket, String token) {
+		try {
+			socket.setSoTimeout(REQUEST_TIMEOUT);
+			DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+			try {
+				if (!PROTOCOL.equals(readString(in, MAX_HEADER_LENGTH)) || !token.equals(readString(in, MAX_HEADER_LENGTH))) {
+					respond(out, "error: unsupported protocol or invalid token", new byte[0]);
+					return;
+				}
+				String command = readString(in);
+				if (STOP.equals(command)) {
+					running = false;
+					respond(out, OK, new byte[0]);
+					// unblock accept
+					new Socket(InetAddress.getByName(null), socket.getLocalPort()).close();
+					return;
+				}
+				if (!COMPILE.equals(command)) {
+					respond(out, "error: unknown command " + command, new byte[0]);
+					return;
+				}
+				List<String> options = readList(in);
+				List<String> files = readList(in);
+				ByteArrayOutputStream diagnostics = new ByteArrayOutputStream();
+				boolean success = compile(options, files, diagnostics);
+				respond(out, success ? OK : FAILED, diagnostics.toByteArray());
+			} finally {
+				out.flush();
+				socket.close();
+			}
+		} catch (Throwable t) {
+			log("request failed: " + t);
+		}
+	}
+
+	private boolean compile(List<String> options, List<String> files, ByteArrayOutputStream diagnostics) throws IOException {
+		String key = getKey(options);
+		StandardJavaFileManager fileManager = null;
+		List<StandardJavaFileManager> evicted = new ArrayList<StandardJavaFileManager>();
+		synchronized (fileManagers) {
+			fileManager = fileManagers.remove(key);
+			if (fileManager == null) {
+				fileManager = compiler.getStandardFileManager(null, null, null);
+			}
+		}
+		long start = System.nanoTime();
+		PrintWriter writer = new PrintWriter(new OutputStreamWriter(diagnostics, "UTF-8"));
+		boolean success;
+		try {
+			List<File> sources = new ArrayList<File>();
+			for (String file : files) {
+				sources.add(new File(file));
+			}
+			Iterable<? extends JavaFileObject> units = fileManager.getJavaFileObjects(sources.toArray(new File[sources.size()]));
+			success = compiler.getTask(writer, fileManager, null, options, null, units).call();
+		} catch (RuntimeException e) {
+			// do not reuse the file manager of a failed compiler
+			close(fileManager);
+			throw e;
+		} finally {
+			writer.flush();
+		}
+		fileManager.flush();
+		synchronized (fileManagers) {
+			// the file manager is exclusively used by one request at a time
+			StandardJavaFileManager previous = fileManagers.put(key, fileManager);
+			if (previous != null) {
+				evicted.add(previous);
+			}
+			Iterator<StandardJavaFileManager> itr = fileManagers.values().iterator();
+			while (fileManagers.size() > MAX_FILE_MANAGERS && itr.hasNext()) {
+				evicted.add(itr.next());
+				itr.remove();
+			}
+		}
+		for (StandardJavaFileManager manager : evicted) {
+			close(manager);
+		}
+		log("compiled " + files.size() + " sources in " + ((System.nanoTime() - start) / 1000000L) + " ms");
+		return success;
+	}
+
+	/**
+	 * Returns the file manager cache key of the compiler options.  The key
+	 * includes the size and modification time of all classpath jars so that
+	 * changed jars are re-indexed.
+	 */
+	private String getKey(List<String> options) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < options.size(); i++) {
+			String option = options.get(i);
+			sb.append(option).append('\n');
+			if (i + 1 < options.size() && (option.endsWith("classpath") || option.endsWith("class-path")
+					|| option.equals("-cp") || option.endsWith("processorpath"))) {
+				for (String path : options.get(i + 1).split(File.pathSeparator)) {
+					File file = new File(path);
+					if (file.isFile()) {
+						sb.append(path).append(' ').append(file.length()).append(' ').append(file.lastModified()).append('\n');
+					}
+				}
+			}
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Reads a list of strings.
+	 */
+	static List<String> readList(DataInputStream in) throws IOException {
+		int count = readLength(in, MAX_LENGTH);
+		List<String> list = new ArrayList<String>(count);
+		for (int i = 0; i < count; i++) {
+			list.add(readString(in));
+		}
+		return list;
+	}
+
+	private static void respond(DataOutputStream out, String status, byte [] output) throws IOException {
+		writeString(out, status);
+		out.writeInt(output.length);
+		out.write(output);
+	}
+
+	/**
+	 * Reads a length-prefixed UTF-8 string.  Unlike readUTF, the length of
+	 * the string is not limited to 64K which may be exceeded by classpaths.
+	 */
+	static String readString(DataInputStream in) throws IOException {
+		return readString(in, MAX_LENGTH);
+	}
+
+	/**
+	 * Reads a length-prefixed UTF-8 string of at most maxLength bytes.
+	 *
+	 * @throws IOException
+	 *             if the length is negative or exceeds maxLength
+	 */
+	static String readString(DataInputStream in, int maxLength) throws IOException {
+		byte [] bytes = new byte[readLength(in, maxLength)];
+		in.readFully(bytes);
+		return new String(bytes, "UTF-8");
+	}
+
+	private static int readLength(DataInputStream in, int maxLength) throws IOException {
+		int length = in.readInt();
+		if (length < 0 || length > maxLength) {
+			throw new IOException("invalid length " + length);
+		}
+		return length;
+	}
+
+	static void writeString(DataOutputStream out, String value) throws IOException {
+		byte [] bytes = value.getBytes("UTF-8");
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static void close(StandardJavaFileManager fileManager) {
+		try {
+			fileManager.close();
+		} catch (IOException e) {
+		}
+	}
+
+	private static void log(String message) {
+		System.out.println(String.format("%tT %s", System.currentTimeMillis(), message));
+		System.out.flush();
+	}
+
+	/**
+	 * Returns the state file of the server for the current Java runtime and
+	 * the Moxie version.  Builds on other runtimes or with other Moxie
+	 * versions use their own server.
+	 *
+	 * @param folder
+	 * @param version
+	 *            the Moxie version
+	 * @return the state file
+	 */
+	static File getStateFile(File folder, String version) {
+		String id = getId(System.getProperty("java.home") + "\n" + version);
+		return new File(folder, "server-" + id + ".properties");
+	}
+
+	/**
+	 * Returns a short hex id of the text.
+	 */
+	static String getId(String text) {
+		try {
+			MessageDigest md = MessageDigest.getInstance("SHA-1");
+			byte [] digest = md.digest(text.getBytes("UTF-8"));
+			StringBuilder sb = new StringBuilder();
+			for (int i = 0; i < 4; i++) {
+				sb.append(String.format("%02x", digest[i] & 0xff));
+			}
+			return sb.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		} catch (UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Reads the state file of a running server.
+	 *
+	 * @param stateFile
+	 * @return the server properties or null if the state file does not exist
+	 */
+	static Properties readState(File stateFile) {
+		if (!stateFile.exists()) {
+			return null;
+		}
+		Properties props = new Properties();
+		try {
+			FileInputStream is = new FileInputStream(stateFile);
+			try {
+				props.load(is);
+			} finally {
+				is.close();
+			}
+		} catch (IOException e) {
+			return null;
+		}
+		return props;
+	}
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2013 James Moger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.moxie.ant;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.types.Commandline;
+
+/**
+ * Compiler adapter which delegates to a running {@link CompileServer}.
+ * <p>
+ * If the server is not running, it is started in the background and the
+ * sources are compiled in-process by the javax.tools compiler.  Subsequent
+ * compiles are delegated to the warm server.
+ */
+class DaemonCompilerAdapter extends ToolsCompilerAdapter {
+
+	private static final int CONNECT_TIMEOUT = 1000;
+
+	private final File stateFile;
+
+	DaemonCompilerAdapter(OutputStream output, File stateFile) {
+		super(output);
+		this.stateFile = stateFile;
+	}
+
+	@Override
+	public boolean execute() throws BuildException {
+		Commandline cmd = setupModernJavacCommandlineSwitches(new Commandline());
+		List<String> options = Arrays.asList(cmd.getArguments());
+		List<String> files = new ArrayList<String>();
+		for (File file : compileList) {
+			files.add(file.getAbsolutePath());
+		}
+
+		long start = System.nanoTime();
+		Boolean success = null;
+		Properties state = CompileServer.readState(stateFile);
+		if (state != null && CompileServer.PROTOCOL.equals(state.getProperty("protocol"))) {
+			try {
+				success = compile(state, options, files);
+			} catch (IOException e) {
+				attributes.log("compile server is not available: " + e.getMessage(), Project.MSG_VERBOSE);
+				stateFile.delete();
+			}
+		}
+		if (success != null) {
+			attributes.log("compile server compiled " + files.size() + " sources in "
+					+ ((System.nanoTime() - start) / 1000000L) + " ms", Project.MSG_VERBOSE);
+			return success;
+		}
+
+		// start the server for the next compile and compile in-process
+		start();
+		success = super.execute();
+		attributes.log("in-process compiler compiled " + files.size() + " sources in "
+				+ ((System.nanoTime() - start) / 1000000L) + " ms", Project.MSG_VERBOSE);
+		return success;
+	}
+
+	private boolean compile(Properties state, List<String> options, List<String> files) throws IOException {
+		int port = Integer.parseInt(state.getProperty("port"));
+		Socket socket = new Socket();
+		try {
+			socket.connect(new InetSocketAddress(InetAddress.getByName(null), port), CONNECT_TIMEOUT);
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+			CompileServer.writeString(out, CompileServer.PROTOCOL);
+			CompileServer.writeString(out, state.getProperty("token"));
+			CompileServer.writeString(out, CompileServer.COMPILE);
+			writeList(out, options);
+			writeList(out, files);
+			out.flush();
+
+			DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			String status = CompileServer.readString(in);
+			byte [] diagnostics = new byte[in.readInt()];
+			in.readFully(diagnostics);
+			output.write(diagnostics);
+			output.flush();
+			if (CompileServer.OK.equals(status)) {
+				return true;
+			} else if (CompileServer.FAILED.equals(status)) {
+				return false;
+			}
+			throw new IOException(status);
+		} finally {
+			socket.close();
+		}
+	}
+
+	private static void writeList(DataOutputStream out, List<String> list) throws IOException {
+		out.writeInt(list.size());
+		for (String value : list) {
+			CompileServer.writeString(out, value);
+		}
+	}
+
+	/**
+	 * Starts the compile server in the background with the java executable
+	 * of the current runtime.
+	 */
+	private void start() {
+		synchronized (DaemonCompilerAdapter.class) {
+			File lockFile = new File(stateFile.getAbsolutePath() + ".starting");
+			if (stateFile.exists() || (lockFile.exists() && System.currentTimeMillis() - lockFile.lastModified() < 60000L)) {
+				// running or starting
+				return;
+			}
+			try {
+				File jar = new File(CompileServer.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+				String classpath = jar.getAbsolutePath();
+				File javaHome = new File(System.getProperty("java.home"));
+				File tools = new File(javaHome.getParentFile(), "lib/tools.jar");
+				if (tools.exists()) {
+					// Java 8 JDK
+					classpath += File.pathSeparator + tools.getAbsolutePath();
+				}
+				String java = new File(javaHome, "bin/java").getAbsolutePath();
+				stateFile.getParentFile().mkdirs();
+				lockFile.createNewFile();
+				lockFile.setLastModified(System.currentTimeMillis());
+				ProcessBuilder pb = new ProcessBuilder(java, "-cp", classpath, CompileServer.class.getName(),
+						stateFile.getAbsolutePath(), "" + CompileServer.DEFAULT_IDLE_MINUTES);
+				pb.redirectErrorStream(true);
+				pb.redirectOutput(ProcessBuilder.Redirect.appendTo(new File(stateFile.getParentFile(), "compile-server.log")));
+				pb.start();
+				attributes.log("started compile server", Project.MSG_VERBOSE);
+			} catch (Exception e) {
+				attributes.log("failed to start compile server: " + e.getMessage(), Project.MSG_WARN);
+			}
+		}
+	}
+}
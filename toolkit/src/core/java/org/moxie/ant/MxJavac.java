@@ -15,18 +15,28 @@
  */
 package org.moxie.ant;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.tools.ant.Project;
 import org.apache.tools.ant.taskdefs.Copy;
 import org.apache.tools.ant.taskdefs.Javac;
+import org.apache.tools.ant.taskdefs.compilers.CompilerAdapter;
 import org.apache.tools.ant.types.FileSet;
 import org.apache.tools.ant.types.Path;
 import org.apache.tools.ant.types.Path.PathElement;
+import org.moxie.ActionCache;
 import org.moxie.Build;
 import org.moxie.MoxieException;
 import org.moxie.Scope;
@@ -37,6 +47,7 @@ import org.moxie.console.Console;
 import org.moxie.maxml.MaxmlMap;
 import org.moxie.utils.DeepCopier;
 import org.moxie.utils.FileUtils;
+import org.moxie.utils.Parallel;
 import org.moxie.utils.StringUtils;
 
 
@@ -46,6 +57,10 @@ public class MxJavac extends Javac {
 	String tag;
 	boolean clean;
 	boolean compileLinkedProjects;
+	boolean parallel;
+	boolean incremental;
+	boolean daemon;
+	boolean actionCache;
 	String includes;
 	String excludes;
 	Set<Build> builds;
@@ -54,6 +69,10 @@ public class MxJavac extends Javac {
 
 	private Boolean showtitle;
 
+	private Console console;
+
+	private boolean adapted;
+
 	public MxJavac() {
 		super();
 		setTaskName("mx:javac");
@@ -64,6 +83,11 @@ public class MxJavac extends Javac {
 		setTaskName("mx:javac");
 	}
 
+	private MxJavac(Set<Build> builds, Console console) {
+		this(builds);
+		this.console = console;
+	}
+
 	public boolean getClean() {
 		return clean;
 	}
@@ -80,6 +104,44 @@ public class MxJavac extends Javac {
 		this.compileLinkedProjects = compileLinkedProjects;
 	}
 
+	public boolean getParallel() {
+		return parallel;
+	}
+
+	public void setParallel(boolean parallel) {
+		this.parallel = parallel;
+	}
+
+	public boolean getIncremental() {
+		return incremental;
+	}
+
+	public void setIncremental(boolean incremental) {
+		this.incremental = incremental;
+	}
+
+	public boolean getDaemon() {
+		return daemon;
+	}
+
+	public void setDaemon(boolean daemon) {
+		this.daemon = daemon;
+	}
+
+	public boolean getActioncache() {
+		return actionCache;
+	}
+
+	public void setActioncache(boolean actionCache) {
+		this.actionCache = actionCache;
+	}
+
+	@Override
+	public void add(CompilerAdapter adapter) {
+		super.add(adapter);
+		adapted = true;
+	}
+
 	public String getScope() {
 		return scope.name();
 	}
@@ -176,7 +238,7 @@ public class MxJavac extends Javac {
 	@Override
 	public void execute() {
 		Build build = (Build) getProject().getReference(Key.build.referenceId());
-		Console console = build.getConsole();
+		Console console = this.console == null ? build.getConsole() : this.console;
 
 		if (!configured) {
 			// called from moxie.compile
@@ -192,7 +254,9 @@ public class MxJavac extends Javac {
 			builds = new HashSet<Build>();
 		}
 
-		if (compileLinkedProjects) {
+		if (compileLinkedProjects && parallel) {
+			compileLinkedModules(build, console);
+		} else if (compileLinkedProjects) {
 			for (Build linkedProject: build.getSolver().getLinkedModules()) {
 				if (builds.contains(linkedProject)) {
 					// already built, skip
@@ -261,16 +325,73 @@ public class MxJavac extends Javac {
 		}
 		console.debug(1, "classpath = {0}", classpath);
 
+		boolean apt = false;
 		for (SourceDirectory sd : build.getConfig().getSourceDirectories()) {
 			// clean apt source directories before compiling
 			if (sd.apt) {
+				apt = true;
 				console.log("Cleaning apt source directory {0}", sd.name);
 				FileUtils.delete(sd.getSources());
 				sd.getSources().mkdirs();
 			}
 		}
 
-		if (clean) {
+		ClassGraph graph = null;
+		List<File> sourceDirs = new ArrayList<File>();
+		for (File dir : build.getConfig().getSourceDirectories(scope, tag)) {
+			sourceDirs.add(dir.getAbsoluteFile());
+		}
+
+		ActionCache cache = null;
+		ActionCache.Key key = null;
+		if (actionCache && apt) {
+			console.debug(1, "the action cache is disabled for apt source directories");
+		} else if (actionCache) {
+			// restore the classes of a previous compile with the same inputs
+			cache = ActionCache.of(build);
+			key = cache.newKey(getTaskName())
+					.add("scope", scope)
+					.add("tag", tag)
+					.add("options", getOptions())
+					.add("attributes", attributes == null ? null : attributes.toMaxml())
+					.add("includes", includes)
+					.add("excludes", excludes)
+					.add("java", System.getProperty("java.version"))
+					.add("vendor", System.getProperty("java.vendor"))
+					.add("compiler", getCompilerVersion())
+					.add("executable", isForkedJavac() ? getJavacExecutable() : null);
+			for (String path : classpath.list()) {
+				key.addFile("classpath", new File(path));
+			}
+			key.addFiles("sources", sourceDirs);
+			if (cache.restore(key, getDestdir())) {
+				// the incremental state does not describe the restored classes
+				getGraphFile(build).delete();
+				console.log(1, "restored {0} from the action cache", getDestdir());
+				return;
+			}
+		}
+
+		Set<File> stale = null;
+		String fingerprint = null;
+		if (incremental && apt) {
+			console.debug(1, "incremental compilation is disabled for apt source directories");
+		} else if (incremental) {
+			// delete the classes of changed sources and their dependents
+			graph = new ClassGraph(getGraphFile(build));
+			graph.read();
+			List<File> sourceFiles = new ArrayList<File>();
+			for (File dir : sourceDirs) {
+				listSources(dir, sourceFiles);
+			}
+			fingerprint = getFingerprint(classpath);
+			stale = graph.invalidate(sourceFiles, fingerprint, getDestdir(), console);
+			if (stale == null) {
+				console.log("Cleaning output directory {0}", getDestdir().getAbsolutePath());
+				FileUtils.delete(getDestdir());
+				stale = new HashSet<File>(sourceFiles);
+			}
+		} else if (clean) {
 			// clean the output folder before compiling
 			console.log("Cleaning output directory {0}", getDestdir().getAbsolutePath());
 			FileUtils.delete(getDestdir());
@@ -281,10 +402,22 @@ public class MxJavac extends Javac {
 		// set the update property name so we know if nothing compiled
 		String prop = build.getPom().getCoordinates().replace(':', '.') + ".compiled";
 		setUpdatedProperty(prop);
+		// class files written by this compile are at least this new
+		long since = (System.currentTimeMillis() / 1000L - 1) * 1000L;
+		if (daemon && !adapted) {
+			CompilerAdapter adapter = createToolsAdapter(build, System.err);
+			if (adapter != null) {
+				add(adapter);
+			}
+		}
 		super.execute();
 		if (getProject().getProperty(prop) == null) {
 			console.log(1, "compiled classes are up-to-date");
 		}
+		if (graph != null && getTaskSuccess()) {
+			graph.update(stale, sourceDirs, getDestdir(), since, console);
+			graph.write(fingerprint);
+		}
 
 		Copy copy = new Copy();
 		copy.setTaskName(getTaskName());
@@ -313,6 +446,241 @@ public class MxJavac extends Javac {
 		}
 
 		copy.execute();
+
+		if (key != null && getTaskSuccess()) {
+			cache.store(key, getDestdir());
+		}
+	}
+
+	/**
+	 * Returns the state file of an incremental compile.
+	 */
+	private File getGraphFile(Build build) {
+		String name = scope.name() + (StringUtils.isEmpty(tag) ? "" : ("-" + tag)) + ".deps";
+		return new File(build.getConfig().getTargetDirectory(), "mxjavac/" + name);
+	}
+
+	/**
+	 * Returns an in-process or compile server adapter for the javax.tools
+	 * compiler.
+	 *
+	 * @param build
+	 * @param output
+	 *            the stream for compiler diagnostics
+	 * @return a compiler adapter or null if the javax.tools compiler can not
+	 *         be used
+	 */
+	private CompilerAdapter createToolsAdapter(Build build, OutputStream output) {
+		if (isForkedJavac() || !isJdkCompiler(getCompilerVersion()) || !ToolsCompilerAdapter.isAvailable()) {
+			return null;
+		}
+		if (daemon) {
+			// one server per Java runtime and Moxie version
+			File stateFile = CompileServer.getStateFile(new File(build.getConfig().getMoxieRoot(), "compiler"), Toolkit.getVersion());
+			return new DaemonCompilerAdapter(output, stateFile);
+		}
+		return new ToolsCompilerAdapter(output);
+	}
+
+	/**
+	 * Returns a fingerprint of the compiler options and the classpath.  A
+	 * changed fingerprint requires a full rebuild of an incremental compile.
+	 *
+	 * @param classpath
+	 * @return the fingerprint
+	 */
+	private String getFingerprint(Path classpath) {
+		StringBuilder sb = new StringBuilder(getOptions());
+		for (String path : classpath.list()) {
+			File file = new File(path);
+			sb.append('\n').append(path).append(' ');
+			if (file.isDirectory()) {
+				sb.append(getNewest(file));
+			} else {
+				sb.append(file.length()).append(' ').append(file.lastModified());
+			}
+		}
+		return StringUtils.getSHA1(sb.toString());
+	}
+
+	/**
+	 * Returns the compiler options.
+	 */
+	private String getOptions() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(getSource()).append(' ').append(getTarget()).append(' ').append(getRelease());
+		sb.append(' ').append(getEncoding()).append(' ').append(getDebug()).append(' ').append(getDebugLevel());
+		for (String arg : getCurrentCompilerArgs()) {
+			sb.append(' ').append(arg);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Returns the newest modification time of a directory tree.
+	 */
+	private static long getNewest(File dir) {
+		long newest = dir.lastModified();
+		File [] files = dir.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				newest = Math.max(newest, file.isDirectory() ? getNewest(file) : file.lastModified());
+			}
+		}
+		return newest;
+	}
+
+	private static void listSources(File dir, List<File> list) {
+		File [] files = dir.listFiles();
+		if (files == null) {
+			return;
+		}
+		for (File file : files) {
+			if (file.isDirectory()) {
+				listSources(file, list);
+			} else if (file.getName().endsWith(".java")) {
+				list.add(file);
+			}
+		}
+	}
+
+	/**
+	 * Compiles all linked modules of the build on the cpu pool.  A module is
+	 * compiled after all of its own linked modules have been compiled so
+	 * independent modules compile concurrently.  The output of each module is
+	 * buffered and written when the module completes.  If a module fails to
+	 * compile, the modules which depend on it are not compiled.
+	 *
+	 * @param build
+	 * @param console
+	 */
+	private void compileLinkedModules(Build build, final Console console) {
+		final Map<Build, Module> modules = new LinkedHashMap<Build, Module>();
+		for (Build linkedProject : build.getSolver().getLinkedModules()) {
+			if (builds.contains(linkedProject)) {
+				// already built, skip
+				console.debug(1, "skipping {0}, already compiled", linkedProject.getPom().getManagementId());
+				continue;
+			}
+			// add the build to the stack so we do not rebuild
+			builds.add(linkedProject);
+			modules.put(linkedProject, new Module(linkedProject));
+		}
+		if (modules.isEmpty()) {
+			return;
+		}
+
+		final Parallel.Operation<Module> compile = new Parallel.Operation<Module>() {
+			@Override
+			public void perform(Module module) {
+				compile(module, modules, this, console);
+			}
+		};
+
+		long start = System.nanoTime();
+		try {
+			build.getSolver().getExecutor().cpu(modules.values(), compile);
+		} catch (MoxieException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new MoxieException(e);
+		}
+		long elapsed = (System.nanoTime() - start) / 1000000L;
+		console.debug(1, "compiled {0} modules in {1} ms", modules.size(), elapsed);
+	}
+
+	private void compile(Module module, Map<Build, Module> modules, Parallel.Operation<Module> compile, Console console) {
+		if (!module.claimed.compareAndSet(false, true)) {
+			// module is compiled or being compiled by another worker
+			await(module);
+			return;
+		}
+		try {
+			// compile the linked modules of this module first
+			List<Module> upstream = new ArrayList<Module>();
+			for (Build linkedProject : module.build.getSolver().getLinkedModules()) {
+				if (modules.containsKey(linkedProject)) {
+					upstream.add(modules.get(linkedProject));
+				}
+			}
+			try {
+				module.build.getSolver().getExecutor().cpu(upstream, compile);
+			} catch (RuntimeException e) {
+				synchronized (MxJavac.class) {
+					console.warn("skipping {0}, a linked module failed to compile", module.build.getPom().getManagementId());
+				}
+				throw e;
+			}
+			perform(module, console);
+		} catch (RuntimeException e) {
+			module.failure = e;
+			throw e;
+		} finally {
+			module.compiled.countDown();
+		}
+	}
+
+	private void perform(Module module, Console console) {
+		Build linkedProject = module.build;
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		Console moduleConsole = new Console(linkedProject.getConfig().isColor(), buffer, buffer);
+		moduleConsole.setDebug(linkedProject.getConfig().isDebug());
+
+		long start = System.nanoTime();
+		boolean compiled = false;
+		try {
+			// compile the linked project
+			Project project = new Project();
+			project.setBaseDir(linkedProject.getConfig().getProjectDirectory());
+			project.addReference(Key.build.referenceId(), linkedProject);
+
+			MxJavac subCompile = new MxJavac(builds, moduleConsole);
+			subCompile.setProject(project);
+			subCompile.setShowtitle(false);
+			// linked modules are scheduled by the top-level compile
+			subCompile.setCompilelinkedprojects(false);
+			CompilerAdapter adapter = subCompile.createToolsAdapter(linkedProject, buffer);
+			if (adapter != null) {
+				// write compiler diagnostics to the module buffer
+				subCompile.add(adapter);
+			}
+			subCompile.perform();
+			compiled = true;
+		} catch (Exception e) {
+			moduleConsole.error(e);
+			throw new MoxieException(e);
+		} finally {
+			long elapsed = (System.nanoTime() - start) / 1000000L;
+			synchronized (MxJavac.class) {
+				console.log(1, "=> {0} {1} ({2} ms)", compiled ? "compiled" : "failed",
+						linkedProject.getPom().getManagementId(), elapsed);
+				System.out.print(buffer.toString());
+				System.out.flush();
+			}
+		}
+	}
+
+	private void await(final Module module) {
+		try {
+			ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+				@Override
+				public boolean block() throws InterruptedException {
+					module.compiled.await();
+					return true;
+				}
+
+				@Override
+				public boolean isReleasable() {
+					return module.compiled.getCount() == 0;
+				}
+			});
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new CancellationException("interrupted while compiling " + module.build.getPom().getManagementId());
+		}
+		if (module.failure != null) {
+			throw new MoxieException("failed to compile module " + module.build.getPom().getManagementId(), module.failure);
+		}
 	}
 
 	protected FileSet prepareResourceSet(File dir) {
@@ -326,4 +694,17 @@ public class MxJavac extends Javac {
 		}
 		return set;
 	}
+
+	private static class Module {
+		final Build build;
+		final AtomicBoolean claimed;
+		final CountDownLatch compiled;
+		volatile RuntimeException failure;
+
+		Module(Build build) {
+			this.build = build;
+			this.claimed = new AtomicBoolean();
+			this.compiled = new CountDownLatch(1);
+		}
+	}
 }
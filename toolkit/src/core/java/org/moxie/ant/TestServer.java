@@ -0,0 +1,571 @@
+/*
+ * Copyright 2013 James Moger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.moxie.ant;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TimeZone;
+
+/**
+ * A long-lived local test server which keeps a warm JVM for JUnit tests.
+ * <p>
+ * The dependency jars, including Ant and JUnit, are loaded by a parent
+ * classloader which is cached by the size and modification time of the jars
+ * so that their classes stay loaded and compiled between runs.  The project
+ * and test class folders are loaded by a fresh child classloader for each run.
+ * The tests are run by the Ant JUnit test runner and the results are written
+ * as TEST-*.xml files, like a forked JUnit batch test.
+ * <p>
+ * After each run the server checks that the tests did not leak state into
+ * the JVM.  The server exits, and is replaced by the client, if the tests
+ * changed system properties, the default locale or time zone, left threads
+ * running, if test classloaders are not released, if the heap is filling up,
+ * or after a maximum number of runs.  The server listens on a loopback port
+ * and requires the random access token of its state file, like the compile
+ * server.
+ * <p>
+ * This class only depends on the JDK because it is launched with the Moxie
+ * jar as its only classpath entry.
+ */
+public class TestServer {
+
+	static final String PROTOCOL = "mxtest-1";
+
+	static final String TEST = "test";
+
+	static final String STOP = "stop";
+
+	public static final String OK = "ok";
+
+	public static final String BUSY = "busy";
+
+	public static final int DEFAULT_IDLE_MINUTES = 60;
+
+	private static final String JUNIT = "org.apache.tools.ant.taskdefs.optional.junit.";
+
+	private static final int MAX_PARENT_LOADERS = 4;
+
+	private static final int MAX_RUNS = 100;
+
+	private static final int MAX_LEAKED_LOADERS = 3;
+
+	private static final double MAX_HEAP_USAGE = 0.7;
+
+	private final File stateFile;
+
+	private final long idleTimeout;
+
+	private final Map<String, URLClassLoader> parentLoaders;
+
+	private final List<WeakReference<ClassLoader>> releasedLoaders;
+
+	private boolean busy;
+
+	private int runs;
+
+	private volatile boolean running;
+
+	public TestServer(File stateFile, int idleMinutes) {
+		this.stateFile = stateFile;
+		this.idleTimeout = idleMinutes * 60 * 1000L;
+		this.parentLoaders = new LinkedHashMap<String, URLClassLoader>(16, 0.75f, true);
+		this.releasedLoaders = new ArrayList<WeakReference<ClassLoader>>();
+	}
+
+	public static void main(String... args) throws Exception {
+		if (args.length == 0) {
+			System.err.println("usage: TestServer <state file> [idle minutes]");
+			System.exit(1);
+		}
+		int idle = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_IDLE_MINUTES;
+		TestServer server = new TestServer(new File(args[0]), idle);
+		server.run();
+		// tests may have left non-daemon threads
+		System.exit(0);
+	}
+
+	/**
+	 * Listens for test requests until the server is stopped, recycled, or
+	 * idle.
+	 *
+	 * @throws IOException
+	 */
+	public void run() throws IOException {
+		ServerSocket serverSocket = new ServerSocket();
+		serverSocket.bind(new InetSocketAddress(InetAddress.getByName(null), 0));
+		serverSocket.setSoTimeout((int) Math.min(idleTimeout, Integer.MAX_VALUE));
+
+		byte [] bytes = new byte[16];
+		new SecureRandom().nextBytes(bytes);
+		StringBuilder token = new StringBuilder();
+		for (byte b : bytes) {
+			token.append(String.format("%02x", b & 0xff));
+		}
+		writeState(serverSocket.getLocalPort(), token.toString());
+		log("listening on port " + serverSocket.getLocalPort());
+
+		running = true;
+		try {
+			while (running) {
+				final Socket socket;
+				try {
+					socket = serverSocket.accept();
+				} catch (SocketTimeoutException e) {
+					log("idle for " + (idleTimeout / 60000L) + " minutes, exiting");
+					break;
+				}
+				final String expected = token.toString();
+				Thread thread = new Thread("mxtest-" + socket.getPort()) {
+					@Override
+					public void run() {
+						handle(socket, expected);
+					}
+				};
+				thread.setDaemon(true);
+				thread.start();
+			}
+		} finally {
+			serverSocket.close();
+			stateFile.delete();
+		}
+	}
+
+	private void writeState(int port, String token) throws IOException {
+		Properties props = new Properties();
+		props.setProperty("port", "" + port);
+		props.setProperty("token", token);
+		props.setProperty("protocol", PROTOCOL);
+		stateFile.getParentFile().mkdirs();
+		File tmp = new File(stateFile.getAbsolutePath() + ".tmp");
+		FileOutputStream os = new FileOutputStream(tmp);
+		try {
+			// restrict the token to the current user
+			tmp.setReadable(false, false);
+			tmp.setReadable(true, true);
+			tmp.setWritable(false, false);
+			tmp.setWritable(true, true);
+			props.store(os, "Moxie test server");
+		} finally {
+			os.close();
+		}
+		stateFile.delete();
+		if (!tmp.renameTo(stateFile)) {
+			throw new IOException("failed to write " + stateFile);
+		}
+		new File(stateFile.getAbsolutePath() + ".starting").delete();
+	}
+
+	private void handle(Socket socket, String token) {
+		try {
+			socket.setSoTimeout(CompileServer.REQUEST_TIMEOUT);
+			DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+			try {
+				if (!PROTOCOL.equals(CompileServer.readString(in, CompileServer.MAX_HEADER_LENGTH))
+						|| !token.equals(CompileServer.readString(in, CompileServer.MAX_HEADER_LENGTH))) {
+					CompileServer.writeString(out, "error: unsupported protocol or invalid token");
+					return;
+				}
+				String command = CompileServer.readString(in);
+				if (STOP.equals(command)) {
+					CompileServer.writeString(out, OK);
+					stop(socket);
+					return;
+				}
+				if (!TEST.equals(command)) {
+					CompileServer.writeString(out, "error: unknown command " + command);
+					return;
+				}
+				List<String> jars = CompileServer.readList(in);
+				List<String> folders = CompileServer.readList(in);
+				File todir = new File(CompileServer.readString(in));
+				List<String> tests = CompileServer.readList(in);
+				synchronized (this) {
+					if (busy || !running) {
+						CompileServer.writeString(out, BUSY);
+						return;
+					}
+					busy = true;
+				}
+				String recycle = null;
+				try {
+					List<Result> results = new ArrayList<Result>();
+					recycle = test(jars, folders, todir, tests, results);
+					CompileServer.writeString(out, OK);
+					CompileServer.writeString(out, recycle == null ? "" : recycle);
+					out.writeInt(results.size());
+					for (Result result : results) {
+						CompileServer.writeString(out, result.name);
+						out.writeInt(result.retCode);
+						out.writeLong(result.runs);
+						out.writeLong(result.failures);
+						out.writeLong(result.errors);
+						out.writeLong(result.time);
+					}
+				} finally {
+					synchronized (this) {
+						busy = false;
+					}
+				}
+				if (recycle != null) {
+					log("recycling, " + recycle);
+					out.flush();
+					stop(socket);
+				}
+			} finally {
+				out.flush();
+				socket.close();
+			}
+		} catch (Throwable t) {
+			log("request failed: " + t);
+		}
+	}
+
+	private void stop(Socket socket) throws IOException {
+		running = false;
+		stateFile.delete();
+		// unblock accept
+		new Socket(InetAddress.getByName(null), socket.getLocalPort()).close();
+	}
+
+	/**
+	 * Runs the test classes in a fresh classloader and checks the isolation
+	 * of the run.
+	 *
+	 * @return the reason to recycle the server or null
+	 */
+	private String test(List<String> jars, List<String> folders, File todir, List<String> tests, List<Result> results) throws Exception {
+		long start = System.nanoTime();
+		ClassLoader parent = getParentLoader(jars);
+		URLClassLoader loader = new URLClassLoader(toUrls(folders), parent);
+
+		Properties properties = (Properties) System.getProperties().clone();
+		Locale locale = Locale.getDefault();
+		TimeZone timeZone = TimeZone.getDefault();
+		Set<Thread> threads = getThreads();
+		Thread current = Thread.currentThread();
+		ClassLoader contextLoader = current.getContextClassLoader();
+		current.setContextClassLoader(loader);
+		try {
+			todir.mkdirs();
+			for (String test : tests) {
+				results.add(runTest(parent, loader, test, todir));
+			}
+		} finally {
+			current.setContextClassLoader(contextLoader);
+			loader.close();
+			runs++;
+		}
+		log("ran " + tests.size() + " test classes in " + ((System.nanoTime() - start) / 1000000L) + " ms");
+
+		// isolation checks, restore what can be restored
+		String recycle = null;
+		if (!properties.equals(System.getProperties())) {
+			System.setProperties(properties);
+			recycle = "the tests changed system properties";
+		}
+		if (!locale.equals(Locale.getDefault()) || !timeZone.equals(TimeZone.getDefault())) {
+			Locale.setDefault(locale);
+			TimeZone.setDefault(timeZone);
+			recycle = "the tests changed the default locale or time zone";
+		}
+		int leakedThreads = 0;
+		for (Thread thread : getThreads()) {
+			if (!threads.contains(thread) && thread.isAlive() && !thread.isDaemon() && thread != current) {
+				leakedThreads++;
+			}
+		}
+		if (leakedThreads > 0) {
+			recycle = "the tests left " + leakedThreads + " threads running";
+		}
+
+		releasedLoaders.add(new WeakReference<ClassLoader>(loader));
+		loader = null;
+		System.gc();
+		Iterator<WeakReference<ClassLoader>> itr = releasedLoaders.iterator();
+		while (itr.hasNext()) {
+			if (itr.next().get() == null) {
+				itr.remove();
+			}
+		}
+		if (releasedLoaders.size() > MAX_LEAKED_LOADERS) {
+			recycle = releasedLoaders.size() + " test classloaders were not released";
+		}
+		Runtime runtime = Runtime.getRuntime();
+		if (runtime.totalMemory() - runtime.freeMemory() > MAX_HEAP_USAGE * runtime.maxMemory()) {
+			recycle = "the heap is " + (100 * (runtime.totalMemory() - runtime.freeMemory()) / runtime.maxMemory()) + "% full";
+		}
+		if (runs >= MAX_RUNS) {
+			recycle = "the server has run " + runs + " times";
+		}
+		return recycle;
+	}
+
+	/**
+	 * Runs a test class with the Ant JUnit test runner of the parent
+	 * classloader and writes its XML result file.
+	 */
+	private Result runTest(ClassLoader parent, ClassLoader loader, String name, File todir) throws Exception {
+		Class<?> testClass = parent.loadClass(JUNIT + "JUnitTest");
+		Class<?> runnerClass = parent.loadClass(JUNIT + "JUnitTestRunner");
+		Class<?> formatterClass = parent.loadClass(JUNIT + "XMLJUnitResultFormatter");
+		Object test = testClass.getConstructor(String.class).newInstance(name);
+		Constructor<?> constructor = runnerClass.getConstructor(testClass, boolean.class, boolean.class,
+				boolean.class, boolean.class, boolean.class, ClassLoader.class);
+		// haltOnError, filtertrace, haltOnFailure, showOutput, logTestListenerEvents
+		Object runner = constructor.newInstance(test, false, true, false, false, false, loader);
+		Object formatter = formatterClass.newInstance();
+		OutputStream os = new FileOutputStream(new File(todir, "TEST-" + name + ".xml"));
+		try {
+			formatterClass.getMethod("setOutput", OutputStream.class).invoke(formatter, os);
+			runnerClass.getMethod("addFormatter", parent.loadClass(JUNIT + "JUnitResultFormatter")).invoke(runner, formatter);
+			runnerClass.getMethod("run").invoke(runner);
+		} catch (InvocationTargetException e) {
+			throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+		} finally {
+			os.close();
+		}
+		Result result = new Result(name);
+		result.retCode = (Integer) runnerClass.getMethod("getRetCode").invoke(runner);
+		result.runs = (Long) testClass.getMethod("runCount").invoke(test);
+		result.failures = (Long) testClass.getMethod("failureCount").invoke(test);
+		result.errors = (Long) testClass.getMethod("errorCount").invoke(test);
+		result.time = (Long) testClass.getMethod("getRunTime").invoke(test);
+		return result;
+	}
+
+	/**
+	 * Returns the cached classloader of the dependency jars.  The key
+	 * includes the size and modification time of the jars so that changed
+	 * jars are reloaded.
+	 */
+	private URLClassLoader getParentLoader(List<String> jars) throws IOException {
+		StringBuilder sb = new StringBuilder();
+		for (String jar : jars) {
+			File file = new File(jar);
+			sb.append(jar).append(' ').append(file.length()).append(' ').append(file.lastModified()).append('\n');
+		}
+		String key = sb.toString();
+		URLClassLoader loader = parentLoaders.get(key);
+		if (loader == null) {
+			// the dependencies must not see the Moxie jar of the server
+			loader = new URLClassLoader(toUrls(jars), ClassLoader.getSystemClassLoader().getParent());
+			parentLoaders.put(key, loader);
+			Iterator<URLClassLoader> itr = parentLoaders.values().iterator();
+			while (parentLoaders.size() > MAX_PARENT_LOADERS && itr.hasNext()) {
+				itr.next().close();
+				itr.remove();
+			}
+		}
+		return loader;
+	}
+
+	private static URL [] toUrls(List<String> paths) throws IOException {
+		URL [] urls = new URL[paths.size()];
+		for (int i = 0; i < urls.length; i++) {
+			urls[i] = new File(paths.get(i)).toURI().toURL();
+		}
+		return urls;
+	}
+
+	private static Set<Thread> getThreads() {
+		return new HashSet<Thread>(Thread.getAllStackTraces().keySet());
+	}
+
+	private static void writeList(DataOutputStream out, List<String> list) throws IOException {
+		out.writeInt(list.size());
+		for (String value : list) {
+			CompileServer.writeString(out, value);
+		}
+	}
+
+	private static void log(String message) {
+		System.out.println(String.format("%tT %s", System.currentTimeMillis(), message));
+		System.out.flush();
+	}
+
+	/**
+	 * Reads the state file of a running server.
+	 *
+	 * @param stateFile
+	 * @return the server properties or null if the server is not running
+	 */
+	public static Properties readState(File stateFile) {
+		Properties state = CompileServer.readState(stateFile);
+		if (state != null && PROTOCOL.equals(state.getProperty("protocol"))) {
+			return state;
+		}
+		return null;
+	}
+
+	/**
+	 * Runs test classes on a running server.
+	 *
+	 * @param state
+	 *            the server state
+	 * @param jars
+	 *            the dependency jars
+	 * @param folders
+	 *            the project and test class folders
+	 * @param todir
+	 *            the folder of the TEST-*.xml result files
+	 * @param tests
+	 *            the test class names
+	 * @param timeout
+	 *            the maximum time in milliseconds to wait for the results, 0
+	 *            to wait indefinitely
+	 * @return the response or null if the server is busy
+	 * @throws SocketTimeoutException
+	 *             if the tests did not complete within the timeout
+	 * @throws IOException
+	 *             if the server is not available or failed
+	 */
+	public static Response test(Properties state, List<String> jars, List<String> folders, File todir,
+			List<String> tests, int timeout) throws IOException {
+		int port = Integer.parseInt(state.getProperty("port"));
+		Socket socket = new Socket();
+		try {
+			socket.connect(new InetSocketAddress(InetAddress.getByName(null), port), 1000);
+			socket.setSoTimeout(timeout);
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+			CompileServer.writeString(out, PROTOCOL);
+			CompileServer.writeString(out, state.getProperty("token"));
+			CompileServer.writeString(out, TEST);
+			writeList(out, jars);
+			writeList(out, folders);
+			CompileServer.writeString(out, todir.getAbsolutePath());
+			writeList(out, tests);
+			out.flush();
+
+			DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			String status = CompileServer.readString(in);
+			if (BUSY.equals(status)) {
+				return null;
+			} else if (!OK.equals(status)) {
+				throw new IOException(status);
+			}
+			Response response = new Response();
+			String recycle = CompileServer.readString(in);
+			response.recycle = recycle.length() == 0 ? null : recycle;
+			int count = in.readInt();
+			for (int i = 0; i < count; i++) {
+				Result result = new Result(CompileServer.readString(in));
+				result.retCode = in.readInt();
+				result.runs = in.readLong();
+				result.failures = in.readLong();
+				result.errors = in.readLong();
+				result.time = in.readLong();
+				response.results.add(result);
+			}
+			return response;
+		} finally {
+			socket.close();
+		}
+	}
+
+	/**
+	 * Stops a running server, e.g. a server whose tests did not complete
+	 * within the timeout.
+	 *
+	 * @param state
+	 *            the server state
+	 * @throws IOException
+	 *             if the server is not available
+	 */
+	public static void stop(Properties state) throws IOException {
+		int port = Integer.parseInt(state.getProperty("port"));
+		Socket socket = new Socket();
+		try {
+			socket.connect(new InetSocketAddress(InetAddress.getByName(null), port), 1000);
+			socket.setSoTimeout(5000);
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+			CompileServer.writeString(out, PROTOCOL);
+			CompileServer.writeString(out, state.getProperty("token"));
+			CompileServer.writeString(out, STOP);
+			out.flush();
+			CompileServer.readString(new DataInputStream(new BufferedInputStream(socket.getInputStream())));
+		} finally {
+			socket.close();
+		}
+	}
+
+	/**
+	 * The results of a test run.
+	 */
+	public static class Response {
+
+		/**
+		 * the reason why the server exited after the run or null
+		 */
+		public String recycle;
+
+		public final List<Result> results = new ArrayList<Result>();
+	}
+
+	/**
+	 * The result of a test class.
+	 */
+	public static class Result {
+
+		public final String name;
+
+		/**
+		 * 0 for success, 1 for failures, 2 for errors
+		 */
+		public int retCode;
+
+		public long runs;
+
+		public long failures;
+
+		public long errors;
+
+		/**
+		 * the run time in milliseconds
+		 */
+		public long time;
+
+		Result(String name) {
+			this.name = name;
+		}
+	}
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2013 James Moger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.moxie.ant;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.taskdefs.compilers.DefaultCompilerAdapter;
+import org.apache.tools.ant.types.Commandline;
+
+/**
+ * In-process javac compiler adapter based on javax.tools.
+ * <p>
+ * Unlike Ant's modern adapter, which writes diagnostics to System.err, this
+ * adapter writes diagnostics to the specified stream so that concurrent
+ * compilations do not interleave their output.  The system compiler is shared
+ * but each compilation uses its own file manager because javac file managers
+ * are not thread-safe and retain location options between tasks.
+ */
+class ToolsCompilerAdapter extends DefaultCompilerAdapter {
+
+	protected final OutputStream output;
+
+	ToolsCompilerAdapter(OutputStream output) {
+		this.output = output;
+	}
+
+	/**
+	 * Returns true if the system compiler is available.  The system compiler
+	 * is not available when running on a JRE.
+	 *
+	 * @return true if the system compiler is available
+	 */
+	static boolean isAvailable() {
+		return ToolProvider.getSystemJavaCompiler() != null;
+	}
+
+	@Override
+	public boolean execute() throws BuildException {
+		attributes.log("Using javax.tools compiler", Project.MSG_VERBOSE);
+		Commandline cmd = setupModernJavacCommandlineSwitches(new Commandline());
+		List<String> options = Arrays.asList(cmd.getArguments());
+
+		JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+		StandardJavaFileManager fileManager = compiler.getStandardFileManager(null, null, null);
+		PrintWriter writer = new PrintWriter(new OutputStreamWriter(output));
+		try {
+			Iterable<? extends JavaFileObject> units = fileManager.getJavaFileObjects(compileList);
+			return compiler.getTask(writer, fileManager, null, options, null, units).call();
+		} catch (Exception e) {
+			throw new BuildException("Error starting javax.tools compiler", e, location);
+		} finally {
+			writer.flush();
+			try {
+				fileManager.close();
+			} catch (IOException e) {
+			}
+		}
+	}
+}
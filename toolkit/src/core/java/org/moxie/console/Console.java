@@ -61,8 +61,20 @@ public class Console implements Logger {
 	}
 	
 	public Console(boolean useColor) {
-		out = new PrintStream(wrapOutputStream(System.out, useColor));
-		err = new PrintStream(wrapOutputStream(System.err, useColor));
+		this(useColor, System.out, System.err);
+	}
+	
+	/**
+	 * Creates a console which writes to the specified streams.  This is used
+	 * to buffer the output of concurrent tasks.
+	 * 
+	 * @param useColor
+	 * @param out
+	 * @param err
+	 */
+	public Console(boolean useColor, OutputStream out, OutputStream err) {
+		this.out = new PrintStream(wrapOutputStream(out, useColor));
+		this.err = new PrintStream(wrapOutputStream(err, useColor));
 	}
 	
 	private static OutputStream wrapOutputStream(final OutputStream stream, boolean useColor) {
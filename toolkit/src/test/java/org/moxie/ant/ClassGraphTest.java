@@ -0,0 +1,269 @@
+/*
+ * Copyright 2013 James Moger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.moxie.ant;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.moxie.ant.ClassUtil.ClassInfo;
+import org.moxie.console.Console;
+import org.moxie.utils.FileUtils;
+
+/**
+ * Compiles small projects incrementally like mx:javac and checks which
+ * classes the class dependency graph invalidates.
+ */
+public class ClassGraphTest extends Assert {
+
+	private File folder;
+
+	private File src;
+
+	private File classes;
+
+	private File state;
+
+	private Console console;
+
+	private ClassGraph graph;
+
+	@Before
+	public void setUp() throws Exception {
+		folder = File.createTempFile("moxie-", ".classgraph");
+		folder.delete();
+		src = new File(folder, "src").getAbsoluteFile();
+		classes = new File(folder, "classes");
+		state = new File(folder, "graph.txt");
+		src.mkdirs();
+		classes.mkdirs();
+		console = new Console();
+	}
+
+	@After
+	public void tearDown() {
+		FileUtils.delete(folder);
+	}
+
+	@Test
+	public void testClassInfo() throws Exception {
+		write("A", "public class A {\n private static final int HIDDEN = 1;\n public static int value() { return HIDDEN; }\n}\n");
+		write("B", "public class B {\n public static final int SIZE = 2;\n public int b(A a) { return A.value(); }\n}\n");
+		assertEquals(0, compile());
+
+		ClassInfo a = ClassUtil.getClassInfo(new File(classes, "test/A.class"));
+		assertEquals("test/A", a.name);
+		assertEquals("A.java", a.sourceFile);
+		assertEquals("test", a.getPackage());
+		assertFalse("private constants are not inlined", a.constants);
+
+		ClassInfo b = ClassUtil.getClassInfo(new File(classes, "test/B.class"));
+		assertTrue(b.constants);
+		assertTrue(b.references.contains("test/A"));
+		assertFalse(b.references.contains("test/B"));
+	}
+
+	@Test
+	public void testTransitiveReferrers() throws Exception {
+		write("A", "public class A {\n public static int value() { return 1; }\n}\n");
+		write("B", "public class B {\n public long b() { return A.value(); }\n}\n");
+		write("C", "public class C {\n B b = new B();\n}\n");
+		write("D", "public class D {\n}\n");
+		assertNull("no graph, full rebuild", build());
+		assertEquals(names(), build());
+
+		// a changed method signature invalidates the direct and transitive
+		// referrers of the changed class, B and C are unchanged
+		write("A", "public class A {\n public static long value() { return 1L; }\n}\n");
+		assertEquals(names("A", "B", "C"), invalidate());
+		assertFalse(new File(classes, "test/A.class").exists());
+		assertFalse(new File(classes, "test/B.class").exists());
+		assertFalse(new File(classes, "test/C.class").exists());
+		assertTrue(new File(classes, "test/D.class").exists());
+		assertEquals(0, compile(names("A", "B", "C")));
+		update(names("A", "B", "C"), 0);
+
+		// only the referrers of the changed class are invalidated
+		write("B", "public class B {\n public long b() { return A.value() + 1; }\n}\n");
+		assertEquals(names("B", "C"), build());
+		assertTrue(new File(classes, "test/A.class").exists());
+		assertEquals(names(), build());
+	}
+
+	@Test
+	public void testNestedClasses() throws Exception {
+		write("A", "public class A {\n public static class Inner {\n public static int value() { return 1; }\n }\n}\n");
+		write("B", "public class B {\n int b() { return A.Inner.value(); }\n}\n");
+		write("D", "public class D {\n}\n");
+		build();
+		build();
+
+		write("A", "public class A {\n public static class Inner {\n public static long value() { return 1L; }\n }\n}\n");
+		assertEquals(names("A", "B"), invalidate());
+		assertFalse(new File(classes, "test/A$Inner.class").exists());
+		assertTrue(new File(classes, "test/D.class").exists());
+	}
+
+	@Test
+	public void testDeletedSource() throws Exception {
+		write("A", "public class A {\n}\n");
+		write("B", "public class B {\n A a;\n}\n");
+		write("D", "public class D {\n}\n");
+		build();
+		build();
+
+		// the classes of a deleted source are deleted and its referrers are
+		// recompiled, the deleted source is not
+		new File(src, "test/A.java").delete();
+		assertEquals(names("B"), invalidate());
+		assertFalse(new File(classes, "test/A.class").exists());
+		assertFalse(new File(classes, "test/B.class").exists());
+		assertTrue(new File(classes, "test/D.class").exists());
+
+		// the deleted source is removed from the graph
+		write("B", "public class B {\n}\n");
+		assertEquals(0, compile(names("B")));
+		update(names("B"), 0);
+		assertEquals(names(), build());
+	}
+
+	@Test
+	public void testInlinedConstant() throws Exception {
+		write("K", "public class K {\n public static final int SIZE = 1;\n}\n");
+		write("U", "public class U {\n int size() { return K.SIZE; }\n}\n");
+		write("D", "public class D {\n}\n");
+		build();
+		build();
+
+		// javac inlines K.SIZE into U, older versions do not record a
+		// reference to K, so the whole project is recompiled
+		write("K", "public class K {\n public static final int SIZE = 2;\n}\n");
+		assertNull("constants changed, full rebuild", invalidate());
+		assertNull(build());
+		assertTrue(new File(classes, "test/U.class").exists());
+		assertEquals(names(), build());
+	}
+
+	@Test
+	public void testFingerprint() throws Exception {
+		write("A", "public class A {\n}\n");
+		build();
+		assertEquals(names(), build());
+
+		// a changed classpath or changed compiler options require a full rebuild
+		graph = new ClassGraph(state);
+		assertTrue(graph.read());
+		assertNull(graph.invalidate(sources(), "other", classes, console));
+
+		// an unknown state file version requires a full rebuild
+		FileUtils.writeContent(state, "version 0\n");
+		graph = new ClassGraph(state);
+		assertFalse(graph.read());
+		assertNull(graph.invalidate(sources(), "fingerprint", classes, console));
+	}
+
+	/**
+	 * Writes a source of the test package with a new modification time.
+	 */
+	private void write(String name, String content) {
+		File file = new File(src, "test/" + name + ".java");
+		long lastModified = file.lastModified();
+		FileUtils.writeContent(file, "package test;\n" + content);
+		file.setLastModified(Math.max(lastModified + 2000, file.lastModified()));
+	}
+
+	private List<File> sources() {
+		List<File> list = new ArrayList<File>();
+		File [] files = new File(src, "test").listFiles();
+		Arrays.sort(files);
+		list.addAll(Arrays.asList(files));
+		return list;
+	}
+
+	private Set<File> names(String... names) {
+		Set<File> set = new TreeSet<File>();
+		for (String name : names) {
+			set.add(new File(src, "test/" + name + ".java"));
+		}
+		return set;
+	}
+
+	/**
+	 * Reads the graph and invalidates the classes of the changed sources.
+	 *
+	 * @return the sources to recompile or null for a full rebuild
+	 */
+	private Set<File> invalidate() {
+		graph = new ClassGraph(state);
+		graph.read();
+		Set<File> stale = graph.invalidate(sources(), "fingerprint", classes, console);
+		return stale == null ? null : new TreeSet<File>(stale);
+	}
+
+	/**
+	 * Updates and writes the graph after a compile.
+	 */
+	private void update(Set<File> compiled, long since) {
+		graph.update(compiled, Arrays.asList(src), classes, since, console);
+		graph.write("fingerprint");
+	}
+
+	/**
+	 * Compiles the changed sources like mx:javac.
+	 *
+	 * @return the compiled sources or null after a full rebuild
+	 */
+	private Set<File> build() throws Exception {
+		Set<File> stale = invalidate();
+		boolean full = stale == null;
+		if (full) {
+			FileUtils.delete(classes);
+			classes.mkdirs();
+			stale = new TreeSet<File>(sources());
+		}
+		long since = (System.currentTimeMillis() / 1000L - 1) * 1000L;
+		if (!stale.isEmpty()) {
+			assertEquals(0, compile(stale));
+		}
+		update(stale, since);
+		return full ? null : stale;
+	}
+
+	private int compile() {
+		return compile(new HashSet<File>(sources()));
+	}
+
+	private int compile(Set<File> files) {
+		JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+		assertNotNull("a JDK is required", javac);
+		List<String> args = new ArrayList<String>(Arrays.asList("-g", "-d", classes.getPath(), "-cp", classes.getPath()));
+		for (File file : files) {
+			args.add(file.getPath());
+		}
+		return javac.run(null, null, null, args.toArray(new String[args.size()]));
+	}
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright 2013 James Moger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.moxie.tests;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.moxie.ActionCache;
+import org.moxie.BuildCacheClient;
+import org.moxie.utils.FileUtils;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class ActionCacheTest extends Assert {
+
+	private File newFolder() throws IOException {
+		File folder = File.createTempFile("moxie-actions-", "");
+		folder.delete();
+		folder.mkdirs();
+		return folder;
+	}
+
+	private ActionCache.Key newKey(ActionCache cache, File sources) {
+		return cache.newKey("mx:javac").add("scope", "compile").addFile("sources", sources);
+	}
+
+	@Test
+	public void testKey() throws IOException {
+		File folder = newFolder();
+		try {
+			ActionCache cache = new ActionCache(new File(folder, "actions"));
+			File sources = new File(folder, "src");
+			FileUtils.writeContent(new File(sources, "org/moxie/A.java"), "class A {}");
+			FileUtils.writeContent(new File(sources, "org/moxie/B.java"), "class B {}");
+			String key = newKey(cache, sources).hash();
+
+			assertEquals(key, newKey(cache, sources).hash());
+			assertFalse(key.equals(cache.newKey("mx:javac").add("scope", "test").addFile("sources", sources).hash()));
+
+			// a changed source changes the key
+			FileUtils.writeContent(new File(sources, "org/moxie/B.java"), "class B { }");
+			String changed = newKey(cache, sources).hash();
+			assertFalse(key.equals(changed));
+
+			// a renamed source changes the key
+			new File(sources, "org/moxie/B.java").renameTo(new File(sources, "org/moxie/C.java"));
+			assertFalse(changed.equals(newKey(cache, sources).hash()));
+		} finally {
+			FileUtils.delete(folder);
+		}
+	}
+
+	@Test
+	public void testStoreAndRestore() throws IOException {
+		File folder = newFolder();
+		try {
+			ActionCache cache = new ActionCache(new File(folder, "actions"));
+			File sources = new File(folder, "src");
+			FileUtils.writeContent(new File(sources, "A.java"), "class A {}");
+			File classes = new File(folder, "classes");
+			FileUtils.writeContent(new File(classes, "A.class"), "A");
+			FileUtils.writeContent(new File(classes, "org/moxie/B.class"), "B");
+			File jar = new File(folder, "a.jar");
+			FileUtils.writeContent(jar, "jar");
+
+			assertFalse(cache.restore(newKey(cache, sources), classes, jar));
+			cache.store(newKey(cache, sources), classes, jar);
+
+			// outputs are replaced by the stored outputs
+			FileUtils.delete(classes);
+			FileUtils.writeContent(new File(classes, "Stale.class"), "stale");
+			jar.delete();
+			assertTrue(cache.restore(newKey(cache, sources), classes, jar));
+			assertEquals("A", FileUtils.readContent(new File(classes, "A.class"), "\n").trim());
+			assertEquals("B", FileUtils.readContent(new File(classes, "org/moxie/B.class"), "\n").trim());
+			assertFalse(new File(classes, "Stale.class").exists());
+			assertEquals("jar", FileUtils.readContent(jar, "\n").trim());
+
+			// an entry with fewer outputs is not restored
+			assertFalse(cache.restore(newKey(cache, sources), classes, jar, new File(folder, "b.jar")));
+
+			// other inputs miss
+			FileUtils.writeContent(new File(sources, "A.java"), "class A { }");
+			assertFalse(cache.restore(newKey(cache, sources), classes, jar));
+		} finally {
+			FileUtils.delete(folder);
+		}
+	}
+
+	@Test
+	public void testRemote() throws IOException {
+		File folder = newFolder();
+		HttpServer server = startBuildCache(new ConcurrentHashMap<String, byte []>());
+		try {
+			BuildCacheClient remote = new BuildCacheClient("http://localhost:" + server.getAddress().getPort() + "/cache");
+			ActionCache ci = new ActionCache(new File(folder, "ci"), remote, true);
+			ActionCache developer = new ActionCache(new File(folder, "developer"), remote, false);
+			File sources = new File(folder, "src");
+			FileUtils.writeContent(new File(sources, "A.java"), "class A {}");
+			File classes = new File(folder, "classes");
+			FileUtils.writeContent(new File(classes, "org/moxie/A.class"), "A");
+
+			assertFalse(developer.restore(newKey(developer, sources), classes));
+			ci.store(newKey(ci, sources), classes);
+			assertEquals(1, remote.getStores());
+
+			// the developer restores the outputs of the CI build
+			FileUtils.delete(classes);
+			assertTrue(developer.restore(newKey(developer, sources), classes));
+			assertEquals("A", FileUtils.readContent(new File(classes, "org/moxie/A.class"), "\n").trim());
+			assertEquals(1, remote.getHits());
+
+			// and then from the local cache
+			assertTrue(developer.restore(newKey(developer, sources), classes));
+			assertEquals(1, remote.getHits());
+
+			// a developer does not push
+			FileUtils.writeContent(new File(sources, "A.java"), "class A { }");
+			developer.store(newKey(developer, sources), classes);
+			assertEquals(1, remote.getStores());
+		} finally {
+			server.stop(0);
+			FileUtils.delete(folder);
+		}
+	}
+
+	/**
+	 * Starts a minimal build cache which keeps its entries in memory.
+	 */
+	private HttpServer startBuildCache(final Map<String, byte []> entries) throws IOException {
+		HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.createContext("/cache/", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				String key = exchange.getRequestURI().getPath().substring("/cache/".length());
+				File temp = File.createTempFile("moxie-entry-", ".zip");
+				try {
+					InputStream is = exchange.getRequestBody();
+					Files.copy(is, temp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+					is.close();
+					if ("PUT".equals(exchange.getRequestMethod())) {
+						entries.put(key, Files.readAllBytes(temp.toPath()));
+						exchange.sendResponseHeaders(201, -1);
+					} else if (entries.containsKey(key)) {
+						byte [] content = entries.get(key);
+						exchange.sendResponseHeaders(200, content.length);
+						OutputStream os = exchange.getResponseBody();
+						os.write(content);
+						os.close();
+					} else {
+						exchange.sendResponseHeaders(404, -1);
+					}
+				} finally {
+					temp.delete();
+					exchange.close();
+				}
+			}
+		});
+		server.start();
+		return server;
+	}
+}
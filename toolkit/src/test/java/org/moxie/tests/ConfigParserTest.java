@@ -4,7 +4,10 @@ import java.io.File;
 
 import org.junit.Assert;
 import org.junit.Test;
+import org.moxie.Dependency;
+import org.moxie.Scope;
 import org.moxie.ToolkitConfig;
+import org.moxie.utils.FileUtils;
 
 
 /**
@@ -29,4 +32,40 @@ public class ConfigParserTest extends Assert {
 		assertTrue(config.getProxies().get(1).matches("central", null));
 	}
 
+	@Test
+	public void testCache() throws Exception {
+		File folder = File.createTempFile("moxie-", "");
+		folder.delete();
+		folder.mkdirs();
+		File parent = new File(folder, "parent.moxie");
+		File file = new File(folder, "build.moxie");
+		FileUtils.writeContent(parent, "groupId: org.moxie\nversion: 1.0.0\n");
+		FileUtils.writeContent(file, "parent: parent.moxie\nartifactId: a\n");
+
+		ToolkitConfig config = ToolkitConfig.load(file, folder, "defaults.moxie");
+		assertSame(config, ToolkitConfig.load(file, folder, "defaults.moxie"));
+		assertEquals("org.moxie", config.getPom().groupId);
+
+		// configs inherit copies of the shared parent
+		ToolkitConfig a = new ToolkitConfig(file, folder, "defaults.moxie");
+		a.getPom().addDependency(new Dependency("junit:junit:4.11"), Scope.compile);
+		ToolkitConfig b = new ToolkitConfig(file, folder, "defaults.moxie");
+		assertFalse(b.getPom().hasDependencies());
+		assertNotSame(a.getPom(), b.getPom());
+
+		// an edit within the same second is detected by the content hash
+		long lastModified = file.lastModified();
+		FileUtils.writeContent(file, "parent: parent.moxie\nartifactId: b\n");
+		file.setLastModified(lastModified);
+		config = ToolkitConfig.load(file, folder, "defaults.moxie");
+		assertEquals("b", config.getPom().artifactId);
+
+		// a changed parent invalidates the config
+		FileUtils.writeContent(parent, "groupId: org.moxie\nversion: 2.0.0\n");
+		parent.setLastModified(lastModified + 2000);
+		assertEquals("2.0.0", ToolkitConfig.load(file, folder, "defaults.moxie").getPom().version);
+
+		FileUtils.delete(folder);
+	}
+
 }
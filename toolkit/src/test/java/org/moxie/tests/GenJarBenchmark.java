@@ -0,0 +1,143 @@
+/*
+ * Copyright 2013 James Moger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.moxie.tests;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.types.Path;
+import org.junit.Assert;
+import org.junit.Test;
+import org.moxie.ant.GenJar;
+import org.moxie.utils.FileUtils;
+
+/**
+ * Measures GenJar against a synthetic classpath of many jars.  The benchmark
+ * is not matched by the default test includes and must be run explicitly.
+ */
+public class GenJarBenchmark extends Assert {
+
+	private static final int JARS = 200;
+
+	private static final int CLASSES_PER_JAR = 50;
+
+	@Test
+	public void testManyJars() throws IOException {
+		File folder = new File(File.createTempFile("who", "cares").getParentFile(), "genjar-benchmark");
+		if (folder.exists()) {
+			FileUtils.delete(folder);
+		}
+		folder.mkdirs();
+
+		// class i references classes 2i+1 and 2i+2, spread over all jars
+		int classes = JARS * CLASSES_PER_JAR;
+		Project project = new Project();
+		project.init();
+		Path classpath = new Path(project);
+		for (int j = 0; j < JARS; j++) {
+			File jar = new File(folder, "lib" + j + ".jar");
+			JarOutputStream os = new JarOutputStream(new FileOutputStream(jar));
+			try {
+				for (int i = j; i < classes; i += JARS) {
+					os.putNextEntry(new JarEntry(name(i) + ".class"));
+					List<String> references = new ArrayList<String>();
+					for (int k = 2 * i + 1; k <= 2 * i + 2 && k < classes; k++) {
+						references.add(name(k));
+					}
+					os.write(classFile(name(i), references));
+					os.closeEntry();
+				}
+			} finally {
+				os.close();
+			}
+			classpath.createPathElement().setLocation(jar);
+		}
+
+		File destFile = new File(folder, "out.jar");
+		long start = System.nanoTime();
+		GenJar genjar = new GenJar();
+		genjar.setProject(project);
+		genjar.setDestfile(destFile);
+		genjar.setClasspath(classpath);
+		genjar.createClass().setName(name(0).replace('/', '.'));
+		genjar.execute();
+		long elapsed = (System.nanoTime() - start) / 1000000L;
+		System.out.println("genjar of " + classes + " classes from " + JARS + " jars took " + elapsed + " ms");
+
+		JarFile jar = new JarFile(destFile);
+		try {
+			int count = 0;
+			for (JarEntry entry : Collections.list(jar.entries())) {
+				if (entry.getName().endsWith(".class")) {
+					count++;
+				}
+			}
+			assertEquals(classes, count);
+		} finally {
+			jar.close();
+		}
+		FileUtils.delete(folder);
+	}
+
+	private static String name(int i) {
+		return "bench/p" + (i % 10) + "/C" + i;
+	}
+
+	/**
+	 * Returns a minimal class file which extends java.lang.Object and whose
+	 * constant pool references the specified classes.
+	 */
+	static byte [] classFile(String name, List<String> references) throws IOException {
+		List<String> classes = new ArrayList<String>();
+		classes.add(name);
+		classes.add("java/lang/Object");
+		classes.addAll(references);
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(0xCAFEBABE);
+		out.writeShort(0);
+		out.writeShort(50);
+		// each class is a Utf8 entry followed by a Class entry
+		out.writeShort(1 + 2 * classes.size());
+		for (int i = 0; i < classes.size(); i++) {
+			out.writeByte(1);
+			out.writeUTF(classes.get(i));
+			out.writeByte(7);
+			out.writeShort(1 + 2 * i);
+		}
+		// public super, this, super, interfaces, fields, methods, attributes
+		out.writeShort(0x21);
+		out.writeShort(2);
+		out.writeShort(4);
+		out.writeShort(0);
+		out.writeShort(0);
+		out.writeShort(0);
+		out.writeShort(0);
+		out.flush();
+		return bytes.toByteArray();
+	}
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2013 James Moger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.moxie.tests;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.moxie.onejar.JarClassLoader;
+import org.moxie.utils.FileUtils;
+
+/**
+ * Measures the startup of an application whose threads load classes from a
+ * one-jar at the same time.  The benchmark is not matched by the default test
+ * includes and must be run explicitly.
+ */
+public class JarClassLoaderBenchmark extends Assert {
+
+	private static final int JARS = 50;
+
+	private static final int CLASSES_PER_JAR = 200;
+
+	private static final int [] THREADS = { 1, 4, 16 };
+
+	@Test
+	public void testConcurrentStartup() throws Exception {
+		File folder = new File(File.createTempFile("who", "cares").getParentFile(), "onejar-benchmark");
+		if (folder.exists()) {
+			FileUtils.delete(folder);
+		}
+		folder.mkdirs();
+
+		// a one-jar with the classes spread over nested lib jars
+		final List<String> names = new ArrayList<String>();
+		Manifest manifest = new Manifest();
+		manifest.getMainAttributes().putValue("Manifest-Version", "1.0");
+		File oneJar = new File(folder, "onejar.jar");
+		JarOutputStream os = new JarOutputStream(new FileOutputStream(oneJar), manifest);
+		try {
+			for (int j = 0; j < JARS; j++) {
+				ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+				JarOutputStream lib = new JarOutputStream(bytes, manifest);
+				for (int i = 0; i < CLASSES_PER_JAR; i++) {
+					String name = "bench/p" + j + "/C" + i;
+					lib.putNextEntry(new JarEntry(name + ".class"));
+					lib.write(GenJarBenchmark.classFile(name, Collections.<String>emptyList()));
+					lib.closeEntry();
+					names.add(name.replace('/', '.'));
+				}
+				lib.close();
+				os.putNextEntry(new JarEntry(JarClassLoader.LIB_PREFIX + "lib" + j + ".jar"));
+				os.write(bytes.toByteArray());
+				os.closeEntry();
+			}
+		} finally {
+			os.close();
+		}
+
+		for (final int threads : THREADS) {
+			final JarClassLoader loader = new JarClassLoader(getClass().getClassLoader());
+			loader.load(null, oneJar.getAbsolutePath());
+
+			// every thread loads all classes, starting at a different class
+			final CountDownLatch start = new CountDownLatch(1);
+			final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+			List<Thread> workers = new ArrayList<Thread>();
+			for (int t = 0; t < threads; t++) {
+				final int offset = t * names.size() / threads;
+				Thread worker = new Thread("loader-" + t) {
+					@Override
+					public void run() {
+						try {
+							start.await();
+							for (int i = 0; i < names.size(); i++) {
+								String name = names.get((offset + i) % names.size());
+								Class<?> cls = Class.forName(name, false, loader);
+								if (cls.getClassLoader() != loader) {
+									throw new AssertionError(name + " was loaded by " + cls.getClassLoader());
+								}
+							}
+						} catch (Throwable t) {
+							failure.compareAndSet(null, t);
+						}
+					}
+				};
+				worker.start();
+				workers.add(worker);
+			}
+			long begin = System.nanoTime();
+			start.countDown();
+			for (Thread worker : workers) {
+				worker.join();
+			}
+			long elapsed = (System.nanoTime() - begin) / 1000000L;
+			if (failure.get() != null) {
+				throw new AssertionError(failure.get());
+			}
+			System.out.println(threads + " threads loaded " + names.size() + " classes in " + elapsed + " ms");
+		}
+		FileUtils.delete(folder);
+	}
+}
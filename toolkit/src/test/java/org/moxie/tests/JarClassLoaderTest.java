@@ -0,0 +1,78 @@
+/*
+ * Copyright 2013 James Moger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.moxie.tests;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.moxie.onejar.JarClassLoader;
+
+public class JarClassLoaderTest extends Assert {
+
+	@Test
+	public void testResourceLookup() throws Exception {
+		Manifest manifest = new Manifest();
+		manifest.getMainAttributes().putValue("Manifest-Version", "1.0");
+		File oneJar = File.createTempFile("moxie-", ".jar");
+		try {
+			JarOutputStream os = new JarOutputStream(new FileOutputStream(oneJar), manifest);
+			try {
+				ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+				JarOutputStream lib = new JarOutputStream(bytes, manifest);
+				lib.putNextEntry(new JarEntry("moxie/test/present.txt"));
+				lib.write("present".getBytes("UTF-8"));
+				lib.closeEntry();
+				lib.close();
+				os.putNextEntry(new JarEntry(JarClassLoader.LIB_PREFIX + "lib.jar"));
+				os.write(bytes.toByteArray());
+				os.closeEntry();
+			} finally {
+				os.close();
+			}
+
+			JarClassLoader loader = new JarClassLoader(getClass().getClassLoader());
+			loader.load(null, oneJar.getAbsolutePath());
+
+			InputStream is = loader.getByteStream("moxie/test/present.txt");
+			assertNotNull(is);
+			try {
+				ByteArrayOutputStream content = new ByteArrayOutputStream();
+				byte [] b = new byte[64];
+				int len;
+				while ((len = is.read(b)) != -1) {
+					content.write(b, 0, len);
+				}
+				assertEquals("present", content.toString("UTF-8"));
+			} finally {
+				is.close();
+			}
+
+			// missing resources must not be looked up with a null key
+			assertNull(loader.getByteStream("moxie/test/missing.txt"));
+			assertNull(loader.getResourceAsStream("moxie/test/missing.txt"));
+			assertNull(loader.getResource("moxie/test/missing.txt"));
+		} finally {
+			oneJar.delete();
+		}
+	}
+}
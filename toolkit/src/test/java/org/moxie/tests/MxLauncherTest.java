@@ -0,0 +1,110 @@
+/*
+ * Copyright 2013 James Moger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.moxie.tests;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.moxie.MxLauncher;
+import org.moxie.utils.FileUtils;
+
+public class MxLauncherTest extends Assert {
+
+	@Test(timeout = 60000)
+	public void testLaunchWithLibrary() throws Exception {
+		File folder = File.createTempFile("moxie-", ".launcher");
+		folder.delete();
+		try {
+			File src = new File(folder, "src/moxie/test");
+			File classes = new File(folder, "classes");
+			src.mkdirs();
+			classes.mkdirs();
+			FileUtils.writeContent(new File(src, "Dep.java"),
+					"package moxie.test;\npublic class Dep {\n public static String hello() { return \"hello from lib\"; }\n}\n");
+			FileUtils.writeContent(new File(src, "App.java"),
+					"package moxie.test;\npublic class App {\n public static void main(String [] args) { System.out.println(Dep.hello() + \" \" + args[0]); }\n}\n");
+			JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+			assertNotNull("a JDK is required", javac);
+			assertEquals(0, javac.run(null, null, null, "-d", classes.getPath(),
+					new File(src, "Dep.java").getPath(), new File(src, "App.java").getPath()));
+
+			// the library is in lib, the app class is in the launcher jar
+			File lib = new File(folder, "lib");
+			lib.mkdirs();
+			JarOutputStream os = new JarOutputStream(new FileOutputStream(new File(lib, "dep.jar")), new Manifest());
+			add(os, "moxie/test/Dep.class", new FileInputStream(new File(classes, "moxie/test/Dep.class")));
+			os.close();
+
+			Manifest manifest = new Manifest();
+			manifest.getMainAttributes().putValue("Manifest-Version", "1.0");
+			manifest.getMainAttributes().putValue("Main-Class", MxLauncher.class.getName());
+			manifest.getMainAttributes().putValue("mxMain-Class", "moxie.test.App");
+			manifest.getMainAttributes().putValue("mxMain-Paths", "lib");
+			File launcher = new File(folder, "app.jar");
+			os = new JarOutputStream(new FileOutputStream(launcher), manifest);
+			add(os, "org/moxie/MxLauncher.class", MxLauncher.class.getResourceAsStream("MxLauncher.class"));
+			add(os, "org/moxie/MxLauncher$1.class", MxLauncher.class.getResourceAsStream("MxLauncher$1.class"));
+			add(os, "moxie/test/App.class", new FileInputStream(new File(classes, "moxie/test/App.class")));
+			os.close();
+
+			String java = new File(System.getProperty("java.home"), "bin/java").getPath();
+			ProcessBuilder pb = new ProcessBuilder(java, "-jar", launcher.getName(), "world");
+			pb.directory(folder);
+			pb.redirectErrorStream(true);
+			Process process = pb.start();
+			String output = read(process.getInputStream());
+			assertEquals(output, 0, process.waitFor());
+			assertEquals("hello from lib world", output.trim());
+		} finally {
+			FileUtils.delete(folder);
+		}
+	}
+
+	private void add(JarOutputStream os, String name, InputStream is) throws Exception {
+		try {
+			os.putNextEntry(new JarEntry(name));
+			byte [] b = new byte[4096];
+			int len;
+			while ((len = is.read(b)) != -1) {
+				os.write(b, 0, len);
+			}
+			os.closeEntry();
+		} finally {
+			is.close();
+		}
+	}
+
+	private String read(InputStream is) throws Exception {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		byte [] b = new byte[4096];
+		int len;
+		while ((len = is.read(b)) != -1) {
+			os.write(b, 0, len);
+		}
+		return os.toString();
+	}
+}
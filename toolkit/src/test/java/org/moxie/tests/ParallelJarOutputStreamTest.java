@@ -0,0 +1,139 @@
+/*
+ * Copyright 2013 James Moger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.moxie.tests;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.moxie.ant.ParallelJarOutputStream;
+
+public class ParallelJarOutputStreamTest extends Assert {
+
+	@Test
+	public void testStoredAndDeflated() throws IOException {
+		File file = File.createTempFile("moxie-", ".jar");
+		try {
+			byte [] data = content();
+			ParallelJarOutputStream os = new ParallelJarOutputStream(new FileOutputStream(file), -1, 2);
+			try {
+				os.setComment("round trip");
+
+				// stored by the entry method
+				ZipEntry stored = new ZipEntry("stored.txt");
+				stored.setMethod(ZipEntry.STORED);
+				os.putNextEntry(stored);
+				os.write(data);
+				os.closeEntry();
+
+				// deflated by default
+				os.putNextEntry(new ZipEntry("deflated.txt"));
+				os.write(data);
+				os.closeEntry();
+
+				// stored by the archive method with a declared size and crc
+				os.setMethod(ZipEntry.STORED);
+				CRC32 crc = new CRC32();
+				crc.update(data);
+				ZipEntry declared = new ZipEntry("declared.txt");
+				declared.setSize(data.length);
+				declared.setCrc(crc.getValue());
+				os.putNextEntry(declared);
+				os.write(data);
+				os.closeEntry();
+
+				// level 0 still deflates
+				os.setMethod(ZipEntry.DEFLATED);
+				os.setLevel(0);
+				os.putNextEntry(new ZipEntry("level0.txt"));
+				os.write(data);
+				os.closeEntry();
+			} finally {
+				os.close();
+			}
+
+			ZipFile zip = new ZipFile(file);
+			try {
+				assertEquals("round trip", zip.getComment());
+				assertEquals(4, zip.size());
+				assertEntry(zip, "stored.txt", ZipEntry.STORED, data);
+				assertEntry(zip, "deflated.txt", ZipEntry.DEFLATED, data);
+				assertEntry(zip, "declared.txt", ZipEntry.STORED, data);
+				assertEntry(zip, "level0.txt", ZipEntry.DEFLATED, data);
+				assertTrue(zip.getEntry("deflated.txt").getCompressedSize() < data.length);
+				assertTrue(zip.getEntry("level0.txt").getCompressedSize() > zip.getEntry("deflated.txt").getCompressedSize());
+			} finally {
+				zip.close();
+			}
+		} finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testInvalidStoredEntry() throws IOException {
+		File file = File.createTempFile("moxie-", ".jar");
+		ParallelJarOutputStream os = new ParallelJarOutputStream(new FileOutputStream(file), -1, 1);
+		try {
+			ZipEntry stored = new ZipEntry("stored.txt");
+			stored.setMethod(ZipEntry.STORED);
+			stored.setSize(1);
+			os.putNextEntry(stored);
+			os.write(content());
+			os.closeEntry();
+			fail("invalid stored entry was accepted");
+		} catch (ZipException e) {
+		} finally {
+			os.close();
+			file.delete();
+		}
+	}
+
+	private void assertEntry(ZipFile zip, String name, int method, byte [] data) throws IOException {
+		ZipEntry entry = zip.getEntry(name);
+		assertNotNull(name, entry);
+		assertEquals(name, method, entry.getMethod());
+		assertEquals(name, data.length, entry.getSize());
+		InputStream is = zip.getInputStream(entry);
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte [] b = new byte[4096];
+			int len;
+			while ((len = is.read(b)) != -1) {
+				out.write(b, 0, len);
+			}
+			assertArrayEquals(name, data, out.toByteArray());
+		} finally {
+			is.close();
+		}
+	}
+
+	private byte [] content() {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 1000; i++) {
+			sb.append("line ").append(i).append('\n');
+		}
+		return sb.toString().getBytes();
+	}
+}
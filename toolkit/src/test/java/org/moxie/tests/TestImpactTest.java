@@ -0,0 +1,161 @@
+/*
+ * Copyright 2013 James Moger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.moxie.tests;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.moxie.console.Console;
+import org.moxie.mxtest.TestImpact;
+import org.moxie.utils.FileUtils;
+
+/**
+ * Compiles a small project with tests and checks which test classes are
+ * selected after changes to the project classes.
+ */
+public class TestImpactTest extends Assert {
+
+	private static final String [] TESTS = { "app/ATest.class", "app/DTest.class", "app/RTest.class" };
+
+	private File folder;
+
+	private File src;
+
+	private File classes;
+
+	private File testClasses;
+
+	private File state;
+
+	private Console console;
+
+	@Before
+	public void setUp() throws Exception {
+		folder = File.createTempFile("moxie-", ".testimpact");
+		folder.delete();
+		src = new File(folder, "src");
+		classes = new File(folder, "classes");
+		testClasses = new File(folder, "test-classes");
+		state = new File(folder, "impact.txt");
+		classes.mkdirs();
+		testClasses.mkdirs();
+		console = new Console();
+
+		write("A", "public class A {\n public static int value() { return 1; }\n}\n");
+		write("B", "public class B {\n public int b() { return A.value(); }\n}\n");
+		write("D", "public class D {\n}\n");
+		compile(classes, "A", "B", "D");
+		write("ATest", "public class ATest {\n public void test() { new B().b(); }\n}\n");
+		write("DTest", "public class DTest {\n D d;\n}\n");
+		write("RTest", "public class RTest {\n}\n");
+		compile(testClasses, "ATest", "DTest", "RTest");
+
+		// the first run runs all tests
+		assertNull(select("fingerprint"));
+	}
+
+	@After
+	public void tearDown() {
+		FileUtils.delete(folder);
+	}
+
+	@Test
+	public void testUnchanged() throws Exception {
+		assertEquals(list(), select("fingerprint"));
+	}
+
+	@Test
+	public void testTransitiveDependency() throws Exception {
+		// ATest depends on A through B
+		write("A", "public class A {\n public static int value() { return 2; }\n}\n");
+		compile(classes, "A");
+		assertEquals(list("app/ATest.class"), select("fingerprint"));
+		assertEquals(list(), select("fingerprint"));
+	}
+
+	@Test
+	public void testChangedTest() throws Exception {
+		write("RTest", "public class RTest {\n public void test() { }\n}\n");
+		compile(testClasses, "RTest");
+		assertEquals(list("app/RTest.class"), select("fingerprint"));
+	}
+
+	@Test
+	public void testDeletedClass() throws Exception {
+		new File(classes, "app/D.class").delete();
+		assertEquals(list("app/DTest.class"), select("fingerprint"));
+	}
+
+	@Test
+	public void testNewTest() throws Exception {
+		write("ETest", "public class ETest {\n}\n");
+		compile(testClasses, "ETest");
+		TestImpact impact = new TestImpact(state, classes, testClasses);
+		assertTrue(impact.read());
+		assertEquals(list("app/ETest.class"), impact.select(new String [] { "app/ATest.class", "app/ETest.class" }, "fingerprint", console));
+	}
+
+	@Test
+	public void testChangedResource() throws Exception {
+		FileUtils.writeContent(new File(classes, "app/app.properties"), "a=b");
+		assertNull(select("fingerprint"));
+		assertEquals(list(), select("fingerprint"));
+	}
+
+	@Test
+	public void testFingerprint() throws Exception {
+		assertNull(select("other"));
+		assertEquals(list(), select("other"));
+	}
+
+	/**
+	 * Selects the affected tests and records a successful test run.
+	 */
+	private List<String> select(String fingerprint) {
+		TestImpact impact = new TestImpact(state, classes, testClasses);
+		impact.read();
+		List<String> selected = impact.select(TESTS, fingerprint, console);
+		impact.write();
+		return selected;
+	}
+
+	private List<String> list(String... names) {
+		return Arrays.asList(names);
+	}
+
+	private void write(String name, String content) {
+		FileUtils.writeContent(new File(src, "app/" + name + ".java"), "package app;\n" + content);
+	}
+
+	private void compile(File destdir, String... names) {
+		JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+		assertNotNull("a JDK is required", javac);
+		List<String> args = new ArrayList<String>(Arrays.asList("-d", destdir.getPath(), "-cp", classes.getPath()));
+		for (String name : names) {
+			args.add(new File(src, "app/" + name + ".java").getPath());
+		}
+		assertEquals(0, javac.run(null, null, null, args.toArray(new String[args.size()])));
+	}
+}